@@ -4,6 +4,7 @@ package de.fraunhofer.aisec.analysis;
 import de.fraunhofer.aisec.analysis.server.AnalysisServer;
 import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
 import de.fraunhofer.aisec.analysis.structures.Finding;
+import de.fraunhofer.aisec.analysis.structures.InstancePairing;
 import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
 import de.fraunhofer.aisec.analysis.structures.TypestateMode;
 import org.json.JSONObject;
@@ -18,10 +19,14 @@ import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /** Start point of the standalone analysis server. */
 @SuppressWarnings("java:S106")
@@ -75,6 +80,18 @@ public class Main implements Callable<Integer> {
 						.launchLsp(executionMode.lsp)
 						.launchConsole(executionMode.tui)
 						.typestateAnalysis(analysisMode.tsMode)
+						.ruleEvaluationThreads(analysisMode.ruleThreads)
+						.contextEvaluationThreads(analysisMode.contextThreads)
+						.maxContextsPerRule(analysisMode.maxContexts)
+						.ruleTimeoutSeconds(analysisMode.ruleTimeout)
+						.maxOrderStepsPerRule(analysisMode.maxOrderSteps)
+						.instancePairing(analysisMode.pairing)
+						.instancePairingPerRule(analysisMode.rulePairing)
+						.wpdsThreads(analysisMode.wpdsThreads)
+						.disableWpdsSlicing(analysisMode.disableWpdsSlicing)
+						.combineOrderRules(analysisMode.combineOrderRules)
+						.orderEvaluationThreads(analysisMode.orderThreads)
+						.disableAliasAnalysis(analysisMode.disableAliasAnalysis)
 						.disableGoodFindings(disableGoodFindings)
 						.analyzeIncludes(translationSettings.analyzeIncludes)
 						.includePath(translationSettings.includesPath)
@@ -87,8 +104,17 @@ public class Main implements Callable<Integer> {
 
 		if (!executionMode.lsp && analysisInput != null) {
 			log.info("Analyzing {}", analysisInput);
-			AnalysisContext ctx = server.analyze(analysisInput.getAbsolutePath())
-					.get(timeout, TimeUnit.MINUTES);
+			CompletableFuture<AnalysisContext> analysis = server.analyze(analysisInput.getAbsolutePath());
+			AnalysisContext ctx;
+			try {
+				ctx = analysis.get(timeout, TimeUnit.MINUTES);
+			}
+			catch (TimeoutException e) {
+				// stops the running analysis and frees the database
+				analysis.cancel(true);
+				log.error("Analysis interrupted after timeout of {} minutes.", timeout);
+				throw e;
+			}
 
 			var findings = ctx.getFindings();
 
@@ -153,9 +179,45 @@ class ExecutionMode {
 
 class AnalysisMode {
 
-	@Option(names = "--typestate", paramLabel = "<NFA|WPDS>", defaultValue = "NFA", type = TypestateMode.class, description = "Typestate analysis mode\nNFA:  Non-deterministic finite automaton (faster, intraprocedural)\nWPDS: Weighted pushdown system (slower, interprocedural)")
+	@Option(names = "--typestate", paramLabel = "<NFA|FIXPOINT|SUMMARY|WPDS|HYBRID>", defaultValue = "NFA", type = TypestateMode.class, description = "Typestate analysis mode\nNFA:      Non-deterministic finite automaton (faster, intraprocedural)\nFIXPOINT: Automaton states merged at EOG joins (faster on many branches, intraprocedural)\nSUMMARY:  Automaton states with function summaries at call sites (interprocedural)\nWPDS:     Weighted pushdown system (slower, interprocedural)\nHYBRID:   NFA, WPDS only where the NFA is inconclusive")
 	//@CommandLine.ArgGroup(exclusive = true, multiplicity = "1", heading = "Typestate Analysis\n")
 	protected TypestateMode tsMode = TypestateMode.NFA;
+
+	@Option(names = "--rule-threads", paramLabel = "<n>", defaultValue = "1", description = "Number of threads used to evaluate MARK rules in parallel", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+	protected int ruleThreads = 1;
+
+	@Option(names = "--context-threads", paramLabel = "<n>", defaultValue = "1", description = "Number of threads used to evaluate the instance combinations of a single MARK rule in parallel", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+	protected int contextThreads = 1;
+
+	@Option(names = "--max-contexts", paramLabel = "<n>", defaultValue = "0", description = "Maximal number of instance combinations evaluated for a single MARK rule before it is reported as inconclusive (0: unlimited)", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+	protected long maxContexts = 0;
+
+	@Option(names = "--rule-timeout", paramLabel = "<seconds>", defaultValue = "0", description = "Maximal time spent on a single MARK rule before it is reported as inconclusive (0: unlimited)", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+	protected long ruleTimeout = 0;
+
+	@Option(names = "--max-order-steps", paramLabel = "<n>", defaultValue = "0", description = "Maximal number of EOG steps in the order evaluation of a single MARK rule before it is reported as inconclusive (0: unlimited)", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+	protected long maxOrderSteps = 0;
+
+	@Option(names = "--pairing", paramLabel = "<ALL|DATAFLOW|FUNCTION|FILE>", defaultValue = "ALL", type = InstancePairing.class, description = "Which instances of MARK entities are combined\nALL:      All instances (cartesian product)\nDATAFLOW: Instances connected by data flow\nFUNCTION: Instances in the same function\nFILE:     Instances in the same file", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+	protected InstancePairing pairing = InstancePairing.ALL;
+
+	@Option(names = "--rule-pairing", paramLabel = "<rule>=<pairing>", description = "Pairing of instances for a single MARK rule, overrides --pairing")
+	protected Map<String, InstancePairing> rulePairing = new HashMap<>();
+
+	@Option(names = "--wpds-threads", paramLabel = "<n>", defaultValue = "1", description = "Number of threads used to create the WPDS rules of all functions", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+	protected int wpdsThreads = 1;
+
+	@Option(names = "--no-wpds-slicing", description = "Create WPDS rules for all functions, not only for those which may touch the tracked object")
+	protected boolean disableWpdsSlicing;
+
+	@Option(names = "--combine-order-rules", description = "Evaluate all order rules of a function in a single pass over its EOG (FIXPOINT only)")
+	protected boolean combineOrderRules;
+
+	@Option(names = "--order-threads", paramLabel = "<n>", defaultValue = "1", description = "Number of threads used to evaluate order expressions, one function per task (NFA and FIXPOINT only)", showDefaultValue = CommandLine.Help.Visibility.ALWAYS)
+	protected int orderThreads = 1;
+
+	@Option(names = "--no-alias-analysis", description = "Use every variable an object is assigned to as a separate instance, instead of one instance per alias class")
+	protected boolean disableAliasAnalysis;
 }
 
 class TranslationSettings {
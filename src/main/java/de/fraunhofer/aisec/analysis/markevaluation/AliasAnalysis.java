@@ -0,0 +1,150 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.structures.AliasClasses;
+import de.fraunhofer.aisec.analysis.utils.Utils;
+import de.fraunhofer.aisec.cpg.graph.declarations.VariableDeclaration;
+import de.fraunhofer.aisec.cpg.graph.statements.expressions.BinaryOperator;
+import de.fraunhofer.aisec.cpg.graph.statements.expressions.CastExpression;
+import de.fraunhofer.aisec.cpg.graph.statements.expressions.DeclaredReferenceExpression;
+import de.fraunhofer.aisec.crymlin.CrymlinQueryWrapper;
+import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.DFG;
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.REFERS_TO;
+
+/**
+ * Cheap flow-insensitive alias analysis for the instances of an entity.
+ * <p>
+ * Two instances are aliases if the object of one is copied to the other, e.g. by {@code Cipher d = c;} or {@code d = (Cipher) c;}. Starting from each
+ * instance, data flow is followed through references, declarations, casts and assignments only, as any other expression (e.g., a call) may yield a
+ * different object. Only instances within the same function are merged, the order of statements is ignored.
+ */
+class AliasAnalysis {
+
+	/** Maximal number of vertices visited when searching for copies of an instance. */
+	private static final int MAX_DFG_STEPS = 1_000;
+
+	@NonNull
+	private final CrymlinTraversalSource crymlinTraversal;
+
+	@NonNull
+	private final AliasClasses aliasClasses;
+
+	AliasAnalysis(@NonNull CrymlinTraversalSource crymlinTraversal, @NonNull AliasClasses aliasClasses) {
+		this.crymlinTraversal = crymlinTraversal;
+		this.aliasClasses = aliasClasses;
+	}
+
+	/**
+	 * Merges aliased instances into alias classes and returns the representatives of the classes.
+	 *
+	 * @param instances the instance vertices of an entity
+	 * @return one instance vertex per alias class
+	 */
+	@NonNull
+	Set<Vertex> getRepresentatives(@NonNull Collection<Vertex> instances) {
+		// instance id -> id of its containing function
+		Map<Object, Object> functions = new HashMap<>();
+		Map<Object, Vertex> byId = new LinkedHashMap<>();
+		for (Vertex v : sorted(instances)) {
+			byId.put(v.id(), v);
+			CrymlinQueryWrapper.getContainingFunction(v, crymlinTraversal).ifPresent(f -> functions.put(v.id(), f.id()));
+		}
+
+		for (Vertex start : instances) {
+			Object function = functions.get(start.id());
+			if (function == null) {
+				// e.g. fields, which may be assigned anywhere
+				continue;
+			}
+			for (Vertex copy : findCopies(start)) {
+				if (!copy.equals(start) && function.equals(functions.get(copy.id()))) {
+					aliasClasses.union(start.id(), copy.id());
+				}
+			}
+		}
+
+		// the root of a class may be an instance of another entity, so the representative is chosen among the given instances: the root, if it is one of
+		// them, otherwise the first of them
+		Map<Object, Vertex> representatives = new HashMap<>();
+		for (Vertex v : byId.values()) {
+			Object root = aliasClasses.getRepresentative(v.id());
+			Vertex representative = byId.get(root);
+			representatives.putIfAbsent(root, representative != null ? representative : v);
+		}
+		return new HashSet<>(representatives.values());
+	}
+
+	/**
+	 * Returns the instances ordered by id, so the choice of representatives does not depend on the iteration order of the given collection.
+	 */
+	private static List<Vertex> sorted(Collection<Vertex> instances) {
+		List<Vertex> result = new ArrayList<>(instances);
+		result.sort(Comparator.comparing(v -> (Long) v.id()));
+		return result;
+	}
+
+	/**
+	 * Returns the declarations the object of {@code start} is copied to.
+	 */
+	private Set<Vertex> findCopies(Vertex start) {
+		Set<Vertex> copies = new HashSet<>();
+		Set<Vertex> seen = new HashSet<>();
+		Deque<Vertex> worklist = new ArrayDeque<>();
+		worklist.add(start);
+		while (!worklist.isEmpty() && seen.size() < MAX_DFG_STEPS) {
+			Vertex v = worklist.poll();
+			if (!seen.add(v)) {
+				continue;
+			}
+			if (Utils.hasLabel(v, VariableDeclaration.class)) {
+				copies.add(v);
+			}
+			Optional<Vertex> declaration = refersTo(v);
+			declaration.ifPresent(copies::add);
+
+			v.vertices(Direction.OUT, DFG).forEachRemaining(next -> {
+				if (isCopy(next)) {
+					worklist.add(next);
+				}
+			});
+		}
+		return copies;
+	}
+
+	private static Optional<Vertex> refersTo(Vertex v) {
+		if (!Utils.hasLabel(v, DeclaredReferenceExpression.class)) {
+			return Optional.empty();
+		}
+		Iterator<Vertex> it = v.vertices(Direction.OUT, REFERS_TO);
+		return it.hasNext() ? Optional.of(it.next()) : Optional.empty();
+	}
+
+	/**
+	 * Returns true if the value of {@code v} is the object flowing into it, i.e., data flow through {@code v} does not create a different object.
+	 */
+	private static boolean isCopy(Vertex v) {
+		if (Utils.hasLabel(v, DeclaredReferenceExpression.class) || Utils.hasLabel(v, VariableDeclaration.class) || Utils.hasLabel(v, CastExpression.class)) {
+			return true;
+		}
+		return Utils.hasLabel(v, BinaryOperator.class) && v.property("operatorCode").isPresent() && "=".equals(v.value("operatorCode"));
+	}
+}
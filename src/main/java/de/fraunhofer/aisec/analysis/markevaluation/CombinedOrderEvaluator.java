@@ -0,0 +1,167 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.markevaluation.FunctionOrderResults.Violation;
+import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
+import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
+import de.fraunhofer.aisec.analysis.structures.Pair;
+import de.fraunhofer.aisec.analysis.structures.RuleBudgetExceededException;
+import de.fraunhofer.aisec.markmodel.MOp;
+import de.fraunhofer.aisec.markmodel.MRule;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates the order expressions of all rules in a single pass over the EOG of a function.
+ * <p>
+ * The first context of any order rule in a function runs the fixpoint analysis of {@link OrderFixpointEvaluator} on the product of the automata of all order
+ * expressions: each call is dispatched to every automaton having an op for it, and states are tracked per (automaton, base). The violations are stored per
+ * function in the {@link AnalysisContext}, and each context of a rule reports those of its order expression on the bases referring to its instances.
+ * <p>
+ * The pass is not charged to the budget of the rule which happens to trigger it, but to the analysis-wide {@link AnalysisContext#getCombinedOrderBudget()}.
+ * If that is exceeded for a function, each rule evaluates the function on its own within its own budget.
+ */
+public class CombinedOrderEvaluator extends OrderFixpointEvaluator {
+
+	private static final Logger log = LoggerFactory.getLogger(CombinedOrderEvaluator.class);
+
+	@NonNull
+	private final List<MRule> allRules;
+
+	public CombinedOrderEvaluator(@NonNull List<MRule> allRules, MRule rule, MarkContextHolder markContextHolder) {
+		super(rule, markContextHolder);
+		this.allRules = allRules;
+	}
+
+	@Override
+	protected boolean evaluateFunction(Vertex functionDeclaration, Map<Vertex, MOp> verticesToOp, Set<Object> referencedVertices, OrderAutomaton automaton,
+			AnalysisContext ctx) {
+		FunctionOrderResults results = ctx.getFunctionOrderResults().computeIfAbsent(functionDeclaration.id(), x -> new FunctionOrderResults());
+		// the lock is only taken until the pass is done, afterwards the results are read concurrently
+		if (!results.isEvaluated() && !results.isFailed()) {
+			synchronized (results) {
+				if (!results.isEvaluated() && !results.isFailed()) {
+					try {
+						evaluateAllRules(functionDeclaration, results, ctx);
+					}
+					catch (RuleBudgetExceededException e) {
+						log.warn("{}, evaluating order rules of function {} separately", e.getMessage(), functionDeclaration.value("name"));
+						results.setFailed();
+					}
+				}
+			}
+		}
+		if (!results.contains(automaton)) {
+			// the rule was not known to the combined pass, or the pass exceeded its budget. The evaluation is charged to the budget of the rule
+			return super.evaluateFunction(functionDeclaration, verticesToOp, referencedVertices, automaton, ctx);
+		}
+
+		boolean isOrderValid = true;
+		for (Violation violation : results.getViolations(automaton)) {
+			if (violation.referencedVertex != null && !referencedVertices.contains(violation.referencedVertex)) {
+				// this base does not reference the instance we are looking at
+				continue;
+			}
+			isOrderValid = false;
+			if (violation.isUnterminated()) {
+				reportUnterminated(ctx, violation.base, violation.vertex, violation.expected);
+			} else {
+				reportViolation(ctx, violation.vertex, violation.op, new ArrayList<>(violation.expected));
+			}
+		}
+		return isOrderValid;
+	}
+
+	/**
+	 * Runs the combined pass over the EOG of a function and stores the violations of all order expressions in {@code results}.
+	 *
+	 * @throws java.util.concurrent.CancellationException if the analysis is cancelled, {@code results} are not marked as evaluated then
+	 * @throws RuleBudgetExceededException                if the analysis-wide budget of the combined pass is exceeded
+	 */
+	private void evaluateAllRules(Vertex functionDeclaration, FunctionOrderResults results, AnalysisContext ctx) {
+		// the order expressions of all rules, each with the ops of its rule
+		List<OrderAutomaton> automata = new ArrayList<>();
+		List<Map<Vertex, MOp>> ops = new ArrayList<>();
+		for (MRule r : allRules) {
+			if (r.getOrderAutomata().isEmpty()) {
+				continue;
+			}
+			Map<Vertex, MOp> vertexToOp = getVerticesToOp(r);
+			for (OrderAutomaton a : r.getOrderAutomata().values()) {
+				automata.add(a);
+				ops.add(vertexToOp);
+			}
+		}
+
+		// states are tracked per "index of automaton:base"
+		Run run = new Run(Map.of(), Set.of(), null, ctx);
+		// referenced declaration of each base
+		Map<String, Pair<String, Vertex>> bases = new HashMap<>();
+		// violations which have already been reported, as automaton, vertex id and state
+		Set<String> reported = new HashSet<>();
+
+		long visitedNodes = fixpoint(functionDeclaration, new HashMap<>(), run, ctx.getCombinedOrderBudget(), (vertex, states) -> {
+			if (!isCall(vertex)) {
+				return;
+			}
+			Pair<String, Vertex> base = null;
+			for (int i = 0; i < automata.size(); i++) {
+				MOp op = ops.get(i).get(vertex);
+				if (op == null) {
+					continue;
+				}
+				if (base == null) {
+					base = resolveBase(vertex, ctx.getAliasClasses());
+					if (base == null) {
+						break;
+					}
+				}
+				OrderAutomaton automaton = automata.get(i);
+				String key = i + ":" + base.getValue0();
+				bases.putIfAbsent(key, base);
+
+				int index = i;
+				Pair<String, Vertex> resolved = base;
+				states.put(key, applyOp(states.getOrDefault(key, Set.of(UNSEEN)), automaton, op, vertex,
+					run.lastBaseUsage.computeIfAbsent(key, x -> new HashMap<>()),
+					current -> {
+						if (reported.add(index + "/" + vertex.id() + "/" + current)) {
+							results.addViolation(automaton,
+								new Violation(resolved.getValue0(), referencedVertex(resolved), vertex, op, automaton.getExpected(current)));
+						}
+					}));
+			}
+		});
+
+		log.debug("Done evaluating function {} for {} order expressions. Visited Nodes: {}", functionDeclaration.value("name"), automata.size(), visitedNodes);
+
+		// check that the automata are in an end state for all bases
+		for (Map.Entry<String, Set<Integer>> entry : run.exitStates.entrySet()) {
+			OrderAutomaton automaton = automata.get(Integer.parseInt(entry.getKey().substring(0, entry.getKey().indexOf(':'))));
+			Pair<String, Vertex> base = bases.get(entry.getKey());
+			Violation unterminated = getUnterminated(base.getValue0(), referencedVertex(base), entry.getValue(),
+				run.lastBaseUsage.getOrDefault(entry.getKey(), Map.of()), automaton);
+			if (unterminated != null) {
+				results.addViolation(automaton, unterminated);
+			}
+		}
+		results.setEvaluated(automata);
+	}
+
+	@Nullable
+	private static Object referencedVertex(Pair<String, Vertex> base) {
+		Vertex refNode = base.getValue1();
+		return refNode == null ? null : refNode.id();
+	}
+}
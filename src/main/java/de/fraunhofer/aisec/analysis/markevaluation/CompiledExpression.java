@@ -0,0 +1,402 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.structures.ConstantValue;
+import de.fraunhofer.aisec.analysis.structures.ContextResults;
+import de.fraunhofer.aisec.analysis.structures.ErrorValue;
+import de.fraunhofer.aisec.analysis.structures.ListValue;
+import de.fraunhofer.aisec.analysis.structures.MarkIntermediateResult;
+import de.fraunhofer.aisec.analysis.utils.Utils;
+import de.fraunhofer.aisec.crymlin.builtin.Builtin;
+import de.fraunhofer.aisec.crymlin.builtin.BuiltinRegistry;
+import de.fraunhofer.aisec.mark.markDsl.Argument;
+import de.fraunhofer.aisec.mark.markDsl.BooleanLiteral;
+import de.fraunhofer.aisec.mark.markDsl.ComparisonExpression;
+import de.fraunhofer.aisec.mark.markDsl.Expression;
+import de.fraunhofer.aisec.mark.markDsl.FunctionCallExpression;
+import de.fraunhofer.aisec.mark.markDsl.IntegerLiteral;
+import de.fraunhofer.aisec.mark.markDsl.Literal;
+import de.fraunhofer.aisec.mark.markDsl.LiteralListExpression;
+import de.fraunhofer.aisec.mark.markDsl.LogicalAndExpression;
+import de.fraunhofer.aisec.mark.markDsl.LogicalOrExpression;
+import de.fraunhofer.aisec.mark.markDsl.MultiplicationExpression;
+import de.fraunhofer.aisec.mark.markDsl.Operand;
+import de.fraunhofer.aisec.mark.markDsl.OrderExpression;
+import de.fraunhofer.aisec.mark.markDsl.StringLiteral;
+import de.fraunhofer.aisec.mark.markDsl.UnaryExpression;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.emf.ecore.EObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A MARK expression compiled into a tree of evaluators.
+ * <p>
+ * Compilation does everything which does not depend on the contexts an expression is evaluated for: the kind of each expression is resolved, builtins are
+ * looked up, operands are split, literals are parsed and the textual representation of each expression is created for logging. Expressions are compiled when
+ * the MARK model is loaded (see {@link de.fraunhofer.aisec.markmodel.MRule#getCompiledExpression(Expression)}) and evaluated by
+ * {@link ExpressionEvaluator#evaluate(CompiledExpression)} for each set of contexts.
+ */
+public abstract class CompiledExpression {
+
+	private static final Logger log = LoggerFactory.getLogger(CompiledExpression.class);
+
+	@NonNull
+	private final String text;
+
+	private CompiledExpression(@NonNull Expression expr) {
+		this.text = ExpressionHelper.exprToString(expr);
+	}
+
+	/**
+	 * Compiles a MARK expression.
+	 *
+	 * @throws ExpressionEvaluationException if the expression is of an unknown kind
+	 */
+	@NonNull
+	public static CompiledExpression compile(@NonNull Expression expr) {
+		// from lowest to highest operator precedence
+		if (expr instanceof OrderExpression) {
+			return new Order((OrderExpression) expr);
+		} else if (expr instanceof LogicalOrExpression) {
+			LogicalOrExpression loe = (LogicalOrExpression) expr;
+			return new Logical(expr, false, compile(loe.getLeft()), compile(loe.getRight()), containsOrder(loe.getRight()));
+		} else if (expr instanceof LogicalAndExpression) {
+			LogicalAndExpression lae = (LogicalAndExpression) expr;
+			return new Logical(expr, true, compile(lae.getLeft()), compile(lae.getRight()), containsOrder(lae.getRight()));
+		} else if (expr instanceof ComparisonExpression) {
+			return new Comparison((ComparisonExpression) expr);
+		} else if (expr instanceof MultiplicationExpression) {
+			return new Multiplication((MultiplicationExpression) expr);
+		} else if (expr instanceof UnaryExpression) {
+			return new Unary((UnaryExpression) expr);
+		} else if (expr instanceof Literal) {
+			return new Constant((Literal) expr);
+		} else if (expr instanceof Operand) {
+			return new OperandRef((Operand) expr);
+		} else if (expr instanceof FunctionCallExpression) {
+			return new BuiltinCall((FunctionCallExpression) expr);
+		} else if (expr instanceof LiteralListExpression) {
+			return new ConstantList((LiteralListExpression) expr);
+		}
+
+		throw new ExpressionEvaluationException("unknown expression: " + ExpressionHelper.exprToString(expr));
+	}
+
+	private static boolean containsOrder(@NonNull Expression expr) {
+		if (expr instanceof OrderExpression) {
+			return true;
+		}
+		for (Iterator<EObject> it = expr.eAllContents(); it.hasNext();) {
+			if (it.next() instanceof OrderExpression) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Evaluates this expression for all contexts of the evaluator.
+	 */
+	@NonNull
+	abstract Map<Integer, MarkIntermediateResult> evaluate(@NonNull ExpressionEvaluator ee);
+
+	/**
+	 * Adds the operands used in this expression and its subexpressions to {@code operands}.
+	 */
+	void collectOperands(@NonNull List<CompiledExpression> operands) {
+		// no operands
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+
+	private static class Order extends CompiledExpression {
+		private final OrderExpression orderExpression;
+		// the markvar used in the order, null if it does not use exactly one
+		@Nullable
+		private final String markVar;
+
+		Order(OrderExpression orderExpression) {
+			super(orderExpression);
+			this.orderExpression = orderExpression;
+			Set<String> markInstances = new HashSet<>();
+			ExpressionHelper.collectMarkInstances(orderExpression.getExp(), markInstances);
+			this.markVar = markInstances.size() == 1 ? markInstances.iterator().next() : null;
+		}
+
+		@Override
+		Map<Integer, MarkIntermediateResult> evaluate(ExpressionEvaluator ee) {
+			log.info("Evaluating order expression: {}", this);
+			return ee.evaluateOrderExpression(orderExpression, markVar);
+		}
+	}
+
+	private static class Logical extends CompiledExpression {
+		private final boolean isAnd;
+		private final CompiledExpression left;
+		private final CompiledExpression right;
+		private final List<CompiledExpression> rightOperands = new ArrayList<>();
+		// order expressions report findings while they are evaluated, so they are never skipped
+		private final boolean rightContainsOrder;
+
+		Logical(Expression expr, boolean isAnd, CompiledExpression left, CompiledExpression right, boolean rightContainsOrder) {
+			super(expr);
+			this.isAnd = isAnd;
+			this.left = left;
+			this.right = right;
+			this.rightContainsOrder = rightContainsOrder;
+			right.collectOperands(rightOperands);
+		}
+
+		@Override
+		Map<Integer, MarkIntermediateResult> evaluate(ExpressionEvaluator ee) {
+			if (rightContainsOrder) {
+				return ee.combineLogical(isAnd, ee.evaluate(left), ee.evaluate(right), left, right);
+			}
+			return ee.evaluateLogical(isAnd, left, right, rightOperands);
+		}
+
+		@Override
+		void collectOperands(List<CompiledExpression> operands) {
+			left.collectOperands(operands);
+			right.collectOperands(operands);
+		}
+	}
+
+	private static class Comparison extends CompiledExpression {
+		private final String op;
+		private final CompiledExpression left;
+		private final CompiledExpression right;
+
+		Comparison(ComparisonExpression expr) {
+			super(expr);
+			this.op = expr.getOp();
+			this.left = compile(expr.getLeft());
+			this.right = compile(expr.getRight());
+		}
+
+		@Override
+		Map<Integer, MarkIntermediateResult> evaluate(ExpressionEvaluator ee) {
+			log.debug("comparing expression {} with expression {}", left, right);
+			return ee.combineComparison(op, ee.evaluate(left), ee.evaluate(right));
+		}
+
+		@Override
+		void collectOperands(List<CompiledExpression> operands) {
+			left.collectOperands(operands);
+			right.collectOperands(operands);
+		}
+	}
+
+	private static class Multiplication extends CompiledExpression {
+		private final String op;
+		private final CompiledExpression left;
+		private final CompiledExpression right;
+
+		Multiplication(MultiplicationExpression expr) {
+			super(expr);
+			this.op = expr.getOp();
+			this.left = compile(expr.getLeft());
+			this.right = compile(expr.getRight());
+		}
+
+		@Override
+		Map<Integer, MarkIntermediateResult> evaluate(ExpressionEvaluator ee) {
+			return ee.combineMultiplication(op, ee.evaluate(left), ee.evaluate(right));
+		}
+
+		@Override
+		void collectOperands(List<CompiledExpression> operands) {
+			left.collectOperands(operands);
+			right.collectOperands(operands);
+		}
+	}
+
+	private static class Unary extends CompiledExpression {
+		private final String op;
+		private final CompiledExpression exp;
+
+		Unary(UnaryExpression expr) {
+			super(expr);
+			this.op = expr.getOp();
+			this.exp = compile(expr.getExp());
+		}
+
+		@Override
+		Map<Integer, MarkIntermediateResult> evaluate(ExpressionEvaluator ee) {
+			return ee.applyUnary(op, ee.evaluate(exp), this);
+		}
+
+		@Override
+		void collectOperands(List<CompiledExpression> operands) {
+			exp.collectOperands(operands);
+		}
+	}
+
+	private static class Constant extends CompiledExpression {
+		// the parsed value, null if the literal is invalid
+		@Nullable
+		private final Object value;
+		@Nullable
+		private final String error;
+
+		Constant(Literal literal) {
+			super(literal);
+			String v = literal.getValue();
+			Object parsed = null;
+			String parseError = null;
+
+			// ordering based on Mark grammar
+			if (literal instanceof IntegerLiteral) {
+				try {
+					if (v.startsWith("0x")) {
+						parsed = Integer.parseInt(v.substring(2), 16);
+					} else {
+						parsed = Long.parseLong(v);
+					}
+				}
+				catch (NumberFormatException nfe) {
+					log.warn("Unable to convert integer literal {}", v, nfe);
+					parseError = String.format("Unable to convert integer literal %s: %s", v, nfe.getMessage());
+				}
+			} else if (literal instanceof BooleanLiteral) {
+				parsed = Boolean.parseBoolean(v);
+			} else if (literal instanceof StringLiteral) {
+				parsed = Utils.stripQuotedString(v);
+			} else {
+				log.warn("Unknown literal encountered: {}", v);
+				parseError = String.format("Unknown literal encountered: %s", v);
+			}
+			this.value = parsed;
+			this.error = parseError;
+		}
+
+		/**
+		 * Returns a new value for this literal, as values are modified during evaluation.
+		 */
+		ConstantValue newValue() {
+			return value != null ? ConstantValue.of(value) : ErrorValue.newErrorValue(error);
+		}
+
+		@Override
+		Map<Integer, MarkIntermediateResult> evaluate(ExpressionEvaluator ee) {
+			return ee.evaluateConstant(newValue());
+		}
+	}
+
+	private static class ConstantList extends CompiledExpression {
+		private final List<Constant> values = new ArrayList<>();
+
+		ConstantList(LiteralListExpression expr) {
+			super(expr);
+			for (Literal l : expr.getValues()) {
+				values.add(new Constant(l));
+			}
+		}
+
+		@Override
+		Map<Integer, MarkIntermediateResult> evaluate(ExpressionEvaluator ee) {
+			ContextResults literalList = new ContextResults();
+			for (Constant c : values) {
+				ContextResults res = ContextResults.of(ee.evaluateConstant(c.newValue()));
+				for (int key = res.firstId(); key != ContextResults.NONE; key = res.nextId(key)) {
+					ListValue inner = (ListValue) literalList.get(key);
+					if (inner == null) {
+						inner = new ListValue();
+						literalList.put(key, inner);
+					}
+					inner.add(res.get(key));
+				}
+			}
+			return literalList;
+		}
+	}
+
+	private static class OperandRef extends CompiledExpression {
+		private final String operand;
+		private final List<String> prefixes = new ArrayList<>();
+
+		OperandRef(Operand operand) {
+			super(operand);
+			this.operand = operand.getOperand();
+
+			// operands are split by "."
+			String[] split = this.operand.split("\\.");
+			StringBuilder sb = new StringBuilder();
+			sb.append(split[0]); // add base
+			for (int i = 1; i < split.length; i++) {
+				sb.append(".");
+				sb.append(split[i]);
+				prefixes.add(sb.toString());
+			}
+		}
+
+		@Override
+		Map<Integer, MarkIntermediateResult> evaluate(ExpressionEvaluator ee) {
+			return ee.evaluateOperand(operand, prefixes);
+		}
+
+		@Override
+		void collectOperands(List<CompiledExpression> operands) {
+			if (!prefixes.isEmpty()) {
+				operands.add(this);
+			}
+		}
+	}
+
+	private static class BuiltinCall extends CompiledExpression {
+		private final String functionName;
+		private final List<CompiledExpression> args = new ArrayList<>();
+		// null if no builtin of this name was registered when compiling, looked up again when evaluating
+		@Nullable
+		private volatile Builtin builtin;
+
+		BuiltinCall(FunctionCallExpression expr) {
+			super(expr);
+			this.functionName = expr.getName();
+			for (Argument arg : expr.getArgs()) {
+				args.add(compile((Expression) arg));
+			}
+			this.builtin = lookup(functionName);
+		}
+
+		@Nullable
+		private static Builtin lookup(String functionName) {
+			return BuiltinRegistry.getInstance()
+					.getRegisteredBuiltins()
+					.stream()
+					.filter(b -> b.getName()
+							.equals(functionName))
+					.findFirst()
+					.orElse(null);
+		}
+
+		@Override
+		Map<Integer, MarkIntermediateResult> evaluate(ExpressionEvaluator ee) {
+			Builtin b = builtin;
+			if (b == null) {
+				b = lookup(functionName);
+				builtin = b;
+			}
+			return ee.evaluateBuiltin(b, functionName, ee.evaluateCompiledArgs(args));
+		}
+
+		@Override
+		void collectOperands(List<CompiledExpression> operands) {
+			for (CompiledExpression arg : args) {
+				arg.collectOperands(operands);
+			}
+		}
+	}
+}
@@ -0,0 +1,139 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.structures.CPGVertexWithValue;
+import de.fraunhofer.aisec.analysis.structures.ConstantValue;
+import de.fraunhofer.aisec.analysis.structures.MarkContext;
+import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
+import de.fraunhofer.aisec.mark.markDsl.Expression;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Groups the contexts of a {@link MarkContextHolder} into classes which yield the same result for an expression.
+ * <p>
+ * The result of an expression for a context only depends on the vertices of the instances referenced in the expression and on the values of the operands
+ * of these instances which have already been resolved. Contexts which agree on both only need to be evaluated once, their results and findings are fanned out
+ * to the other contexts of the class afterwards.
+ */
+class ContextClasses {
+
+	// representative context -> other contexts of its class
+	private final Map<Integer, List<Integer>> members = new HashMap<>();
+	private int numMembers = 0;
+
+	private ContextClasses() {
+	}
+
+	/**
+	 * Returns the names of the instances referenced in an expression.
+	 */
+	@NonNull
+	static Set<String> getReferencedInstances(@Nullable Expression expr) {
+		Set<String> refs = new HashSet<>();
+		ExpressionHelper.getRefsFromExp(expr, refs, new HashSet<>());
+		Set<String> instances = new HashSet<>();
+		refs.forEach(ref -> instances.add(ref.split("\\.")[0]));
+		return instances;
+	}
+
+	/**
+	 * Groups the contexts of {@code holder} by the given instances and their resolved operands.
+	 */
+	@NonNull
+	static ContextClasses of(@NonNull MarkContextHolder holder, @NonNull Set<String> instances) {
+		ContextClasses classes = new ContextClasses();
+		Map<List<Object>, Integer> representatives = new HashMap<>();
+		for (Integer id : new TreeSet<>(holder.getAllContexts().keySet())) {
+			MarkContext context = holder.getContext(id);
+			if (context == null) {
+				classes.members.put(id, new ArrayList<>());
+				continue;
+			}
+			Integer representative = representatives.putIfAbsent(getKey(context, instances), id);
+			if (representative == null) {
+				classes.members.put(id, new ArrayList<>());
+			} else {
+				classes.members.get(representative).add(id);
+				classes.numMembers++;
+			}
+		}
+		return classes;
+	}
+
+	private static List<Object> getKey(MarkContext context, Set<String> instances) {
+		List<Object> key = new ArrayList<>();
+		for (String instance : new TreeSet<>(instances)) {
+			Vertex v = context.getInstanceContext() == null ? null : context.getInstanceContext().getVertex(instance);
+			key.add(v == null ? null : v.id());
+		}
+		for (String operand : new TreeSet<>(context.getOperandNames())) {
+			if (!instances.contains(operand.split("\\.")[0])) {
+				continue;
+			}
+			CPGVertexWithValue vwv = context.getOperand(operand);
+			key.add(operand);
+			if (vwv == null) {
+				key.add(null);
+				continue;
+			}
+			key.add(vwv.getArgumentVertex() == null ? null : vwv.getArgumentVertex().id());
+			ConstantValue value = vwv.getValue();
+			key.add(value == null ? null : value.getClass());
+			key.add(value == null || value.getValue() == null ? null : value.getValue().getClass());
+			key.add(value == null ? null : Objects.toString(value.getValue()));
+			Set<Object> responsible = new HashSet<>();
+			if (value != null) {
+				value.getResponsibleVertices().forEach(r -> responsible.add(r == null ? null : r.id()));
+			}
+			key.add(responsible);
+		}
+		return key;
+	}
+
+	/**
+	 * Returns true if at least two contexts are in the same class.
+	 */
+	boolean hasDuplicates() {
+		return numMembers > 0;
+	}
+
+	/**
+	 * Returns the contexts which are not representatives of their class.
+	 */
+	@NonNull
+	Collection<Integer> getDuplicates() {
+		List<Integer> duplicates = new ArrayList<>();
+		members.values().forEach(duplicates::addAll);
+		return duplicates;
+	}
+
+	/**
+	 * Returns the other contexts in the class of an evaluated context. A copy of a context created during the evaluation belongs to the class of the context
+	 * it was copied from.
+	 */
+	@NonNull
+	List<Integer> getMembers(int context, @NonNull MarkContextHolder holder) {
+		if (members.containsKey(context)) {
+			return members.get(context);
+		}
+		List<Integer> copyStack = holder.getCopyStack(context);
+		for (int i = copyStack == null ? -1 : copyStack.size() - 1; i >= 0; i--) {
+			if (members.containsKey(copyStack.get(i))) {
+				return members.get(copyStack.get(i));
+			}
+		}
+		return List.of();
+	}
+}
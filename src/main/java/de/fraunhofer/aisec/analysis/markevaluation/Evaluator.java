@@ -1,17 +1,20 @@
 
 package de.fraunhofer.aisec.analysis.markevaluation;
 
-import com.google.common.collect.Lists;
 import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
-import de.fraunhofer.aisec.analysis.structures.CPGInstanceContext;
 import de.fraunhofer.aisec.analysis.structures.ConstantValue;
+import de.fraunhofer.aisec.analysis.structures.ContextResults;
 import de.fraunhofer.aisec.analysis.structures.ErrorValue;
 import de.fraunhofer.aisec.analysis.structures.Finding;
+import de.fraunhofer.aisec.analysis.structures.InstancePairing;
 import de.fraunhofer.aisec.analysis.structures.MarkContext;
 import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
 import de.fraunhofer.aisec.analysis.structures.MarkIntermediateResult;
 import de.fraunhofer.aisec.analysis.structures.Pair;
+import de.fraunhofer.aisec.analysis.structures.RuleBudget;
+import de.fraunhofer.aisec.analysis.structures.RuleBudgetExceededException;
 import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
+import de.fraunhofer.aisec.analysis.structures.TypestateMode;
 import de.fraunhofer.aisec.analysis.utils.Utils;
 import de.fraunhofer.aisec.cpg.TranslationResult;
 import de.fraunhofer.aisec.cpg.graph.statements.expressions.ConstructExpression;
@@ -22,6 +25,7 @@ import de.fraunhofer.aisec.crymlin.CrymlinQueryWrapper;
 import de.fraunhofer.aisec.crymlin.connectors.db.TraversalConnection;
 import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversalSource;
 import de.fraunhofer.aisec.mark.markDsl.AliasedEntityExpression;
+import de.fraunhofer.aisec.mark.markDsl.Expression;
 import de.fraunhofer.aisec.mark.markDsl.OpStatement;
 import de.fraunhofer.aisec.mark.markDsl.RuleStatement;
 import de.fraunhofer.aisec.markmodel.MEntity;
@@ -30,20 +34,32 @@ import de.fraunhofer.aisec.markmodel.MRule;
 import de.fraunhofer.aisec.markmodel.Mark;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.START_LINE;
+
 /**
  * Evaluates all loaded MARK rules against the CPG.
  * <p>
@@ -55,12 +71,28 @@ public class Evaluator {
 	@NonNull
 	private final Mark markModel;
 
+	/** Number of chunks per thread when evaluating the contexts of a rule concurrently. More chunks than threads balance uneven chunks. */
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	/** Maximal number of contexts of a rule which are held in memory and evaluated at once. */
+	private static final int CONTEXT_BATCH_SIZE = 10_000;
+
 	@NonNull
 	private final ServerConfiguration config;
 
+	/** Maximal number of contexts created for a rule, {@link ServerConfiguration#maxContextsPerRule} or unlimited. */
+	private final long maxContexts;
+
+	/** Number of contexts created for a rule, shared by all products of paired instances. */
+	private static class ContextBudget {
+		long numContexts = 0;
+		boolean truncated = false;
+	}
+
 	public Evaluator(@NonNull Mark markModel, @NonNull ServerConfiguration config) {
 		this.markModel = markModel;
 		this.config = config;
+		this.maxContexts = config.maxContextsPerRule > 0 ? config.maxContextsPerRule : Long.MAX_VALUE;
 	}
 
 	/**
@@ -80,6 +112,7 @@ public class Evaluator {
 
 			log.info("Precalculating matching nodes");
 			assignCallVerticesToOps(ctx, traversal.getCrymlinTraversal());
+			ctx.getCancellationToken().throwIfCancelled();
 
 			log.info("Evaluate forbidden calls");
 			Benchmark b = new Benchmark(this.getClass(), "Evaluate forbidden calls");
@@ -91,11 +124,37 @@ public class Evaluator {
 			b = new Benchmark(this.getClass(), "Evaluate rules");
 			evaluateRules(ctx, traversal.getCrymlinTraversal());
 			b.stop();
+			// operands are released once no remaining rule needs them, so the number of resolved operands is the number of misses
+			log.info("Operand resolution cache: {} hits, {} misses",
+				ctx.getOperandResolutionCache().getHits(),
+				ctx.getOperandResolutionCache().getMisses());
+			for (Map.Entry<String, Double> rate : ctx.getBuiltinResultCache().getHitRates().entrySet()) {
+				log.info("Builtin result cache for {}: {} hits, {} misses ({}% hit rate)", rate.getKey(),
+					ctx.getBuiltinResultCache().getHits(rate.getKey()),
+					ctx.getBuiltinResultCache().getMisses(rate.getKey()),
+					Math.round(rate.getValue() * 100));
+			}
+			if (!ctx.getRulesExceedingContextLimit().isEmpty()) {
+				log.warn("{} rules exceeded the limit of {} contexts and have been evaluated incompletely: {}", ctx.getRulesExceedingContextLimit().size(),
+					config.maxContextsPerRule, String.join(", ", ctx.getRulesExceedingContextLimit()));
+			}
+			if (!ctx.getInconclusiveRules().isEmpty()) {
+				log.warn("{} rules exceeded their budget and are inconclusive: {}", ctx.getInconclusiveRules().size(),
+					String.join(", ", ctx.getInconclusiveRules()));
+			}
+			if (ctx.getSkippedContexts() > 0) {
+				log.info("Instance pairing skipped {} contexts", ctx.getSkippedContexts());
+			}
 
 			bOuter.stop();
 
 			return result;
 		}
+		catch (CancellationException e) {
+			// the analysis has been cancelled, do not report its partial findings as result
+			log.info("Mark evaluation cancelled");
+			throw e;
+		}
 		catch (Exception e) {
 			log.debug(e.getMessage(), e);
 			return result;
@@ -103,6 +162,8 @@ public class Evaluator {
 		finally {
 			// reset everything attached to this model
 			this.markModel.reset();
+			// cached builtin results refer to this evaluation
+			ctx.getBuiltinResultCache().clear();
 		}
 	}
 
@@ -125,6 +186,7 @@ public class Evaluator {
 				log.debug("Looking for call statements for {}", op.getName());
 				int numMatches = 0;
 				for (OpStatement opStmt : op.getStatements()) {
+					ctx.getCancellationToken().throwIfCancelled();
 					Set<Vertex> temp = CrymlinQueryWrapper.getVerticesForFunctionDeclaration(ctx.getDatabase(), opStmt.getCall(), crymlinTraversal);
 					log.debug(
 						"Call {}({}) of op {} found {} times",
@@ -152,57 +214,424 @@ public class Evaluator {
 	 */
 	private void evaluateRules(AnalysisContext ctx, @NonNull CrymlinTraversalSource crymlinTraversal) {
 
-		for (MRule rule : this.markModel.getRules()) {
-			log.info("checking rule {}", rule.getName());
+		ForkJoinPool contextPool = null;
+		if (config.contextEvaluationThreads > 1) {
+			contextPool = new ForkJoinPool(config.contextEvaluationThreads);
+		}
+		// orders are evaluated per function in the intraprocedural modes only, interprocedural modes depend on callees and shared summaries
+		ForkJoinPool orderPool = null;
+		if (config.orderEvaluationThreads > 1
+				&& (config.typestateAnalysis == TypestateMode.NFA || config.typestateAnalysis == TypestateMode.FIXPOINT)) {
+			orderPool = new ForkJoinPool(config.orderEvaluationThreads);
+		}
+
+		// shares entity instances and operands between rules and releases them once no remaining rule needs them
+		RulePlanner planner = new RulePlanner(this.markModel.getRules(), ctx.getOperandResolutionCache());
+		List<MRule> rules = planner.getOrder();
 
-			/* Evaluate "using" part and collect the instances of MARK entities, as well as the potential vertex representing the base object variables. */
-			List<List<Pair<String, Vertex>>> entities = findInstancesForEntities(rule);
+		if (config.combineOrderRules) {
+			// the combined pass replaces the order evaluation of all order rules, so it gets their budgets together
+			long orderRules = rules.stream().filter(r -> !r.getOrderAutomata().isEmpty()).count();
+			ctx.setCombinedOrderBudget(new RuleBudget(AnalysisContext.COMBINED_ORDER_PASS, orderRules * TimeUnit.SECONDS.toMillis(config.ruleTimeoutSeconds),
+				orderRules * config.maxOrderStepsPerRule, ctx.getCancellationToken()));
+		}
 
-			// skip evaluation if there are no cpg-nodes which would be used in this evaluation
-			if (!entities.isEmpty()) {
-				boolean hasCPGNodes = false;
-				outer: for (Map.Entry<String, Pair<String, MEntity>> entity : rule.getEntityReferences().entrySet()) {
-					if (entity.getValue() == null || entity.getValue().getValue1() == null) {
-						log.warn("Rule {} references an unknown entity {}", rule.getName(), entity.getKey());
-						break;
+		try {
+			if (config.ruleEvaluationThreads <= 1) {
+				for (MRule rule : rules) {
+					ctx.getCancellationToken().throwIfCancelled();
+					try {
+						evaluateRule(rule, ctx, crymlinTraversal, contextPool, orderPool, planner);
+					}
+					finally {
+						planner.ruleDone(rule);
 					}
-					for (MOp op : entity.getValue().getValue1().getOps()) {
-						if (!op.getAllVertices().isEmpty()) {
-							hasCPGNodes = true;
-							break outer;
+				}
+				return;
+			}
+
+			// Rules are independent once all call statements have been assigned to their ops. Each worker uses its own traversal source.
+			log.info("Evaluating {} rules using {} threads", this.markModel.getRules().size(), config.ruleEvaluationThreads);
+			ForkJoinPool pool = new ForkJoinPool(config.ruleEvaluationThreads);
+			final ForkJoinPool finalContextPool = contextPool;
+			final ForkJoinPool finalOrderPool = orderPool;
+			try {
+				List<ForkJoinTask<?>> tasks = new ArrayList<>();
+				for (MRule rule : rules) {
+					tasks.add(pool.submit(() -> {
+						ctx.getCancellationToken().throwIfCancelled();
+						try (TraversalConnection traversal = new TraversalConnection(ctx.getDatabase())) {
+							evaluateRule(rule, ctx, traversal.getCrymlinTraversal(), finalContextPool, finalOrderPool, planner);
+						}
+						finally {
+							planner.ruleDone(rule);
 						}
+					}));
+				}
+				for (int i = 0; i < tasks.size(); i++) {
+					try {
+						tasks.get(i).join();
+					}
+					catch (CancellationException e) {
+						// the whole analysis has been cancelled, the remaining tasks stop at their next check
+						throw e;
+					}
+					catch (RuntimeException e) {
+						log.error("Evaluation of rule {} failed", rules.get(i).getName(), e);
 					}
 				}
-				if (!hasCPGNodes) {
-					log.warn("Rule {} does not have any corresponding CPG-nodes. Skipping", rule.getName());
-					continue;
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+		finally {
+			log.info("Shared entity instances: {} hits, {} misses", planner.getHits(), planner.getMisses());
+			if (contextPool != null) {
+				contextPool.shutdown();
+			}
+			if (orderPool != null) {
+				orderPool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a single rule and adds its findings to the context.
+	 *
+	 * @param rule             the rule to evaluate
+	 * @param ctx              the result/analysis context
+	 * @param crymlinTraversal connection to the db
+	 * @param contextPool      if not null, the contexts of the rule are evaluated in chunks using this pool
+	 * @param orderPool        if not null, the order expressions of the rule are evaluated per function using this pool before the "ensure" part of each
+	 *                         batch of contexts is evaluated
+	 * @param planner          provides the instances of entities shared with other rules
+	 */
+	private void evaluateRule(@NonNull MRule rule, AnalysisContext ctx, @NonNull CrymlinTraversalSource crymlinTraversal, @Nullable ForkJoinPool contextPool,
+			@Nullable ForkJoinPool orderPool, @NonNull RulePlanner planner) {
+		RuleBudget ruleBudget = new RuleBudget(rule.getName(), TimeUnit.SECONDS.toMillis(config.ruleTimeoutSeconds), config.maxOrderStepsPerRule,
+			ctx.getCancellationToken());
+		ctx.getRuleBudgets().put(rule.getName(), ruleBudget);
+		Collection<Finding> findings = new HashSet<>();
+		try {
+			evaluateRule(rule, ctx, crymlinTraversal, contextPool, orderPool, planner, findings);
+		}
+		catch (RuleBudgetExceededException e) {
+			// keep the findings of the contexts evaluated so far
+			log.warn("{}, {} findings so far. The rule is inconclusive.", e.getMessage(), findings.size());
+		}
+		finally {
+			ctx.getRuleBudgets().remove(rule.getName());
+			ctx.getVerticesToOp().remove(rule.getName());
+			rule.getOrderAutomata().values().forEach(ctx.getInstanceOrderResults()::remove);
+			// the WPDS of the order expression is only shared by the contexts of this rule
+			if (rule.getStatement() != null && rule.getStatement().getEnsure() != null) {
+				ctx.getSaturatedWpds().remove(rule.getStatement().getEnsure().getExp());
+			}
+		}
+
+		if (ruleBudget.isExceeded()) {
+			ctx.getInconclusiveRules().add(rule.getName());
+			findings.add(newInconclusiveFinding(rule, ruleBudget.getReason()));
+		}
+
+		log.info("Got {} findings: {}", findings.size(), findings.stream().map(f -> f.getLogMsg()).collect(Collectors.toList()));
+		ctx.getFindings().addAll(findings);
+	}
+
+	/**
+	 * Creates the finding reporting that a rule is inconclusive. It is located at the first call of an op of the rule, so it is shown next to the code the rule
+	 * is about.
+	 */
+	private Finding newInconclusiveFinding(@NonNull MRule rule, String reason) {
+		String logMsg = "Rule " + rule.getName() + " inconclusive: " + reason;
+		Optional<Vertex> firstCall = rule.getEntityReferences()
+				.values()
+				.stream()
+				.filter(entity -> entity != null && entity.getValue1() != null)
+				.flatMap(entity -> entity.getValue1().getOps().stream())
+				.flatMap(op -> op.getAllVertices().stream())
+				.filter(v -> v.property(START_LINE).isPresent() && v.property("file").isPresent())
+				.min(Comparator.comparing((Vertex v) -> CrymlinQueryWrapper.getFileLocation(v).toString())
+						.thenComparing(v -> (Long) v.value(START_LINE)));
+		if (firstCall.isEmpty()) {
+			return Finding.newInconclusiveFinding(logMsg, rule.getErrorMessage());
+		}
+		return Finding.newInconclusiveFinding(logMsg, rule.getErrorMessage(), CrymlinQueryWrapper.getFileLocation(firstCall.get()),
+			List.of(Utils.getRegionByVertex(firstCall.get())));
+	}
+
+	/**
+	 * Evaluates a single rule within its budget, see {@link #evaluateRule(MRule, AnalysisContext, CrymlinTraversalSource, ForkJoinPool, ForkJoinPool,
+	 * RulePlanner)}.
+	 *
+	 * @param findings [out] findings of the rule, also contains the findings created before the budget is exceeded
+	 * @throws RuleBudgetExceededException if the budget of the rule is exceeded
+	 */
+	private void evaluateRule(@NonNull MRule rule, AnalysisContext ctx, @NonNull CrymlinTraversalSource crymlinTraversal, @Nullable ForkJoinPool contextPool,
+			@Nullable ForkJoinPool orderPool, @NonNull RulePlanner planner, @NonNull Collection<Finding> findings) {
+		log.info("checking rule {}", rule.getName());
+
+		/* Evaluate "using" part and collect the instances of MARK entities, as well as the potential vertex representing the base object variables. */
+		List<List<Pair<String, Vertex>>> entities = findInstancesForEntities(rule, planner, ctx, crymlinTraversal);
+
+		// skip evaluation if there are no cpg-nodes which would be used in this evaluation
+		if (!entities.isEmpty()) {
+			boolean hasCPGNodes = false;
+			outer: for (Map.Entry<String, Pair<String, MEntity>> entity : rule.getEntityReferences().entrySet()) {
+				if (entity.getValue() == null || entity.getValue().getValue1() == null) {
+					log.warn("Rule {} references an unknown entity {}", rule.getName(), entity.getKey());
+					break;
+				}
+				for (MOp op : entity.getValue().getValue1().getOps()) {
+					if (!op.getAllVertices().isEmpty()) {
+						hasCPGNodes = true;
+						break outer;
+					}
 				}
 			}
+			if (!hasCPGNodes) {
+				log.warn("Rule {} does not have any corresponding CPG-nodes. Skipping", rule.getName());
+				return;
+			}
+		}
 
-			/* Create evaluation context. */
-			// Generate all combinations of instances for each entity.
-			// We take the n-th cartesian product of all _possible_ program variables that correspond to Mark entities.
-			// A CPGInstanceContext is a specific interpretation of a Mark rule that needs to be evaluated.
-			MarkContextHolder markCtxHolder = createMarkContext(entities);
+		ParallelOrderEvaluator orderEvaluator = null;
+		if (orderPool != null && !rule.getOrderAutomata().isEmpty()) {
+			orderEvaluator = new ParallelOrderEvaluator(this.markModel, config, orderPool);
+		}
 
-			ExpressionEvaluator ee = new ExpressionEvaluator(this.markModel, rule, ctx, config, crymlinTraversal, markCtxHolder);
+		/* Create evaluation contexts. */
+		// Generate all combinations of instances for each entity.
+		// We take the n-th cartesian product of all _possible_ program variables that correspond to Mark entities.
+		// A CPGInstanceContext is a specific interpretation of a Mark rule that needs to be evaluated.
+		// The product is enumerated lazily and evaluated in batches. If the rule has a "when" part, we first only combine the instances referenced in it,
+		// so that combinations which do not satisfy the "when" part are pruned before the remaining instances are added.
+		boolean hasWhen = rule.getStatement().getCond() != null;
+		Set<String> whenInstances = new HashSet<>();
+		if (hasWhen) {
+			Set<String> refs = new HashSet<>();
+			ExpressionHelper.getRefsFromExp(rule.getStatement().getCond().getExp(), refs, new HashSet<>());
+			refs.forEach(ref -> whenInstances.add(ref.split("\\.")[0]));
+		}
 
-			// Evaluate "when" part, if present (will possibly remove entries from markCtxhHlder)
-			evaluateWhen(rule, markCtxHolder, ee);
+		// only combine instances which are local to each other according to the configured pairing
+		InstancePairing pairing = config.instancePairingPerRule.getOrDefault(rule.getName(), config.instancePairing);
+		List<List<List<Pair<String, Vertex>>>> products = new InstancePairer(pairing, crymlinTraversal).pair(entities);
+		if (pairing != InstancePairing.ALL) {
+			long pairedContexts = 0;
+			for (List<List<Pair<String, Vertex>>> product : products) {
+				long size = new InstanceCombinations(product).size();
+				pairedContexts = pairedContexts > Long.MAX_VALUE - size ? Long.MAX_VALUE : pairedContexts + size;
+			}
+			long allContexts = new InstanceCombinations(entities).size();
+			long skipped = Math.max(0, allContexts - pairedContexts);
+			log.info("Pairing instances of rule {} by {} skips {} of {} contexts", rule.getName(), pairing, skipped, allContexts);
+			ctx.addSkippedContexts(skipped);
+		}
 
-			/* Evaluate "ensure" part */
-			Map<Integer, MarkIntermediateResult> result = ee.evaluateExpression(rule.getStatement().getEnsure().getExp());
+		ContextBudget budget = new ContextBudget();
+		for (List<List<Pair<String, Vertex>>> product : products) {
+			if (budget.truncated) {
+				break;
+			}
+			evaluateContexts(rule, ctx, crymlinTraversal, contextPool, orderEvaluator, product, whenInstances, budget, findings);
+		}
 
-			/* Get findings from "result" */
-			Collection<Finding> findings = getFindings(result, markCtxHolder, rule);
+		if (budget.truncated) {
+			log.warn("Rule {} exceeds the limit of {} contexts ({} combinations of instances). Evaluation of this rule is incomplete.", rule.getName(),
+				config.maxContextsPerRule, new InstanceCombinations(entities).size());
+			ctx.getRulesExceedingContextLimit().add(rule.getName());
+			ctx.getRuleBudget(rule.getName()).exceed(String.format("more than %d contexts", config.maxContextsPerRule));
+		}
+	}
 
-			log.info("Got {} findings: {}", findings.size(), findings.stream().map(f -> f.getLogMsg()).collect(Collectors.toList()));
-			ctx.getFindings().addAll(findings);
+	/**
+	 * Creates the contexts for all combinations of {@code entities} and evaluates the rule on them. The "when" part of the rule is evaluated on the instances it
+	 * references first, the remaining instances are only added to contexts satisfying it.
+	 *
+	 * @param orderEvaluator if not null, evaluates the order expressions for the instances of each batch of contexts
+	 * @param entities       for each entity of the rule, the instances which are combined
+	 * @param whenInstances  names of the instances referenced in the "when" part
+	 * @param budget         number of contexts created so far for this rule
+	 * @param findings       [out] findings of the evaluated contexts
+	 */
+	private void evaluateContexts(@NonNull MRule rule, AnalysisContext ctx, @NonNull CrymlinTraversalSource crymlinTraversal,
+			@Nullable ForkJoinPool contextPool, @Nullable ParallelOrderEvaluator orderEvaluator, @NonNull List<List<Pair<String, Vertex>>> entities,
+			@NonNull Set<String> whenInstances, @NonNull ContextBudget budget, @NonNull Collection<Finding> findings) {
+		boolean hasWhen = rule.getStatement().getCond() != null;
+		List<List<Pair<String, Vertex>>> whenEntities = new ArrayList<>();
+		List<List<Pair<String, Vertex>>> otherEntities = new ArrayList<>();
+		for (List<Pair<String, Vertex>> instances : entities) {
+			if (!hasWhen || whenInstances.contains(instances.get(0).getValue0())) {
+				whenEntities.add(instances);
+			} else {
+				otherEntities.add(instances);
+			}
 		}
+
+		InstanceCombinations combinations = new InstanceCombinations(whenEntities);
+		RuleBudget ruleBudget = ctx.getRuleBudget(rule.getName());
+		while (combinations.hasNext() && !budget.truncated) {
+			ruleBudget.check();
+			MarkContextHolder markCtxHolder = new MarkContextHolder();
+			while (combinations.hasNext() && markCtxHolder.getAllContexts().size() < CONTEXT_BATCH_SIZE && budget.numContexts < maxContexts) {
+				markCtxHolder.addInitialInstanceContext(combinations.next());
+				budget.numContexts++;
+			}
+			budget.truncated = budget.numContexts >= maxContexts && combinations.hasNext();
+			if (markCtxHolder.getAllContexts().isEmpty()) {
+				break;
+			}
+
+			if (!hasWhen) {
+				findings.addAll(evaluateEnsure(rule, ctx, crymlinTraversal, contextPool, orderEvaluator, markCtxHolder));
+				continue;
+			}
+
+			// Evaluate "when" part (will possibly remove entries from markCtxHolder)
+			evaluateInChunks(ctx, crymlinTraversal, contextPool, markCtxHolder, (chunk, traversal) -> {
+				evaluateWhen(rule, chunk, new ExpressionEvaluator(this.markModel, rule, ctx, config, traversal, chunk));
+				return Collections.emptyMap();
+			});
+
+			if (otherEntities.isEmpty()) {
+				findings.addAll(evaluateEnsure(rule, ctx, crymlinTraversal, contextPool, orderEvaluator, markCtxHolder));
+				continue;
+			}
+
+			// add the remaining instances to all contexts satisfying the "when" part
+			MarkContextHolder extendedCtxHolder = MarkContextHolder.derivedFrom(markCtxHolder);
+			for (MarkContext prefix : markCtxHolder.getAllContexts().values()) {
+				InstanceCombinations suffixes = new InstanceCombinations(otherEntities);
+				while (suffixes.hasNext() && budget.numContexts < maxContexts) {
+					extendedCtxHolder.addExtendedContext(prefix, suffixes.next());
+					budget.numContexts++;
+					if (extendedCtxHolder.getAllContexts().size() >= CONTEXT_BATCH_SIZE) {
+						findings.addAll(evaluateEnsure(rule, ctx, crymlinTraversal, contextPool, orderEvaluator, extendedCtxHolder));
+						extendedCtxHolder = MarkContextHolder.derivedFrom(markCtxHolder);
+					}
+				}
+				budget.truncated |= suffixes.hasNext();
+			}
+			if (!extendedCtxHolder.getAllContexts().isEmpty()) {
+				findings.addAll(evaluateEnsure(rule, ctx, crymlinTraversal, contextPool, orderEvaluator, extendedCtxHolder));
+			}
+		}
+	}
+
+	/**
+	 * Evaluates the "ensure" part of a rule for all contexts in the given holder.
+	 * <p>
+	 * Contexts which only differ in instances not referenced in the "ensure" part are evaluated once, see {@link ContextClasses}.
+	 *
+	 * @param orderEvaluator if not null, evaluates the order expressions for the instances of the contexts beforehand
+	 * @return the findings for these contexts
+	 */
+	private Collection<Finding> evaluateEnsure(@NonNull MRule rule, AnalysisContext ctx, @NonNull CrymlinTraversalSource crymlinTraversal,
+			@Nullable ForkJoinPool contextPool, @Nullable ParallelOrderEvaluator orderEvaluator, @NonNull MarkContextHolder markCtxHolder) {
+		Expression ensure = rule.getStatement().getEnsure().getExp();
+		ContextClasses classes = ContextClasses.of(markCtxHolder, ContextClasses.getReferencedInstances(ensure));
+		MarkContextHolder.HiddenContexts duplicates = null;
+		if (classes.hasDuplicates()) {
+			duplicates = markCtxHolder.hideContexts(classes.getDuplicates());
+			log.debug("Evaluating {} of {} contexts of rule {}, the others are equivalent", markCtxHolder.getAllContexts().size(),
+				markCtxHolder.getAllContexts().size() + duplicates.size(), rule.getName());
+		}
+
+		Map<Integer, MarkIntermediateResult> result;
+		try {
+			if (orderEvaluator != null) {
+				orderEvaluator.evaluate(rule, markCtxHolder, ctx, crymlinTraversal);
+			}
+			result = evaluateInChunks(ctx, crymlinTraversal, contextPool, markCtxHolder,
+				(chunk, traversal) -> new ExpressionEvaluator(this.markModel, rule, ctx, config, traversal, chunk)
+						.evaluate(rule.getCompiledExpression(ensure)));
+		}
+		finally {
+			if (duplicates != null) {
+				markCtxHolder.restoreContexts(duplicates);
+			}
+		}
+
+		/* Get findings from "result" */
+		return getFindings(result, markCtxHolder, rule, classes);
 	}
 
+	/**
+	 * Applies {@code evaluation} to the contexts in {@code markCtxHolder}.
+	 * <p>
+	 * If a {@code contextPool} is given, the contexts are split into chunks which are evaluated concurrently. Contexts are independent of each other, copies
+	 * of a context created during operand resolution stay in the chunk of their origin. After evaluation, the remaining contexts of all chunks are merged back
+	 * into {@code markCtxHolder}.
+	 * <p>
+	 * If a chunk fails (e.g., as the rule exceeds its budget), chunks which have not started yet are skipped and running chunks are awaited, as they share the
+	 * instances and operands of the rule. The contexts are merged back and the first failure is rethrown.
+	 *
+	 * @return the result of the evaluation for each context
+	 */
+	private Map<Integer, MarkIntermediateResult> evaluateInChunks(AnalysisContext ctx, @NonNull CrymlinTraversalSource crymlinTraversal,
+			@Nullable ForkJoinPool contextPool, @NonNull MarkContextHolder markCtxHolder,
+			@NonNull BiFunction<MarkContextHolder, CrymlinTraversalSource, Map<Integer, MarkIntermediateResult>> evaluation) {
+		if (contextPool == null || markCtxHolder.getAllContexts().size() <= 1) {
+			return evaluation.apply(markCtxHolder, crymlinTraversal);
+		}
+
+		List<MarkContextHolder> chunks = markCtxHolder.split(config.contextEvaluationThreads * CHUNKS_PER_THREAD);
+		log.debug("Evaluating {} contexts in {} chunks", markCtxHolder.getAllContexts().size(), chunks.size());
+
+		// every chunk writes its result into its own slot, results are merged after all chunks are done
+		AtomicReferenceArray<Map<Integer, MarkIntermediateResult>> chunkResults = new AtomicReferenceArray<>(chunks.size());
+		AtomicBoolean failed = new AtomicBoolean();
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (int i = 0; i < chunks.size(); i++) {
+			final int chunkIndex = i;
+			tasks.add(contextPool.submit(() -> {
+				if (failed.get()) {
+					return;
+				}
+				try (TraversalConnection traversal = new TraversalConnection(ctx.getDatabase())) {
+					chunkResults.set(chunkIndex, evaluation.apply(chunks.get(chunkIndex), traversal.getCrymlinTraversal()));
+				}
+				catch (RuntimeException | Error e) {
+					failed.set(true);
+					throw e;
+				}
+			}));
+		}
+
+		Throwable failure = null;
+		try {
+			for (ForkJoinTask<?> task : tasks) {
+				task.quietlyJoin();
+				if (failure == null && task.isCompletedAbnormally()) {
+					failure = task.getException();
+				}
+			}
+		}
+		finally {
+			markCtxHolder.mergeChunks(chunks);
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		} else if (failure instanceof Error) {
+			throw (Error) failure;
+		} else if (failure != null) {
+			throw new IllegalStateException("Evaluation of contexts failed", failure);
+		}
+
+		ContextResults result = new ContextResults();
+		for (int i = 0; i < chunkResults.length(); i++) {
+			result.putAll(chunkResults.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Creates the findings for the results of the "ensure" part. The result of a context is also used for the other contexts of its class.
+	 */
 	private Collection<Finding> getFindings(@NonNull Map<Integer, MarkIntermediateResult> result, @NonNull MarkContextHolder markCtxHolder,
-			@NonNull MRule rule) {
+			@NonNull MRule rule, @NonNull ContextClasses classes) {
 		Collection<Finding> findings = new HashSet<>();
 
 		for (Map.Entry<Integer, MarkIntermediateResult> entry : result.entrySet()) {
@@ -218,45 +647,11 @@ public class Evaluator {
 
 				MarkContext c = markCtxHolder.getContext(markCtx);
 
-				URI currentFile = null;
-
 				if (!c.isFindingAlreadyAdded()) {
-					List<Region> ranges = new ArrayList<>();
-					if (evalResult.getResponsibleVertices().isEmpty() || evalResult.getResponsibleVertices().stream().noneMatch(Objects::nonNull)) {
-						// use the line of the instances
-						if (!c.getInstanceContext().getMarkInstances().isEmpty()) {
-							for (Vertex v : c.getInstanceContext().getMarkInstanceVertices()) {
-								if (v == null) {
-									continue;
-								}
-								ranges.add(Utils.getRegionByVertex(v));
-
-								currentFile = CrymlinQueryWrapper.getFileLocation(v);
-							}
-						}
-						if (ranges.isEmpty()) {
-							ranges.add(new Region());
-						}
-					} else {
-						// responsible vertices are stored in the result
-						for (Vertex v : evalResult.getResponsibleVertices()) {
-							if (v == null) {
-								continue;
-							}
-							ranges.add(Utils.getRegionByVertex(v));
-
-							currentFile = CrymlinQueryWrapper.getFileLocation(v);
-						}
+					findings.add(createFinding(rule, evalResult, c));
+					for (int member : classes.getMembers(markCtx, markCtxHolder)) {
+						findings.add(createFinding(rule, evalResult, markCtxHolder.getContext(member)));
 					}
-					boolean isRuleViolated = !(Boolean) evaluationResultUb;
-					findings.add(new Finding(
-						"Rule "
-								+ rule.getName()
-								+ (isRuleViolated ? " violated" : " verified"),
-						currentFile,
-						rule.getErrorMessage(),
-						ranges,
-						isRuleViolated));
 				}
 			} else if (evaluationResultUb == null) {
 				log.warn("Unable to evaluate rule {} in MARK context " + markCtx + "/" + markCtxHolder.getAllContexts().size()
@@ -275,6 +670,49 @@ public class Evaluator {
 		return findings;
 	}
 
+	/**
+	 * Creates the finding for the result of a context. If the result has no responsible vertices, the finding points to the instances of the context.
+	 */
+	private static Finding createFinding(@NonNull MRule rule, @NonNull ConstantValue evalResult, @NonNull MarkContext c) {
+		URI currentFile = null;
+		List<Region> ranges = new ArrayList<>();
+		if (evalResult.getResponsibleVertices().isEmpty() || evalResult.getResponsibleVertices().stream().noneMatch(Objects::nonNull)) {
+			// use the line of the instances
+			if (!c.getInstanceContext().getMarkInstances().isEmpty()) {
+				for (Vertex v : c.getInstanceContext().getMarkInstanceVertices()) {
+					if (v == null) {
+						continue;
+					}
+					ranges.add(Utils.getRegionByVertex(v));
+
+					currentFile = CrymlinQueryWrapper.getFileLocation(v);
+				}
+			}
+			if (ranges.isEmpty()) {
+				ranges.add(new Region());
+			}
+		} else {
+			// responsible vertices are stored in the result
+			for (Vertex v : evalResult.getResponsibleVertices()) {
+				if (v == null) {
+					continue;
+				}
+				ranges.add(Utils.getRegionByVertex(v));
+
+				currentFile = CrymlinQueryWrapper.getFileLocation(v);
+			}
+		}
+		boolean isRuleViolated = !(Boolean) evalResult.getValue();
+		return new Finding(
+			"Rule "
+					+ rule.getName()
+					+ (isRuleViolated ? " violated" : " verified"),
+			currentFile,
+			rule.getErrorMessage(),
+			ranges,
+			isRuleViolated);
+	}
+
 	/**
 	 * Evaluates the "when" part of a rule and removes all entries from "markCtxHolder" to which the condition does not apply.
 	 * <p>
@@ -293,7 +731,7 @@ public class Evaluator {
 
 		RuleStatement s = rule.getStatement();
 		if (s.getCond() != null) {
-			Map<Integer, MarkIntermediateResult> result = ee.evaluateExpression(s.getCond().getExp());
+			Map<Integer, MarkIntermediateResult> result = ee.evaluate(rule.getCompiledExpression(s.getCond().getExp()));
 
 			for (Map.Entry<Integer, MarkIntermediateResult> entry : result.entrySet()) {
 				Object value = ConstantValue.unbox(entry.getValue());
@@ -323,20 +761,6 @@ public class Evaluator {
 		markCtxHolder.setCreateFindingsDuringEvaluation(true);
 	}
 
-	private MarkContextHolder createMarkContext(List<List<Pair<String, Vertex>>> entities) {
-		MarkContextHolder context = new MarkContextHolder();
-		for (List<Pair<String, Vertex>> list : Lists.cartesianProduct(entities)) {
-			CPGInstanceContext instanceCtx = new CPGInstanceContext();
-			for (Pair<String, Vertex> p : list) {
-				String markInstanceName = p.getValue0();
-				Vertex v = p.getValue1();
-				instanceCtx.putMarkInstance(markInstanceName, v);
-			}
-			context.addInitialInstanceContext(instanceCtx);
-		}
-		return context;
-	}
-
 	/**
 	 * Collect all entities, and calculate which instances correspond to the entity.
 	 * <p>
@@ -345,47 +769,40 @@ public class Evaluator {
 	 * The "Cipher" entity might refer to three actual object variables in the program: "v1", "v2", "v3".
 	 * <p>
 	 * In that case, the function will return [ [ (c1, v1) , (c1, v2), (c1, v3) ] [ (c2, c1), (c2, v2), (c2, v3) ] ]
+	 * <p>
+	 * The instances of an entity are shared with other rules via the {@code planner}. Unless disabled, instances which are aliases of each other are
+	 * represented by a single instance of their alias class.
 	 *
 	 * @param rule
+	 * @param planner
+	 * @param ctx
+	 * @param crymlinTraversal
 	 * @return
 	 */
-	private List<List<Pair<String, Vertex>>> findInstancesForEntities(MRule rule) {
+	private List<List<Pair<String, Vertex>>> findInstancesForEntities(MRule rule, RulePlanner planner, AnalysisContext ctx,
+			@NonNull CrymlinTraversalSource crymlinTraversal) {
 		RuleStatement ruleStmt = rule.getStatement();
 		List<List<Pair<String, Vertex>>> entities = new ArrayList<>();
 		// Find entities whose ops are used in the current Mark rule.
 		// We collect all entities and calculate which instances (=program variables) correspond to the entity.
 		// entities is a map with key: name of the Mark Entity (e.g., "b"). value: Vertex to which the program variable REFERS_TO.
 		for (AliasedEntityExpression entity : ruleStmt.getEntities()) {
-			HashSet<Vertex> instanceVariables = new HashSet<>();
 			MEntity referencedEntity = this.markModel.getEntity(entity.getE());
 			if (referencedEntity == null) {
 				log.warn("Unexpected: Mark rule {} references an unknown entity {}", rule.getName(), entity.getN());
 				continue;
 			}
-			for (MOp op : referencedEntity.getOps()) {
-				for (Vertex vertex : op.getAllVertices()) {
-					Optional<Vertex> ref;
-
-					if (Utils.hasLabel(vertex, ConstructExpression.class)) {
-						ref = CrymlinQueryWrapper.getAssigneeOfConstructExpression(vertex);
-					} else if (Utils.hasLabel(vertex, StaticCallExpression.class)) {
-						// mainly for builder function
-						ref = CrymlinQueryWrapper.getDFGTarget(vertex);
-					} else {
-						// Program variable is either the Base of some method call ...
-						ref = CrymlinQueryWrapper.getBaseOfCallExpression(vertex);
-						if (ref.isEmpty()) { // if we did not find a base the "easy way", try to find a base using the simple-DFG
-							ref = CrymlinQueryWrapper.getDFGTarget(vertex);
-						}
-					}
-					ref.ifPresent(instanceVariables::add);
-
-					if (ref.isEmpty()) {
-						log.warn("Did not find an instance variable for entity {} when searching at node {}", referencedEntity.getName(),
-							vertex.property("code").value().toString().replaceAll("\n\\s*", " "));
-					}
+			List<Vertex> instanceVariables = planner.getInstances(referencedEntity, () -> {
+				Set<Vertex> instances = findInstances(referencedEntity);
+				if (config.disableAliasAnalysis) {
+					return instances;
 				}
-			}
+				Set<Vertex> representatives = new AliasAnalysis(crymlinTraversal, ctx.getAliasClasses()).getRepresentatives(instances);
+				if (representatives.size() < instances.size()) {
+					log.info("Merged {} instances of entity {} into {} alias classes", instances.size(), referencedEntity.getName(), representatives.size());
+				}
+				return representatives;
+			});
 			ArrayList<Pair<String, Vertex>> innerList = new ArrayList<>();
 			for (Vertex v : instanceVariables) {
 				innerList.add(new Pair<>(entity.getN(), v));
@@ -399,4 +816,39 @@ public class Evaluator {
 		return entities;
 	}
 
+	/**
+	 * Returns the instances (=program variables) corresponding to an entity, i.e., the variables the ops of the entity are called on.
+	 *
+	 * @param referencedEntity the entity
+	 * @return the instance vertices
+	 */
+	private Set<Vertex> findInstances(MEntity referencedEntity) {
+		Set<Vertex> instanceVariables = new HashSet<>();
+		for (MOp op : referencedEntity.getOps()) {
+			for (Vertex vertex : op.getAllVertices()) {
+				Optional<Vertex> ref;
+
+				if (Utils.hasLabel(vertex, ConstructExpression.class)) {
+					ref = CrymlinQueryWrapper.getAssigneeOfConstructExpression(vertex);
+				} else if (Utils.hasLabel(vertex, StaticCallExpression.class)) {
+					// mainly for builder function
+					ref = CrymlinQueryWrapper.getDFGTarget(vertex);
+				} else {
+					// Program variable is either the Base of some method call ...
+					ref = CrymlinQueryWrapper.getBaseOfCallExpression(vertex);
+					if (ref.isEmpty()) { // if we did not find a base the "easy way", try to find a base using the simple-DFG
+						ref = CrymlinQueryWrapper.getDFGTarget(vertex);
+					}
+				}
+				ref.ifPresent(instanceVariables::add);
+
+				if (ref.isEmpty()) {
+					log.warn("Did not find an instance variable for entity {} when searching at node {}", referencedEntity.getName(),
+						vertex.property("code").value().toString().replaceAll("\n\\s*", " "));
+				}
+			}
+		}
+		return instanceVariables;
+	}
+
 }
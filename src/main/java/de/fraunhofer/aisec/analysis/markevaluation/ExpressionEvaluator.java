@@ -4,34 +4,23 @@ package de.fraunhofer.aisec.analysis.markevaluation;
 import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
 import de.fraunhofer.aisec.analysis.structures.CPGVertexWithValue;
 import de.fraunhofer.aisec.analysis.structures.ConstantValue;
+import de.fraunhofer.aisec.analysis.structures.ContextResults;
 import de.fraunhofer.aisec.analysis.structures.ErrorValue;
 import de.fraunhofer.aisec.analysis.structures.Finding;
 import de.fraunhofer.aisec.analysis.structures.ListValue;
 import de.fraunhofer.aisec.analysis.structures.MarkContext;
 import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
 import de.fraunhofer.aisec.analysis.structures.MarkIntermediateResult;
+import de.fraunhofer.aisec.analysis.structures.RuleBudget;
 import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
 import de.fraunhofer.aisec.analysis.utils.Utils;
 import de.fraunhofer.aisec.cpg.sarif.Region;
 import de.fraunhofer.aisec.crymlin.CrymlinQueryWrapper;
 import de.fraunhofer.aisec.crymlin.builtin.Builtin;
-import de.fraunhofer.aisec.crymlin.builtin.BuiltinRegistry;
 import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversalSource;
 import de.fraunhofer.aisec.mark.markDsl.Argument;
-import de.fraunhofer.aisec.mark.markDsl.BooleanLiteral;
-import de.fraunhofer.aisec.mark.markDsl.ComparisonExpression;
 import de.fraunhofer.aisec.mark.markDsl.Expression;
-import de.fraunhofer.aisec.mark.markDsl.FunctionCallExpression;
-import de.fraunhofer.aisec.mark.markDsl.IntegerLiteral;
-import de.fraunhofer.aisec.mark.markDsl.Literal;
-import de.fraunhofer.aisec.mark.markDsl.LiteralListExpression;
-import de.fraunhofer.aisec.mark.markDsl.LogicalAndExpression;
-import de.fraunhofer.aisec.mark.markDsl.LogicalOrExpression;
-import de.fraunhofer.aisec.mark.markDsl.MultiplicationExpression;
-import de.fraunhofer.aisec.mark.markDsl.Operand;
 import de.fraunhofer.aisec.mark.markDsl.OrderExpression;
-import de.fraunhofer.aisec.mark.markDsl.StringLiteral;
-import de.fraunhofer.aisec.mark.markDsl.UnaryExpression;
 import de.fraunhofer.aisec.markmodel.MRule;
 import de.fraunhofer.aisec.markmodel.Mark;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
@@ -42,12 +31,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.Set;
 import java.util.regex.Pattern;
 
 public class ExpressionEvaluator {
@@ -64,6 +50,8 @@ public class ExpressionEvaluator {
 	private final AnalysisContext resultCtx;
 	private final MarkContextHolder markContextHolder;
 	private final Mark markModel;
+	// resources left for the evaluation of the rule
+	private final RuleBudget budget;
 
 	public ExpressionEvaluator(Mark markModel, MRule rule, AnalysisContext resultCtx, ServerConfiguration config, CrymlinTraversalSource traversal,
 			MarkContextHolder context) {
@@ -73,6 +61,7 @@ public class ExpressionEvaluator {
 		this.config = config;
 		this.traversal = traversal;
 		this.markContextHolder = context;
+		this.budget = resultCtx.getRuleBudget(rule.getName());
 	}
 
 	/**
@@ -92,57 +81,40 @@ public class ExpressionEvaluator {
 			return markContextHolder.generateNullResult();
 		}
 
-		// from lowest to highest operator precedence
-		log.debug("evaluating {}: {}", expr.getClass().getSimpleName(), ExpressionHelper.exprToString(expr));
-
-		if (expr instanceof OrderExpression) {
-			return evaluateOrderExpression((OrderExpression) expr);
-		} else if (expr instanceof LogicalOrExpression) {
-			return evaluateLogicalExpr(expr);
-		} else if (expr instanceof LogicalAndExpression) {
-			return evaluateLogicalExpr(expr);
-		} else if (expr instanceof ComparisonExpression) {
-			return evaluateLogicalExpr(expr);
-		} else if (expr instanceof MultiplicationExpression) {
-			return evaluateMultiplicationExpr((MultiplicationExpression) expr);
-		} else if (expr instanceof UnaryExpression) {
-			return evaluateUnaryExpr((UnaryExpression) expr);
-		} else if (expr instanceof Literal) {
-			return evaluateLiteral((Literal) expr);
-		} else if (expr instanceof Operand) {
-			return evaluateOperand((Operand) expr);
-		} else if (expr instanceof FunctionCallExpression) {
-			return evaluateBuiltin((FunctionCallExpression) expr);
-		} else if (expr instanceof LiteralListExpression) {
-			Map<Integer, MarkIntermediateResult> literalList = new HashMap<>();
-			for (Literal l : ((LiteralListExpression) expr).getValues()) {
-				Map<Integer, MarkIntermediateResult> res = evaluateLiteral(l);
-				for (Map.Entry<Integer, MarkIntermediateResult> entry : res.entrySet()) {
-					ListValue inner = (ListValue) literalList.computeIfAbsent(entry.getKey(), x -> new ListValue());
-					inner.add(entry.getValue());
-				}
-			}
-			return literalList;
-		}
+		return evaluate(CompiledExpression.compile(expr));
+	}
 
-		throw new ExpressionEvaluationException("unknown expression: " + ExpressionHelper.exprToString(expr));
+	/**
+	 * Checks a compiled MARK expression against the CPG using the given instance and markvar assignments, see {@link #evaluateExpression(Expression)}.
+	 *
+	 * @param expr The compiled MARK expression to evaluate.
+	 * @return one result (value and context)
+	 */
+	@NonNull
+	public Map<Integer, MarkIntermediateResult> evaluate(@NonNull CompiledExpression expr) {
+		log.debug("evaluating {}", expr);
+		budget.check();
+		return expr.evaluate(this);
 	}
 
+	/**
+	 * Evaluates an order expression for all contexts.
+	 *
+	 * @param markVar the single markvar used in the order, null if the order is invalid
+	 */
 	@NonNull
-	private Map<Integer, MarkIntermediateResult> evaluateOrderExpression(OrderExpression orderExpression) {
-		log.info("Evaluating order expression: {}", ExpressionHelper.exprToString(orderExpression));
-		Map<Integer, MarkIntermediateResult> result = new HashMap<>();
+	Map<Integer, MarkIntermediateResult> evaluateOrderExpression(OrderExpression orderExpression, @Nullable String markVar) {
+		ContextResults result = new ContextResults();
 		for (Map.Entry<Integer, MarkContext> entry : markContextHolder.getAllContexts().entrySet()) {
+			budget.check();
 
-			OrderEvaluator orderEvaluator = new OrderEvaluator(this.markRule, this.config);
+			OrderEvaluator orderEvaluator = new OrderEvaluator(this.markModel, this.markRule, this.config);
 			ConstantValue res = orderEvaluator.evaluate(orderExpression, entry.getKey(), this.resultCtx, this.traversal, this.markContextHolder);
 
 			if (markContextHolder.isCreateFindingsDuringEvaluation() && res != null && Objects.equals(res.getValue(), true)) {
-				Set<String> markInstances = new HashSet<>();
-				ExpressionHelper.collectMarkInstances(orderExpression.getExp(), markInstances); // extract all used markvars from the expression
-				if (markInstances.size() == 1) { // otherwise, the analysis did not work anyway and we did not have a result
+				if (markVar != null) { // otherwise, the analysis did not work anyway and we did not have a result
 					@Nullable
-					Vertex operand = entry.getValue().getInstanceContext().getVertex(markInstances.iterator().next());
+					Vertex operand = entry.getValue().getInstanceContext().getVertex(markVar);
 					if (operand != null) {
 						List<Region> ranges = List.of(Utils.getRegionByVertex(operand));
 						Finding f = new Finding(
@@ -161,41 +133,81 @@ public class ExpressionEvaluator {
 		return result;
 	}
 
+	/**
+	 * Evaluates a logical AND or OR. The right operand is only evaluated for contexts in which the left operand does not already decide the result, i.e., is
+	 * not false for AND or true for OR. The result of a decided context is responsible for the vertices of the left operand and of the operands used on the
+	 * right side, so its finding has the same regions as if the right side was evaluated. Right operands containing an order expression are not passed here,
+	 * as their evaluation reports findings.
+	 *
+	 * @param rightOperands the operands used in the right operand, see {@link CompiledExpression#collectOperands(List)}
+	 */
 	@NonNull
-	private Map<Integer, MarkIntermediateResult> evaluateLogicalExpr(Expression expr) {
-		log.debug("Evaluating logical expression: {}", ExpressionHelper.exprToString(expr));
-
-		Expression leftExp;
-		Expression rightExp;
-
-		if (expr instanceof ComparisonExpression) {
-			return evaluateComparisonExpr((ComparisonExpression) expr);
-		} else if (expr instanceof LogicalAndExpression) {
-			LogicalAndExpression lae = (LogicalAndExpression) expr;
-
-			leftExp = lae.getLeft();
-			rightExp = lae.getRight();
-		} else if (expr instanceof LogicalOrExpression) {
-			LogicalOrExpression loe = (LogicalOrExpression) expr;
-
-			leftExp = loe.getLeft();
-			rightExp = loe.getRight();
-		} else {
-			throw new ExpressionEvaluationException("Unknown logical expression " + expr.getClass().getSimpleName());
+	Map<Integer, MarkIntermediateResult> evaluateLogical(boolean isAnd, CompiledExpression left, CompiledExpression right,
+			List<CompiledExpression> rightOperands) {
+		ContextResults leftResult = ContextResults.of(evaluate(left));
+
+		// resolving operands may copy contexts. Resolve the operands of the right side for all contexts first, so that the same contexts are created as if
+		// the right side was evaluated for all of them. Copies of a context get the result of the left side for that context via the copy stack.
+		List<Map<Integer, MarkIntermediateResult>> rightOperandResults = new ArrayList<>();
+		for (CompiledExpression operand : rightOperands) {
+			rightOperandResults.add(evaluate(operand));
 		}
 
-		Map<Integer, MarkIntermediateResult> leftResult = evaluateExpression(leftExp);
-		Map<Integer, MarkIntermediateResult> rightResult = evaluateExpression(rightExp);
+		ContextResults decided = new ContextResults();
+		for (int key : markContextHolder.getAllContexts().keySet()) {
+			MarkIntermediateResult leftValue = getcorrespondingLeftResult(leftResult, key);
+			if (leftValue instanceof ConstantValue && !ConstantValue.isError(leftValue)
+					&& Objects.equals(((ConstantValue) leftValue).getValue(), !isAnd)) {
+				// false & x = false, true | x = true
+				ConstantValue cv = ConstantValue.of(!isAnd);
+				cv.addResponsibleVerticesFrom((ConstantValue) leftValue);
+				for (Map<Integer, MarkIntermediateResult> operandResult : rightOperandResults) {
+					MarkIntermediateResult operandValue = operandResult.get(key);
+					if (operandValue instanceof ConstantValue) {
+						cv.addResponsibleVerticesFrom((ConstantValue) operandValue);
+					}
+				}
+				decided.put(key, cv);
+			}
+		}
+		if (decided.isEmpty()) {
+			return combineLogical(isAnd, leftResult, evaluate(right), left, right);
+		}
 
-		Map<Integer, MarkIntermediateResult> combinedResult = new HashMap<>();
+		log.debug("Skipping right side of {} for {} of {} contexts", isAnd ? "AND" : "OR", decided.size(), markContextHolder.getAllContexts().size());
+		ContextResults combinedResult = new ContextResults();
+		if (decided.size() < markContextHolder.getAllContexts().size()) {
+			MarkContextHolder.HiddenContexts hidden = markContextHolder.hideContexts(decided.keySet());
+			try {
+				combinedResult.putAll(combineLogical(isAnd, leftResult, evaluate(right), left, right));
+			}
+			finally {
+				markContextHolder.restoreContexts(hidden);
+			}
+		}
+		combinedResult.putAll(decided);
+		return combinedResult;
+	}
 
-		for (Map.Entry<Integer, MarkIntermediateResult> entry : rightResult.entrySet()) {
+	/**
+	 * Combines the results of the operands of a logical AND or OR.
+	 *
+	 * @param leftExp the left operand, for logging
+	 * @param rightExp the right operand, for logging
+	 */
+	@NonNull
+	Map<Integer, MarkIntermediateResult> combineLogical(boolean isAnd, Map<Integer, MarkIntermediateResult> leftResult,
+			Map<Integer, MarkIntermediateResult> rightResult, Object leftExp, Object rightExp) {
+		ContextResults combinedResult = new ContextResults();
+
+		ContextResults leftColumn = ContextResults.of(leftResult);
+		ContextResults rightColumn = ContextResults.of(rightResult);
+		for (int key = rightColumn.firstId(); key != ContextResults.NONE; key = rightColumn.nextId(key)) {
 			// we only need to look at the keys from the right side.
 			// the right side of the evaluation can add new values, then we have more values on the right than on the left.
 			// the right side currently cannot remove values!
-			Integer key = entry.getKey();
-			ConstantValue leftBoxed = (ConstantValue) getcorrespondingLeftResult(leftResult, key);
-			ConstantValue rightBoxed = (ConstantValue) entry.getValue();
+			ConstantValue leftBoxed = (ConstantValue) getcorrespondingLeftResult(leftColumn, key);
+			ConstantValue rightBoxed = (ConstantValue) rightColumn.get(key);
 
 			Object left = leftBoxed.getValue();
 			Object right = rightBoxed.getValue();
@@ -212,14 +224,12 @@ public class ExpressionEvaluator {
 					||
 					!(rightHasError || right.getClass().equals(Boolean.class))) {
 
-				log.warn("At least one subexpression is not of type Boolean: {} vs {}",
-					ExpressionHelper.exprToString(leftExp),
-					ExpressionHelper.exprToString(rightExp));
+				log.warn("At least one subexpression is not of type Boolean: {} vs {}", leftExp, rightExp);
 				combinedResult.put(key, ErrorValue.newErrorValue(String.format("Cannot perform logical expression, left is %s, right is %s",
 					leftHasError ? "error" : left.toString(),
 					rightHasError ? "error" : right.toString()), leftBoxed, rightBoxed));
 
-			} else if (expr instanceof LogicalAndExpression) {
+			} else if (isAnd) {
 				if (leftHasError || rightHasError) {
 					// null & true = null
 					// null & false = false
@@ -268,35 +278,29 @@ public class ExpressionEvaluator {
 		return combinedResult;
 	}
 
-	private Map<Integer, MarkIntermediateResult> evaluateComparisonExpr(ComparisonExpression expr) {
-		String op = expr.getOp();
-		Expression leftExpr = expr.getLeft();
-		Expression rightExpr = expr.getRight();
-
-		log.debug(
-			"comparing expression {} with expression {}",
-			ExpressionHelper.exprToString(leftExpr),
-			ExpressionHelper.exprToString(rightExpr));
-
-		Map<Integer, MarkIntermediateResult> leftResult = evaluateExpression(leftExpr);
-		Map<Integer, MarkIntermediateResult> rightResult = evaluateExpression(rightExpr);
-
-		Map<Integer, MarkIntermediateResult> combinedResult = new HashMap<>();
-
-		for (Map.Entry<Integer, MarkIntermediateResult> entry : rightResult.entrySet()) {
-			ExpressionComparator<String> comp = new ExpressionComparator<>();
-
+	/**
+	 * Combines the results of the operands of a comparison.
+	 */
+	@NonNull
+	Map<Integer, MarkIntermediateResult> combineComparison(String op, Map<Integer, MarkIntermediateResult> leftResult,
+			Map<Integer, MarkIntermediateResult> rightResult) {
+		ContextResults combinedResult = new ContextResults();
+
+		ContextResults leftColumn = ContextResults.of(leftResult);
+		ContextResults rightColumn = ContextResults.of(rightResult);
+		ExpressionComparator<String> comp = new ExpressionComparator<>();
+		for (int key = rightColumn.firstId(); key != ContextResults.NONE; key = rightColumn.nextId(key)) {
 			// we only need to look at the keys from the right side.
 			// the right side of the evaluation can add new values, then we have more values on the right than on the left.
 			// the right side currently cannot remove values!
-			Integer key = entry.getKey();
-			ConstantValue leftBoxed = (ConstantValue) getcorrespondingLeftResult(leftResult, key);
+			ConstantValue leftBoxed = (ConstantValue) getcorrespondingLeftResult(leftColumn, key);
 			Object left = leftBoxed.getValue();
+			MarkIntermediateResult rightValue = rightColumn.get(key);
 
-			if (entry.getValue() instanceof ListValue) {
+			if (rightValue instanceof ListValue) {
 
 				if (op.equals("in")) {
-					ListValue l = (ListValue) entry.getValue();
+					ListValue l = (ListValue) rightValue;
 					ConstantValue cv = ConstantValue.of(false);
 
 					for (MarkIntermediateResult o : l) {
@@ -323,7 +327,7 @@ public class ExpressionEvaluator {
 
 			} else {
 
-				ConstantValue rightBoxed = (ConstantValue) entry.getValue();
+				ConstantValue rightBoxed = (ConstantValue) rightValue;
 				Object right = rightBoxed.getValue();
 
 				if (ConstantValue.isError(leftBoxed) || ConstantValue.isError(rightBoxed)) {
@@ -381,8 +385,8 @@ public class ExpressionEvaluator {
 		return combinedResult;
 	}
 
-	private MarkIntermediateResult getcorrespondingLeftResult(Map<Integer, MarkIntermediateResult> leftResult, Integer key) {
-		if (leftResult == null || key == null) {
+	private MarkIntermediateResult getcorrespondingLeftResult(ContextResults leftResult, int key) {
+		if (leftResult == null) {
 			return ErrorValue.newErrorValue("Could not find a result");
 		}
 		if (leftResult.containsKey(key)) {
@@ -414,9 +418,20 @@ public class ExpressionEvaluator {
 	 */
 
 	public Map<Integer, MarkIntermediateResult> evaluateArgs(List<Argument> argList) {
-		Map<Integer, MarkIntermediateResult> result = new HashMap<>();
+		List<CompiledExpression> args = new ArrayList<>();
 		for (Argument arg : argList) {
-			Map<Integer, MarkIntermediateResult> r = evaluateExpression((Expression) arg);
+			args.add(CompiledExpression.compile((Expression) arg));
+		}
+		return evaluateCompiledArgs(args);
+	}
+
+	/**
+	 * Returns evaluated argument values of a Builtin-call, see {@link #evaluateArgs(List)}.
+	 */
+	Map<Integer, MarkIntermediateResult> evaluateCompiledArgs(List<CompiledExpression> argList) {
+		ContextResults result = new ContextResults();
+		for (CompiledExpression arg : argList) {
+			ContextResults r = ContextResults.of(evaluate(arg));
 
 			// if the argument contains more than one var, the evaluation of the n+1-th argument could have increased the number of contexts
 			// ex: for argument 0 t.foo we get back the result [1, 2] (i.e., two possible values of t.foo)
@@ -430,7 +445,7 @@ public class ExpressionEvaluator {
 			//     The resulting argument list for this example would be [(1,3), (2,4), (1,4), (2,4)]
 
 			Map<Integer, ArrayList<MarkIntermediateResult>> previousArgument = new HashMap<>();
-			for (Integer key : r.keySet()) {
+			for (int key = r.firstId(); key != ContextResults.NONE; key = r.nextId(key)) {
 				if (!result.containsKey(key)) {
 					MarkIntermediateResult prev = getcorrespondingLeftResult(result, key);
 					if (!((prev instanceof ErrorValue) && ((ErrorValue) prev).getDescription().equals("Could not find a result"))) {
@@ -445,16 +460,16 @@ public class ExpressionEvaluator {
 				}
 			}
 
-			for (Map.Entry<Integer, MarkIntermediateResult> entry : r.entrySet()) {
-				MarkIntermediateResult o = result.get(entry.getKey());
+			for (int key = r.firstId(); key != ContextResults.NONE; key = r.nextId(key)) {
+				MarkIntermediateResult o = result.get(key);
 				if (o == null) {
 					o = new ListValue();
-					if (previousArgument.containsKey(entry.getKey())) {
-						((ListValue) o).addAll(previousArgument.get(entry.getKey()));
+					if (previousArgument.containsKey(key)) {
+						((ListValue) o).addAll(previousArgument.get(key));
 					}
-					result.put(entry.getKey(), o);
+					result.put(key, o);
 				}
-				((ListValue) o).add(entry.getValue());
+				((ListValue) o).add(r.get(key));
 			}
 		}
 		return result;
@@ -463,25 +478,15 @@ public class ExpressionEvaluator {
 	/**
 	 * Evaluate built-in functions.
 	 *
-	 * @param expr the expression for the builtin
+	 * @param builtin the builtin, null if there is no builtin of this name
+	 * @param functionName the name of the builtin
+	 * @param arguments the evaluated arguments of the call
 	 * @return the result of the built-in call
 	 */
 	@NonNull
-	private Map<Integer, MarkIntermediateResult> evaluateBuiltin(FunctionCallExpression expr) {
-		String functionName = expr.getName();
-
-		// Call built-in function (if available)
-		Optional<Builtin> builtin = BuiltinRegistry.getInstance()
-				.getRegisteredBuiltins()
-				.stream()
-				.filter(b -> b.getName()
-						.equals(functionName))
-				.findFirst();
-
-		Map<Integer, MarkIntermediateResult> arguments = evaluateArgs(expr.getArgs());
-
-		if (builtin.isPresent()) {
-			Map<Integer, MarkIntermediateResult> result = new HashMap<>();
+	Map<Integer, MarkIntermediateResult> evaluateBuiltin(@Nullable Builtin builtin, String functionName, Map<Integer, MarkIntermediateResult> arguments) {
+		if (builtin != null) {
+			ContextResults result = new ContextResults();
 			for (Map.Entry<Integer, MarkIntermediateResult> entry : arguments.entrySet()) {
 
 				if (!(entry.getValue() instanceof ListValue)) {
@@ -490,7 +495,16 @@ public class ExpressionEvaluator {
 					continue;
 				}
 
-				ConstantValue cv = builtin.get().execute(resultCtx, (ListValue) (entry.getValue()), entry.getKey(), markContextHolder, this);
+				budget.check();
+				ListValue args = (ListValue) entry.getValue();
+				Integer contextID = entry.getKey();
+				ConstantValue cv;
+				if (builtin.isPure()) {
+					cv = resultCtx.getBuiltinResultCache()
+							.getOrExecute(functionName, args, () -> builtin.execute(resultCtx, args, contextID, markContextHolder, this));
+				} else {
+					cv = builtin.execute(resultCtx, args, contextID, markContextHolder, this);
+				}
 
 				result.put(entry.getKey(), cv);
 
@@ -499,70 +513,43 @@ public class ExpressionEvaluator {
 		}
 
 		log.error("Unsupported builtin {}", functionName);
-		Map<Integer, MarkIntermediateResult> result = new HashMap<>();
+		ContextResults result = new ContextResults();
 		for (Map.Entry<Integer, MarkIntermediateResult> entry : arguments.entrySet()) {
 			result.put(entry.getKey(), ErrorValue.newErrorValue(String.format("Unsupported builtin %s", functionName)));
 		}
 		return result;
 	}
 
-	private Map<Integer, MarkIntermediateResult> evaluateLiteral(Literal literal) {
-		String v = literal.getValue();
-
-		ConstantValue value;
-
-		// ordering based on Mark grammar
-		if (literal instanceof IntegerLiteral) {
-			log.debug("Literal is Integer: {}", v);
-
-			try {
-				if (v.startsWith("0x")) {
-					value = ConstantValue.of(Integer.parseInt(v.substring(2), 16));
-				} else {
-					value = ConstantValue.of(Long.parseLong(v));
-				}
-			}
-			catch (NumberFormatException nfe) {
-				log.warn("Unable to convert integer literal {}", v, nfe);
-				value = ErrorValue.newErrorValue(String.format("Unable to convert integer literal %s: %s", v, nfe.getMessage()));
-			}
-		} else if (literal instanceof BooleanLiteral) {
-			log.debug("Literal is Boolean: {}", v);
-			value = ConstantValue.of(Boolean.parseBoolean(v));
-		} else if (literal instanceof StringLiteral) {
-			log.debug("Literal is String: {}", v);
-			value = ConstantValue.of(Utils.stripQuotedString(v));
-		} else {
-			log.warn("Unknown literal encountered: {}", v);
-			value = ErrorValue.newErrorValue(String.format("Unknown literal encountered: %s", v));
-		}
-
-		Map<Integer, MarkIntermediateResult> ret = new HashMap<>();
-		for (Integer key : markContextHolder.getAllContexts()
+	/**
+	 * Returns the same value for all contexts.
+	 */
+	@NonNull
+	Map<Integer, MarkIntermediateResult> evaluateConstant(ConstantValue value) {
+		ContextResults ret = new ContextResults();
+		for (int key : markContextHolder.getAllContexts()
 				.keySet()) {
 			ret.put(key, value);
 		}
 		return ret;
 	}
 
+	/**
+	 * Combines the results of the operands of a multiplication expression.
+	 */
 	@NonNull
-	private Map<Integer, MarkIntermediateResult> evaluateMultiplicationExpr(MultiplicationExpression expr) {
-		log.debug("Evaluating multiplication expression: {}", ExpressionHelper.exprToString(expr));
-
-		String op = expr.getOp();
-
-		Map<Integer, MarkIntermediateResult> leftResult = evaluateExpression(expr.getLeft());
-		Map<Integer, MarkIntermediateResult> rightResult = evaluateExpression(expr.getRight());
+	Map<Integer, MarkIntermediateResult> combineMultiplication(String op, Map<Integer, MarkIntermediateResult> leftResult,
+			Map<Integer, MarkIntermediateResult> rightResult) {
 
-		Map<Integer, MarkIntermediateResult> combinedResult = new HashMap<>();
+		ContextResults combinedResult = new ContextResults();
 
-		for (Map.Entry<Integer, MarkIntermediateResult> entry : rightResult.entrySet()) {
+		ContextResults leftColumn = ContextResults.of(leftResult);
+		ContextResults rightColumn = ContextResults.of(rightResult);
+		for (int key = rightColumn.firstId(); key != ContextResults.NONE; key = rightColumn.nextId(key)) {
 			// we only need to look at the keys from the right side.
 			// the right side of the evaluation can add new values, then we have more values on the right than on the left.
 			// the right side currently cannot remove values!
-			Integer key = entry.getKey();
-			ConstantValue leftBoxed = (ConstantValue) getcorrespondingLeftResult(leftResult, key);
-			ConstantValue rightBoxed = (ConstantValue) entry.getValue();
+			ConstantValue leftBoxed = (ConstantValue) getcorrespondingLeftResult(leftColumn, key);
+			ConstantValue rightBoxed = (ConstantValue) rightColumn.get(key);
 
 			Object left = leftBoxed.getValue();
 			Object right = rightBoxed.getValue();
@@ -678,17 +665,18 @@ public class ExpressionEvaluator {
 		return combinedResult;
 	}
 
+	/**
+	 * Applies a unary operator to the results of its operand.
+	 *
+	 * @param expr the unary expression, for logging
+	 */
 	@NonNull
-	private Map<Integer, MarkIntermediateResult> evaluateUnaryExpr(UnaryExpression expr) {
-		log.debug("Evaluating unary expression: {}", ExpressionHelper.exprToString(expr));
-
-		String op = expr.getOp();
-
-		Map<Integer, MarkIntermediateResult> subExprResult = evaluateExpression(expr.getExp()); // evaluate the subexpression
+	Map<Integer, MarkIntermediateResult> applyUnary(String op, Map<Integer, MarkIntermediateResult> subExprResult, Object expr) {
 
-		for (Map.Entry<Integer, MarkIntermediateResult> entry : subExprResult.entrySet()) {
+		ContextResults column = ContextResults.of(subExprResult);
+		for (int key = column.firstId(); key != ContextResults.NONE; key = column.nextId(key)) {
 
-			ConstantValue valueBoxed = (ConstantValue) entry.getValue();
+			ConstantValue valueBoxed = (ConstantValue) column.get(key);
 			Object value = valueBoxed.getValue();
 			Class subExprResultType = value.getClass();
 
@@ -734,39 +722,36 @@ public class ExpressionEvaluator {
 					}
 					break;
 				default:
-					log.warn("Trying to evaluate unknown unary expression: {}", ExpressionHelper.exprToString(expr));
-					unboxedResult = ErrorValue.newErrorValue(String.format("Trying to evaluate unknown unary expression: %s", ExpressionHelper.exprToString(expr)));
+					log.warn("Trying to evaluate unknown unary expression: {}", expr);
+					unboxedResult = ErrorValue.newErrorValue(String.format("Trying to evaluate unknown unary expression: %s", expr));
 			}
 			ConstantValue cv = ConstantValue.of(unboxedResult);
 			cv.addResponsibleVerticesFrom(valueBoxed);
-			subExprResult.put(entry.getKey(), cv);
+			column.put(key, cv);
 		}
-		return subExprResult;
+		return column;
 	}
 
+	/**
+	 * Resolves an operand.
+	 *
+	 * @param operand the operand
+	 * @param prefixes the operand split by "." without its base, as prefixes of increasing length. I.e., for t.foo.bla, t.foo and t.foo.bla
+	 */
 	@NonNull
-	private Map<Integer, MarkIntermediateResult> evaluateOperand(Operand operand) {
-
-		// operands are split by "."
-		String[] split = operand.getOperand().split("\\.");
-
-		StringBuilder sb = new StringBuilder();
-		sb.append(split[0]); // add base
+	Map<Integer, MarkIntermediateResult> evaluateOperand(String operand, List<String> prefixes) {
 
 		Map<Integer, MarkIntermediateResult> result = markContextHolder.generateNullResult();
 
-		for (int i = 1; i < split.length; i++) {
-			sb.append(".");
-			sb.append(split[i]);
-
+		for (String prefix : prefixes) {
 			// sequentially resolve an operand from the left to the right.
 			// i.e., if the operand is t.foo.bla, resolve t.foo, then resolve t.foo.bla
-			result = evaluateSingleOperand(sb.toString());
+			result = evaluateSingleOperand(prefix);
 		}
 
-		if (split.length == 1) { // also return the markvar itself, might be needed by a builtin
+		if (prefixes.isEmpty()) { // also return the markvar itself, might be needed by a builtin
 			for (Map.Entry<Integer, MarkIntermediateResult> entry : result.entrySet()) {
-				Vertex vertex = markContextHolder.getContext(entry.getKey()).getInstanceContext().getVertex(operand.getOperand());
+				Vertex vertex = markContextHolder.getContext(entry.getKey()).getInstanceContext().getVertex(operand);
 				CPGVertexWithValue vwv = new CPGVertexWithValue(vertex, ConstantValue.newUninitialized());
 				ConstantValue constant = ConstantValue.of(vwv.getValue());
 				constant.addResponsibleVertex(vertex);
@@ -784,7 +769,7 @@ public class ExpressionEvaluator {
 
 		if (resolvedOperand == null) {
 			// if this operand is not resolved yet in this expressionevaluation, resolve it
-			Map<Integer, List<CPGVertexWithValue>> operandVertices = CrymlinQueryWrapper.resolveOperand(resultCtx.getDatabase(), markContextHolder, operand, markRule,
+			Map<Integer, List<CPGVertexWithValue>> operandVertices = CrymlinQueryWrapper.resolveOperand(resultCtx, markContextHolder, operand, markRule,
 				markModel, traversal);
 			if (operandVertices.size() == 0) {
 				log.warn("Did not find any vertices for {}, following evaluation will be imprecise", operand);
@@ -0,0 +1,98 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.markmodel.MOp;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Violations of all order expressions in one function, found in a single pass over the EOG of the function by {@link CombinedOrderEvaluator}.
+ * <p>
+ * Violations are recorded for all bases, the contexts of a rule pick those of the bases referring to their instances.
+ */
+public class FunctionOrderResults {
+
+	private volatile boolean evaluated = false;
+
+	// the combined pass exceeded its budget, each rule evaluates the function on its own
+	private volatile boolean failed = false;
+
+	private final Set<OrderAutomaton> automata = new HashSet<>();
+
+	private final Map<OrderAutomaton, List<Violation>> violations = new HashMap<>();
+
+	boolean isEvaluated() {
+		return evaluated;
+	}
+
+	boolean isFailed() {
+		return failed;
+	}
+
+	/**
+	 * Marks the combined pass as stopped before it was done, drops the violations found so far.
+	 */
+	void setFailed() {
+		violations.clear();
+		failed = true;
+	}
+
+	void setEvaluated(@NonNull Collection<OrderAutomaton> evaluatedAutomata) {
+		automata.addAll(evaluatedAutomata);
+		evaluated = true;
+	}
+
+	/**
+	 * Returns true if the order expression of this automaton was part of the evaluation.
+	 */
+	boolean contains(@NonNull OrderAutomaton automaton) {
+		return automata.contains(automaton);
+	}
+
+	void addViolation(@NonNull OrderAutomaton automaton, @NonNull Violation violation) {
+		violations.computeIfAbsent(automaton, x -> new ArrayList<>()).add(violation);
+	}
+
+	@NonNull
+	List<Violation> getViolations(@NonNull OrderAutomaton automaton) {
+		return violations.getOrDefault(automaton, List.of());
+	}
+
+	/**
+	 * A call which is not allowed in the state of its base (if {@code op} is set), or a base which is not correctly terminated at the end of the function.
+	 */
+	static class Violation {
+		@NonNull
+		final String base;
+		@Nullable
+		final Object referencedVertex;
+		@Nullable
+		final Vertex vertex;
+		@Nullable
+		final MOp op;
+		@NonNull
+		final Collection<String> expected;
+
+		Violation(@NonNull String base, @Nullable Object referencedVertex, @Nullable Vertex vertex, @Nullable MOp op, @NonNull Collection<String> expected) {
+			this.base = base;
+			this.referencedVertex = referencedVertex;
+			this.vertex = vertex;
+			this.op = op;
+			this.expected = expected;
+		}
+
+		boolean isUnterminated() {
+			return op == null;
+		}
+	}
+}
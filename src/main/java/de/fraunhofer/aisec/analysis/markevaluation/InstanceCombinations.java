@@ -0,0 +1,83 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.structures.CPGInstanceContext;
+import de.fraunhofer.aisec.analysis.structures.Pair;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Lazily enumerates the cartesian product of the instances of MARK entities, i.e., all combinations of instances a rule has to be evaluated for.
+ * <p>
+ * Combinations are enumerated in the same order as {@code Lists.cartesianProduct}, but are only created on demand and the number of combinations is not limited
+ * to {@code Integer.MAX_VALUE}.
+ */
+class InstanceCombinations implements Iterator<CPGInstanceContext> {
+
+	@NonNull
+	private final List<List<Pair<String, Vertex>>> entities;
+	private final int[] indices;
+	private boolean hasNext;
+
+	/**
+	 * @param entities for each entity of a rule, the list of (instance name, vertex) pairs which may be assigned to it
+	 */
+	InstanceCombinations(@NonNull List<List<Pair<String, Vertex>>> entities) {
+		this.entities = entities;
+		this.indices = new int[entities.size()];
+		this.hasNext = entities.stream().noneMatch(List::isEmpty);
+	}
+
+	/**
+	 * Returns the total number of combinations, saturated at {@code Long.MAX_VALUE}.
+	 *
+	 * @return
+	 */
+	long size() {
+		long size = 1;
+		for (List<Pair<String, Vertex>> instances : entities) {
+			if (instances.isEmpty()) {
+				return 0;
+			}
+			if (size > Long.MAX_VALUE / instances.size()) {
+				return Long.MAX_VALUE;
+			}
+			size *= instances.size();
+		}
+		return size;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return hasNext;
+	}
+
+	@Override
+	public CPGInstanceContext next() {
+		if (!hasNext) {
+			throw new NoSuchElementException();
+		}
+		CPGInstanceContext instanceCtx = new CPGInstanceContext();
+		for (int i = 0; i < entities.size(); i++) {
+			Pair<String, Vertex> p = entities.get(i).get(indices[i]);
+			instanceCtx.putMarkInstance(p.getValue0(), p.getValue1());
+		}
+
+		// advance the indices, the last entity changes fastest
+		int i = entities.size() - 1;
+		while (i >= 0) {
+			indices[i]++;
+			if (indices[i] < entities.get(i).size()) {
+				break;
+			}
+			indices[i] = 0;
+			i--;
+		}
+		hasNext = i >= 0;
+		return instanceCtx;
+	}
+}
@@ -0,0 +1,84 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.structures.Finding;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of intraprocedural order evaluation per order expression and instance.
+ * <p>
+ * The result of an order expression only depends on the instance vertex of its base, not on the other instances of a context. Results are filled by
+ * {@link ParallelOrderEvaluator} before the "ensure" part of a batch of contexts is evaluated, and released after the rule has been evaluated.
+ */
+public class InstanceOrderResults {
+
+	private final Map<OrderAutomaton, Map<Object, Result>> results = new ConcurrentHashMap<>();
+
+	// number of results stored so far, including released ones
+	private final AtomicLong evaluated = new AtomicLong();
+
+	void put(@NonNull OrderAutomaton automaton, @NonNull Object instanceId, @NonNull Result result) {
+		results.computeIfAbsent(automaton, x -> new ConcurrentHashMap<>()).put(instanceId, result);
+		evaluated.incrementAndGet();
+	}
+
+	/**
+	 * Releases the results of an order expression, e.g. when the evaluation of its rule is done.
+	 */
+	void remove(@NonNull OrderAutomaton automaton) {
+		results.remove(automaton);
+	}
+
+	/**
+	 * Returns the result for the instance vertex with the given id, null if it has not been evaluated.
+	 */
+	@Nullable
+	Result get(@NonNull OrderAutomaton automaton, @NonNull Object instanceId) {
+		Map<Object, Result> forAutomaton = results.get(automaton);
+		return forAutomaton == null ? null : forAutomaton.get(instanceId);
+	}
+
+	public int size() {
+		return results.values().stream().mapToInt(Map::size).sum();
+	}
+
+	/**
+	 * Returns the number of instances evaluated during the analysis, including the ones whose results have been released.
+	 */
+	public long getEvaluated() {
+		return evaluated.get();
+	}
+
+	static class Result {
+		private final boolean valid;
+		private final boolean unterminatedBases;
+		@NonNull
+		private final List<Finding> findings;
+
+		Result(boolean valid, boolean unterminatedBases, @NonNull List<Finding> findings) {
+			this.valid = valid;
+			this.unterminatedBases = unterminatedBases;
+			this.findings = findings;
+		}
+
+		boolean isValid() {
+			return valid;
+		}
+
+		boolean hasUnterminatedBases() {
+			return unterminatedBases;
+		}
+
+		@NonNull
+		List<Finding> getFindings() {
+			return findings;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.structures.InstancePairing;
+import de.fraunhofer.aisec.analysis.structures.Pair;
+import de.fraunhofer.aisec.crymlin.CrymlinQueryWrapper;
+import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversalSource;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.DFG;
+
+/**
+ * Restricts the combinations of instances of a rule to instances which are "local" to each other according to an {@link InstancePairing}.
+ * <p>
+ * Each instance vertex is mapped to a key (its file, its containing function, or its data flow component). Only instances with the same key are combined.
+ * Instances without a key (e.g., fields or missing instances) are combined with all others.
+ */
+class InstancePairer {
+
+	/** Maximal number of vertices visited when searching for data flow between instances. */
+	private static final int MAX_DFG_STEPS = 10_000;
+
+	@NonNull
+	private final InstancePairing pairing;
+
+	@NonNull
+	private final CrymlinTraversalSource crymlinTraversal;
+
+	InstancePairer(@NonNull InstancePairing pairing, @NonNull CrymlinTraversalSource crymlinTraversal) {
+		this.pairing = pairing;
+		this.crymlinTraversal = crymlinTraversal;
+	}
+
+	/**
+	 * Splits the cartesian product of {@code entities} into disjoint products which only combine local instances.
+	 *
+	 * @param entities for each entity of a rule, the list of (instance name, vertex) pairs which may be assigned to it
+	 * @return list of disjoint products, each in the same format as {@code entities}
+	 */
+	@NonNull
+	List<List<List<Pair<String, Vertex>>>> pair(@NonNull List<List<Pair<String, Vertex>>> entities) {
+		List<List<List<Pair<String, Vertex>>>> products = new ArrayList<>();
+		if (pairing == InstancePairing.ALL || entities.size() < 2) {
+			products.add(entities);
+			return products;
+		}
+
+		Map<Vertex, Object> keys = computeKeys(entities);
+
+		// instances without key are combined with every key
+		List<List<Pair<String, Vertex>>> unkeyed = new ArrayList<>();
+		Set<Object> allKeys = new LinkedHashSet<>();
+		for (List<Pair<String, Vertex>> instances : entities) {
+			List<Pair<String, Vertex>> u = new ArrayList<>();
+			for (Pair<String, Vertex> p : instances) {
+				Object key = p.getValue1() == null ? null : keys.get(p.getValue1());
+				if (key == null) {
+					u.add(p);
+				} else {
+					allKeys.add(key);
+				}
+			}
+			unkeyed.add(u);
+		}
+
+		// combinations of unkeyed instances only
+		if (unkeyed.stream().noneMatch(List::isEmpty)) {
+			products.add(unkeyed);
+		}
+
+		// combinations containing at least one instance with key k. To keep the products disjoint, entity j is the first one with a keyed instance:
+		// entities before j only use unkeyed instances, entity j uses instances with key k, entities after j use both.
+		for (Object key : allKeys) {
+			List<List<Pair<String, Vertex>>> keyed = new ArrayList<>();
+			for (List<Pair<String, Vertex>> instances : entities) {
+				List<Pair<String, Vertex>> k = new ArrayList<>();
+				for (Pair<String, Vertex> p : instances) {
+					if (p.getValue1() != null && key.equals(keys.get(p.getValue1()))) {
+						k.add(p);
+					}
+				}
+				keyed.add(k);
+			}
+
+			for (int j = 0; j < entities.size(); j++) {
+				if (keyed.get(j).isEmpty()) {
+					continue;
+				}
+				List<List<Pair<String, Vertex>>> product = new ArrayList<>();
+				for (int i = 0; i < entities.size(); i++) {
+					if (i < j) {
+						product.add(unkeyed.get(i));
+					} else if (i == j) {
+						product.add(keyed.get(i));
+					} else {
+						List<Pair<String, Vertex>> both = new ArrayList<>(keyed.get(i));
+						both.addAll(unkeyed.get(i));
+						product.add(both);
+					}
+				}
+				if (product.stream().noneMatch(List::isEmpty)) {
+					products.add(product);
+				}
+			}
+		}
+		return products;
+	}
+
+	private Map<Vertex, Object> computeKeys(List<List<Pair<String, Vertex>>> entities) {
+		Set<Vertex> instanceVertices = new HashSet<>();
+		for (List<Pair<String, Vertex>> instances : entities) {
+			for (Pair<String, Vertex> p : instances) {
+				if (p.getValue1() != null) {
+					instanceVertices.add(p.getValue1());
+				}
+			}
+		}
+
+		Map<Vertex, Object> keys = new HashMap<>();
+		switch (pairing) {
+			case FILE:
+				for (Vertex v : instanceVertices) {
+					v.property("file").ifPresent(file -> keys.put(v, file));
+				}
+				break;
+			case FUNCTION:
+				for (Vertex v : instanceVertices) {
+					CrymlinQueryWrapper.getContainingFunction(v, crymlinTraversal).ifPresent(f -> keys.put(v, f.id()));
+				}
+				break;
+			case DATAFLOW:
+				keys.putAll(dataflowComponents(instanceVertices));
+				break;
+			default:
+				break;
+		}
+		return keys;
+	}
+
+	/**
+	 * Groups instance vertices which are connected by data flow (in any direction). The key of each vertex is the representative of its group.
+	 */
+	private Map<Vertex, Object> dataflowComponents(Set<Vertex> instanceVertices) {
+		Map<Vertex, Vertex> parent = new HashMap<>();
+		instanceVertices.forEach(v -> parent.put(v, v));
+
+		for (Vertex start : instanceVertices) {
+			Set<Vertex> seen = new HashSet<>();
+			Deque<Vertex> worklist = new ArrayDeque<>();
+			worklist.add(start);
+			while (!worklist.isEmpty() && seen.size() < MAX_DFG_STEPS) {
+				Vertex v = worklist.poll();
+				if (!seen.add(v)) {
+					continue;
+				}
+				if (!v.equals(start) && parent.containsKey(v)) {
+					union(parent, start, v);
+				}
+				Iterator<Edge> edges = v.edges(Direction.BOTH, DFG);
+				while (edges.hasNext()) {
+					Edge e = edges.next();
+					worklist.add(e.outVertex().equals(v) ? e.inVertex() : e.outVertex());
+				}
+			}
+		}
+
+		Map<Vertex, Object> keys = new HashMap<>();
+		for (Vertex v : instanceVertices) {
+			keys.put(v, find(parent, v).id());
+		}
+		return keys;
+	}
+
+	private static Vertex find(Map<Vertex, Vertex> parent, Vertex v) {
+		Vertex root = v;
+		while (!Objects.equals(parent.get(root), root)) {
+			root = parent.get(root);
+		}
+		parent.put(v, root);
+		return root;
+	}
+
+	private static void union(Map<Vertex, Vertex> parent, Vertex a, Vertex b) {
+		Vertex rootA = find(parent, a);
+		Vertex rootB = find(parent, b);
+		if (!rootA.equals(rootB)) {
+			parent.put(rootB, rootA);
+		}
+	}
+}
@@ -5,24 +5,54 @@ import de.breakpointsec.pushdown.IllegalTransitionException;
 import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
 import de.fraunhofer.aisec.analysis.structures.ConstantValue;
 import de.fraunhofer.aisec.analysis.structures.ErrorValue;
+import de.fraunhofer.aisec.analysis.structures.Finding;
 import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
 import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
+import de.fraunhofer.aisec.analysis.structures.TypestateMode;
+import de.fraunhofer.aisec.analysis.utils.Utils;
 import de.fraunhofer.aisec.analysis.wpds.TypeStateAnalysis;
+import de.fraunhofer.aisec.cpg.graph.declarations.FieldDeclaration;
+import de.fraunhofer.aisec.cpg.graph.declarations.ParamVariableDeclaration;
+import de.fraunhofer.aisec.cpg.graph.statements.ReturnStatement;
+import de.fraunhofer.aisec.cpg.graph.statements.expressions.MemberExpression;
 import de.fraunhofer.aisec.cpg.helpers.Benchmark;
 import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversalSource;
 import de.fraunhofer.aisec.mark.markDsl.OrderExpression;
+import de.fraunhofer.aisec.markmodel.MOp;
 import de.fraunhofer.aisec.markmodel.MRule;
+import de.fraunhofer.aisec.markmodel.Mark;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.ARGUMENTS;
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.BASE;
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.DFG;
+
 public class OrderEvaluator {
 
 	private static final Logger log = LoggerFactory.getLogger(OrderEvaluator.class);
+	// number of DFG vertices followed when checking if a base escapes its function
+	private static final int MAX_ESCAPE_VERTICES = 1_000;
+	private final Mark markModel;
 	private final MRule rule;
 	private final ServerConfiguration config;
 
-	public OrderEvaluator(@NonNull MRule rule, ServerConfiguration config) {
+	public OrderEvaluator(@NonNull Mark markModel, @NonNull MRule rule, ServerConfiguration config) {
+		this.markModel = markModel;
 		this.rule = rule;
 		this.config = config;
 	}
@@ -36,21 +66,18 @@ public class OrderEvaluator {
 		switch (config.typestateAnalysis) {
 
 			case WPDS:
-				log.info("Evaluating order with WPDS");
-				TypeStateAnalysis ts = new TypeStateAnalysis(markContextHolder, resultCtx);
-				try {
-					// NOTE: rule and orderExpression might be redundant as arguments
-					result = ts.analyze(orderExpression, contextID, resultCtx, crymlinTraversal, rule);
-				}
-				catch (IllegalTransitionException e) {
-					log.error("Unexpected error in typestate WPDS", e);
-					result = ErrorValue.newErrorValue(String.format("Unexpected error in typestate WPDS %s", e.getMessage()));
-				}
+				result = evaluateWpds(orderExpression, contextID, resultCtx, crymlinTraversal, markContextHolder);
+				break;
+
+			case HYBRID:
+				result = evaluateHybrid(orderExpression, contextID, resultCtx, crymlinTraversal, markContextHolder);
 				break;
 
 			case NFA:
-				log.info("Evaluating order with NFA");
-				OrderNFAEvaluator orderNFAEvaluator = new OrderNFAEvaluator(rule, markContextHolder);
+			case FIXPOINT:
+			case SUMMARY:
+				log.info("Evaluating order with {}", config.typestateAnalysis);
+				OrderNFAEvaluator orderNFAEvaluator = createIntraproceduralEvaluator(markModel, rule, config, markContextHolder);
 				result = orderNFAEvaluator.evaluate(orderExpression, contextID, resultCtx, crymlinTraversal);
 				break;
 
@@ -61,4 +88,148 @@ public class OrderEvaluator {
 		tsBench.stop();
 		return result;
 	}
+
+	private ConstantValue evaluateWpds(OrderExpression orderExpression, Integer contextID, AnalysisContext resultCtx,
+			CrymlinTraversalSource crymlinTraversal, MarkContextHolder markContextHolder) {
+		log.info("Evaluating order with WPDS");
+		TypeStateAnalysis ts = new TypeStateAnalysis(markContextHolder, resultCtx, config);
+		try {
+			// NOTE: rule and orderExpression might be redundant as arguments
+			return ts.analyze(orderExpression, contextID, resultCtx, crymlinTraversal, rule);
+		}
+		catch (IllegalTransitionException e) {
+			log.error("Unexpected error in typestate WPDS", e);
+			return ErrorValue.newErrorValue(String.format("Unexpected error in typestate WPDS %s", e.getMessage()));
+		}
+	}
+
+	/**
+	 * Evaluates the order with the NFA and falls back to WPDS if the NFA result is inconclusive, i.e., if the base of the order escapes its function or is not
+	 * correctly terminated at its end. The findings of the NFA are only kept if WPDS is not needed.
+	 */
+	private ConstantValue evaluateHybrid(OrderExpression orderExpression, Integer contextID, AnalysisContext resultCtx,
+			CrymlinTraversalSource crymlinTraversal, MarkContextHolder markContextHolder) {
+		log.info("Evaluating order with NFA");
+		OrderNFAEvaluator orderNFAEvaluator = new OrderNFAEvaluator(rule, markContextHolder);
+		List<Finding> findings = new ArrayList<>();
+		orderNFAEvaluator.setFindingCollector(findings);
+		ConstantValue result = orderNFAEvaluator.evaluate(orderExpression, contextID, resultCtx, crymlinTraversal);
+
+		if (result instanceof ErrorValue) {
+			log.info("NFA evaluation of rule {} failed, falling back to WPDS", rule.getName());
+			return evaluateWpds(orderExpression, contextID, resultCtx, crymlinTraversal, markContextHolder);
+		}
+		if (orderNFAEvaluator.hasUnterminatedBases()) {
+			log.info("Base of rule {} is not terminated in its function, falling back to WPDS", rule.getName());
+			return evaluateWpds(orderExpression, contextID, resultCtx, crymlinTraversal, markContextHolder);
+		}
+		if (escapesFunction(orderExpression, contextID, resultCtx, crymlinTraversal, markContextHolder)) {
+			log.info("Base of rule {} escapes its function, falling back to WPDS", rule.getName());
+			return evaluateWpds(orderExpression, contextID, resultCtx, crymlinTraversal, markContextHolder);
+		}
+
+		if (markContextHolder.isCreateFindingsDuringEvaluation()) {
+			resultCtx.getFindings().addAll(findings);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if the object of the instance of the order, or of any of its aliases, may be used outside of its function.
+	 */
+	private boolean escapesFunction(OrderExpression orderExpression, Integer contextID, AnalysisContext resultCtx, CrymlinTraversalSource crymlinTraversal,
+			MarkContextHolder markContextHolder) {
+		Set<String> markInstances = new HashSet<>();
+		ExpressionHelper.collectMarkInstances(orderExpression.getExp(), markInstances);
+		// the NFA evaluation succeeded, so there is exactly one base
+		Vertex instance = markContextHolder.getContext(contextID).getInstanceContext().getVertex(markInstances.iterator().next());
+		if (instance == null) {
+			return true;
+		}
+		Map<Vertex, MOp> verticesToOp = OrderNFAEvaluator.getVerticesToOp(rule, resultCtx);
+		for (Object member : resultCtx.getAliasClasses().getMembers(instance.id())) {
+			Optional<Vertex> alias = member.equals(instance.id()) ? Optional.of(instance) : crymlinTraversal.V(member).tryNext();
+			if (alias.isEmpty() || escapesFunction(alias.get(), verticesToOp)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns true if the object declared by {@code instance} may be used outside of its function: it is a parameter, or it flows into a return statement, a
+	 * field, or an argument of a call which is not an op of the rule.
+	 * <p>
+	 * Follows the DFG from the declaration, but not into the results of calls. If more than {@link #MAX_ESCAPE_VERTICES} vertices are reached, the object is
+	 * assumed to escape.
+	 */
+	static boolean escapesFunction(@NonNull Vertex instance, @NonNull Map<Vertex, MOp> verticesToOp) {
+		if (Utils.hasLabel(instance, ParamVariableDeclaration.class)) {
+			return true;
+		}
+		Deque<Vertex> worklist = new ArrayDeque<>();
+		Set<Object> seen = new HashSet<>();
+		worklist.add(instance);
+		seen.add(instance.id());
+		while (!worklist.isEmpty()) {
+			Vertex v = worklist.poll();
+			Iterator<Edge> dfg = v.edges(Direction.OUT, DFG);
+			while (dfg.hasNext()) {
+				Vertex next = dfg.next().inVertex();
+				if (!seen.add(next.id())) {
+					continue;
+				}
+				if (seen.size() > MAX_ESCAPE_VERTICES) {
+					return true;
+				}
+				if (Utils.hasLabel(next, ReturnStatement.class) || Utils.hasLabel(next, FieldDeclaration.class)) {
+					return true;
+				}
+				if (Utils.hasLabel(next, MemberExpression.class)) {
+					// reading a member of the object is fine, storing the object in a member is not
+					if (!isBaseOf(v, next)) {
+						return true;
+					}
+					continue;
+				}
+				Iterator<Edge> calls = next.edges(Direction.IN, ARGUMENTS);
+				while (calls.hasNext()) {
+					if (!verticesToOp.containsKey(calls.next().outVertex())) {
+						return true;
+					}
+				}
+				if (!OrderNFAEvaluator.isCall(next)) {
+					worklist.add(next);
+				}
+			}
+		}
+		return false;
+	}
+
+	private static boolean isBaseOf(Vertex base, Vertex memberExpression) {
+		Iterator<Edge> edges = memberExpression.edges(Direction.OUT, BASE);
+		while (edges.hasNext()) {
+			if (edges.next().inVertex().id().equals(base.id())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Creates the evaluator for the typestate modes evaluating the function of an instance (NFA, FIXPOINT, SUMMARY, and the NFA part of HYBRID).
+	 */
+	static OrderNFAEvaluator createIntraproceduralEvaluator(@NonNull Mark markModel, @NonNull MRule rule, @NonNull ServerConfiguration config,
+			@NonNull MarkContextHolder markContextHolder) {
+		if (config.typestateAnalysis == TypestateMode.SUMMARY) {
+			return new OrderSummaryEvaluator(rule, markContextHolder);
+		}
+		if (config.typestateAnalysis != TypestateMode.FIXPOINT) {
+			return new OrderNFAEvaluator(rule, markContextHolder);
+		}
+		if (config.combineOrderRules) {
+			return new CombinedOrderEvaluator(markModel.getRules(), rule, markContextHolder);
+		}
+		return new OrderFixpointEvaluator(rule, markContextHolder);
+	}
 }
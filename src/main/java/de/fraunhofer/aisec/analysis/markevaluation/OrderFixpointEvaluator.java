@@ -0,0 +1,293 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.markevaluation.FunctionOrderResults.Violation;
+import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
+import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
+import de.fraunhofer.aisec.analysis.structures.RuleBudget;
+import de.fraunhofer.aisec.markmodel.MOp;
+import de.fraunhofer.aisec.markmodel.MRule;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+import java.util.function.IntConsumer;
+
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.EOG;
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.START_LINE;
+
+/**
+ * Evaluates an order expression with a worklist-based dataflow analysis over the EOG of a function.
+ * <p>
+ * In contrast to {@link OrderNFAEvaluator}, branches of the EOG are not tracked as separate eog paths. Instead, the entry of each vertex holds the set of
+ * automaton states each base may be in, and these sets are merged where branches of the EOG join. As the sets only grow, each vertex is visited at most
+ * (bases x states) times.
+ */
+public class OrderFixpointEvaluator extends OrderNFAEvaluator {
+
+	private static final Logger log = LoggerFactory.getLogger(OrderFixpointEvaluator.class);
+
+	/** The base has not been used on this path. */
+	static final int UNSEEN = -1;
+
+	public OrderFixpointEvaluator(MRule rule, MarkContextHolder markContextHolder) {
+		super(rule, markContextHolder);
+	}
+
+	@Override
+	protected boolean evaluateFunction(Vertex functionDeclaration, Map<Vertex, MOp> verticesToOp, Set<Object> referencedVertices, OrderAutomaton automaton,
+			AnalysisContext ctx) {
+		Run run = analyze(functionDeclaration, new HashMap<>(), verticesToOp, referencedVertices, automaton, ctx);
+
+		boolean isOrderValid = run.violations.isEmpty();
+		for (Violation violation : run.violations) {
+			reportViolation(ctx, violation.vertex, violation.op, new ArrayList<>(violation.expected));
+		}
+
+		// now the whole function was evaluated. Check that the automaton is in an end state for all bases
+		for (Map.Entry<String, Set<Integer>> entry : run.exitStates.entrySet()) {
+			Violation unterminated = getUnterminated(entry.getKey(), null, entry.getValue(), run.lastBaseUsage.getOrDefault(entry.getKey(), Map.of()), automaton);
+			if (unterminated != null) {
+				isOrderValid = false;
+				reportUnterminated(ctx, unterminated.base, unterminated.vertex, unterminated.expected);
+			}
+		}
+		return isOrderValid;
+	}
+
+	/**
+	 * Runs the fixpoint analysis over the EOG of a function without reporting anything.
+	 *
+	 * @param initialStates states of the bases at the entry of the function
+	 * @return the violations found and the states at the end of the function
+	 */
+	protected Run analyze(Vertex functionDeclaration, Map<String, Set<Integer>> initialStates, Map<Vertex, MOp> verticesToOp,
+			Set<Object> referencedVertices, OrderAutomaton automaton, AnalysisContext ctx) {
+		Run run = new Run(verticesToOp, referencedVertices, automaton, ctx);
+		long visitedNodes = fixpoint(functionDeclaration, initialStates, run, ctx.getRuleBudget(rule.getName()), (vertex, states) -> {
+			MOp op = verticesToOp.get(vertex);
+			String base = getBase(vertex, op, referencedVertices, ctx.getAliasClasses());
+			if (base != null) {
+				states.put(base, applyOp(states.getOrDefault(base, Set.of(UNSEEN)), automaton, op, vertex,
+					run.lastBaseUsage.computeIfAbsent(base, x -> new HashMap<>()),
+					current -> run.addViolation(new Violation(base, null, vertex, op, automaton.getExpected(current)))));
+			} else {
+				transfer(vertex, states, run);
+			}
+		});
+
+		log.debug("Done evaluating function {}, rule {}. Visited Nodes: {}", functionDeclaration.value("name"), rule.getName(), visitedNodes);
+		return run;
+	}
+
+	/**
+	 * Runs the worklist over the EOG of a function until a fixpoint is reached. {@code transfer} updates the states at the entry of a vertex to the states after
+	 * it. These are joined into the entry states of the EOG successors, or into the exit states of {@code run} for vertices without successors.
+	 *
+	 * @param initialStates states of the bases at the entry of the function
+	 * @param budget        charged for each visited vertex
+	 * @return the number of visited vertices
+	 */
+	static long fixpoint(Vertex functionDeclaration, Map<String, Set<Integer>> initialStates, Run run, RuleBudget budget,
+			BiConsumer<Vertex, Map<String, Set<Integer>>> transfer) {
+		Deque<Vertex> worklist = new ArrayDeque<>();
+		Set<Object> inWorklist = new HashSet<>();
+		run.entryStates.put(functionDeclaration.id(), copy(initialStates));
+		worklist.add(functionDeclaration);
+		inWorklist.add(functionDeclaration.id());
+
+		long visitedNodes = 0;
+		while (!worklist.isEmpty()) {
+			run.ctx.getCancellationToken().throwIfCancelled();
+			budget.countOrderStep();
+			Vertex vertex = worklist.poll();
+			inWorklist.remove(vertex.id());
+			visitedNodes++;
+
+			Map<String, Set<Integer>> states = copy(run.entryStates.get(vertex.id()));
+			transfer.accept(vertex, states);
+
+			List<Vertex> outVertices = new ArrayList<>();
+			vertex.edges(Direction.OUT, EOG).forEachRemaining(edge -> outVertices.add(edge.inVertex()));
+			if (outVertices.isEmpty()) {
+				join(run.exitStates, states);
+			}
+			for (Vertex out : outVertices) {
+				Map<String, Set<Integer>> outEntry = run.entryStates.get(out.id());
+				boolean changed;
+				if (outEntry == null) {
+					run.entryStates.put(out.id(), copy(states));
+					changed = true;
+				} else {
+					changed = join(outEntry, states);
+				}
+				if (changed && inWorklist.add(out.id())) {
+					worklist.add(out);
+				}
+			}
+		}
+		return visitedNodes;
+	}
+
+	/**
+	 * Applies a call of {@code op} on a base to the states the base may be in.
+	 *
+	 * @param lastUsages last usage of the base leading to each state, updated with {@code vertex}
+	 * @param violation  called with each state in which the call is not allowed
+	 * @return the states after the call
+	 */
+	static Set<Integer> applyOp(Set<Integer> states, OrderAutomaton automaton, MOp op, Vertex vertex, Map<Integer, Vertex> lastUsages, IntConsumer violation) {
+		Set<Integer> next = new HashSet<>();
+		for (int state : states) {
+			if (isDisallowed(state)) {
+				// we hide base errors for now!
+				next.add(state);
+				continue;
+			}
+			// if we have not seen this base before, check if this is the start of an order
+			int current = state == UNSEEN ? automaton.getStart() : state;
+			int nextState = automaton.next(current, op.getName());
+			if (nextState == OrderAutomaton.NONE) {
+				// this call is not allowed, and errors of this base are hidden in the following eog. The base stays in its state for the termination check
+				violation.accept(current);
+				next.add(disallow(state));
+			} else {
+				lastUsages.merge(nextState, vertex, OrderFixpointEvaluator::later);
+				next.add(nextState);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Checks that the automaton is in an end state for a base at the end of a function.
+	 *
+	 * @param exitStates the states of the base at the end of the function
+	 * @param lastUsages last usage of the base leading to each state
+	 * @return the violation located at the last usage leading to a state which is not an end state, or null if the base is terminated
+	 */
+	@Nullable
+	static Violation getUnterminated(String base, @Nullable Object referencedVertex, Set<Integer> exitStates, Map<Integer, Vertex> lastUsages,
+			OrderAutomaton automaton) {
+		Set<String> notEnded = new TreeSet<>();
+		Vertex lastUsage = null;
+		for (int state : exitStates) {
+			if (isDisallowed(state)) {
+				state = disallow(state);
+			}
+			if (state != UNSEEN && !automaton.isEnd(state)) {
+				notEnded.addAll(automaton.getUnterminated(state));
+				Vertex usage = lastUsages.get(state);
+				if (usage != null) {
+					lastUsage = lastUsage == null ? usage : later(lastUsage, usage);
+				}
+			}
+		}
+		return notEnded.isEmpty() ? null : new Violation(base, referencedVertex, lastUsage, null, notEnded);
+	}
+
+	/**
+	 * Called for each vertex which is not an op on a base of the rule, may update the {@code states} after the vertex. Does nothing by default.
+	 */
+	protected void transfer(Vertex vertex, Map<String, Set<Integer>> states, Run run) {
+		// calls of other functions do not change the state of a base
+	}
+
+	/**
+	 * Marks a state (or {@link #UNSEEN}) as disallowed, i.e., a violation has already been reported for the base. Applying this twice returns the original
+	 * state.
+	 */
+	static int disallow(int state) {
+		return -3 - state;
+	}
+
+	static boolean isDisallowed(int state) {
+		return state < UNSEEN;
+	}
+
+	/**
+	 * Returns the vertex with the greater start line, preferring {@code second} on equal lines.
+	 */
+	static Vertex later(Vertex first, Vertex second) {
+		long firstLine = first.value(START_LINE);
+		long secondLine = second.value(START_LINE);
+		return firstLine <= secondLine ? second : first;
+	}
+
+	/**
+	 * Merges the states of {@code source} into {@code target}. A base missing in one of the maps has not been used on this path.
+	 *
+	 * @return true, if {@code target} changed
+	 */
+	static boolean join(Map<String, Set<Integer>> target, Map<String, Set<Integer>> source) {
+		boolean changed = false;
+		for (Map.Entry<String, Set<Integer>> entry : target.entrySet()) {
+			if (!source.containsKey(entry.getKey())) {
+				changed |= entry.getValue().add(UNSEEN);
+			}
+		}
+		for (Map.Entry<String, Set<Integer>> entry : source.entrySet()) {
+			Set<Integer> states = target.get(entry.getKey());
+			if (states == null) {
+				states = new HashSet<>();
+				states.add(UNSEEN);
+				target.put(entry.getKey(), states);
+				changed = true;
+			}
+			changed |= states.addAll(entry.getValue());
+		}
+		return changed;
+	}
+
+	static Map<String, Set<Integer>> copy(Map<String, Set<Integer>> states) {
+		Map<String, Set<Integer>> ret = new HashMap<>();
+		states.forEach((k, v) -> ret.put(k, new HashSet<>(v)));
+		return ret;
+	}
+
+	/**
+	 * State of one analysis of a function by {@link #analyze(Vertex, Map, Map, Set, OrderAutomaton, AnalysisContext)}. The combined pass of
+	 * {@link CombinedOrderEvaluator} tracks several automata and has no ops, referenced vertices or automaton of its own.
+	 */
+	protected static class Run {
+		final Map<Vertex, MOp> verticesToOp;
+		final Set<Object> referencedVertices;
+		final OrderAutomaton automaton;
+		final AnalysisContext ctx;
+		// base -> states at the entry of each vertex
+		final Map<Object, Map<String, Set<Integer>>> entryStates = new HashMap<>();
+		// merged states of all vertices without EOG successors
+		final Map<String, Set<Integer>> exitStates = new HashMap<>();
+		// last usage of base which lead to a state
+		final Map<String, Map<Integer, Vertex>> lastBaseUsage = new HashMap<>();
+		// violations which have already been found, as vertex id and expected ops
+		private final Set<String> reported = new HashSet<>();
+		final List<Violation> violations = new ArrayList<>();
+
+		Run(Map<Vertex, MOp> verticesToOp, Set<Object> referencedVertices, OrderAutomaton automaton, AnalysisContext ctx) {
+			this.verticesToOp = verticesToOp;
+			this.referencedVertices = referencedVertices;
+			this.automaton = automaton;
+			this.ctx = ctx;
+		}
+
+		void addViolation(Violation violation) {
+			if (reported.add(violation.vertex.id() + "/" + violation.expected)) {
+				violations.add(violation);
+			}
+		}
+	}
+}
@@ -1,6 +1,7 @@
 
 package de.fraunhofer.aisec.analysis.markevaluation;
 
+import de.fraunhofer.aisec.analysis.structures.AliasClasses;
 import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
 import de.fraunhofer.aisec.analysis.structures.CPGInstanceContext;
 import de.fraunhofer.aisec.analysis.structures.ConstantValue;
@@ -8,22 +9,25 @@ import de.fraunhofer.aisec.analysis.structures.ErrorValue;
 import de.fraunhofer.aisec.analysis.structures.Finding;
 import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
 import de.fraunhofer.aisec.analysis.structures.Pair;
+import de.fraunhofer.aisec.analysis.structures.RuleBudget;
 import de.fraunhofer.aisec.crymlin.CrymlinQueryWrapper;
 import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversalSource;
 import de.fraunhofer.aisec.mark.markDsl.OrderExpression;
 import de.fraunhofer.aisec.markmodel.MEntity;
 import de.fraunhofer.aisec.markmodel.MOp;
 import de.fraunhofer.aisec.markmodel.MRule;
-import de.fraunhofer.aisec.markmodel.fsm.FSM;
-import de.fraunhofer.aisec.markmodel.fsm.Node;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
 import org.apache.tinkerpop.gremlin.structure.Direction;
 import org.apache.tinkerpop.gremlin.structure.Edge;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -32,6 +36,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 
 import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.END_COLUMN;
@@ -44,14 +49,33 @@ import static java.lang.Math.toIntExact;
 public class OrderNFAEvaluator {
 
 	private static final Logger log = LoggerFactory.getLogger(OrderNFAEvaluator.class);
-	private final MRule rule;
-	private final MarkContextHolder markContextHolder;
+	protected final MRule rule;
+	protected final MarkContextHolder markContextHolder;
+	// if set, findings are collected here instead of being added to the analysis context
+	@Nullable
+	private Collection<Finding> findingCollector;
+	// true, if a base was not correctly terminated in the last evaluation
+	private boolean unterminatedBases = false;
 
 	public OrderNFAEvaluator(MRule rule, MarkContextHolder markContextHolder) {
 		this.rule = rule;
 		this.markContextHolder = markContextHolder;
 	}
 
+	/**
+	 * Collects the findings of subsequent evaluations in {@code findingCollector} instead of adding them to the analysis context.
+	 */
+	void setFindingCollector(@Nullable Collection<Finding> findingCollector) {
+		this.findingCollector = findingCollector;
+	}
+
+	/**
+	 * Returns true if the last evaluation found a base which is not correctly terminated at the end of the function.
+	 */
+	boolean hasUnterminatedBases() {
+		return unterminatedBases;
+	}
+
 	@SuppressWarnings({ "java:S1905", "java:S125" })
 	public ConstantValue evaluate(OrderExpression orderExpression, Integer contextID, AnalysisContext ctx,
 			CrymlinTraversalSource crymlinTraversal) {
@@ -107,24 +131,10 @@ public class OrderNFAEvaluator {
 
 		Vertex functionDeclaration = containingFunction.get();
 
-		boolean isOrderValid = true;
-
 		// rule.getFSM().pushToDB(); //debug only
 		log.info("\tEvaluating rule {}", rule.getName());
 
-		// Cache which Vertex belongs to which Op/Entity
-		// a vertex can _only_ belong to one entity/op!
-		HashMap<Vertex, MOp> verticesToOp = new HashMap<>();
-		for (Map.Entry<String, Pair<String, MEntity>> entry : rule.getEntityReferences().entrySet()) {
-			MEntity ent = entry.getValue().getValue1();
-			if (ent == null) {
-				continue;
-			}
-			for (MOp op : ent.getOps()) {
-				op.getAllVertices().forEach(v -> verticesToOp.put(v, op));
-			}
-		}
-
+		Map<Vertex, MOp> verticesToOp = getVerticesToOp(rule, ctx);
 		if (verticesToOp.isEmpty()) {
 			log.info("no nodes match this rule. Skipping rule.");
 			return ErrorValue.newErrorValue("no nodes match this rule. Skipping rule.");
@@ -141,21 +151,47 @@ public class OrderNFAEvaluator {
 				log.error("alias {} is not referenced in this rule {}", alias, rule.getName());
 				return ErrorValue.newErrorValue(String.format("alias %s is not referenced in this rule %s", alias, rule.getName()));
 			}
-			referencedVertices.add(v.id());
+			// calls on aliases of the instance belong to it
+			referencedVertices.addAll(ctx.getAliasClasses().getMembers(v.id()));
+		}
+
+		OrderAutomaton automaton = rule.getOrderAutomaton(orderExpression);
+
+		boolean isOrderValid;
+		InstanceOrderResults.Result cached = ctx.getInstanceOrderResults().get(automaton, variableDecl.id());
+		if (cached != null) {
+			// evaluated before, e.g., by the ParallelOrderEvaluator
+			cached.getFindings().forEach(f -> addFinding(ctx, f));
+			unterminatedBases = cached.hasUnterminatedBases();
+			isOrderValid = cached.isValid();
+		} else {
+			log.debug("Evaluating function {}", (Object) functionDeclaration.value("name"));
+			isOrderValid = evaluateFunction(functionDeclaration, verticesToOp, referencedVertices, automaton, ctx);
 		}
 
-		FSM fsm = new FSM();
-		fsm.sequenceToFSM(orderExpression.getExp());
+		ConstantValue of = ConstantValue.of(isOrderValid);
+		if (markContextHolder.isCreateFindingsDuringEvaluation()) {
+			markContextHolder.getContext(contextID).setFindingAlreadyAdded(true);
+		}
+		return of;
+	}
 
-		log.info("Evaluating function {}", (Object) functionDeclaration.value("name"));
+	/**
+	 * Follows the EOG of the function and checks the order of the calls on each base. Every branch of the EOG is tracked as a separate eog path.
+	 *
+	 * @return true, if no violation against the order was found
+	 */
+	protected boolean evaluateFunction(Vertex functionDeclaration, Map<Vertex, MOp> verticesToOp, Set<Object> referencedVertices, OrderAutomaton automaton,
+			AnalysisContext ctx) {
+		boolean isOrderValid = true;
 
 		HashSet<Vertex> currentWorklist = new HashSet<>();
 		currentWorklist.add(functionDeclaration);
 
 		// which bases did we already see, but are not initialized correctly base to set of eogpaths
 		HashMap<String, HashSet<String>> disallowedBases = new HashMap<>();
-		// stores the current markings in the FSM (i.e., which base is at which FSM-node)
-		HashMap<String, HashSet<Node>> baseToFSMNodes = new HashMap<>();
+		// stores the current markings in the automaton (i.e., which base is at which state)
+		HashMap<String, Integer> baseToState = new HashMap<>();
 		// last usage of base
 		HashMap<String, Vertex> lastBaseUsage = new HashMap<>();
 
@@ -166,14 +202,16 @@ public class OrderNFAEvaluator {
 
 		HashSet<String> seenStates = new HashSet<>();
 		long visitedNodes = 0;
+		RuleBudget budget = ctx.getRuleBudget(rule.getName());
 
 		while (!currentWorklist.isEmpty()) {
 			HashSet<Vertex> nextWorklist = new HashSet<>();
 
 			for (Vertex vertex : currentWorklist) {
 				visitedNodes++;
+				budget.countOrderStep();
 
-				String currentState = getStateSnapshot(vertex, baseToFSMNodes);
+				String currentState = getStateSnapshot(vertex, baseToState);
 				seenStates.add(currentState);
 
 				HashSet<String> eogPathSet = nodeIDtoEOGPathSet.get((Long) vertex.id());
@@ -183,162 +221,37 @@ public class OrderNFAEvaluator {
 				}
 				for (String eogPath : eogPathSet) {
 
-					// ... no direct access to the labels TreeSet of Neo4JVertex
-					if ((vertex.label().contains("MemberCallExpression") || vertex.label().equals("CallExpression")
-							|| vertex.label().contains("ConstructExpression")
-							|| vertex.label().contains("StaticCallExpression"))
-							// is the vertex part of any op of any mentioned entity? If not, ignore
-							&& verticesToOp.get(vertex) != null) {
-
-						MOp op = verticesToOp.get(vertex);
-						// check if the vertex actually belongs to a entity used in this rule
-						if (rule.getEntityReferences()
-								.values()
-								.stream()
-								.anyMatch(x -> Objects.equals(x.getValue1(), op.getParent()))) {
-
-							String base = null;
-							String ref = null;
-							Vertex refNode = null;
-							if (vertex.label().contains("MemberCallExpression")) {
-								Iterator<Edge> it = vertex.edges(Direction.OUT, "BASE");
-								if (it.hasNext()) {
-									Vertex baseVertex = it.next()
-											.inVertex();
-									base = baseVertex.value("name");
-									Iterator<Edge> refIterator = baseVertex.edges(Direction.OUT, "REFERS_TO");
-									if (refIterator.hasNext()) {
-										refNode = refIterator.next()
-												.inVertex();
-										ref = refNode.id().toString();
-									}
-								}
-							} else if (vertex.label().contains("StaticCallExpression") || vertex.label().equals("CallExpression")) {
-								Iterator<Edge> it = vertex.edges(Direction.OUT, "DFG");
-								if (it.hasNext()) {
-									Vertex baseVertex = it.next()
-											.inVertex();
-									base = baseVertex.value("name");
-									if (baseVertex.label().equals("ConstructExpression")) {
-										it = baseVertex.edges(Direction.OUT, "DFG");
-										if (it.hasNext()) {
-											baseVertex = it.next().inVertex();
-											base = baseVertex.value("name");
-										}
-									}
-									if (baseVertex.label().equals("VariableDeclaration")) {
-										// this is already the reference
-										refNode = baseVertex;
-										ref = refNode.id().toString();
-									} else {
-										Iterator<Edge> refIterator = baseVertex.edges(Direction.OUT, "REFERS_TO");
-										if (refIterator.hasNext()) {
-											refNode = refIterator.next()
-													.inVertex();
-											ref = refNode.id().toString();
-										}
-									}
-								}
-							} else { // ctor
-								Iterator<Edge> it = vertex.edges(Direction.IN, "INITIALIZER");
-								if (it.hasNext()) {
-									Vertex baseVertex = it.next().outVertex();
-									it = baseVertex.edges(Direction.OUT, "DFG");
-									if (it.hasNext()) {
-										baseVertex = it.next().inVertex();
-										base = baseVertex.value("name");
-										// for ctor, the DFG points already to the variabledecl
-										refNode = baseVertex;
-										ref = refNode.id().toString();
-									}
-								}
-							}
-							if (base == null) {
-								log.error("base must not be null for {}", vertex.label());
+					MOp op = verticesToOp.get(vertex);
+					String base = getBase(vertex, op, referencedVertices, ctx.getAliasClasses());
+					if (base != null) {
+						String prefixedBase = eogPath + "." + base;
+
+						if (isDisallowedBase(disallowedBases, eogPath, base)) {
+							// we hide base errors for now!
+						} else {
+							// if we have not seen this base before, check if this is the start of an order
+							int state = baseToState.getOrDefault(prefixedBase, automaton.getStart());
+
+							// is the op allowed in the current state? If the automaton may end in the current state, following
+							// the op leaves the end state, which is correct!
+							int nextState = automaton.next(state, op.getName());
+							if (nextState == OrderAutomaton.NONE) {
+								// if not, this call is not allowed, and this base must not be used in the
+								// following eog
+								isOrderValid = false;
+								reportViolation(ctx, vertex, op, automaton.getExpected(state));
+								disallowedBases.computeIfAbsent(base, x -> new HashSet<>()).add(eogPath);
 							} else {
-
-								if (refNode != null
-										&& !referencedVertices.contains(refNode.id())) {
-									log.info("this call does not reference the function we are looking at, skipping.");
-
-								} else {
-									// if we have a reference to a node in the cpg, we add this to the prefixed
-									// base this way, we could differentiate between nodes with the same base
-									// name, but referencing different variables (e.g., if they are used in
-									// different blocks)
-									if (ref != null) {
-										base += "|" + ref;
-									}
-
-									String prefixedBase = eogPath + "." + base;
-
-									if (isDisallowedBase(disallowedBases, eogPath, base)) {
-										// we hide base errors for now!
-									} else {
-										Set<Node> nodesInFSM;
-										if (baseToFSMNodes.get(prefixedBase) == null) {
-											// we have not seen this base before. check if this is the start of an order
-											nodesInFSM = fsm.getStart(); // start nodes
-										} else {
-											nodesInFSM = baseToFSMNodes.get(prefixedBase); // nodes calculated in previous step
-										}
-
-										HashSet<Node> nextNodesInFSM = new HashSet<>();
-
-										// did at least one fsm-Node-match occur?
-										boolean match = false;
-										for (Node n : nodesInFSM) {
-											// are there any ops corresponding to the current base and the current function name?
-											if (op != null && op.getName().equals(n.getOp())) {
-												// this also has as effect, that if the FSM is in a end-state and a
-												// intermediate state, and we follow the intermediate state, the
-												// end-state is removed again, which is correct!
-												nextNodesInFSM.addAll(n.getSuccessors());
-												match = true;
-											}
-										}
-										if (!match) {
-											// if not, this call is not allowed, and this base must not be used in the
-											// following eog
-											isOrderValid = false;
-											Finding f = new Finding(
-												"Violation against Order: "
-														+ vertex.value("code")
-														+ " ("
-														+ (op == null ? "null" : op.getName())
-														+ ") is not allowed. Expected one of: "
-														+ nodesInFSM.stream()
-																.map(Node::getName)
-																.sorted()
-																.collect(Collectors.joining(", "))
-														+ " ("
-														+ rule.getErrorMessage()
-														+ ")",
-												rule.getErrorMessage(),
-												CrymlinQueryWrapper.getFileLocation(vertex),
-												toIntExact(vertex.value(START_LINE)) - 1,
-												toIntExact(vertex.value(END_LINE)) - 1,
-												toIntExact(vertex.value(START_COLUMN)) - 1,
-												toIntExact(vertex.value(END_COLUMN)) - 1);
-											if (markContextHolder.isCreateFindingsDuringEvaluation()) {
-												ctx.getFindings().add(f);
-											}
-											log.info("Finding: {}", f);
-											disallowedBases.computeIfAbsent(base, x -> new HashSet<>()).add(eogPath);
-										} else {
-											Vertex vertex1 = lastBaseUsage.get(prefixedBase);
-											long prevMaxLine = 0;
-											if (vertex1 != null) {
-												prevMaxLine = vertex1.value(START_LINE);
-											}
-											long newLine = vertex.value(START_LINE);
-											if (prevMaxLine <= newLine) {
-												lastBaseUsage.put(prefixedBase, vertex);
-											}
-											baseToFSMNodes.put(prefixedBase, nextNodesInFSM);
-										}
-									}
+								Vertex vertex1 = lastBaseUsage.get(prefixedBase);
+								long prevMaxLine = 0;
+								if (vertex1 != null) {
+									prevMaxLine = vertex1.value(START_LINE);
+								}
+								long newLine = vertex.value(START_LINE);
+								if (prevMaxLine <= newLine) {
+									lastBaseUsage.put(prefixedBase, vertex);
 								}
+								baseToState.put(prefixedBase, nextState);
 							}
 						}
 					}
@@ -349,11 +262,11 @@ public class OrderNFAEvaluator {
 					// if more than one vertex follows the curreant one, we need to branch the eogPath
 					if (outVertices.size() > 1) { // split
 						HashSet<String> oldBases = new HashSet<>();
-						HashMap<String, HashSet<Node>> newBases = new HashMap<>();
-						// first we collect all entries which we need to remove from the baseToFSMNodes
+						HashMap<String, Integer> newBases = new HashMap<>();
+						// first we collect all entries which we need to remove from the baseToState
 						// map we also store these entries without the eog path prefix, to update later
 						// in (1)
-						for (Map.Entry<String, HashSet<Node>> entry : baseToFSMNodes.entrySet()) {
+						for (Map.Entry<String, Integer> entry : baseToState.entrySet()) {
 							if (entry.getKey().startsWith(eogPath)) {
 								oldBases.add(entry.getKey());
 								// keep the "." before the real base, as we need it later anyway
@@ -361,20 +274,20 @@ public class OrderNFAEvaluator {
 									entry.getValue());
 							}
 						}
-						oldBases.forEach(baseToFSMNodes::remove);
+						oldBases.forEach(baseToState::remove);
 
-						// (1) update all entries previously removed from the baseToFSMNodes map with
+						// (1) update all entries previously removed from the baseToState map with
 						// the new eogpath as prefix to the base
 						for (int i = outVertices.size() - 1; i >= 0; i--) {
-							// also update them in the baseToFSMNodes map
+							// also update them in the baseToState map
 							String newEOGPath = eogPath + i;
-							newBases.forEach((k, v) -> baseToFSMNodes.put(newEOGPath + k, v));
+							newBases.forEach((k, v) -> baseToState.put(newEOGPath + k, v));
 
-							String stateOfNext = getStateSnapshot(outVertices.get(i), baseToFSMNodes);
+							String stateOfNext = getStateSnapshot(outVertices.get(i), baseToState);
 							if (seenStates.contains(stateOfNext)) {
 								log.debug("node/FSM state already visited: {}. Do not split into this.", stateOfNext);
 								outVertices.remove(i);
-								newBases.forEach((k, v) -> baseToFSMNodes.remove(newEOGPath + k));
+								newBases.forEach((k, v) -> baseToState.remove(newEOGPath + k));
 							} else {
 								// update the eogpath directly in the vertices for the next step
 								nodeIDtoEOGPathSet.computeIfAbsent((Long) outVertices.get(i).id(),
@@ -397,27 +310,17 @@ public class OrderNFAEvaluator {
 			currentWorklist = nextWorklist;
 		}
 
-		log.info("Done evaluating function {}, rule {}. Visited Nodes: {}", functionDeclaration.value("name"), rule.getName(), visitedNodes);
+		log.debug("Done evaluating function {}, rule {}. Visited Nodes: {}", functionDeclaration.value("name"), rule.getName(), visitedNodes);
 		// now the whole function was evaluated.
-		// Check that the FSM is in its end/beginning state for all bases
+		// Check that the automaton is in an end state for all bases
 		HashMap<String, HashSet<String>> nonterminatedBases = new HashMap<>();
-		for (Map.Entry<String, HashSet<Node>> entry : baseToFSMNodes.entrySet()) {
-			boolean hasEnd = false;
-			HashSet<String> notEnded = new HashSet<>();
-			for (Node n : entry.getValue()) {
-				if (n.isEnd()) {
-					// if one of the nodes in this fsm is at an END-node, this is fine.
-					hasEnd = true;
-					break;
-				} else {
-					notEnded.add(n.getName());
-				}
-			}
-			if (!hasEnd) {
+		for (Map.Entry<String, Integer> entry : baseToState.entrySet()) {
+			// if the automaton may end in the state of this base, this is fine.
+			if (!automaton.isEnd(entry.getValue())) {
 				// extract the real base name from eogpath.base
 				HashSet<String> next = nonterminatedBases.computeIfAbsent(entry.getKey(),
 					x -> new HashSet<>());
-				next.addAll(notEnded);
+				next.addAll(automaton.getUnterminated(entry.getValue()));
 			}
 		}
 		for (Map.Entry<String, HashSet<String>> entry : nonterminatedBases.entrySet()) {
@@ -438,51 +341,257 @@ public class OrderNFAEvaluator {
 					}
 				}
 			}
-			String base = entry.getKey().split("\\|")[0]; // remove potential refers_to local
+			String base = entry.getKey();
 			if (base.contains(".")) {
 				base = base.substring(base.indexOf('.') + 1); // remove eogpath
 			}
-			URI file = null;
-			int startLine = -1;
-			int endLine = -1;
-			int startCol = -1;
-			int endCol = -1;
-			if (vertex != null) {
-				file = CrymlinQueryWrapper.getFileLocation(vertex);
-				startLine = toIntExact(vertex.value(START_LINE)) - 1;
-				endLine = toIntExact(vertex.value(END_LINE)) - 1;
-				startCol = toIntExact(vertex.value(START_COLUMN)) - 1;
-				endCol = toIntExact(vertex.value(END_COLUMN)) - 1;
+			reportUnterminated(ctx, base, vertex, entry.getValue());
+		}
+		return isOrderValid;
+	}
+
+	/**
+	 * Returns which vertex belongs to which op of the entities used in the rule. Computed once per evaluation of the rule, as it does not depend on the
+	 * context.
+	 */
+	static Map<Vertex, MOp> getVerticesToOp(MRule rule, AnalysisContext ctx) {
+		return ctx.getVerticesToOp().computeIfAbsent(rule.getName(), x -> Collections.unmodifiableMap(getVerticesToOp(rule)));
+	}
+
+	/**
+	 * Returns which vertex belongs to which op of the entities used in the rule.
+	 */
+	static Map<Vertex, MOp> getVerticesToOp(MRule rule) {
+		// Cache which Vertex belongs to which Op/Entity
+		// a vertex can _only_ belong to one entity/op!
+		HashMap<Vertex, MOp> verticesToOp = new HashMap<>();
+		for (Map.Entry<String, Pair<String, MEntity>> entry : rule.getEntityReferences().entrySet()) {
+			MEntity ent = entry.getValue().getValue1();
+			if (ent == null) {
+				continue;
+			}
+			for (MOp op : ent.getOps()) {
+				op.getAllVertices().forEach(v -> verticesToOp.put(v, op));
+			}
+		}
+		return verticesToOp;
+	}
+
+	/**
+	 * Returns the base (i.e., the name of the variable, possibly followed by "|" and the id of the referenced declaration) an op is called on. Calls on
+	 * aliases of a variable have the base of the representative of its alias class.
+	 *
+	 * @return the base, or null if the vertex is not a call of an op of the rule or refers to another instance than the one we are looking at
+	 */
+	@Nullable
+	protected String getBase(Vertex vertex, @Nullable MOp op, Set<Object> referencedVertices, AliasClasses aliasClasses) {
+		// is the vertex part of any op of any mentioned entity? If not, ignore
+		if (op == null || !isCall(vertex)) {
+			return null;
+		}
+		// check if the vertex actually belongs to a entity used in this rule
+		if (rule.getEntityReferences()
+				.values()
+				.stream()
+				.noneMatch(x -> Objects.equals(x.getValue1(), op.getParent()))) {
+			return null;
+		}
+
+		Pair<String, Vertex> base = resolveBase(vertex, aliasClasses);
+		if (base == null) {
+			return null;
+		}
+		Vertex refNode = base.getValue1();
+		if (refNode != null
+				&& !referencedVertices.contains(refNode.id())) {
+			log.info("this call does not reference the function we are looking at, skipping.");
+			return null;
+		}
+		return base.getValue0();
+	}
+
+	static boolean isCall(Vertex vertex) {
+		// ... no direct access to the labels TreeSet of Neo4JVertex
+		return vertex.label().contains("MemberCallExpression") || vertex.label().equals("CallExpression")
+				|| vertex.label().contains("ConstructExpression")
+				|| vertex.label().contains("StaticCallExpression");
+	}
+
+	/**
+	 * Returns the base of a call together with the declaration it refers to, if any. If the declaration has been merged with others into an alias class, the
+	 * base is the one of the representative of the class, so calls on all aliases are tracked as calls on the same object.
+	 *
+	 * @return the base (see {@link #getBase(Vertex, MOp, Set, AliasClasses)}) and the referenced declaration, or null if the call has no base
+	 */
+	@Nullable
+	static Pair<String, Vertex> resolveBase(Vertex vertex, AliasClasses aliasClasses) {
+		Pair<String, Vertex> base = resolveBase(vertex);
+		if (base == null || base.getValue1() == null) {
+			return base;
+		}
+		Vertex refNode = base.getValue1();
+		Object representative = aliasClasses.getRepresentative(refNode.id());
+		if (representative.equals(refNode.id())) {
+			return base;
+		}
+		Iterator<Vertex> it = refNode.graph().vertices(representative);
+		if (!it.hasNext()) {
+			return base;
+		}
+		Vertex representativeVertex = it.next();
+		return new Pair<>(representativeVertex.value("name") + "|" + representative, refNode);
+	}
+
+	/**
+	 * Returns the base of a call together with the declaration it refers to, if any.
+	 *
+	 * @return the base (see {@link #getBase(Vertex, MOp, Set, AliasClasses)}) and the referenced declaration, or null if the call has no base
+	 */
+	@Nullable
+	static Pair<String, Vertex> resolveBase(Vertex vertex) {
+		String base = null;
+		String ref = null;
+		Vertex refNode = null;
+		if (vertex.label().contains("MemberCallExpression")) {
+			Iterator<Edge> it = vertex.edges(Direction.OUT, "BASE");
+			if (it.hasNext()) {
+				Vertex baseVertex = it.next()
+						.inVertex();
+				base = baseVertex.value("name");
+				Iterator<Edge> refIterator = baseVertex.edges(Direction.OUT, "REFERS_TO");
+				if (refIterator.hasNext()) {
+					refNode = refIterator.next()
+							.inVertex();
+					ref = refNode.id().toString();
+				}
+			}
+		} else if (vertex.label().contains("StaticCallExpression") || vertex.label().equals("CallExpression")) {
+			Iterator<Edge> it = vertex.edges(Direction.OUT, "DFG");
+			if (it.hasNext()) {
+				Vertex baseVertex = it.next()
+						.inVertex();
+				base = baseVertex.value("name");
+				if (baseVertex.label().equals("ConstructExpression")) {
+					it = baseVertex.edges(Direction.OUT, "DFG");
+					if (it.hasNext()) {
+						baseVertex = it.next().inVertex();
+						base = baseVertex.value("name");
+					}
+				}
+				if (baseVertex.label().equals("VariableDeclaration")) {
+					// this is already the reference
+					refNode = baseVertex;
+					ref = refNode.id().toString();
+				} else {
+					Iterator<Edge> refIterator = baseVertex.edges(Direction.OUT, "REFERS_TO");
+					if (refIterator.hasNext()) {
+						refNode = refIterator.next()
+								.inVertex();
+						ref = refNode.id().toString();
+					}
+				}
 			}
-			Finding f = new Finding(
-				"Violation against Order: Base "
-						+ base
-						+ " is not correctly terminated. Expected one of ["
-						+ entry.getValue()
-								.stream()
-								.sorted()
-								.collect(Collectors.joining(", "))
-						+ "] to follow the correct last call on this base."
-						+ " ("
-						+ rule.getErrorMessage()
-						+ ")",
-				rule.getErrorMessage(),
-				file,
-				startLine,
-				endLine,
-				startCol,
-				endCol);
-			if (markContextHolder.isCreateFindingsDuringEvaluation()) {
-				ctx.getFindings()
-						.add(f);
+		} else { // ctor
+			Iterator<Edge> it = vertex.edges(Direction.IN, "INITIALIZER");
+			if (it.hasNext()) {
+				Vertex baseVertex = it.next().outVertex();
+				it = baseVertex.edges(Direction.OUT, "DFG");
+				if (it.hasNext()) {
+					baseVertex = it.next().inVertex();
+					base = baseVertex.value("name");
+					// for ctor, the DFG points already to the variabledecl
+					refNode = baseVertex;
+					ref = refNode.id().toString();
+				}
 			}
-			log.info("Finding: {}", f);
 		}
-		ConstantValue of = ConstantValue.of(isOrderValid);
-		if (markContextHolder.isCreateFindingsDuringEvaluation()) {
-			markContextHolder.getContext(contextID).setFindingAlreadyAdded(true);
+		if (base == null) {
+			log.error("base must not be null for {}", vertex.label());
+			return null;
 		}
-		return of;
+		// if we have a reference to a node in the cpg, we add this to the prefixed
+		// base this way, we could differentiate between nodes with the same base
+		// name, but referencing different variables (e.g., if they are used in
+		// different blocks)
+		if (ref != null) {
+			base += "|" + ref;
+		}
+		return new Pair<>(base, refNode);
+	}
+
+	/**
+	 * Reports a call of an op which is not allowed in the current state of its base.
+	 */
+	protected void reportViolation(AnalysisContext ctx, Vertex vertex, MOp op, List<String> expected) {
+		Finding f = new Finding(
+			"Violation against Order: "
+					+ vertex.value("code")
+					+ " ("
+					+ op.getName()
+					+ ") is not allowed. Expected one of: "
+					+ String.join(", ", expected)
+					+ " ("
+					+ rule.getErrorMessage()
+					+ ")",
+			rule.getErrorMessage(),
+			CrymlinQueryWrapper.getFileLocation(vertex),
+			toIntExact(vertex.value(START_LINE)) - 1,
+			toIntExact(vertex.value(END_LINE)) - 1,
+			toIntExact(vertex.value(START_COLUMN)) - 1,
+			toIntExact(vertex.value(END_COLUMN)) - 1);
+		addFinding(ctx, f);
+	}
+
+	/**
+	 * Reports a base which is not in an end state of the automaton at the end of the function.
+	 *
+	 * @param base      the base as returned by {@link #getBase(Vertex, MOp, Set, AliasClasses)}
+	 * @param lastUsage the last call on this base, if known
+	 * @param expected  the ops which may follow the last call on this base
+	 */
+	protected void reportUnterminated(AnalysisContext ctx, String base, @Nullable Vertex lastUsage, Collection<String> expected) {
+		unterminatedBases = true;
+		base = base.split("\\|")[0]; // remove potential refers_to local
+		URI file = null;
+		int startLine = -1;
+		int endLine = -1;
+		int startCol = -1;
+		int endCol = -1;
+		if (lastUsage != null) {
+			file = CrymlinQueryWrapper.getFileLocation(lastUsage);
+			startLine = toIntExact(lastUsage.value(START_LINE)) - 1;
+			endLine = toIntExact(lastUsage.value(END_LINE)) - 1;
+			startCol = toIntExact(lastUsage.value(START_COLUMN)) - 1;
+			endCol = toIntExact(lastUsage.value(END_COLUMN)) - 1;
+		}
+		Finding f = new Finding(
+			"Violation against Order: Base "
+					+ base
+					+ " is not correctly terminated. Expected one of ["
+					+ expected
+							.stream()
+							.sorted()
+							.collect(Collectors.joining(", "))
+					+ "] to follow the correct last call on this base."
+					+ " ("
+					+ rule.getErrorMessage()
+					+ ")",
+			rule.getErrorMessage(),
+			file,
+			startLine,
+			endLine,
+			startCol,
+			endCol);
+		addFinding(ctx, f);
+	}
+
+	private void addFinding(AnalysisContext ctx, Finding f) {
+		if (findingCollector != null) {
+			findingCollector.add(f);
+		} else if (markContextHolder.isCreateFindingsDuringEvaluation()) {
+			ctx.getFindings().add(f);
+		}
+		log.info("Finding: {}", f);
 	}
 
 	private boolean isDisallowedBase(
@@ -494,11 +603,11 @@ public class OrderNFAEvaluator {
 		return false;
 	}
 
-	private String getStateSnapshot(Vertex v, HashMap<String, HashSet<Node>> baseToFSMNodes) {
-		HashMap<String, HashSet<Node>> simplified = new HashMap<>();
+	private String getStateSnapshot(Vertex v, HashMap<String, Integer> baseToState) {
+		HashMap<String, TreeSet<Integer>> simplified = new HashMap<>();
 
-		for (Map.Entry<String, HashSet<Node>> entry : baseToFSMNodes.entrySet()) {
-			simplified.computeIfAbsent(entry.getKey().split("\\.")[1], x -> new HashSet<>()).addAll(entry.getValue());
+		for (Map.Entry<String, Integer> entry : baseToState.entrySet()) {
+			simplified.computeIfAbsent(entry.getKey().split("\\.")[1], x -> new TreeSet<>()).add(entry.getValue());
 		}
 
 		List<String> fsmStates = simplified.entrySet()
@@ -506,7 +615,7 @@ public class OrderNFAEvaluator {
 				.map(
 					x -> x.getKey()
 							+ "("
-							+ x.getValue().stream().map(Node::toString).collect(Collectors.joining(","))
+							+ x.getValue().stream().map(String::valueOf).collect(Collectors.joining(","))
 							+ ")")
 				.distinct()
 				.sorted()
@@ -0,0 +1,77 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.markevaluation.FunctionOrderResults.Violation;
+import de.fraunhofer.aisec.analysis.wpds.NFATransition;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typestate transformers of functions, computed by {@link OrderSummaryEvaluator} and applied at the call sites of the functions.
+ * <p>
+ * Summaries are stored per order automaton and key, which is the id of the function vertex followed by the index of a parameter or "return". They are shared
+ * by all contexts of an analysis and may be filled concurrently.
+ */
+public class OrderSummaries {
+
+	private final Map<OrderAutomaton, Map<String, Summary>> summaries = new ConcurrentHashMap<>();
+
+	@Nullable
+	Summary get(@NonNull OrderAutomaton automaton, @NonNull String key) {
+		Map<String, Summary> forAutomaton = summaries.get(automaton);
+		return forAutomaton == null ? null : forAutomaton.get(key);
+	}
+
+	void put(@NonNull OrderAutomaton automaton, @NonNull String key, @NonNull Summary summary) {
+		summaries.computeIfAbsent(automaton, x -> new ConcurrentHashMap<>()).putIfAbsent(key, summary);
+	}
+
+	public int size() {
+		return summaries.values().stream().mapToInt(Map::size).sum();
+	}
+
+	/**
+	 * The effect of a function on an object: for each state of the object when the function is called (or {@link OrderFixpointEvaluator#UNSEEN}), the states
+	 * it may be in when the function returns, and the violations found in the function.
+	 */
+	static class Summary {
+		private final Set<NFATransition<Integer>> transitions = new HashSet<>();
+		private final Map<Integer, List<Violation>> violations = new HashMap<>();
+
+		void addTransition(int source, int target, String label) {
+			transitions.add(new NFATransition<>(source, target, label));
+		}
+
+		void addViolation(int source, @NonNull Violation violation) {
+			violations.computeIfAbsent(source, x -> new ArrayList<>()).add(violation);
+		}
+
+		/**
+		 * Returns the states after the function if it is called in {@code state}.
+		 */
+		@NonNull
+		Set<Integer> apply(int state) {
+			Set<Integer> targets = new HashSet<>();
+			for (NFATransition<Integer> t : transitions) {
+				if (t.getSource() == state) {
+					targets.add(t.getTarget());
+				}
+			}
+			return targets;
+		}
+
+		@NonNull
+		List<Violation> getViolations(int state) {
+			return violations.getOrDefault(state, List.of());
+		}
+	}
+}
@@ -0,0 +1,320 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.markevaluation.FunctionOrderResults.Violation;
+import de.fraunhofer.aisec.analysis.markevaluation.OrderSummaries.Summary;
+import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
+import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
+import de.fraunhofer.aisec.analysis.utils.Utils;
+import de.fraunhofer.aisec.cpg.graph.declarations.VariableDeclaration;
+import de.fraunhofer.aisec.cpg.graph.edge.Properties;
+import de.fraunhofer.aisec.cpg.graph.statements.ReturnStatement;
+import de.fraunhofer.aisec.markmodel.MOp;
+import de.fraunhofer.aisec.markmodel.MRule;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
+import org.apache.tinkerpop.gremlin.structure.Direction;
+import org.apache.tinkerpop.gremlin.structure.Edge;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.ARGUMENTS;
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.ARGUMENT_INDEX;
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.DFG;
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.EOG;
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.NAME;
+import static de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants.REFERS_TO;
+
+/**
+ * Evaluates an order expression like {@link OrderFixpointEvaluator}, but follows the base into called functions.
+ * <p>
+ * For each function called with the base as argument, a summary maps each state of the base before the call to the states it may be in after the call. The
+ * summary is computed by analyzing the called function once per state, starting with the parameter in that state, and applies the summaries of the functions
+ * called there in turn. Likewise, objects returned by a function start in the states they are in at the end of the function. Summaries are shared by all
+ * contexts via {@link OrderSummaries}. Bases which are parameters of a called function are only evaluated at its call sites. Recursive calls and calls
+ * nested deeper than {@link #MAX_CALL_DEPTH} do not change the state of the base. As such a truncated summary depends on the calls being evaluated, it is
+ * only kept by this evaluator, and only summaries computed without truncation are shared.
+ */
+public class OrderSummaryEvaluator extends OrderFixpointEvaluator {
+
+	private static final Logger log = LoggerFactory.getLogger(OrderSummaryEvaluator.class);
+
+	private static final String RETURN = "return";
+
+	private static final int MAX_CALL_DEPTH = 10;
+
+	// summaries which are being computed by this evaluator
+	private final Set<String> inProgress = new HashSet<>();
+
+	// summaries in progress which depend on a call that was not followed
+	private final Set<String> truncated = new HashSet<>();
+
+	// truncated summaries, which are not shared with other evaluators
+	private final Map<String, Summary> truncatedSummaries = new HashMap<>();
+
+	public OrderSummaryEvaluator(MRule rule, MarkContextHolder markContextHolder) {
+		super(rule, markContextHolder);
+	}
+
+	@Override
+	protected boolean evaluateFunction(Vertex functionDeclaration, Map<Vertex, MOp> verticesToOp, Set<Object> referencedVertices, OrderAutomaton automaton,
+			AnalysisContext ctx) {
+		if (functionDeclaration.edges(Direction.IN, "INVOKES").hasNext()) {
+			Iterator<Vertex> parameters = functionDeclaration.vertices(Direction.OUT, "PARAMETERS");
+			while (parameters.hasNext()) {
+				if (referencedVertices.contains(parameters.next().id())) {
+					// the base is passed in by the callers, it is evaluated at the call sites using the summary of this function
+					log.debug("Base is a parameter of {}, evaluated at its call sites", (Object) functionDeclaration.value(NAME));
+					return true;
+				}
+			}
+		}
+		return super.evaluateFunction(functionDeclaration, verticesToOp, referencedVertices, automaton, ctx);
+	}
+
+	@Override
+	protected void transfer(Vertex vertex, Map<String, Set<Integer>> states, Run run) {
+		if (!isCall(vertex) || run.verticesToOp.containsKey(vertex)) {
+			return;
+		}
+		List<Vertex> callees = new ArrayList<>();
+		vertex.vertices(Direction.OUT, "INVOKES").forEachRemaining(callees::add);
+		if (callees.isEmpty()) {
+			// no code for the called function, the base stays in its state
+			return;
+		}
+
+		// the base is passed as argument
+		Iterator<Edge> arguments = vertex.edges(Direction.OUT, ARGUMENTS);
+		while (arguments.hasNext()) {
+			Vertex argument = arguments.next().inVertex();
+			String base = getReferencedBase(argument, run.referencedVertices);
+			Object index = argument.property(ARGUMENT_INDEX).orElse(null);
+			if (base == null || !(index instanceof Number)) {
+				continue;
+			}
+			Set<Integer> next = new HashSet<>();
+			for (Vertex callee : callees) {
+				Summary summary = getParameterSummary(callee, ((Number) index).intValue(), run);
+				for (int state : states.getOrDefault(base, Set.of(UNSEEN))) {
+					if (summary == null || isDisallowed(state)) {
+						next.add(state);
+					} else {
+						next.addAll(summary.apply(state));
+						summary.getViolations(state).forEach(run::addViolation);
+					}
+				}
+			}
+			updateStates(base, next, vertex, states, run);
+		}
+
+		// the base is assigned the return value
+		String base = null;
+		Iterator<Vertex> targets = vertex.vertices(Direction.OUT, DFG);
+		while (targets.hasNext() && base == null) {
+			base = getReferencedBase(targets.next(), run.referencedVertices);
+		}
+		if (base == null) {
+			return;
+		}
+		Set<Integer> next = new HashSet<>();
+		for (Vertex callee : callees) {
+			Summary summary = getReturnSummary(callee, run);
+			if (summary != null) {
+				next.addAll(summary.apply(UNSEEN));
+				summary.getViolations(UNSEEN).forEach(run::addViolation);
+			}
+		}
+		next.remove(UNSEEN);
+		if (!next.isEmpty()) {
+			updateStates(base, next, vertex, states, run);
+		}
+	}
+
+	private static void updateStates(String base, Set<Integer> next, Vertex vertex, Map<String, Set<Integer>> states, Run run) {
+		for (int state : next) {
+			if (state != UNSEEN && !isDisallowed(state)) {
+				run.lastBaseUsage.computeIfAbsent(base, x -> new HashMap<>()).merge(state, vertex, OrderFixpointEvaluator::later);
+			}
+		}
+		states.put(base, next);
+	}
+
+	/**
+	 * Returns the base (see {@link #getBase}) of a reference or declaration, or null if it is neither or does not refer to one of the vertices we are looking
+	 * at.
+	 */
+	@Nullable
+	private static String getReferencedBase(Vertex vertex, Set<Object> referencedVertices) {
+		Vertex declaration = vertex;
+		if (!Utils.hasLabel(vertex, VariableDeclaration.class)) {
+			Iterator<Vertex> refersTo = vertex.vertices(Direction.OUT, REFERS_TO);
+			if (!refersTo.hasNext()) {
+				return null;
+			}
+			declaration = refersTo.next();
+		}
+		if (!referencedVertices.contains(declaration.id()) || !vertex.property(NAME).isPresent()) {
+			return null;
+		}
+		return vertex.value(NAME) + "|" + declaration.id();
+	}
+
+	@Nullable
+	private Summary getParameterSummary(Vertex callee, int index, Run run) {
+		String key = callee.id() + "/" + index;
+		Summary summary = getSummary(key, run);
+		if (summary != null || !enter(key)) {
+			return summary;
+		}
+		try {
+			Vertex parameter = getParameter(callee, index);
+			if (parameter == null) {
+				return null;
+			}
+			String base = parameter.value(NAME) + "|" + parameter.id();
+			log.debug("Computing summary of parameter {} of {}", base, callee.value(NAME));
+			summary = new Summary();
+			for (int state = UNSEEN; state < run.automaton.getNumStates(); state++) {
+				Map<String, Set<Integer>> initialStates = new HashMap<>();
+				initialStates.put(base, new HashSet<>(Set.of(state)));
+				Run calleeRun = analyze(callee, initialStates, run.verticesToOp, Set.of(parameter.id()), run.automaton, run.ctx);
+				for (int target : calleeRun.exitStates.getOrDefault(base, Set.of(state))) {
+					summary.addTransition(state, target, base);
+				}
+				for (Violation violation : calleeRun.violations) {
+					summary.addViolation(state, violation);
+				}
+			}
+			putSummary(key, summary, run);
+			return summary;
+		}
+		finally {
+			inProgress.remove(key);
+			truncated.remove(key);
+		}
+	}
+
+	@Nullable
+	private Summary getReturnSummary(Vertex callee, Run run) {
+		String key = callee.id() + "/" + RETURN;
+		Summary summary = getSummary(key, run);
+		if (summary != null || !enter(key)) {
+			return summary;
+		}
+		try {
+			Set<Object> returned = getReturnedDeclarations(callee);
+			summary = new Summary();
+			if (!returned.isEmpty()) {
+				log.debug("Computing summary of return value of {}", callee.value(NAME));
+				Run calleeRun = analyze(callee, new HashMap<>(), run.verticesToOp, returned, run.automaton, run.ctx);
+				for (Map.Entry<String, Set<Integer>> entry : calleeRun.exitStates.entrySet()) {
+					if (entry.getKey().contains("|")) {
+						for (int target : entry.getValue()) {
+							summary.addTransition(UNSEEN, target, RETURN);
+						}
+					}
+				}
+				for (Violation violation : calleeRun.violations) {
+					summary.addViolation(UNSEEN, violation);
+				}
+			}
+			putSummary(key, summary, run);
+			return summary;
+		}
+		finally {
+			inProgress.remove(key);
+			truncated.remove(key);
+		}
+	}
+
+	@Nullable
+	private Summary getSummary(String key, Run run) {
+		Summary summary = run.ctx.getOrderSummaries().get(run.automaton, key);
+		if (summary == null) {
+			summary = truncatedSummaries.get(key);
+			if (summary != null) {
+				// summaries using a truncated summary are truncated as well
+				truncated.addAll(inProgress);
+			}
+		}
+		return summary;
+	}
+
+	/**
+	 * Stores a computed summary. It is shared, unless its computation did not follow some call.
+	 */
+	private void putSummary(String key, Summary summary, Run run) {
+		if (truncated.remove(key)) {
+			log.debug("Summary {} is truncated, not sharing it", key);
+			truncatedSummaries.put(key, summary);
+		} else {
+			run.ctx.getOrderSummaries().put(run.automaton, key, summary);
+		}
+	}
+
+	/**
+	 * Returns true if the computation of the summary may start, false if it is already in progress or too deeply nested. In the latter case, all summaries in
+	 * progress are truncated.
+	 */
+	private boolean enter(String key) {
+		if (inProgress.size() >= MAX_CALL_DEPTH || !inProgress.add(key)) {
+			log.debug("Not computing summary {}, recursive or nested too deeply", key);
+			truncated.addAll(inProgress);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the parameter of {@code callee} at position {@code index}, which is stored on the PARAMETERS edge (or on the parameter itself).
+	 */
+	@Nullable
+	private static Vertex getParameter(Vertex callee, int index) {
+		Iterator<Edge> it = callee.edges(Direction.OUT, "PARAMETERS");
+		while (it.hasNext()) {
+			Edge edge = it.next();
+			Object position = edge.property(Properties.INDEX.name()).orElse(null);
+			if (position == null) {
+				position = edge.inVertex().property(ARGUMENT_INDEX).orElse(null);
+			}
+			if (position instanceof Number && ((Number) position).intValue() == index) {
+				return edge.inVertex();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the ids of the declarations referenced by the return statements of a function.
+	 */
+	private static Set<Object> getReturnedDeclarations(Vertex function) {
+		Set<Object> returned = new HashSet<>();
+		Set<Object> seen = new HashSet<>();
+		Deque<Vertex> worklist = new ArrayDeque<>();
+		worklist.add(function);
+		while (!worklist.isEmpty()) {
+			Vertex v = worklist.poll();
+			if (!seen.add(v.id())) {
+				continue;
+			}
+			if (Utils.hasLabel(v, ReturnStatement.class)) {
+				v.vertices(Direction.OUT, "RETURN_VALUE")
+						.forEachRemaining(value -> value.vertices(Direction.OUT, REFERS_TO).forEachRemaining(decl -> returned.add(decl.id())));
+			}
+			v.vertices(Direction.OUT, EOG).forEachRemaining(worklist::add);
+		}
+		return returned;
+	}
+}
@@ -0,0 +1,136 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
+import de.fraunhofer.aisec.analysis.structures.Finding;
+import de.fraunhofer.aisec.analysis.structures.MarkContext;
+import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
+import de.fraunhofer.aisec.analysis.structures.RuleBudgetExceededException;
+import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
+import de.fraunhofer.aisec.crymlin.CrymlinQueryWrapper;
+import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversalSource;
+import de.fraunhofer.aisec.mark.markDsl.OrderExpression;
+import de.fraunhofer.aisec.markmodel.MOp;
+import de.fraunhofer.aisec.markmodel.MRule;
+import de.fraunhofer.aisec.markmodel.Mark;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Evaluates the order expressions of a rule for the instances of their base referenced by a batch of contexts, before the "ensure" part of these contexts is
+ * evaluated.
+ * <p>
+ * Only contexts which survived the "when" part, the instance pairing and the context limit are passed, so no instance is evaluated which is never used. The
+ * results are released when the evaluation of the rule is done.
+ * <p>
+ * Only used in the NFA and FIXPOINT modes, where the result for an instance only depends on the EOG of the function containing it. Instances are grouped by
+ * their containing function, and each function is evaluated by a separate task. The interprocedural modes (SUMMARY, WPDS, HYBRID) follow calls into other
+ * functions and share summaries or WPDS between instances, so they evaluate orders with their contexts. All state of an evaluation is confined to its task, the results are stored in
+ * {@link InstanceOrderResults} and picked up when the contexts of the rule are evaluated.
+ */
+class ParallelOrderEvaluator {
+
+	private static final Logger log = LoggerFactory.getLogger(ParallelOrderEvaluator.class);
+
+	@NonNull
+	private final Mark markModel;
+	@NonNull
+	private final ServerConfiguration config;
+	@NonNull
+	private final ForkJoinPool pool;
+
+	ParallelOrderEvaluator(@NonNull Mark markModel, @NonNull ServerConfiguration config, @NonNull ForkJoinPool pool) {
+		this.markModel = markModel;
+		this.config = config;
+		this.pool = pool;
+	}
+
+	/**
+	 * Evaluates all order expressions of {@code rule} for the instances referenced by the contexts in {@code markCtxHolder}, which have not been evaluated
+	 * before.
+	 */
+	void evaluate(@NonNull MRule rule, @NonNull MarkContextHolder markCtxHolder, @NonNull AnalysisContext ctx, @NonNull CrymlinTraversalSource crymlinTraversal) {
+		Map<Vertex, MOp> verticesToOp = null;
+		for (Map.Entry<OrderExpression, OrderAutomaton> entry : rule.getOrderAutomata().entrySet()) {
+			Set<String> markInstances = new HashSet<>();
+			ExpressionHelper.collectMarkInstances(entry.getKey().getExp(), markInstances);
+			if (markInstances.size() != 1) {
+				// invalid order, reported when the contexts are evaluated
+				continue;
+			}
+			String markVar = markInstances.iterator().next();
+			OrderAutomaton automaton = entry.getValue();
+
+			// group the instances of the base by their containing function
+			Map<Object, Vertex> functions = new HashMap<>();
+			Map<Object, Map<Object, Vertex>> instancesByFunction = new LinkedHashMap<>();
+			Set<Object> seen = new HashSet<>();
+			for (MarkContext markContext : markCtxHolder.getAllContexts().values()) {
+				Vertex v = markContext.getInstanceContext().getVertex(markVar);
+				if (v == null || !seen.add(v.id()) || ctx.getInstanceOrderResults().get(automaton, v.id()) != null) {
+					continue;
+				}
+				Optional<Vertex> function = CrymlinQueryWrapper.getContainingFunction(v, crymlinTraversal);
+				if (function.isPresent()) {
+					functions.putIfAbsent(function.get().id(), function.get());
+					instancesByFunction.computeIfAbsent(function.get().id(), x -> new LinkedHashMap<>()).put(v.id(), v);
+				}
+			}
+			if (instancesByFunction.isEmpty()) {
+				continue;
+			}
+			if (verticesToOp == null) {
+				verticesToOp = OrderNFAEvaluator.getVerticesToOp(rule, ctx);
+			}
+			if (verticesToOp.isEmpty()) {
+				return;
+			}
+
+			log.info("Evaluating order of rule {} in {} functions using {} threads", rule.getName(), instancesByFunction.size(), pool.getParallelism());
+			final Map<Vertex, MOp> finalVerticesToOp = verticesToOp;
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for (Map.Entry<Object, Map<Object, Vertex>> function : instancesByFunction.entrySet()) {
+				Vertex functionDeclaration = functions.get(function.getKey());
+				tasks.add(pool.submit(() -> {
+					for (Object instanceId : function.getValue().keySet()) {
+						OrderNFAEvaluator evaluator = OrderEvaluator.createIntraproceduralEvaluator(markModel, rule, config, new MarkContextHolder());
+						List<Finding> findings = new ArrayList<>();
+						evaluator.setFindingCollector(findings);
+						boolean valid = evaluator.evaluateFunction(functionDeclaration, finalVerticesToOp, ctx.getAliasClasses().getMembers(instanceId), automaton,
+							ctx);
+						ctx.getInstanceOrderResults()
+								.put(automaton, instanceId, new InstanceOrderResults.Result(valid, evaluator.hasUnterminatedBases(), findings));
+					}
+				}));
+			}
+			for (ForkJoinTask<?> task : tasks) {
+				try {
+					task.join();
+				}
+				catch (RuleBudgetExceededException | CancellationException e) {
+					// the whole rule is inconclusive or the analysis has been cancelled
+					throw e;
+				}
+				catch (RuntimeException e) {
+					// the remaining instances are evaluated with their contexts
+					log.error("Order evaluation of rule {} failed", rule.getName(), e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,184 @@
+
+package de.fraunhofer.aisec.analysis.markevaluation;
+
+import de.fraunhofer.aisec.analysis.structures.OperandResolutionCache;
+import de.fraunhofer.aisec.analysis.structures.Pair;
+import de.fraunhofer.aisec.markmodel.MEntity;
+import de.fraunhofer.aisec.markmodel.MRule;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Plans the evaluation of all rules of a MARK model, so that data needed by several rules is computed once and released as soon as no remaining rule needs
+ * it.
+ * <p>
+ * Many rules use the same entities. The instances of an entity (i.e., the program variables its ops are called on) are computed when the first rule needs
+ * them and are shared with all following rules. Resolved operands are shared via the {@link OperandResolutionCache}. Rules are ordered such that rules using
+ * the same entities are evaluated one after another: the next rule is the one sharing most entities with the previous one, ties are broken by the order of the
+ * model. Each entity is reference-counted by the rules using it, once all of them are done ({@link #ruleDone(MRule)}), its instances and its cached operands
+ * are released.
+ */
+public class RulePlanner {
+
+	private static final Logger log = LoggerFactory.getLogger(RulePlanner.class);
+
+	@NonNull
+	private final List<MRule> order;
+
+	// entity name -> number of rules using it which are not done yet
+	private final Map<String, AtomicInteger> remainingRules = new HashMap<>();
+
+	// entity name -> instance vertices of the entity
+	private final Map<String, List<Vertex>> instances = new ConcurrentHashMap<>();
+
+	@Nullable
+	private final OperandResolutionCache operandCache;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Plans the evaluation of {@code rules}.
+	 *
+	 * @param rules        all rules which will be evaluated
+	 * @param operandCache cache of resolved operands whose entries are released together with the instances of an entity, may be null
+	 */
+	public RulePlanner(@NonNull List<MRule> rules, @Nullable OperandResolutionCache operandCache) {
+		this.operandCache = operandCache;
+		for (MRule rule : rules) {
+			for (String entity : getEntities(rule)) {
+				remainingRules.computeIfAbsent(entity, x -> new AtomicInteger()).incrementAndGet();
+			}
+		}
+		this.order = Collections.unmodifiableList(plan(rules));
+		log.debug("Planned evaluation of {} rules using {} distinct entities", order.size(), remainingRules.size());
+	}
+
+	/**
+	 * Returns all rules in the order they should be evaluated.
+	 */
+	@NonNull
+	public List<MRule> getOrder() {
+		return order;
+	}
+
+	/**
+	 * Returns the instance vertices of {@code entity}. They are computed by {@code find} when first requested and shared until all rules using the entity are
+	 * done.
+	 *
+	 * @param entity the entity
+	 * @param find   finds the instance vertices of the entity
+	 * @return unmodifiable list of instance vertices
+	 */
+	@NonNull
+	public List<Vertex> getInstances(@NonNull MEntity entity, @NonNull Supplier<Collection<Vertex>> find) {
+		List<Vertex> cached = instances.get(entity.getName());
+		if (cached != null) {
+			hits.incrementAndGet();
+			return cached;
+		}
+		misses.incrementAndGet();
+		// not computed within the map, as this may take long and must not block other entities
+		List<Vertex> found = Collections.unmodifiableList(new ArrayList<>(find.get()));
+		if (!remainingRules.containsKey(entity.getName())) {
+			// entity is not used by a planned rule, nobody would release it
+			return found;
+		}
+		List<Vertex> existing = instances.putIfAbsent(entity.getName(), found);
+		return existing != null ? existing : found;
+	}
+
+	/**
+	 * Marks {@code rule} as evaluated and releases the data of all entities which are not used by any remaining rule.
+	 *
+	 * @param rule a planned rule
+	 */
+	public void ruleDone(@NonNull MRule rule) {
+		for (String entity : getEntities(rule)) {
+			AtomicInteger remaining = remainingRules.get(entity);
+			if (remaining != null && remaining.decrementAndGet() == 0) {
+				log.debug("No remaining rule uses entity {}, releasing its instances and operands", entity);
+				instances.remove(entity);
+				if (operandCache != null) {
+					operandCache.release(entity);
+				}
+			}
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of entities whose instances are currently held.
+	 */
+	public int size() {
+		return instances.size();
+	}
+
+	/**
+	 * Orders the rules greedily, such that each rule shares as many entities as possible with the rule evaluated before.
+	 */
+	private static List<MRule> plan(List<MRule> rules) {
+		List<MRule> remaining = new ArrayList<>(rules);
+		List<MRule> planned = new ArrayList<>();
+		Set<String> previous = Collections.emptySet();
+		while (!remaining.isEmpty()) {
+			int best = 0;
+			int bestShared = -1;
+			for (int i = 0; i < remaining.size(); i++) {
+				int shared = 0;
+				for (String entity : getEntities(remaining.get(i))) {
+					if (previous.contains(entity)) {
+						shared++;
+					}
+				}
+				if (shared > bestShared) {
+					best = i;
+					bestShared = shared;
+				}
+			}
+			MRule next = remaining.remove(best);
+			planned.add(next);
+			previous = getEntities(next);
+		}
+		return planned;
+	}
+
+	/**
+	 * Returns the names of the entities used by a rule.
+	 */
+	@NonNull
+	static Set<String> getEntities(@NonNull MRule rule) {
+		Set<String> entities = new LinkedHashSet<>();
+		if (rule.getEntityReferences() != null) {
+			for (Pair<String, MEntity> ref : rule.getEntityReferences().values()) {
+				if (ref != null && ref.getValue0() != null) {
+					entities.add(ref.getValue0());
+				}
+			}
+		}
+		return entities;
+	}
+}
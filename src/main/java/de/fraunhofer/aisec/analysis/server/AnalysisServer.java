@@ -5,6 +5,7 @@ import de.fraunhofer.aisec.analysis.JythonInterpreter;
 import de.fraunhofer.aisec.analysis.cpgpasses.PassWithContext;
 import de.fraunhofer.aisec.analysis.markevaluation.Evaluator;
 import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
+import de.fraunhofer.aisec.analysis.structures.CancellationToken;
 import de.fraunhofer.aisec.analysis.structures.FindingDescription;
 import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
 import de.fraunhofer.aisec.cpg.TranslationConfiguration;
@@ -57,6 +58,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
@@ -186,6 +188,9 @@ public class AnalysisServer {
 
 	/**
 	 * Runs an analysis and persists the result.
+	 * <p>
+	 * Cancelling the returned future cancels the {@link AnalysisContext#getCancellationToken()} of the analysis, so persisting and evaluating stop at their next
+	 * check. A partially persisted graph is removed from the database.
 	 *
 	 * @param analyzer the translationmanager to analyze
 	 * @return the Future for this analysis
@@ -206,18 +211,21 @@ public class AnalysisServer {
 			}
 		}
 		// Run all passes and persist the result
+		CancellationToken cancellation = ctx.getCancellationToken();
 		final Benchmark benchParsing = new Benchmark(AnalysisServer.class, "  Parsing source and creating CPG for " + srcLocation.getName());
-		return analyzer.analyze() // Run analysis
+		CompletableFuture<AnalysisContext> analysis = analyzer.analyze() // Run analysis
 				.thenApply(
 					result -> {
 						benchParsing.stop();
+						cancellation.throwIfCancelled();
 						// Attach analysis context to result
 						result.getScratch().put("ctx", ctx);
 						translationResult = result;
-						return persistToODB(result);
+						return persistToODB(result, cancellation);
 					})
 				.thenApply(
 					result -> {
+						cancellation.throwIfCancelled();
 						Benchmark bench = new Benchmark(AnalysisServer.class, "  Evaluation of MARK");
 						log.info(
 							"Evaluating mark: {} entities, {} rules",
@@ -234,11 +242,21 @@ public class AnalysisServer {
 						Benchmark bench = new Benchmark(AnalysisServer.class, "  Filtering results");
 						if (config.disableGoodFindings) {
 							// Filter out "positive" results
-							analysisContext.getFindings().removeIf(finding -> !finding.isProblem());
+							analysisContext.getFindings().removeIf(finding -> !finding.isProblem() && !finding.isInconclusive());
 						}
 						bench.stop();
 						return analysisContext;
 					});
+
+		// cancel(true) only completes the last stage, the running stage has to be stopped via the token
+		analysis.whenComplete(
+			(analysisContext, e) -> {
+				if (analysis.isCancelled()) {
+					log.info("Analysis of {} cancelled", srcLocation.getName());
+					cancellation.cancel();
+				}
+			});
+		return analysis;
 	}
 
 	public void loadMarkRulesFromConfig() {
@@ -433,7 +451,7 @@ public class AnalysisServer {
 		return translationResult;
 	}
 
-	private TranslationResult persistToODB(TranslationResult result) {
+	private TranslationResult persistToODB(TranslationResult result, CancellationToken cancellation) {
 		Benchmark bench = new Benchmark(this.getClass(), " Serializing into OverflowDB");
 
 		// ensure, that the database is clear
@@ -445,7 +463,14 @@ public class AnalysisServer {
 		}
 
 		// Persist the result
-		db.saveAll(result.getTranslationUnits());
+		try {
+			db.saveAll(result.getTranslationUnits(), cancellation);
+		}
+		catch (CancellationException e) {
+			// do not keep a partial graph
+			db.clearDatabase();
+			throw e;
+		}
 
 		long duration = bench.stop();
 		// connect to DB
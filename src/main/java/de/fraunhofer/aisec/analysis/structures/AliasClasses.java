@@ -0,0 +1,78 @@
+
+package de.fraunhofer.aisec.analysis.structures;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Analysis-scoped partition of instance vertices (by id) into alias classes, i.e., vertices which may refer to the same object.
+ * <p>
+ * If an object is assigned to several variables, each of them is an instance of the entity. Only the representative of each class is used as instance when
+ * creating the contexts of a rule, so the object does not multiply the number of contexts. Operand resolution and order evaluation consider all members of
+ * the class of an instance, and order evaluation tracks calls on all members as calls on the representative. Vertices which have never been merged form a
+ * class of their own.
+ */
+public class AliasClasses {
+
+	// union-find forest over vertex ids, roots are not contained
+	private final Map<Object, Object> parent = new HashMap<>();
+
+	// root -> all members of its class, including the root. Only contains classes with more than one member
+	private final Map<Object, Set<Object>> members = new HashMap<>();
+
+	/**
+	 * Merges the classes of the given vertex ids. The representative of the class of {@code a} becomes the representative of the merged class.
+	 */
+	public synchronized void union(@NonNull Object a, @NonNull Object b) {
+		Object rootA = find(a);
+		Object rootB = find(b);
+		if (rootA.equals(rootB)) {
+			return;
+		}
+		parent.put(rootB, rootA);
+		Set<Object> merged = members.computeIfAbsent(rootA, x -> new HashSet<>(Set.of(x)));
+		Set<Object> other = members.remove(rootB);
+		merged.addAll(other != null ? other : Set.of(rootB));
+	}
+
+	/**
+	 * Returns the id of the representative of the class of {@code id}.
+	 */
+	@NonNull
+	public synchronized Object getRepresentative(@NonNull Object id) {
+		return find(id);
+	}
+
+	/**
+	 * Returns the ids of all members of the class of {@code id}, including {@code id}.
+	 */
+	@NonNull
+	public synchronized Set<Object> getMembers(@NonNull Object id) {
+		Set<Object> m = members.get(find(id));
+		return m == null ? Set.of(id) : Set.copyOf(m);
+	}
+
+	/**
+	 * Returns the number of vertices which are not the representative of their class.
+	 */
+	public synchronized int getMerged() {
+		return parent.size();
+	}
+
+	private Object find(Object id) {
+		Object root = id;
+		for (Object p = parent.get(root); p != null; p = parent.get(root)) {
+			root = p;
+		}
+		// path compression
+		for (Object p = parent.get(id); p != null && !p.equals(root); p = parent.get(id)) {
+			parent.put(id, root);
+			id = p;
+		}
+		return root;
+	}
+}
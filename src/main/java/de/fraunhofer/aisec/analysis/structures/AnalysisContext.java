@@ -1,28 +1,104 @@
 
 package de.fraunhofer.aisec.analysis.structures;
 
+import de.fraunhofer.aisec.analysis.markevaluation.FunctionOrderResults;
+import de.fraunhofer.aisec.analysis.markevaluation.InstanceOrderResults;
+import de.fraunhofer.aisec.analysis.markevaluation.OrderSummaries;
+import de.fraunhofer.aisec.analysis.wpds.FunctionSummaries;
+import de.fraunhofer.aisec.analysis.wpds.SaturatedWpds;
 import de.fraunhofer.aisec.cpg.graph.Node;
 import de.fraunhofer.aisec.crymlin.connectors.db.Database;
+import de.fraunhofer.aisec.mark.markDsl.OrderExpression;
+import de.fraunhofer.aisec.markmodel.MOp;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
 import java.io.File;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class AnalysisContext {
 
-	/** List of violations of MARK rules. the region, etc. */
+	/** Name of the budget of the combined pass over all order rules. */
+	public static final String COMBINED_ORDER_PASS = "combined order pass";
+
+	/** List of violations of MARK rules. the region, etc. May be written concurrently by parallel rule evaluation. */
 	@NonNull
-	private final Set<Finding> findings = new HashSet<>();
+	private final Set<Finding> findings = ConcurrentHashMap.newKeySet();
 
 	/** Map of method signatures to {@code Method}s. */
 	public final Map<String, Method> methods = new HashMap<>();
 
 	private final List<File> sourceLocations;
 
+	/** Resolved MARK operands, shared by all rules of this analysis. */
+	@NonNull
+	private final OperandResolutionCache operandResolutionCache = new OperandResolutionCache();
+
+	/** Results of pure builtins, shared by all rules of this analysis. */
+	@NonNull
+	private final BuiltinResultCache builtinResultCache = new BuiltinResultCache();
+
+	/** Alias classes of instance vertices, shared by all rules of this analysis. */
+	@NonNull
+	private final AliasClasses aliasClasses = new AliasClasses();
+
+	/** Budgets of the rules which are currently evaluated, by rule name. */
+	@NonNull
+	private final Map<String, RuleBudget> ruleBudgets = new ConcurrentHashMap<>();
+
+	/** Vertices of the calls of ops of the rules which are currently evaluated, by rule name. */
+	@NonNull
+	private final Map<String, Map<Vertex, MOp>> verticesToOp = new ConcurrentHashMap<>();
+
+	/** Names of rules which exceeded their budget and thus have been reported as inconclusive. */
+	@NonNull
+	private final Set<String> inconclusiveRules = ConcurrentHashMap.newKeySet();
+
+	/** Names of rules which have more contexts than allowed and thus have been evaluated incompletely. */
+	@NonNull
+	private final Set<String> rulesExceedingContextLimit = ConcurrentHashMap.newKeySet();
+
+	/** Number of contexts which have not been created because their instances are not paired. */
+	@NonNull
+	private final AtomicLong skippedContexts = new AtomicLong();
+
+	/** Whole-program WPDS per MARK order expression, shared by all contexts of the rule and released once the rule is evaluated. */
+	@NonNull
+	private final Map<OrderExpression, SaturatedWpds> saturatedWpds = new ConcurrentHashMap<>();
+
+	/** Number of whole-program WPDS which have been saturated. */
+	@NonNull
+	private final AtomicLong saturations = new AtomicLong();
+
+	/** Interprocedural information for WPDS construction, shared by all order expressions. */
+	@NonNull
+	private final FunctionSummaries functionSummaries = new FunctionSummaries();
+
+	/** Results of all order rules per function (by vertex id), if order rules are evaluated in a combined pass. */
+	@NonNull
+	private final Map<Object, FunctionOrderResults> functionOrderResults = new ConcurrentHashMap<>();
+
+	/** Results of intraprocedural order evaluation per instance, if orders are evaluated per function before the contexts. */
+	@NonNull
+	private final InstanceOrderResults instanceOrderResults = new InstanceOrderResults();
+
+	/** Typestate transformers of functions, if orders are evaluated with function summaries. */
+	@NonNull
+	private final OrderSummaries orderSummaries = new OrderSummaries();
+
+	/** Budget of the combined pass over all order rules, which is shared by all rules and thus not charged to any of them. */
+	@NonNull
+	private volatile RuleBudget combinedOrderBudget;
+
+	/** Cancelled if the analysis is cancelled, checked by all long-running loops of the analysis. */
+	@NonNull
+	private final CancellationToken cancellationToken = new CancellationToken();
+
 	/** The database used for this analysis. */
 	@NonNull
 	private Database<Node> db;
@@ -30,6 +106,7 @@ public class AnalysisContext {
 	public AnalysisContext(List<File> sourceLocations, @NonNull Database<Node> db) {
 		this.sourceLocations = sourceLocations;
 		this.db = db;
+		this.combinedOrderBudget = RuleBudget.unlimited(COMBINED_ORDER_PASS, cancellationToken);
 	}
 
 	public AnalysisContext(File f, @NonNull Database<Node> db) {
@@ -51,6 +128,110 @@ public class AnalysisContext {
 		return sourceLocations;
 	}
 
+	@NonNull
+	public CancellationToken getCancellationToken() {
+		return this.cancellationToken;
+	}
+
+	@NonNull
+	public OperandResolutionCache getOperandResolutionCache() {
+		return this.operandResolutionCache;
+	}
+
+	@NonNull
+	public BuiltinResultCache getBuiltinResultCache() {
+		return this.builtinResultCache;
+	}
+
+	/**
+	 * Returns the budget of a rule which is currently evaluated, or an unlimited budget if the rule is not evaluated by the {@code Evaluator}. Both are
+	 * exceeded once the analysis is cancelled.
+	 */
+	@NonNull
+	public RuleBudget getRuleBudget(@NonNull String rule) {
+		RuleBudget budget = this.ruleBudgets.get(rule);
+		return budget != null ? budget : RuleBudget.unlimited(rule, cancellationToken);
+	}
+
+	/**
+	 * Returns the budget of the combined pass over all order rules. Unlimited, but exceeded once the analysis is cancelled, unless set by the
+	 * {@code Evaluator}.
+	 */
+	@NonNull
+	public RuleBudget getCombinedOrderBudget() {
+		return this.combinedOrderBudget;
+	}
+
+	public void setCombinedOrderBudget(@NonNull RuleBudget combinedOrderBudget) {
+		this.combinedOrderBudget = combinedOrderBudget;
+	}
+
+	@NonNull
+	public Map<String, RuleBudget> getRuleBudgets() {
+		return this.ruleBudgets;
+	}
+
+	@NonNull
+	public Map<String, Map<Vertex, MOp>> getVerticesToOp() {
+		return this.verticesToOp;
+	}
+
+	@NonNull
+	public Set<String> getInconclusiveRules() {
+		return this.inconclusiveRules;
+	}
+
+	@NonNull
+	public Set<String> getRulesExceedingContextLimit() {
+		return this.rulesExceedingContextLimit;
+	}
+
+	public long getSkippedContexts() {
+		return this.skippedContexts.get();
+	}
+
+	public void addSkippedContexts(long skipped) {
+		this.skippedContexts.addAndGet(skipped);
+	}
+
+	@NonNull
+	public Map<OrderExpression, SaturatedWpds> getSaturatedWpds() {
+		return this.saturatedWpds;
+	}
+
+	public long getSaturations() {
+		return this.saturations.get();
+	}
+
+	public void addSaturation() {
+		this.saturations.incrementAndGet();
+	}
+
+	@NonNull
+	public Map<Object, FunctionOrderResults> getFunctionOrderResults() {
+		return this.functionOrderResults;
+	}
+
+	@NonNull
+	public AliasClasses getAliasClasses() {
+		return this.aliasClasses;
+	}
+
+	@NonNull
+	public InstanceOrderResults getInstanceOrderResults() {
+		return this.instanceOrderResults;
+	}
+
+	@NonNull
+	public OrderSummaries getOrderSummaries() {
+		return this.orderSummaries;
+	}
+
+	@NonNull
+	public FunctionSummaries getFunctionSummaries() {
+		return this.functionSummaries;
+	}
+
 	@NonNull
 	public Database<Node> getDatabase() {
 		return this.db;
@@ -0,0 +1,140 @@
+
+package de.fraunhofer.aisec.analysis.structures;
+
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Analysis-scoped cache for results of pure builtins (see {@link de.fraunhofer.aisec.crymlin.builtin.Builtin#isPure()}).
+ * <p>
+ * The result of a pure builtin only depends on its arguments, i.e., their values and responsible vertices. Many contexts of a rule (and many rules) call a
+ * builtin with the same arguments, e.g. {@code _eog_connection} with the same two instance vertices. Results are stored per builtin and arguments, so each
+ * distinct call is only executed once.
+ * <p>
+ * Values handed out are copies, as ConstantValues collect responsible vertices during evaluation. The cache refers to vertices of the analyzed graph and is
+ * cleared once an evaluation of the MARK rules is finished.
+ */
+public class BuiltinResultCache {
+
+	/** Maximal number of results cached per builtin. Further results are computed, but not cached. */
+	public static final int MAX_RESULTS_PER_BUILTIN = 100_000;
+
+	private final Map<String, Map<List<Object>, ConstantValue>> results = new ConcurrentHashMap<>();
+
+	private final Map<String, AtomicLong> hits = new ConcurrentHashMap<>();
+	private final Map<String, AtomicLong> misses = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the result of calling {@code builtin} with the given arguments. If the builtin has not been called with equal arguments before, {@code execute} is
+	 * called and its result is cached.
+	 *
+	 * @param builtin   name of the builtin
+	 * @param arguments the evaluated arguments of the call
+	 * @param execute   executes the builtin
+	 * @return a copy of the (cached) result
+	 */
+	public ConstantValue getOrExecute(@NonNull String builtin, @NonNull ListValue arguments, @NonNull Supplier<ConstantValue> execute) {
+		Map<List<Object>, ConstantValue> forBuiltin = results.computeIfAbsent(builtin, x -> new ConcurrentHashMap<>());
+		List<Object> key = getKey(arguments);
+		ConstantValue cached = forBuiltin.get(key);
+		if (cached != null) {
+			hits.computeIfAbsent(builtin, x -> new AtomicLong()).incrementAndGet();
+			return cached.copy();
+		}
+		misses.computeIfAbsent(builtin, x -> new AtomicLong()).incrementAndGet();
+
+		// not computed within the map, builtins may take long and must not block other keys
+		ConstantValue result = execute.get();
+		if (result != null && forBuiltin.size() < MAX_RESULTS_PER_BUILTIN) {
+			forBuiltin.putIfAbsent(key, result.copy());
+		}
+		return result;
+	}
+
+	/**
+	 * Drops all cached results and statistics.
+	 */
+	public void clear() {
+		results.clear();
+		hits.clear();
+		misses.clear();
+	}
+
+	/**
+	 * Returns an identity for a list of arguments. Arguments are identified by their type, value and the ids of their responsible vertices. Values are compared
+	 * by equals/hashCode, arrays by their elements.
+	 */
+	private static List<Object> getKey(ListValue arguments) {
+		List<Object> key = new ArrayList<>();
+		for (MarkIntermediateResult argument : arguments) {
+			if (argument instanceof ListValue) {
+				key.add(getKey((ListValue) argument));
+			} else if (argument instanceof ConstantValue) {
+				ConstantValue cv = (ConstantValue) argument;
+				key.add(cv.getClass());
+				key.add(cv instanceof ErrorValue ? ((ErrorValue) cv).getDescription() : null);
+				key.add(cv.getValue() == null ? null : cv.getValue().getClass());
+				key.add(getValueKey(cv.getValue()));
+				Set<Object> responsible = new HashSet<>();
+				for (Vertex v : cv.getResponsibleVertices()) {
+					responsible.add(v == null ? null : v.id());
+				}
+				key.add(responsible);
+			} else {
+				key.add(argument);
+			}
+		}
+		return key;
+	}
+
+	@Nullable
+	private static Object getValueKey(@Nullable Object value) {
+		if (value == null || !value.getClass().isArray()) {
+			return value;
+		}
+		List<Object> elements = new ArrayList<>();
+		for (int i = 0; i < Array.getLength(value); i++) {
+			elements.add(getValueKey(Array.get(value, i)));
+		}
+		return elements;
+	}
+
+	public long getHits(@NonNull String builtin) {
+		AtomicLong h = hits.get(builtin);
+		return h == null ? 0 : h.get();
+	}
+
+	public long getMisses(@NonNull String builtin) {
+		AtomicLong m = misses.get(builtin);
+		return m == null ? 0 : m.get();
+	}
+
+	/**
+	 * Returns the hit rate per builtin which has been called, sorted by name.
+	 */
+	@NonNull
+	public Map<String, Double> getHitRates() {
+		Map<String, Double> rates = new TreeMap<>();
+		for (String builtin : misses.keySet()) {
+			long h = getHits(builtin);
+			rates.put(builtin, (double) h / (h + getMisses(builtin)));
+		}
+		return rates;
+	}
+
+	public int size() {
+		return results.values().stream().mapToInt(Map::size).sum();
+	}
+}
@@ -6,8 +6,6 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -20,13 +18,21 @@ public class CPGInstanceContext {
 	// e.g. for
 	//    using Botan as b, Random as r
 	// maps "b" to its vertex and "r" to its vertex
-	private Map<String, Vertex> entityAssignment = new HashMap<>();
+	// copies share the assignments of the original, see PersistentChain
+	private PersistentChain<String, Vertex> entityAssignment = PersistentChain.empty();
+
+	public CPGInstanceContext() {
+	}
+
+	public CPGInstanceContext(CPGInstanceContext other) {
+		entityAssignment = other.entityAssignment;
+	}
 
 	/**
 	 * Stores a Mark instance (e.g., "b") and the Vertex that defines it.
 	 */
 	public void putMarkInstance(@NonNull String s, @NonNull Vertex v) {
-		entityAssignment.put(s, v);
+		entityAssignment = entityAssignment.with(s, v);
 	}
 
 	@Nullable
@@ -35,11 +41,11 @@ public class CPGInstanceContext {
 	}
 
 	public Set<String> getMarkInstances() {
-		return entityAssignment.keySet();
+		return entityAssignment.toMap().keySet();
 	}
 
 	public Collection<Vertex> getMarkInstanceVertices() {
-		return entityAssignment.values();
+		return entityAssignment.toMap().values();
 	}
 
 	public boolean containsInstance(String instance) {
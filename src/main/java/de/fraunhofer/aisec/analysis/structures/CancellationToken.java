@@ -0,0 +1,38 @@
+
+package de.fraunhofer.aisec.analysis.structures;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Signals that an analysis has been cancelled, e.g. because its future has been cancelled after a timeout.
+ * <p>
+ * Cancellation is cooperative: long-running loops (persisting the CPG, precalculating call statements, evaluating rules, typestate analysis) call
+ * {@link #throwIfCancelled()}, which throws a {@link CancellationException} once the analysis is cancelled. The exception is not caught by the evaluation of a
+ * single rule, so the whole analysis stops.
+ */
+public class CancellationToken {
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Cancels the analysis. All loops checking this token stop at their next check.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Throws, if the analysis has been cancelled.
+	 *
+	 * @throws CancellationException if the analysis has been cancelled
+	 */
+	public void throwIfCancelled() {
+		if (cancelled) {
+			throw new CancellationException("Analysis has been cancelled");
+		}
+	}
+}
@@ -166,6 +166,17 @@ public class ConstantValue extends MarkIntermediateResult {
 		return responsibleVertices;
 	}
 
+	/**
+	 * Returns a copy of this value with its own set of responsible vertices.
+	 *
+	 * @return
+	 */
+	public ConstantValue copy() {
+		ConstantValue copy = new ConstantValue(value, type);
+		copy.addResponsibleVertices(responsibleVertices);
+		return copy;
+	}
+
 	@Override
 	public String toString() {
 		return this.value + " (" + this.type + ")";
@@ -0,0 +1,339 @@
+
+package de.fraunhofer.aisec.analysis.structures;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Results of the evaluation of a MARK expression, by context id.
+ * <p>
+ * Context ids are handed out consecutively by a {@link MarkContextHolder}, so results are stored column-wise in an array indexed by the context id relative
+ * to the smallest id. If the ids become too sparse for an array, the results are moved to a {@link TreeMap}. Besides the {@link Map} interface, results can
+ * be accessed by primitive ids to avoid boxing: {@link #get(int)}, {@link #put(int, MarkIntermediateResult)} and iteration with {@link #firstId()} and
+ * {@link #nextId(int)}.
+ * <p>
+ * Most results are booleans. Booleans without responsible vertices are not stored as objects, but as two bits (present and value) and materialized as a new
+ * {@link ConstantValue} on access. Other results, including booleans with responsible vertices, which are needed to locate findings, are stored as they are.
+ */
+public class ContextResults extends AbstractMap<Integer, MarkIntermediateResult> {
+
+	/** Returned by {@link #firstId()} and {@link #nextId(int)} if there are no more ids. */
+	public static final int NONE = -1;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	// marks a null result in the array, as null marks a missing one
+	private static final Object NULL = new Object();
+
+	// id of values[0]
+	private int offset = 0;
+	@Nullable
+	private Object[] values;
+	private int size = 0;
+
+	// plain booleans, indexed like values: whether slot holds one, and its value
+	private BitSet booleanPresent = new BitSet();
+	private BitSet booleanValues = new BitSet();
+
+	// used instead of values if ids are too sparse
+	@Nullable
+	private TreeMap<Integer, MarkIntermediateResult> sparse;
+
+	/**
+	 * Returns {@code results} if it already is a {@link ContextResults}, otherwise a copy.
+	 */
+	@NonNull
+	public static ContextResults of(@NonNull Map<Integer, MarkIntermediateResult> results) {
+		if (results instanceof ContextResults) {
+			return (ContextResults) results;
+		}
+		ContextResults ret = new ContextResults();
+		ret.putAll(results);
+		return ret;
+	}
+
+	@Nullable
+	public MarkIntermediateResult get(int id) {
+		if (sparse != null) {
+			return sparse.get(id);
+		}
+		return unmask(slot(id));
+	}
+
+	public boolean containsKey(int id) {
+		if (sparse != null) {
+			return sparse.containsKey(id);
+		}
+		return slot(id) != null;
+	}
+
+	/**
+	 * Returns true, if {@code value} is a boolean which is fully described by its value, i.e., it can be stored as a bit.
+	 */
+	private static boolean isPlainBoolean(@Nullable MarkIntermediateResult value) {
+		return value != null && value.getClass() == ConstantValue.class && ((ConstantValue) value).isBoolean()
+				&& ((ConstantValue) value).getResponsibleVertices().isEmpty();
+	}
+
+	@Nullable
+	public MarkIntermediateResult put(int id, @Nullable MarkIntermediateResult value) {
+		if (sparse != null) {
+			return sparse.put(id, value);
+		}
+		if (!ensureSlot(id)) {
+			toSparse();
+			return sparse.put(id, value);
+		}
+		int i = id - offset;
+		Object old = slot(id);
+		if (isPlainBoolean(value)) {
+			values[i] = null;
+			booleanPresent.set(i);
+			booleanValues.set(i, (Boolean) ((ConstantValue) value).getValue());
+		} else {
+			values[i] = value == null ? NULL : value;
+			booleanPresent.clear(i);
+		}
+		if (old == null) {
+			size++;
+		}
+		return unmask(old);
+	}
+
+	/**
+	 * Returns the smallest id with a result, {@link #NONE} if there are no results.
+	 */
+	public int firstId() {
+		return nextId(Integer.MIN_VALUE);
+	}
+
+	/**
+	 * Returns the smallest id with a result which is greater than {@code id}, {@link #NONE} if there is none.
+	 */
+	public int nextId(int id) {
+		if (sparse != null) {
+			Integer next = sparse.higherKey(id);
+			return next == null ? NONE : next;
+		}
+		if (values == null) {
+			return NONE;
+		}
+		for (int i = Math.max(0, id == Integer.MIN_VALUE ? 0 : id - offset + 1); i < values.length; i++) {
+			if (values[i] != null || booleanPresent.get(i)) {
+				return offset + i;
+			}
+		}
+		return NONE;
+	}
+
+	@Override
+	public MarkIntermediateResult get(Object key) {
+		return key instanceof Integer ? get((int) (Integer) key) : null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof Integer && containsKey((int) (Integer) key);
+	}
+
+	@Override
+	public MarkIntermediateResult put(Integer key, MarkIntermediateResult value) {
+		return put((int) key, value);
+	}
+
+	@Override
+	public MarkIntermediateResult remove(Object key) {
+		if (!(key instanceof Integer)) {
+			return null;
+		}
+		if (sparse != null) {
+			return sparse.remove(key);
+		}
+		int id = (Integer) key;
+		Object old = slot(id);
+		if (old != null) {
+			values[id - offset] = null;
+			booleanPresent.clear(id - offset);
+			size--;
+		}
+		return unmask(old);
+	}
+
+	@Override
+	public int size() {
+		return sparse != null ? sparse.size() : size;
+	}
+
+	@Override
+	public void clear() {
+		sparse = null;
+		values = null;
+		booleanPresent = new BitSet();
+		booleanValues = new BitSet();
+		size = 0;
+	}
+
+	@Override
+	public Set<Entry<Integer, MarkIntermediateResult>> entrySet() {
+		if (sparse != null) {
+			return sparse.entrySet();
+		}
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<Entry<Integer, MarkIntermediateResult>> iterator() {
+				return new EntryIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the result stored for {@code id}, materializing plain booleans. {@link #NULL} marks a null result, null a missing one.
+	 */
+	@Nullable
+	private Object slot(int id) {
+		if (values == null || id < offset || id - offset >= values.length) {
+			return null;
+		}
+		int i = id - offset;
+		if (booleanPresent.get(i)) {
+			return ConstantValue.of(booleanValues.get(i));
+		}
+		return values[i];
+	}
+
+	/**
+	 * Grows the array so it has a slot for {@code id}.
+	 *
+	 * @return false, if the array would become too sparse
+	 */
+	private boolean ensureSlot(int id) {
+		if (values == null) {
+			values = new Object[INITIAL_CAPACITY];
+			offset = id;
+			return true;
+		}
+		if (id >= offset && id - offset < values.length) {
+			return true;
+		}
+		int low = Math.min(offset, id);
+		long span = (long) Math.max(offset + values.length - 1, id) - low + 1;
+		if (span > 4L * (size + 1) + INITIAL_CAPACITY) {
+			return false;
+		}
+		int capacity = values.length;
+		while (capacity < span) {
+			capacity *= 2;
+		}
+		Object[] grown = new Object[capacity];
+		System.arraycopy(values, 0, grown, offset - low, values.length);
+		values = grown;
+		if (low < offset) {
+			booleanPresent = shift(booleanPresent, offset - low);
+			booleanValues = shift(booleanValues, offset - low);
+		}
+		offset = low;
+		return true;
+	}
+
+	private static BitSet shift(BitSet bits, int distance) {
+		BitSet shifted = new BitSet();
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			shifted.set(i + distance);
+		}
+		return shifted;
+	}
+
+	private void toSparse() {
+		TreeMap<Integer, MarkIntermediateResult> map = new TreeMap<>();
+		for (int i = 0; values != null && i < values.length; i++) {
+			Object value = slot(offset + i);
+			if (value != null) {
+				map.put(offset + i, unmask(value));
+			}
+		}
+		values = null;
+		booleanPresent = new BitSet();
+		booleanValues = new BitSet();
+		size = 0;
+		sparse = map;
+	}
+
+	@Nullable
+	private static MarkIntermediateResult unmask(@Nullable Object value) {
+		return value == null || value == NULL ? null : (MarkIntermediateResult) value;
+	}
+
+	private class EntryIterator implements Iterator<Entry<Integer, MarkIntermediateResult>> {
+		private int next = firstId();
+		private int current = NONE;
+
+		@Override
+		public boolean hasNext() {
+			return next != NONE;
+		}
+
+		@Override
+		public Entry<Integer, MarkIntermediateResult> next() {
+			if (next == NONE) {
+				throw new NoSuchElementException();
+			}
+			current = next;
+			next = nextId(current);
+			final int id = current;
+			return new Entry<>() {
+				@Override
+				public Integer getKey() {
+					return id;
+				}
+
+				@Override
+				public MarkIntermediateResult getValue() {
+					return get(id);
+				}
+
+				@Override
+				public MarkIntermediateResult setValue(MarkIntermediateResult value) {
+					return put(id, value);
+				}
+
+				@Override
+				public boolean equals(Object o) {
+					if (!(o instanceof Entry)) {
+						return false;
+					}
+					Entry<?, ?> e = (Entry<?, ?>) o;
+					return getKey().equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+				}
+
+				@Override
+				public int hashCode() {
+					return id ^ Objects.hashCode(getValue());
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			if (current == NONE) {
+				throw new IllegalStateException();
+			}
+			ContextResults.this.remove(current);
+			current = NONE;
+		}
+	}
+}
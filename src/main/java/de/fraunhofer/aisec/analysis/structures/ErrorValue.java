@@ -62,6 +62,13 @@ public class ErrorValue extends ConstantValue {
 		return Objects.hash(description);
 	}
 
+	@Override
+	public ConstantValue copy() {
+		ErrorValue copy = new ErrorValue(value, description);
+		copy.addResponsibleVertices(getResponsibleVertices());
+		return copy;
+	}
+
 	public String getDescription() {
 		return description;
 	}
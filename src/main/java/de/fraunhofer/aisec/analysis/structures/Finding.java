@@ -26,6 +26,11 @@ public class Finding {
 	 */
 	private boolean isProblem = true;
 
+	/**
+	 * True, if the rule of this Finding could not be evaluated completely, e.g. because it exceeded its budget. Findings of the rule may be missing.
+	 */
+	private boolean isInconclusive = false;
+
 	private String logMsg;
 	@NonNull
 	private List<PhysicalLocation> locations = new ArrayList<>();
@@ -71,6 +76,31 @@ public class Finding {
 		this.isProblem = isProblem;
 	}
 
+	/**
+	 * Creates a Finding which reports that a rule has not been evaluated completely. It is not a problem, but indicates that findings of the rule may be
+	 * missing.
+	 *
+	 * @param logMsg Log message describing why the rule is inconclusive.
+	 * @param onfailIdentifier Identifier of the generic finding, as given by the "onfail" construct of the MARK rule.
+	 */
+	public static Finding newInconclusiveFinding(String logMsg, String onfailIdentifier) {
+		return newInconclusiveFinding(logMsg, onfailIdentifier, null, List.of());
+	}
+
+	/**
+	 * Creates a Finding which reports that a rule has not been evaluated completely, located at the given regions, e.g. a call of an op of the rule.
+	 *
+	 * @param logMsg Log message describing why the rule is inconclusive.
+	 * @param onfailIdentifier Identifier of the generic finding, as given by the "onfail" construct of the MARK rule.
+	 * @param artifactUri Absolute URI of the source file, if known.
+	 * @param ranges Regions of the finding.
+	 */
+	public static Finding newInconclusiveFinding(String logMsg, String onfailIdentifier, @Nullable URI artifactUri, List<Region> ranges) {
+		Finding f = new Finding(logMsg, artifactUri, onfailIdentifier, ranges, false);
+		f.isInconclusive = true;
+		return f;
+	}
+
 	public String getLogMsg() {
 		return logMsg;
 	}
@@ -79,6 +109,10 @@ public class Finding {
 		return isProblem;
 	}
 
+	public boolean isInconclusive() {
+		return isInconclusive;
+	}
+
 	/**
 	 * Returns an unmodifiable list of the associated LSP "ranges" (~regions).
 	 */
@@ -151,6 +185,6 @@ public class Finding {
 			lines = "[" + locations.stream().map(loc -> "" + (loc.getRegion().getStartLine() + 1)).sorted().distinct().collect(Collectors.joining(", ")) + "]";
 		}
 
-		out.println(lines + ": " + (isProblem ? "(BAD)  " : "(GOOD) ") + shortMsg + ": " + logMsg);
+		out.println(lines + ": " + (isInconclusive ? "(INCONCLUSIVE) " : isProblem ? "(BAD)  " : "(GOOD) ") + shortMsg + ": " + logMsg);
 	}
 }
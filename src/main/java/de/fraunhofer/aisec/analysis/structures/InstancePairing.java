@@ -0,0 +1,29 @@
+
+package de.fraunhofer.aisec.analysis.structures;
+
+/**
+ * Strategy for combining the instances of different MARK entities of a rule into contexts.
+ */
+public enum InstancePairing {
+
+	/**
+	 * Every instance is combined with every other instance (cartesian product).
+	 */
+	ALL,
+
+	/**
+	 * Only instances connected by data flow are combined.
+	 */
+	DATAFLOW,
+
+	/**
+	 * Only instances declared in the same function are combined.
+	 */
+	FUNCTION,
+
+	/**
+	 * Only instances declared in the same file are combined.
+	 */
+	FILE
+
+}
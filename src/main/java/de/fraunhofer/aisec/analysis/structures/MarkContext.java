@@ -8,22 +8,29 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.PrintStream;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 public class MarkContext {
 	private static final Logger log = LoggerFactory.getLogger(MarkContext.class);
 
 	private CPGInstanceContext instances = null;
-	private Map<String, CPGVertexWithValue> operands = new HashMap<>();
+	// copies share the operands of the original and only store the operands set afterwards, see PersistentChain
+	private PersistentChain<String, CPGVertexWithValue> operands = PersistentChain.empty();
 	private boolean findingAlreadyAdded = false;
 
 	public MarkContext(MarkContext other) {
 		// shallow copy
-		other.operands.forEach(operands::put);
+		operands = other.operands;
 		instances = other.instances;
 	}
 
+	public MarkContext(MarkContext other, CPGInstanceContext instances) {
+		// shallow copy of the operands, but different instances
+		operands = other.operands;
+		this.instances = instances;
+	}
+
 	public MarkContext() {
 	}
 
@@ -39,13 +46,17 @@ public class MarkContext {
 	}
 
 	public void setOperand(String operand, CPGVertexWithValue value) {
-		operands.put(operand, value);
+		operands = operands.with(operand, value);
 	}
 
 	public CPGVertexWithValue getOperand(String operand) {
 		return operands.get(operand);
 	}
 
+	public Set<String> getOperandNames() {
+		return operands.toMap().keySet();
+	}
+
 	public boolean isFindingAlreadyAdded() {
 		return this.findingAlreadyAdded;
 	}
@@ -68,7 +79,7 @@ public class MarkContext {
 				} else {
 					out.println("  MARK instance " + instance + " <null>");
 				}
-				for (Map.Entry<String, CPGVertexWithValue> op : operands.entrySet()) {
+				for (Map.Entry<String, CPGVertexWithValue> op : operands.toMap().entrySet()) {
 					out.println("     " + op.getKey() + " : " + op.getValue().getValue() + " base: " + Utils.prettyPrint(op.getValue().getBase()) + " resp. vertices: "
 							+ Utils.prettyPrint(op.getValue().getValue().getResponsibleVertices()));
 				}
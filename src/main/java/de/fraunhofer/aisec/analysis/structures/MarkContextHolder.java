@@ -7,11 +7,14 @@ import org.slf4j.LoggerFactory;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 // A MarkContextHolder contains:
 //
@@ -25,8 +28,8 @@ import java.util.Set;
 //      If the left part e.g. returns a result for the contexts 1 and 2, the right part of the result might create a copy one context (e.g. context 2),
 //      and e.g. return results for context 1, 2 and 3. Since we might have to compare all contexts, we need to remember that we need to compare
 //      result 3 from the right side with the result 2 from the left side.
-//		copyStack is a map from a context_id to a list of contexts_ids, where the right side are the contexts this was copied from.
-//		The last entry of the right side list is the most recently added one.
+//		copyStack is a list of contexts_ids, the contexts this was copied from. The last entry of the list is the most recently added one.
+//		To keep copies cheap, only the context a context was directly copied from is stored, the copyStack is built from these on request.
 // - "createFindingsDuringEvaluation": Indicates, if the analysis should create findings directly. This is currently only
 //      used to tell the order-evaluation to not create a finding if it occurs in the when-part of a rule.
 public class MarkContextHolder {
@@ -34,16 +37,53 @@ public class MarkContextHolder {
 	private static final Logger log = LoggerFactory.getLogger(MarkContextHolder.class);
 
 	private Map<Integer, MarkContext> contexts = new HashMap<>();
-	private int currentElements = 0;
+	// shared by all chunks of a holder, so that context ids stay unique if chunks are evaluated concurrently
+	private final AtomicInteger nextContextId;
 
 	private Set<String> resolvedOperands = new HashSet<>();
-	private Map<Integer, List<Integer>> copyStack = new HashMap<>();
+	// context id -> id of the context it was copied from
+	private Map<Integer, Integer> copiedFrom = new HashMap<>();
 	private boolean createFindingsDuringEvaluation = true;
 
+	public MarkContextHolder() {
+		this(new AtomicInteger());
+	}
+
+	private MarkContextHolder(AtomicInteger nextContextId) {
+		this.nextContextId = nextContextId;
+	}
+
+	/**
+	 * Creates an empty holder for contexts derived from contexts of {@code other} via {@link #addExtendedContext(MarkContext, CPGInstanceContext)}. Operands
+	 * resolved in {@code other} are also considered resolved in the new holder.
+	 *
+	 * @param other the holder containing the original contexts
+	 * @return an empty holder
+	 */
+	public static MarkContextHolder derivedFrom(MarkContextHolder other) {
+		MarkContextHolder holder = new MarkContextHolder();
+		holder.resolvedOperands.addAll(other.resolvedOperands);
+		return holder;
+	}
+
 	public void addInitialInstanceContext(CPGInstanceContext instance) {
 		MarkContext mk = new MarkContext();
 		mk.addInstanceContext(instance);
-		contexts.put(currentElements++, mk);
+		contexts.put(nextContextId.getAndIncrement(), mk);
+	}
+
+	/**
+	 * Adds a copy of {@code base}, whose instances are extended by {@code additionalInstances}. Resolved operands of {@code base} are kept.
+	 *
+	 * @param base                a context, e.g., of the holder this holder is derived from
+	 * @param additionalInstances the instances to add
+	 */
+	public void addExtendedContext(MarkContext base, CPGInstanceContext additionalInstances) {
+		CPGInstanceContext instances = new CPGInstanceContext(base.getInstanceContext());
+		for (String instance : additionalInstances.getMarkInstances()) {
+			instances.putMarkInstance(instance, additionalInstances.getVertex(instance));
+		}
+		contexts.put(nextContextId.getAndIncrement(), new MarkContext(base, instances));
 	}
 
 	public MarkContext getContext(int id) {
@@ -55,7 +95,7 @@ public class MarkContextHolder {
 	}
 
 	public Map<Integer, MarkIntermediateResult> generateNullResult() {
-		Map<Integer, MarkIntermediateResult> ret = new HashMap<>();
+		ContextResults ret = new ContextResults();
 		contexts.keySet()
 				.forEach(
 					x -> ret.put(x, ConstantValue.newUninitialized()));
@@ -66,7 +106,7 @@ public class MarkContextHolder {
 		if (!resolvedOperands.contains(operand)) {
 			return null;
 		}
-		final Map<Integer, MarkIntermediateResult> result = new HashMap<>();
+		final ContextResults result = new ContextResults();
 		contexts.forEach((id, context) -> {
 			CPGVertexWithValue vwv = context.getOperand(operand);
 			ConstantValue constant = ConstantValue.of(vwv.getValue());
@@ -97,7 +137,7 @@ public class MarkContextHolder {
 	public void addResolvedOperands(String operand, Map<Integer, List<CPGVertexWithValue>> operandVerticesForContext) {
 		resolvedOperands.add(operand);
 		final Map<Integer, MarkContext> toAdd = new HashMap<>();
-		final Map<Integer, List<Integer>> copyStackToAdd = new HashMap<>();
+		final Map<Integer, Integer> copiedFromToAdd = new HashMap<>();
 
 		contexts.forEach((id, context) -> {
 			List<CPGVertexWithValue> operandVertices = operandVerticesForContext.get(id);
@@ -108,31 +148,122 @@ public class MarkContextHolder {
 			} else if (operandVertices.size() == 1) {
 				context.setOperand(operand, operandVertices.get(0));
 			} else {
-				List<Integer> oldStack = copyStack.computeIfAbsent(id, x -> new ArrayList<>());
 				for (int i = 1; i < operandVertices.size(); i++) {
 					MarkContext mk = new MarkContext(context); // create a shallow! copy
 					mk.setOperand(operand, operandVertices.get(i));
-					toAdd.put(currentElements, mk);
-
-					List<Integer> stackForNewContext = new ArrayList<>(oldStack);
-					stackForNewContext.add(id);
-					copyStackToAdd.put(currentElements, stackForNewContext);
-					currentElements++;
+					int newId = nextContextId.getAndIncrement();
+					toAdd.put(newId, mk);
+					copiedFromToAdd.put(newId, id);
 				}
 				context.setOperand(operand, operandVertices.get(0)); // set the current one to the first value
 
 			}
 		});
 		contexts.putAll(toAdd);
-		copyStack.putAll(copyStackToAdd);
+		copiedFrom.putAll(copiedFromToAdd);
 	}
 
 	public void removeContext(Integer key) {
 		contexts.remove(key);
 	}
 
+	/**
+	 * Returns the contexts the given context was copied from, starting with the original context, or null if it is not a copy.
+	 */
 	public List<Integer> getCopyStack(Integer key) {
-		return copyStack.get(key);
+		Integer origin = copiedFrom.get(key);
+		if (origin == null) {
+			return null;
+		}
+		List<Integer> stack = new ArrayList<>();
+		for (; origin != null; origin = copiedFrom.get(origin)) {
+			stack.add(origin);
+		}
+		Collections.reverse(stack);
+		return stack;
+	}
+
+	/**
+	 * Removes the given contexts until they are restored by {@link #restoreContexts(HiddenContexts)}, e.g. to evaluate an expression only for the remaining
+	 * contexts.
+	 * <p>
+	 * Operands should be resolved before hiding contexts: an operand resolved while contexts are hidden is not resolved for the hidden contexts, so it is
+	 * considered unresolved again after restoring them.
+	 *
+	 * @param ids the ids of the contexts to hide
+	 * @return the hidden contexts
+	 */
+	public HiddenContexts hideContexts(Collection<Integer> ids) {
+		HiddenContexts hidden = new HiddenContexts(new HashSet<>(resolvedOperands));
+		for (Integer id : ids) {
+			if (contexts.containsKey(id)) {
+				hidden.contexts.put(id, contexts.remove(id));
+			}
+		}
+		return hidden;
+	}
+
+	/**
+	 * Adds contexts removed by {@link #hideContexts(Collection)} again.
+	 */
+	public void restoreContexts(HiddenContexts hidden) {
+		contexts.putAll(hidden.contexts);
+		if (resolvedOperands.retainAll(hidden.resolvedOperands)) {
+			log.debug("Operands resolved while contexts were hidden are considered unresolved again");
+		}
+	}
+
+	/**
+	 * Partitions the contexts of this holder into at most {@code numChunks} holders which can be evaluated independently, e.g. concurrently.
+	 * <p>
+	 * All chunks share the id counter of this holder, i.e., contexts created during the evaluation of a chunk get ids which are unique across all chunks.
+	 * Use {@link #mergeChunks(List)} to collect the contexts of the chunks after their evaluation.
+	 *
+	 * @param numChunks maximal number of chunks
+	 * @return list of non-empty chunks
+	 */
+	public List<MarkContextHolder> split(int numChunks) {
+		List<Integer> ids = new ArrayList<>(contexts.keySet());
+		Collections.sort(ids);
+		int chunkSize = Math.max(1, (ids.size() + numChunks - 1) / numChunks);
+
+		List<MarkContextHolder> chunks = new ArrayList<>();
+		for (int start = 0; start < ids.size(); start += chunkSize) {
+			MarkContextHolder chunk = new MarkContextHolder(nextContextId);
+			chunk.createFindingsDuringEvaluation = createFindingsDuringEvaluation;
+			chunk.resolvedOperands.addAll(resolvedOperands);
+			for (Integer id : ids.subList(start, Math.min(start + chunkSize, ids.size()))) {
+				chunk.contexts.put(id, contexts.get(id));
+				// the contexts this one was copied from may be in other chunks
+				for (Integer copy = id; copiedFrom.containsKey(copy); copy = copiedFrom.get(copy)) {
+					chunk.copiedFrom.put(copy, copiedFrom.get(copy));
+				}
+			}
+			chunks.add(chunk);
+		}
+		return chunks;
+	}
+
+	/**
+	 * Replaces the contexts of this holder by the contexts of the given chunks, which have been created by {@link #split(int)}.
+	 *
+	 * @param chunks the evaluated chunks
+	 */
+	public void mergeChunks(List<MarkContextHolder> chunks) {
+		contexts = new HashMap<>();
+		copiedFrom = new HashMap<>();
+		// an operand is only resolved for all contexts if it has been resolved in every chunk
+		Set<String> resolvedInAllChunks = null;
+		for (MarkContextHolder chunk : chunks) {
+			contexts.putAll(chunk.contexts);
+			copiedFrom.putAll(chunk.copiedFrom);
+			if (resolvedInAllChunks == null) {
+				resolvedInAllChunks = new HashSet<>(chunk.resolvedOperands);
+			} else {
+				resolvedInAllChunks.retainAll(chunk.resolvedOperands);
+			}
+		}
+		resolvedOperands = resolvedInAllChunks == null ? new HashSet<>() : resolvedInAllChunks;
 	}
 
 	public void setCreateFindingsDuringEvaluation(boolean b) {
@@ -153,4 +284,20 @@ public class MarkContextHolder {
 		}
 		out.println("===========================");
 	}
+
+	/**
+	 * Contexts removed by {@link #hideContexts(Collection)}.
+	 */
+	public static class HiddenContexts {
+		private final Map<Integer, MarkContext> contexts = new HashMap<>();
+		private final Set<String> resolvedOperands;
+
+		private HiddenContexts(Set<String> resolvedOperands) {
+			this.resolvedOperands = resolvedOperands;
+		}
+
+		public int size() {
+			return contexts.size();
+		}
+	}
 }
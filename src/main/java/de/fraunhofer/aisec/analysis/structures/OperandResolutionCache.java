@@ -0,0 +1,114 @@
+
+package de.fraunhofer.aisec.analysis.structures;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Analysis-scoped cache for resolved MARK operands.
+ * <p>
+ * Resolving an operand such as {@code cm.algorithm} requires finding all matching vertices of the entity's ops in the CPG and running the constant resolver on
+ * each of them. The result only depends on the referenced entity and attribute, not on the rule that mentions it. This cache stores the resolved vertices
+ * once per (entity, attribute), grouped by the id of the instance vertex (i.e., the base) they belong to, so that they can be reused by all rules and by both
+ * the "when" and the "ensure" part of a rule.
+ * <p>
+ * Entries are grouped by the entity of the rule's instance. Attributes of nested entities (e.g. {@code cm.key.size}) are stored with the path from this
+ * entity ({@code key.size}), so they are released together with it.
+ * <p>
+ * Values handed out by {@link #getForInstance(Map, Long)} are copies, as ConstantValues collect responsible vertices during evaluation.
+ */
+public class OperandResolutionCache {
+
+	/** Key used for resolved vertices without a base. */
+	public static final Long NO_INSTANCE = -1L;
+
+	// entity -> attribute -> resolved vertices by instance
+	private final Map<String, Map<String, Map<Long, List<CPGVertexWithValue>>>> resolved = new ConcurrentHashMap<>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Returns the resolved vertices for {@code entity.attribute}, grouped by the id of their instance vertex. If the operand has not been resolved yet, the
+	 * {@code resolver} is called and its result is cached.
+	 *
+	 * @param entity    name of the MARK entity of the instance the operand starts with
+	 * @param attribute path of the attribute within the entity, e.g. {@code algorithm} or {@code key.size}
+	 * @param resolver  computes all resolved vertices for this attribute
+	 * @return unmodifiable map from instance vertex id ({@link #NO_INSTANCE} if there is none) to the resolved vertices
+	 */
+	@NonNull
+	public Map<Long, List<CPGVertexWithValue>> getOrResolve(@NonNull String entity, @NonNull String attribute,
+			@NonNull Supplier<List<CPGVertexWithValue>> resolver) {
+		Map<String, Map<Long, List<CPGVertexWithValue>>> forEntity = resolved.computeIfAbsent(entity, x -> new ConcurrentHashMap<>());
+		Map<Long, List<CPGVertexWithValue>> cached = forEntity.get(attribute);
+		if (cached != null) {
+			hits.incrementAndGet();
+			return cached;
+		}
+		misses.incrementAndGet();
+		return forEntity.computeIfAbsent(attribute, k -> groupByInstance(resolver.get()));
+	}
+
+	/**
+	 * Returns copies of the resolved vertices belonging to the given instance vertex.
+	 *
+	 * @param resolvedVertices result of {@link #getOrResolve(String, String, Supplier)}
+	 * @param instanceId       id of the instance vertex, {@link #NO_INSTANCE} if there is none
+	 * @return (possibly empty) list of resolved vertices
+	 */
+	@NonNull
+	public static List<CPGVertexWithValue> getForInstance(@NonNull Map<Long, List<CPGVertexWithValue>> resolvedVertices, @NonNull Long instanceId) {
+		List<CPGVertexWithValue> ret = new ArrayList<>();
+		for (CPGVertexWithValue vwv : resolvedVertices.getOrDefault(instanceId, Collections.emptyList())) {
+			CPGVertexWithValue copy = CPGVertexWithValue.of(vwv);
+			copy.setValue(vwv.getValue().copy());
+			ret.add(copy);
+		}
+		return ret;
+	}
+
+	private static Map<Long, List<CPGVertexWithValue>> groupByInstance(List<CPGVertexWithValue> vertices) {
+		Map<Long, List<CPGVertexWithValue>> grouped = new HashMap<>();
+		for (CPGVertexWithValue vwv : vertices) {
+			Long id = NO_INSTANCE;
+			if (vwv.getBase() != null) {
+				id = (Long) vwv.getBase().id();
+			}
+			grouped.computeIfAbsent(id, x -> new ArrayList<>()).add(vwv);
+		}
+		return Collections.unmodifiableMap(grouped);
+	}
+
+	/**
+	 * Removes all cached operands of {@code entity}, including the ones of its nested entities, e.g. once no remaining rule uses the entity.
+	 *
+	 * @param entity name of the MARK entity
+	 */
+	public void release(@NonNull String entity) {
+		resolved.remove(entity);
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of cached operands.
+	 */
+	public int size() {
+		return resolved.values().stream().mapToInt(Map::size).sum();
+	}
+}
@@ -0,0 +1,116 @@
+
+package de.fraunhofer.aisec.analysis.structures;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable map, stored as a chain of entries where the most recent entry for a key shadows older ones.
+ * <p>
+ * Adding an entry creates a new chain which points to the old one, so copying a map is O(1) and copies only use memory for the entries in which they differ.
+ * Lookups walk the chain, which is fine for the few entries of a context (instances and operands of a rule). Chains are compacted once they get long.
+ * <p>
+ * As a chain never changes, its map view is built on first use and kept with the chain, so repeated calls of {@link #toMap()} do not copy the entries.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+final class PersistentChain<K, V> {
+
+	// chains longer than this are rebuilt without shadowed entries
+	private static final int COMPACT_LENGTH = 32;
+
+	@SuppressWarnings("rawtypes")
+	private static final PersistentChain EMPTY = new PersistentChain<>(null, null, null, 0);
+
+	@Nullable
+	private final K key;
+	@Nullable
+	private final V value;
+	@Nullable
+	private final PersistentChain<K, V> next;
+	private final int length;
+
+	// entries without shadowed ones, built on first use
+	@Nullable
+	private volatile Map<K, V> map;
+
+	private PersistentChain(@Nullable K key, @Nullable V value, @Nullable PersistentChain<K, V> next, int length) {
+		this.key = key;
+		this.value = value;
+		this.next = next;
+		this.length = length;
+	}
+
+	@SuppressWarnings("unchecked")
+	@NonNull
+	static <K, V> PersistentChain<K, V> empty() {
+		return (PersistentChain<K, V>) EMPTY;
+	}
+
+	/**
+	 * Returns a chain which maps {@code key} to {@code value} and contains all other entries of this chain.
+	 */
+	@NonNull
+	PersistentChain<K, V> with(@NonNull K key, @Nullable V value) {
+		if (length >= COMPACT_LENGTH) {
+			PersistentChain<K, V> compacted = empty();
+			for (Map.Entry<K, V> entry : toMap().entrySet()) {
+				if (!entry.getKey().equals(key)) {
+					compacted = new PersistentChain<>(entry.getKey(), entry.getValue(), compacted, compacted.length + 1);
+				}
+			}
+			return new PersistentChain<>(key, value, compacted, compacted.length + 1);
+		}
+		return new PersistentChain<>(key, value, this, length + 1);
+	}
+
+	@Nullable
+	V get(@NonNull K key) {
+		for (PersistentChain<K, V> c = this; c.length > 0; c = c.next) {
+			if (key.equals(c.key)) {
+				return c.value;
+			}
+		}
+		return null;
+	}
+
+	boolean containsKey(@NonNull K key) {
+		for (PersistentChain<K, V> c = this; c.length > 0; c = c.next) {
+			if (key.equals(c.key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	boolean isEmpty() {
+		return length == 0;
+	}
+
+	/**
+	 * Returns the entries of this chain, without shadowed ones.
+	 */
+	@NonNull
+	Map<K, V> toMap() {
+		if (length == 0) {
+			return Collections.emptyMap();
+		}
+		Map<K, V> result = map;
+		if (result == null) {
+			Map<K, V> entries = new LinkedHashMap<>();
+			for (PersistentChain<K, V> c = this; c.length > 0; c = c.next) {
+				if (!entries.containsKey(c.key)) {
+					entries.put(c.key, c.value);
+				}
+			}
+			result = Collections.unmodifiableMap(entries);
+			map = result;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,137 @@
+
+package de.fraunhofer.aisec.analysis.structures;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the resources spent on the evaluation of a single MARK rule.
+ * <p>
+ * The budget is enforced cooperatively: evaluators call {@link #check()} and {@link #countOrderStep()} in their loops, which throw a
+ * {@link RuleBudgetExceededException} once the budget is exhausted. The rule is then reported as inconclusive and the evaluation continues with the next rule.
+ * Once exceeded, a budget stays exceeded, so all evaluators of the rule stop, also those running concurrently. If the whole analysis is cancelled, the checks
+ * throw a {@link CancellationException} instead, which stops the evaluation of all rules.
+ */
+public class RuleBudget {
+
+	/** Number of order steps between two checks of the wall time. */
+	private static final int STEPS_PER_TIME_CHECK = 1024;
+
+	@NonNull
+	private final String rule;
+
+	// System.nanoTime() after which the rule is over budget, Long.MAX_VALUE if unlimited
+	private final long deadline;
+
+	// maximal number of EOG steps of all order evaluations, 0 if unlimited
+	private final long maxOrderSteps;
+
+	private final AtomicLong orderSteps = new AtomicLong();
+
+	@Nullable
+	private volatile String exceeded;
+
+	@Nullable
+	private final CancellationToken cancellation;
+
+	/**
+	 * @param rule          name of the rule
+	 * @param timeoutMillis maximal wall time of the evaluation of the rule, 0 if unlimited
+	 * @param maxOrderSteps maximal number of EOG steps of the order evaluations of the rule, 0 if unlimited
+	 */
+	public RuleBudget(@NonNull String rule, long timeoutMillis, long maxOrderSteps) {
+		this(rule, timeoutMillis, maxOrderSteps, null);
+	}
+
+	/**
+	 * @param rule          name of the rule
+	 * @param timeoutMillis maximal wall time of the evaluation of the rule, 0 if unlimited
+	 * @param maxOrderSteps maximal number of EOG steps of the order evaluations of the rule, 0 if unlimited
+	 * @param cancellation  token of the analysis, checked together with the budget, may be null
+	 */
+	public RuleBudget(@NonNull String rule, long timeoutMillis, long maxOrderSteps, @Nullable CancellationToken cancellation) {
+		this.rule = rule;
+		this.cancellation = cancellation;
+		this.deadline = timeoutMillis > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis) : Long.MAX_VALUE;
+		this.maxOrderSteps = Math.max(0, maxOrderSteps);
+	}
+
+	/**
+	 * Returns a budget which is never exceeded.
+	 */
+	@NonNull
+	public static RuleBudget unlimited(@NonNull String rule) {
+		return new RuleBudget(rule, 0, 0);
+	}
+
+	/**
+	 * Returns a budget which is only exceeded if the analysis is cancelled.
+	 */
+	@NonNull
+	public static RuleBudget unlimited(@NonNull String rule, @Nullable CancellationToken cancellation) {
+		return new RuleBudget(rule, 0, 0, cancellation);
+	}
+
+	/**
+	 * Throws, if the budget is exceeded.
+	 *
+	 * @throws RuleBudgetExceededException if the wall time is up or the budget has been exceeded before
+	 * @throws CancellationException       if the analysis has been cancelled
+	 */
+	public void check() {
+		if (cancellation != null) {
+			cancellation.throwIfCancelled();
+		}
+		if (exceeded == null && System.nanoTime() > deadline) {
+			exceed("time limit exceeded");
+		}
+		if (exceeded != null) {
+			throw new RuleBudgetExceededException(rule, exceeded);
+		}
+	}
+
+	/**
+	 * Counts a step of an order evaluation, i.e., a visited EOG node, and throws if the budget is exceeded.
+	 *
+	 * @throws RuleBudgetExceededException if the budget is exceeded
+	 * @throws CancellationException       if the analysis has been cancelled
+	 */
+	public void countOrderStep() {
+		long steps = orderSteps.incrementAndGet();
+		if (maxOrderSteps > 0 && steps > maxOrderSteps && exceeded == null) {
+			exceed(String.format("more than %d steps in order evaluation", maxOrderSteps));
+		}
+		if (exceeded != null || steps % STEPS_PER_TIME_CHECK == 0) {
+			check();
+		}
+	}
+
+	/**
+	 * Marks the budget as exceeded, e.g. if the rule has more contexts than allowed. Only the first reason is kept.
+	 */
+	public synchronized void exceed(@NonNull String reason) {
+		if (exceeded == null) {
+			exceeded = reason;
+		}
+	}
+
+	public boolean isExceeded() {
+		return exceeded != null;
+	}
+
+	/**
+	 * Returns why the budget has been exceeded, null if it is not exceeded.
+	 */
+	@Nullable
+	public String getReason() {
+		return exceeded;
+	}
+
+	public long getOrderSteps() {
+		return orderSteps.get();
+	}
+}
@@ -0,0 +1,25 @@
+
+package de.fraunhofer.aisec.analysis.structures;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * Indicates that the evaluation of a MARK rule exceeded its {@link RuleBudget}.
+ *
+ * This exception is expected to be caught by the evaluation of the rule, which reports the rule as inconclusive.
+ */
+public class RuleBudgetExceededException extends RuntimeException {
+
+	@NonNull
+	private final String rule;
+
+	public RuleBudgetExceededException(@NonNull String rule, @NonNull String reason) {
+		super(String.format("Evaluation of rule %s stopped: %s", rule, reason));
+		this.rule = rule;
+	}
+
+	@NonNull
+	public String getRule() {
+		return rule;
+	}
+}
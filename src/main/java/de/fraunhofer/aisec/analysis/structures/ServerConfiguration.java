@@ -6,6 +6,8 @@ import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
 
 /** The configuration for the {@link AnalysisServer} holds all values used by the server. */
 public class ServerConfiguration {
@@ -47,6 +49,60 @@ public class ServerConfiguration {
 	 */
 	public final boolean disableOverflow;
 
+	/**
+	 * Number of threads used to evaluate MARK rules. Rules are evaluated sequentially if this is 1 or
+	 * less.
+	 */
+	public final int ruleEvaluationThreads;
+
+	/**
+	 * Number of threads used to evaluate the contexts (i.e., combinations of entity instances) of a
+	 * single MARK rule. Contexts are evaluated sequentially if this is 1 or less.
+	 */
+	public final int contextEvaluationThreads;
+
+	/**
+	 * Maximal number of contexts (i.e., combinations of entity instances) evaluated for a single MARK
+	 * rule, unlimited if 0. Rules exceeding this limit are evaluated incompletely and reported as inconclusive.
+	 */
+	public final long maxContextsPerRule;
+
+	/** Maximal wall time in seconds spent on a single MARK rule before it is reported as inconclusive, unlimited if 0. */
+	public final long ruleTimeoutSeconds;
+
+	/** Maximal number of EOG steps of the order evaluation of a single MARK rule before it is reported as inconclusive, unlimited if 0. */
+	public final long maxOrderStepsPerRule;
+
+	/** Strategy for combining the instances of MARK entities into contexts. */
+	@NonNull
+	public final InstancePairing instancePairing;
+
+	/** Pairing strategies for individual MARK rules (by rule name), overriding {@link #instancePairing}. */
+	@NonNull
+	public final Map<String, InstancePairing> instancePairingPerRule;
+
+	/**
+	 * Number of threads used to create the WPDS rules of the functions of the program. Rules are created
+	 * sequentially if this is 1 or less.
+	 */
+	public final int wpdsThreads;
+
+	/** Should WPDS rules be created for all functions instead of only those which may touch the tracked object? */
+	public final boolean disableWpdsSlicing;
+
+	/** Should all order rules of a function be evaluated in a single pass over its EOG? Only used by {@link TypestateMode#FIXPOINT}. */
+	public final boolean combineOrderRules;
+
+	/**
+	 * Number of threads used to evaluate the order expressions of a rule, one function per task, before its contexts are evaluated. Only used by the
+	 * intraprocedural typestate modes {@link TypestateMode#NFA} and {@link TypestateMode#FIXPOINT}. Orders are evaluated with their contexts if this is 1
+	 * or less.
+	 */
+	public final int orderEvaluationThreads;
+
+	/** Should every variable an object is assigned to be a separate instance, instead of using one instance per alias class? */
+	public final boolean disableAliasAnalysis;
+
 	private ServerConfiguration(
 			boolean launchConsole,
 			boolean launchLsp,
@@ -55,7 +111,19 @@ public class ServerConfiguration {
 			boolean analyzeIncludes,
 			@NonNull File[] includePath,
 			boolean disableGoodFindings,
-			boolean disableOverflow) {
+			boolean disableOverflow,
+			int ruleEvaluationThreads,
+			int contextEvaluationThreads,
+			long maxContextsPerRule,
+			long ruleTimeoutSeconds,
+			long maxOrderStepsPerRule,
+			@NonNull InstancePairing instancePairing,
+			@NonNull Map<String, InstancePairing> instancePairingPerRule,
+			int wpdsThreads,
+			boolean disableWpdsSlicing,
+			boolean combineOrderRules,
+			int orderEvaluationThreads,
+			boolean disableAliasAnalysis) {
 		this.launchConsole = launchConsole;
 		this.launchLsp = launchLsp;
 		this.markModelFiles = markModelFiles;
@@ -64,6 +132,18 @@ public class ServerConfiguration {
 		this.includePath = includePath;
 		this.disableGoodFindings = disableGoodFindings;
 		this.disableOverflow = disableOverflow;
+		this.ruleEvaluationThreads = ruleEvaluationThreads;
+		this.contextEvaluationThreads = contextEvaluationThreads;
+		this.maxContextsPerRule = maxContextsPerRule;
+		this.ruleTimeoutSeconds = ruleTimeoutSeconds;
+		this.maxOrderStepsPerRule = maxOrderStepsPerRule;
+		this.instancePairing = instancePairing;
+		this.instancePairingPerRule = instancePairingPerRule;
+		this.wpdsThreads = wpdsThreads;
+		this.disableWpdsSlicing = disableWpdsSlicing;
+		this.combineOrderRules = combineOrderRules;
+		this.orderEvaluationThreads = orderEvaluationThreads;
+		this.disableAliasAnalysis = disableAliasAnalysis;
 	}
 
 	public static Builder builder() {
@@ -81,6 +161,20 @@ public class ServerConfiguration {
 		private File[] includePath = new File[0];
 		private boolean disableGoodFindings;
 		private boolean disableOverflow;
+		private int ruleEvaluationThreads = 1;
+		private int contextEvaluationThreads = 1;
+		private long maxContextsPerRule = 0;
+		private long ruleTimeoutSeconds = 0;
+		private long maxOrderStepsPerRule = 0;
+		@NonNull
+		private InstancePairing instancePairing = InstancePairing.ALL;
+		@NonNull
+		private Map<String, InstancePairing> instancePairingPerRule = new HashMap<>();
+		private int wpdsThreads = 1;
+		private boolean disableWpdsSlicing;
+		private boolean combineOrderRules;
+		private int orderEvaluationThreads = 1;
+		private boolean disableAliasAnalysis;
 
 		public Builder launchConsole(boolean launchConsole) {
 			this.launchConsole = launchConsole;
@@ -126,6 +220,70 @@ public class ServerConfiguration {
 			return this;
 		}
 
+		public Builder ruleEvaluationThreads(int ruleEvaluationThreads) {
+			this.ruleEvaluationThreads = ruleEvaluationThreads;
+			return this;
+		}
+
+		public Builder contextEvaluationThreads(int contextEvaluationThreads) {
+			this.contextEvaluationThreads = contextEvaluationThreads;
+			return this;
+		}
+
+		public Builder maxContextsPerRule(long maxContextsPerRule) {
+			this.maxContextsPerRule = maxContextsPerRule;
+			return this;
+		}
+
+		public Builder ruleTimeoutSeconds(long ruleTimeoutSeconds) {
+			this.ruleTimeoutSeconds = ruleTimeoutSeconds;
+			return this;
+		}
+
+		public Builder maxOrderStepsPerRule(long maxOrderStepsPerRule) {
+			this.maxOrderStepsPerRule = maxOrderStepsPerRule;
+			return this;
+		}
+
+		public Builder instancePairing(@NonNull InstancePairing instancePairing) {
+			this.instancePairing = instancePairing;
+			return this;
+		}
+
+		public Builder instancePairingPerRule(Map<String, InstancePairing> instancePairingPerRule) {
+			if (instancePairingPerRule == null) {
+				this.instancePairingPerRule = new HashMap<>();
+			} else {
+				this.instancePairingPerRule = new HashMap<>(instancePairingPerRule);
+			}
+			return this;
+		}
+
+		public Builder wpdsThreads(int wpdsThreads) {
+			this.wpdsThreads = wpdsThreads;
+			return this;
+		}
+
+		public Builder disableWpdsSlicing(boolean disableWpdsSlicing) {
+			this.disableWpdsSlicing = disableWpdsSlicing;
+			return this;
+		}
+
+		public Builder combineOrderRules(boolean combineOrderRules) {
+			this.combineOrderRules = combineOrderRules;
+			return this;
+		}
+
+		public Builder orderEvaluationThreads(int orderEvaluationThreads) {
+			this.orderEvaluationThreads = orderEvaluationThreads;
+			return this;
+		}
+
+		public Builder disableAliasAnalysis(boolean disableAliasAnalysis) {
+			this.disableAliasAnalysis = disableAliasAnalysis;
+			return this;
+		}
+
 		public ServerConfiguration build() {
 			return new ServerConfiguration(
 				launchConsole,
@@ -135,7 +293,19 @@ public class ServerConfiguration {
 				analyzeIncludes,
 				includePath,
 				disableGoodFindings,
-				disableOverflow);
+				disableOverflow,
+				ruleEvaluationThreads,
+				contextEvaluationThreads,
+				maxContextsPerRule,
+				ruleTimeoutSeconds,
+				maxOrderStepsPerRule,
+				instancePairing,
+				Map.copyOf(instancePairingPerRule),
+				wpdsThreads,
+				disableWpdsSlicing,
+				combineOrderRules,
+				orderEvaluationThreads,
+				disableAliasAnalysis);
 		}
 	}
 }
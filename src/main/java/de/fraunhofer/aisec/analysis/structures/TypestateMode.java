@@ -8,9 +8,24 @@ public enum TypestateMode {
 	 */
 	NFA,
 
+	/**
+	 * Dataflow fixpoint over the compiled order automaton. Intraprocedural, not alias-aware, merges states where branches of the EOG join.
+	 */
+	FIXPOINT,
+
+	/**
+	 * Dataflow fixpoint which applies typestate summaries of called functions at call sites. Interprocedural, not alias-aware.
+	 */
+	SUMMARY,
+
 	/**
 	 * Weighted Pushdown System. Interprocedural, alias-aware, context-aware.
 	 */
-	WPDS
+	WPDS,
+
+	/**
+	 * NFA for every context, WPDS only for contexts whose base escapes its function or is not correctly terminated.
+	 */
+	HYBRID
 
 }
@@ -10,6 +10,19 @@ import de.fraunhofer.aisec.cpg.sarif.Region;
 public class CpgWpds extends WPDS<Stmt, Val, TypestateWeight> {
 	public static final String EPSILON = "EPSILON";
 
+	private final TransitionTable transitionTable;
+
+	/**
+	 * @param transitionTable numbers the transitions of the weights of this WPDS, see {@link NFA#getTransitionTable()}
+	 */
+	public CpgWpds(TransitionTable transitionTable) {
+		this.transitionTable = transitionTable;
+	}
+
+	public TransitionTable getTransitionTable() {
+		return transitionTable;
+	}
+
 	@Override
 	public Stmt epsilon() {
 		return new Stmt(EPSILON, new Region(-1, -1, -1, -1));
@@ -0,0 +1,50 @@
+
+package de.fraunhofer.aisec.analysis.wpds;
+
+import de.breakpointsec.pushdown.rules.PushRule;
+import de.fraunhofer.aisec.analysis.structures.Pair;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Interprocedural information about functions which is needed to create WPDS rules.
+ * <p>
+ * This information only depends on the program, not on the typestate NFA. It is computed on first use and then shared by the WPDS of all rules and contexts
+ * of an analysis. Maps are keyed by the id of the return statement or call expression vertex the information belongs to and may be filled concurrently.
+ */
+public class FunctionSummaries {
+
+	/** Variables at call sites which are assigned the value returned by a return statement. */
+	private final Map<Object, Set<Val>> returnedVals = new ConcurrentHashMap<>();
+
+	/** Mapping from parameters to arguments of calls into the function containing a return statement. */
+	private final Map<Object, Map<String, Set<Pair<Val, Val>>>> paramToValues = new ConcurrentHashMap<>();
+
+	/** Push rules of a call expression. Push rules have weight ONE and thus do not depend on the typestate NFA. */
+	private final Map<Object, Set<PushRule<Stmt, Val, TypestateWeight>>> pushRules = new ConcurrentHashMap<>();
+
+	@NonNull
+	Set<Val> getReturnedVals(@NonNull Vertex returnStmt, @NonNull Function<Vertex, Set<Val>> compute) {
+		return returnedVals.computeIfAbsent(returnStmt.id(), id -> compute.apply(returnStmt));
+	}
+
+	@NonNull
+	Map<String, Set<Pair<Val, Val>>> getParamToValues(@NonNull Vertex returnStmt, @NonNull Function<Vertex, Map<String, Set<Pair<Val, Val>>>> compute) {
+		return paramToValues.computeIfAbsent(returnStmt.id(), id -> compute.apply(returnStmt));
+	}
+
+	@NonNull
+	Set<PushRule<Stmt, Val, TypestateWeight>> getPushRules(@NonNull Vertex callExpression,
+			@NonNull Function<Vertex, Set<PushRule<Stmt, Val, TypestateWeight>>> compute) {
+		return pushRules.computeIfAbsent(callExpression.id(), id -> compute.apply(callExpression));
+	}
+
+	public int size() {
+		return returnedVals.size() + paramToValues.size() + pushRules.size();
+	}
+}
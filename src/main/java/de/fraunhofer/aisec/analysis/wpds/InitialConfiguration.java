@@ -78,7 +78,7 @@ public class InitialConfiguration {
 				log.error("Did not find initial configuration for typestate analysis. Will fail soon.");
 			}
 
-			return createInitialWNFA(initialStates);
+			return createInitialWNFA(initialStates, getTransitionTable(myWpds));
 		}).create(wpds);
 	}
 
@@ -109,11 +109,18 @@ public class InitialConfiguration {
 				log.error("Did not find initial configuration for typestate analysis. Will fail soon.");
 			}
 
-			return createInitialWNFA(initialStates);
+			return createInitialWNFA(initialStates, getTransitionTable(myWpds));
 		}).create(wpds);
 	}
 
-	private static WeightedAutomaton<Stmt, Val, TypestateWeight> createInitialWNFA(Set<Pair<Val, Stmt>> initialStates) {
+	/**
+	 * Returns the table numbering the transitions of the weights of {@code wpds}.
+	 */
+	private static TransitionTable getTransitionTable(WPDS<Stmt, Val, TypestateWeight> wpds) {
+		return wpds instanceof CpgWpds ? ((CpgWpds) wpds).getTransitionTable() : new TransitionTable();
+	}
+
+	private static WeightedAutomaton<Stmt, Val, TypestateWeight> createInitialWNFA(Set<Pair<Val, Stmt>> initialStates, TransitionTable transitionTable) {
 		// Create statement for start configuration and create start CONFIG
 		// TODO make initialState a set or remove completely
 		int line = Integer.MAX_VALUE;
@@ -165,7 +172,7 @@ public class InitialConfiguration {
 			return wnfa;
 		}
 		wnfa.addTransition(new Transition<>(initialState, stmt, accepting),
-			new TypestateWeight(Set.of(new NFATransition<Node>(new Node(START, START), new Node(START, START), "constructor"))));
+			new TypestateWeight(transitionTable, Set.of(new NFATransition<Node>(new Node(START, START), new Node(START, START), "constructor"))));
 
 		// Add final ("accepting") states to NFA.
 		wnfa.addFinalState(accepting);
@@ -38,6 +38,9 @@ public class NFA {
 	/* The set of states with tokens. */
 	private Set<Node> currentConfiguration = new HashSet<>();
 
+	/* Numbers of the transitions in the weights of the WPDS created for this NFA */
+	private final TransitionTable transitionTable = new TransitionTable();
+
 	/**
 	 * Factory method to create a new NFA from a Mark "order" expression (effectively a regular expression).
 	 *
@@ -59,6 +62,13 @@ public class NFA {
 		return Set.copyOf(this.transitions);
 	}
 
+	/**
+	 * Returns the table numbering the transitions of the weights of the WPDS created for this NFA.
+	 */
+	public TransitionTable getTransitionTable() {
+		return transitionTable;
+	}
+
 	public void clear() {
 		this.transitions.clear();
 	}
@@ -0,0 +1,73 @@
+
+package de.fraunhofer.aisec.analysis.wpds;
+
+import de.breakpointsec.pushdown.fsm.WeightedAutomaton;
+import de.breakpointsec.pushdown.rules.Rule;
+import de.fraunhofer.aisec.analysis.structures.NonNullPair;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The WPDS of a MARK order expression for the whole program, together with its post-*-saturated initial configuration.
+ * <p>
+ * Neither the WPDS rules nor the initial configuration depend on the context (i.e., the instances) a rule is evaluated for. They are thus created once per
+ * order expression and shared by all contexts. An instance is created empty and filled exactly once by {@link #set(CpgWpds, WeightedAutomaton)}; callers
+ * synchronize on the instance while creating the WPDS.
+ */
+public class SaturatedWpds {
+
+	@Nullable
+	private CpgWpds wpds;
+
+	@Nullable
+	private WeightedAutomaton<Stmt, Val, TypestateWeight> wnfa;
+
+	/** All configurations for which the WPDS has rules, ignoring rules with weight ONE. */
+	@NonNull
+	private List<NonNullPair<Stmt, Val>> wpdsConfigs = Collections.emptyList();
+
+	private volatile boolean saturated;
+
+	/**
+	 * Stores the WPDS and its saturated initial configuration.
+	 *
+	 * @param wpds the WPDS of the whole program
+	 * @param wnfa the post-*-saturated initial configuration, null if there is no initial configuration
+	 */
+	void set(@NonNull CpgWpds wpds, @Nullable WeightedAutomaton<Stmt, Val, TypestateWeight> wnfa) {
+		List<NonNullPair<Stmt, Val>> configs = new ArrayList<>();
+		for (Rule<Stmt, Val, TypestateWeight> r : wpds.getAllRules()) {
+			if (!r.getWeight().equals(TypestateWeight.one())) {
+				configs.add(new NonNullPair<>(r.getL1(), r.getS1()));
+				configs.add(new NonNullPair<>(r.getL2(), r.getS2()));
+			}
+		}
+		this.wpds = wpds;
+		this.wnfa = wnfa;
+		this.wpdsConfigs = Collections.unmodifiableList(configs);
+		this.saturated = true;
+	}
+
+	public boolean isSaturated() {
+		return saturated;
+	}
+
+	@Nullable
+	public CpgWpds getWpds() {
+		return wpds;
+	}
+
+	@Nullable
+	public WeightedAutomaton<Stmt, Val, TypestateWeight> getWnfa() {
+		return wnfa;
+	}
+
+	@NonNull
+	public List<NonNullPair<Stmt, Val>> getWpdsConfigs() {
+		return wpdsConfigs;
+	}
+}
@@ -0,0 +1,226 @@
+package de.fraunhofer.aisec.analysis.wpds;
+
+import de.fraunhofer.aisec.markmodel.fsm.Node;
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a dense number to each typestate transition used in a {@link TypestateWeight}, so that weights can be represented as bitsets.
+ * <p>
+ * Besides the transitions of the typestate NFA, weights contain transitions composed by {@link TypestateWeight#extendWith} and the artificial transition of
+ * the initial configuration, so every transition is numbered on first use. Each typestate NFA has its own table, which is shared by all weights of the WPDS
+ * created for it and released together with them. The number of distinct transitions is thus bounded by the states and labels of a single order expression.
+ * Weights of different tables must not be combined.
+ * <p>
+ * The table also interns the weights resulting from extend and combine and caches these operations by the numbers of interned weights, so repeated
+ * operations during saturation neither allocate nor compose transitions again.
+ * <p>
+ * All columns are primitive arrays which grow under the lock of the table. Lookups are not synchronized: the number of transitions is written after their
+ * columns, and a number beyond it is looked up under the lock. Missing entries of the caches are recomputed.
+ */
+public final class TransitionTable {
+
+	private static final int NOT_COMPOSABLE = -1;
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Weights numbered beyond this bound are interned, but operations on them are not cached. Bounds the caches to a few MB. */
+	static final int MAX_CACHED_WEIGHTS = 1 << 10;
+
+	private final Map<NFATransition<Node>, Integer> ids = new ConcurrentHashMap<>();
+
+	/** Numbers of state names, only accessed under the lock. Composition of transitions only compares state names. */
+	private final Map<String, Integer> stateNames = new HashMap<>();
+
+	/** Number of transitions. Written after their columns. */
+	private volatile int size = 0;
+
+	@SuppressWarnings("unchecked")
+	private volatile NFATransition<Node>[] transitions = new NFATransition[INITIAL_CAPACITY];
+
+	/** Numbers of the names of source states, by transition number. */
+	private volatile int[] sourceNames = new int[INITIAL_CAPACITY];
+
+	/** Numbers of the names of target states, by transition number. */
+	private volatile int[] targetNames = new int[INITIAL_CAPACITY];
+
+	/** Composition of two transitions by their numbers, stored as the number of the composed transition plus one. 0 if not computed yet. */
+	private volatile int[][] compositions = new int[0][];
+
+	private final Map<TypestateWeight, TypestateWeight> weights = new ConcurrentHashMap<>();
+
+	private final WeightCache extensions = new WeightCache();
+
+	private final WeightCache combinations = new WeightCache();
+
+	/**
+	 * Returns the number of a transition, assigning a new one if it has not been seen before.
+	 */
+	int idOf(@NonNull NFATransition<Node> transition) {
+		Integer id = ids.get(transition);
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			id = ids.get(transition);
+			if (id == null) {
+				id = size;
+				if (id == transitions.length) {
+					transitions = Arrays.copyOf(transitions, 2 * id);
+					sourceNames = Arrays.copyOf(sourceNames, 2 * id);
+					targetNames = Arrays.copyOf(targetNames, 2 * id);
+				}
+				transitions[id] = transition;
+				sourceNames[id] = stateNames.computeIfAbsent(transition.getSource().toString(), n -> stateNames.size());
+				targetNames[id] = stateNames.computeIfAbsent(transition.getTarget().toString(), n -> stateNames.size());
+				size = id + 1;
+				ids.put(transition, id);
+			}
+			return id;
+		}
+	}
+
+	@NonNull
+	NFATransition<Node> get(int id) {
+		awaitTransition(id);
+		return transitions[id];
+	}
+
+	/**
+	 * Composes transition {@code first} with transition {@code second}, i.e., s -[l]-> t and t -> u yields s -[l]-> u.
+	 *
+	 * @return the number of the composed transition, or a negative value if the target of {@code first} is not the source of {@code second}
+	 */
+	int compose(int first, int second) {
+		awaitTransition(Math.max(first, second));
+		if (targetNames[first] != sourceNames[second]) {
+			return NOT_COMPOSABLE;
+		}
+		int[][] table = compositions;
+		if (first < table.length) {
+			int[] row = table[first];
+			if (row != null && second < row.length && row[second] != 0) {
+				return row[second] - 1;
+			}
+		}
+		synchronized (this) {
+			NFATransition<Node> my = transitions[first];
+			NFATransition<Node> theirs = transitions[second];
+			int composed = idOf(new NFATransition<>(my.getSource(), theirs.getTarget(), my.getLabel()));
+
+			table = compositions;
+			if (first >= table.length) {
+				table = Arrays.copyOf(table, Math.max(first + 1, transitions.length));
+			}
+			int[] row = table[first];
+			if (row == null || second >= row.length) {
+				row = row == null ? new int[Math.max(second + 1, transitions.length)] : Arrays.copyOf(row, Math.max(second + 1, transitions.length));
+				table[first] = row;
+			}
+			row[second] = composed + 1;
+			compositions = table;
+			return composed;
+		}
+	}
+
+	/**
+	 * Returns the interned weight for the given bitset of transition numbers.
+	 */
+	@NonNull
+	TypestateWeight intern(long[] bits) {
+		TypestateWeight candidate = new TypestateWeight(bits, this, TypestateWeight.NOT_INTERNED);
+		TypestateWeight interned = weights.get(candidate);
+		if (interned != null) {
+			return interned;
+		}
+		synchronized (this) {
+			interned = weights.get(candidate);
+			if (interned == null) {
+				interned = new TypestateWeight(bits, this, weights.size());
+				weights.put(interned, interned);
+			}
+			return interned;
+		}
+	}
+
+	/**
+	 * Returns the cached result of extending {@code first} with {@code second}, or null if it has not been computed or one of the weights is not interned.
+	 */
+	@Nullable
+	TypestateWeight getExtension(@NonNull TypestateWeight first, @NonNull TypestateWeight second) {
+		return extensions.get(first.getId(), second.getId());
+	}
+
+	void putExtension(@NonNull TypestateWeight first, @NonNull TypestateWeight second, @NonNull TypestateWeight result) {
+		extensions.put(first.getId(), second.getId(), result);
+	}
+
+	/**
+	 * Returns the cached result of combining {@code first} with {@code second}, or null if it has not been computed or one of the weights is not interned.
+	 */
+	@Nullable
+	TypestateWeight getCombination(@NonNull TypestateWeight first, @NonNull TypestateWeight second) {
+		return combinations.get(first.getId(), second.getId());
+	}
+
+	void putCombination(@NonNull TypestateWeight first, @NonNull TypestateWeight second, @NonNull TypestateWeight result) {
+		combinations.put(first.getId(), second.getId(), result);
+	}
+
+	/**
+	 * Makes the columns of transition {@code id} visible, if it has been numbered by another thread which did not publish it.
+	 */
+	private void awaitTransition(int id) {
+		if (id >= size) {
+			synchronized (this) {
+				if (id >= size) {
+					throw new IndexOutOfBoundsException("Unknown transition " + id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Results of a binary operation on interned weights, indexed by their numbers.
+	 */
+	private static final class WeightCache {
+
+		private volatile TypestateWeight[][] rows = new TypestateWeight[0][];
+
+		@Nullable
+		TypestateWeight get(int first, int second) {
+			if (first < 0 || second < 0) {
+				return null;
+			}
+			TypestateWeight[][] table = rows;
+			if (first >= table.length) {
+				return null;
+			}
+			TypestateWeight[] row = table[first];
+			return row == null || second >= row.length ? null : row[second];
+		}
+
+		synchronized void put(int first, int second, @NonNull TypestateWeight result) {
+			if (first < 0 || second < 0 || first >= MAX_CACHED_WEIGHTS || second >= MAX_CACHED_WEIGHTS) {
+				return;
+			}
+			TypestateWeight[][] table = rows;
+			if (first >= table.length) {
+				table = Arrays.copyOf(table, Math.min(MAX_CACHED_WEIGHTS, Math.max(first + 1, 2 * table.length)));
+			}
+			TypestateWeight[] row = table[first];
+			if (row == null || second >= row.length) {
+				int length = Math.min(MAX_CACHED_WEIGHTS, Math.max(second + 1, row == null ? INITIAL_CAPACITY : 2 * row.length));
+				row = row == null ? new TypestateWeight[length] : Arrays.copyOf(row, length);
+				table[first] = row;
+			}
+			row[second] = result;
+			rows = table;
+		}
+	}
+}
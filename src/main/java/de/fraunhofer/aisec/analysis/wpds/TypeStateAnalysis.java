@@ -17,6 +17,8 @@ import de.fraunhofer.aisec.analysis.structures.Finding;
 import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
 import de.fraunhofer.aisec.analysis.structures.NonNullPair;
 import de.fraunhofer.aisec.analysis.structures.Pair;
+import de.fraunhofer.aisec.analysis.structures.RuleBudget;
+import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
 import de.fraunhofer.aisec.analysis.utils.Utils;
 import de.fraunhofer.aisec.cpg.graph.declarations.Declaration;
 import de.fraunhofer.aisec.cpg.graph.declarations.FunctionDeclaration;
@@ -33,6 +35,7 @@ import de.fraunhofer.aisec.cpg.graph.statements.expressions.Expression;
 import de.fraunhofer.aisec.cpg.graph.types.Type;
 import de.fraunhofer.aisec.cpg.sarif.Region;
 import de.fraunhofer.aisec.crymlin.CrymlinQueryWrapper;
+import de.fraunhofer.aisec.crymlin.connectors.db.TraversalConnection;
 import de.fraunhofer.aisec.crymlin.dsl.CrymlinConstants;
 import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversal;
 import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversalSource;
@@ -67,6 +70,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.Collectors;
 
 import static de.fraunhofer.aisec.crymlin.CrymlinQueryWrapper.isCallExpression;
@@ -94,15 +99,22 @@ import static java.lang.Math.toIntExact;
  */
 public class TypeStateAnalysis {
 	private static final Logger log = LoggerFactory.getLogger(TypeStateAnalysis.class);
+
+	/** Maximal number of vertices visited when computing the slice of relevant functions. */
+	private static final int MAX_SLICE_VERTICES = 100_000;
+
 	private MRule rule;
 	@NonNull
 	private final MarkContextHolder markContextHolder;
 	private CPGInstanceContext instanceContext;
 	private AnalysisContext ctx;
+	@NonNull
+	private final ServerConfiguration config;
 
-	public TypeStateAnalysis(@NonNull MarkContextHolder markContextHolder, @NonNull AnalysisContext ctx) {
+	public TypeStateAnalysis(@NonNull MarkContextHolder markContextHolder, @NonNull AnalysisContext ctx, @NonNull ServerConfiguration config) {
 		this.markContextHolder = markContextHolder;
 		this.ctx = ctx;
+		this.config = config;
 	}
 
 	/**
@@ -137,31 +149,71 @@ public class TypeStateAnalysis {
 			return ErrorValue.newErrorValue(String.format("OrderExpression does not refer to a Mark instance: %s. Will not run TS analysis", orderExpr.toString()));
 		}
 
-		/* Create typestate NFA, representing the regular expression of a MARK typestate rule. */
-		NFA tsNFA = NFA.of(orderExpr.getExp());
-		log.debug("Initial typestate NFA:\n{}", tsNFA);
-
-		// Create a weighted pushdown system
-		CpgWpds wpds = createWpds(crymlinTraversal, tsNFA);
+		/*
+		 * The WPDS and its saturated initial configuration only depend on the order expression, not on the current context. They are created once and shared by
+		 * all contexts of this rule.
+		 */
+		SaturatedWpds saturated = ctx.getSaturatedWpds().computeIfAbsent(orderExpr, k -> new SaturatedWpds());
+		synchronized (saturated) {
+			if (!saturated.isSaturated()) {
+				saturate(saturated, orderExpr, crymlinTraversal);
+				ctx.addSaturation();
+			}
+		}
 
 		/*
-		 * Create a weighted automaton (= a weighted NFA) that describes the initial configurations. The initial configuration is the statement containing the declaration
-		 * of the program variable (e.g., "x = Botan2()") that corresponds to the current Mark instance.
-		 *
-		 * (e.g., "b").
+		 * Findings are reported in the file containing the declaration of the program variable (e.g., "x = Botan2()") that corresponds to the current Mark
+		 * instance (e.g., "b").
 		 */
 		File currentFile = getFileFromMarkInstance(markInstance, crymlinTraversal);
 		if (currentFile == null) {
 			currentFile = new File("FIXME");
 		}
 
+		WeightedAutomaton<Stmt, Val, TypestateWeight> wnfa = saturated.getWnfa();
+		// No transition - no finding.
+		if (wnfa == null) {
+			return ConstantValue.of(Boolean.FALSE);
+		}
+
+		// Evaluate saturated WNFA for any MARK violations
+		Set<Finding> findings = getFindingsFromWpds(saturated.getWpdsConfigs(), wnfa, currentFile.toURI());
+
+		if (markContextHolder.isCreateFindingsDuringEvaluation()) {
+			ctx.getFindings().addAll(findings);
+		}
+
+		ConstantValue of = ConstantValue.of(findings.isEmpty());
+		if (markContextHolder.isCreateFindingsDuringEvaluation()) {
+			markContextHolder.getContext(contextID).setFindingAlreadyAdded(true);
+		}
+		return of;
+	}
+
+	/**
+	 * Creates the WPDS of the whole program for an order expression, and saturates the initial configuration using the post-* algorithm.
+	 *
+	 * @param saturated [out] receives the WPDS and the saturated initial configuration
+	 * @param orderExpr
+	 * @param crymlinTraversal
+	 * @throws IllegalTransitionException
+	 */
+	private void saturate(@NonNull SaturatedWpds saturated, @NonNull OrderExpression orderExpr, CrymlinTraversalSource crymlinTraversal)
+			throws IllegalTransitionException {
+		/* Create typestate NFA, representing the regular expression of a MARK typestate rule. */
+		NFA tsNFA = NFA.of(orderExpr.getExp());
+		log.debug("Initial typestate NFA:\n{}", tsNFA);
+
+		// Create a weighted pushdown system
+		CpgWpds wpds = createWpds(crymlinTraversal, tsNFA);
+
 		/* Create an initial automaton corresponding to the start configurations of the data flow analysis.
 		   In this case, we are starting with all statements that initiate a type state transition.
 		 */
 		WeightedAutomaton<Stmt, Val, TypestateWeight> wnfa = InitialConfiguration.create(InitialConfiguration::FIRST_TYPESTATE_EVENT, wpds);
-		// No transition - no finding.
 		if (wnfa.getInitialState() == null) {
-			return ConstantValue.of(Boolean.FALSE);
+			saturated.set(wpds, null);
+			return;
 		}
 
 		// For debugging only: Print WPDS rules
@@ -181,24 +233,14 @@ public class TypeStateAnalysis {
 			// For debugging only: Print the non-saturated NFA
 			log.debug("Non saturated NFA {}", wnfa);
 		}
-		// Saturate the NFA from the WPDS, using the post-* algorithm.
+		// Saturate the NFA from the WPDS, using the post-* algorithm. This cannot be interrupted, so the budget is checked before.
+		ctx.getRuleBudget(rule.getName()).check();
 		wpds.poststar(wnfa);
 
 		// For debugging only: Print the post-*-saturated NFA
 		log.debug("Saturated WNFA {}", wnfa);
 
-		// Evaluate saturated WNFA for any MARK violations
-		Set<Finding> findings = getFindingsFromWpds(wpds, wnfa, currentFile.toURI());
-
-		if (markContextHolder.isCreateFindingsDuringEvaluation()) {
-			ctx.getFindings().addAll(findings);
-		}
-
-		ConstantValue of = ConstantValue.of(findings.isEmpty());
-		if (markContextHolder.isCreateFindingsDuringEvaluation()) {
-			markContextHolder.getContext(contextID).setFindingAlreadyAdded(true);
-		}
-		return of;
+		saturated.set(wpds, wnfa);
 	}
 
 	@Nullable
@@ -250,13 +292,13 @@ public class TypeStateAnalysis {
 	 * <p>
 	 * 3) If all transitions have proper type state weights but none of them leads to END, the type state is correct but incomplete.
 	 *
-	 * @param wpds
+	 * @param wpdsConfigs All configurations for which the WPDS has rules, ignoring rules with weight ONE
 	 * @param wnfa        Weighted NFA, representing a set of configurations of the WPDS
 	 * @param currentFile
 	 * @return
 	 */
 	@NonNull
-	private Set<Finding> getFindingsFromWpds(CpgWpds wpds, @NonNull WeightedAutomaton<Stmt, Val, TypestateWeight> wnfa,
+	private Set<Finding> getFindingsFromWpds(@NonNull List<NonNullPair<Stmt, Val>> wpdsConfigs, @NonNull WeightedAutomaton<Stmt, Val, TypestateWeight> wnfa,
 			URI currentFile) {
 		// Final findings
 		Set<Finding> findings = new HashSet<>();
@@ -264,16 +306,6 @@ public class TypeStateAnalysis {
 		Set<NonNullPair<Stmt, Val>> potentialGoodFindings = new HashSet<>();
 		boolean endReached = false;
 
-		// All configurations for which we have rules. Ignoring Weight.ONE
-		Set<NonNullPair<Stmt, Val>> wpdsConfigs = new HashSet<>();
-		for (Rule<Stmt, Val, TypestateWeight> r : wpds.getAllRules()) {
-			if (!r.getWeight().equals(TypestateWeight.one())) {
-				wpdsConfigs.add(new NonNullPair<>(r.getL1(), r.getS1()));
-				wpdsConfigs.add(new NonNullPair<>(r.getL2(), r.getS2()));
-			}
-
-		}
-
 		for (Transition<Stmt, Val> tran : wnfa.getTransitions()) {
 			TypestateWeight w = wnfa.getWeightFor(tran);
 			if (w.value() instanceof Set) {
@@ -364,7 +396,7 @@ public class TypeStateAnalysis {
 		log.info("-----  Creating WPDS ----------");
 
 		/* Create empty WPDS */
-		CpgWpds wpds = new CpgWpds();
+		CpgWpds wpds = new CpgWpds(tsNfa.getTransitionTable());
 
 		/**
 		 * For each function, create a WPDS.
@@ -372,8 +404,43 @@ public class TypeStateAnalysis {
 		 * The (normal, push, pop) rules of the WPDS reflect the data flow, similar to a static taint analysis.
 		 *
 		 */
-		for (Vertex functionDeclaration : crymlinTraversal.functions().toList()) {
-			WPDS<Stmt, Val, TypestateWeight> funcWpds = createWpds(functionDeclaration, tsNfa, crymlinTraversal);
+		List<Vertex> functions = crymlinTraversal.functions().toList();
+		if (!config.disableWpdsSlicing) {
+			Set<Object> relevantFunctions = getRelevantFunctions(crymlinTraversal);
+			if (relevantFunctions == null) {
+				log.warn("WPDS slice for rule {} exceeds {} vertices, using all {} functions", rule.getName(), MAX_SLICE_VERTICES, functions.size());
+			} else {
+				log.info("WPDS slice for rule {} contains {} of {} functions", rule.getName(), relevantFunctions.size(), functions.size());
+				functions = functions.stream().filter(f -> relevantFunctions.contains(f.id())).collect(Collectors.toList());
+			}
+		}
+		List<WPDS<Stmt, Val, TypestateWeight>> funcWpdss = new ArrayList<>();
+		if (config.wpdsThreads <= 1) {
+			for (Vertex functionDeclaration : functions) {
+				funcWpdss.add(createWpds(functionDeclaration, tsNfa, crymlinTraversal));
+			}
+		} else {
+			// Rules of a function only depend on the function itself and the shared function summaries. Each worker uses its own traversal source.
+			log.info("Creating WPDS rules for {} functions using {} threads", functions.size(), config.wpdsThreads);
+			ForkJoinPool pool = new ForkJoinPool(config.wpdsThreads);
+			try {
+				List<ForkJoinTask<WPDS<Stmt, Val, TypestateWeight>>> tasks = new ArrayList<>();
+				for (Vertex functionDeclaration : functions) {
+					tasks.add(pool.submit(() -> {
+						try (TraversalConnection traversal = new TraversalConnection(ctx.getDatabase())) {
+							return createWpds(functionDeclaration, tsNfa, traversal.getCrymlinTraversal());
+						}
+					}));
+				}
+				tasks.forEach(task -> funcWpdss.add(task.join()));
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+
+		// add rules in the order of functions, so that the WPDS does not depend on the scheduling of workers
+		for (WPDS<Stmt, Val, TypestateWeight> funcWpds : funcWpdss) {
 			for (Rule<Stmt, Val, TypestateWeight> r : funcWpds.getAllRules()) {
 				wpds.addRule(r);
 			}
@@ -388,6 +455,77 @@ public class TypeStateAnalysis {
 		return wpds;
 	}
 
+	/**
+	 * Returns the ids of all functions which may touch an object tracked by the current rule.
+	 * <p>
+	 * Starting from the calls of ops of the entities referenced by the rule, we follow DFG edges in both directions, i.e., into callees receiving the object as
+	 * an argument, into callers receiving it as a return value, and along assignments. The functions containing any of the visited vertices form the slice.
+	 * In addition, the call graph is followed one level from the functions containing calls of ops: their callers and the functions they call are part of the
+	 * slice, as they may pass the object on without a DFG edge. Rules of all other functions cannot carry a typestate transition of the tracked object and are
+	 * not needed in the WPDS.
+	 *
+	 * @param crymlinTraversal
+	 * @return ids of the function declaration vertices in the slice, or null if the slice exceeds {@link #MAX_SLICE_VERTICES} and all functions are needed
+	 */
+	@Nullable
+	private Set<Object> getRelevantFunctions(@NonNull CrymlinTraversalSource crymlinTraversal) {
+		Set<Vertex> seen = new HashSet<>();
+		ArrayDeque<Vertex> worklist = new ArrayDeque<>();
+		for (Pair<String, MEntity> entityRef : rule.getEntityReferences().values()) {
+			if (entityRef == null || entityRef.getValue1() == null) {
+				continue;
+			}
+			for (MOp op : entityRef.getValue1().getOps()) {
+				worklist.addAll(op.getAllVertices());
+			}
+		}
+
+		Set<Object> relevantFunctions = new HashSet<>();
+		Set<Vertex> opFunctions = new HashSet<>();
+		for (Vertex call : worklist) {
+			CrymlinQueryWrapper.getContainingFunction(call, crymlinTraversal).ifPresent(opFunctions::add);
+		}
+		for (Vertex function : opFunctions) {
+			relevantFunctions.add(function.id());
+			// callers
+			function.vertices(Direction.IN, "INVOKES")
+					.forEachRemaining(call -> CrymlinQueryWrapper.getContainingFunction(call, crymlinTraversal).ifPresent(f -> relevantFunctions.add(f.id())));
+			// callees, i.e., functions invoked by calls on the EOG of the function
+			ArrayDeque<Vertex> eog = new ArrayDeque<>(List.of(function));
+			while (!eog.isEmpty()) {
+				Vertex v = eog.pop();
+				if (!seen.add(v)) {
+					continue;
+				}
+				if (seen.size() > MAX_SLICE_VERTICES) {
+					return null;
+				}
+				v.vertices(Direction.OUT, "INVOKES").forEachRemaining(callee -> relevantFunctions.add(callee.id()));
+				v.vertices(Direction.OUT, EOG).forEachRemaining(eog::add);
+			}
+		}
+		// the EOG vertices are visited again when following the DFG
+		seen.clear();
+
+		while (!worklist.isEmpty()) {
+			Vertex v = worklist.pop();
+			if (!seen.add(v)) {
+				continue;
+			}
+			if (seen.size() > MAX_SLICE_VERTICES) {
+				return null;
+			}
+			CrymlinQueryWrapper.getContainingFunction(v, crymlinTraversal).ifPresent(f -> relevantFunctions.add(f.id()));
+
+			Iterator<Edge> dfgs = v.edges(Direction.BOTH, DFG);
+			while (dfgs.hasNext()) {
+				Edge e = dfgs.next();
+				worklist.add(e.outVertex().equals(v) ? e.inVertex() : e.outVertex());
+			}
+		}
+		return relevantFunctions;
+	}
+
 	/**
 	 * Turns a single function into a WPDS.
 	 *
@@ -402,7 +540,7 @@ public class TypeStateAnalysis {
 		var db = ctx.getDatabase();
 
 		// the WPDS we are creating here
-		CpgWpds wpds = new CpgWpds();
+		CpgWpds wpds = new CpgWpds(tsNfa.getTransitionTable());
 
 		FunctionDeclaration fd = (FunctionDeclaration) db.vertexToNode(fdVertex);
 		log.info("Processing function {}", fdVertex.property(NAME).orElse(""));
@@ -421,7 +559,9 @@ public class TypeStateAnalysis {
 		}
 
 		// Start creation of WPDS rules by traversing the EOG
+		RuleBudget budget = ctx.getRuleBudget(rule.getName());
 		while (!worklist.isEmpty()) {
+			budget.countOrderStep();
 			NonNullPair<Vertex, Set<Stmt>> currentPair = worklist.pop();
 			Vertex v = currentPair.getValue0();
 
@@ -481,7 +621,8 @@ public class TypeStateAnalysis {
 			 * For calls to functions whose body is known, we create push/pop rule pairs. All arguments flow into the parameters of the function. The
 			 * "return site" is the statement to which flow returns after the function call.
 			 */
-			Set<PushRule<Stmt, Val, TypestateWeight>> pushRules = createPushRules(callE, crymlinTraversal, currentFunctionName, currentStmt, currentStmtVertex);
+			Set<PushRule<Stmt, Val, TypestateWeight>> pushRules = ctx.getFunctionSummaries()
+					.getPushRules(currentStmtVertex, v -> createPushRules(callE, crymlinTraversal, currentFunctionName, currentStmt, v));
 			for (PushRule<Stmt, Val, TypestateWeight> pushRule : pushRules) {
 				log.debug("  Adding push rule: {}", pushRule);
 				wpds.addRule(pushRule);
@@ -544,7 +685,7 @@ public class TypeStateAnalysis {
 			/* Return statements result in pop rules */
 			ReturnStatement returnV = (ReturnStatement) db.vertexToNode(currentStmtVertex);
 			if (returnV != null && !returnV.isDummy()) {
-				Set<Val> returnedVals = findReturnedVals(crymlinTraversal, currentStmtVertex);
+				Set<Val> returnedVals = ctx.getFunctionSummaries().getReturnedVals(currentStmtVertex, v -> findReturnedVals(crymlinTraversal, v));
 
 				for (Val returnedVal : returnedVals) {
 					Set<NFATransition<Node>> relevantNFATransitions = tsNfa.getTransitions()
@@ -554,7 +695,8 @@ public class TypeStateAnalysis {
 										.getOp()
 										.equals(returnedVal.getVariable()))
 							.collect(Collectors.toSet());
-					TypestateWeight weight = relevantNFATransitions.isEmpty() ? TypestateWeight.one() : new TypestateWeight(relevantNFATransitions);
+					TypestateWeight weight = relevantNFATransitions.isEmpty() ? TypestateWeight.one()
+							: new TypestateWeight(tsNfa.getTransitionTable(), relevantNFATransitions);
 
 					// Pop Rule for actually returned value
 					PopRule<Stmt, Val, TypestateWeight> returnPopRule = new PopRule<>(new Val(returnV.getReturnValue()
@@ -566,7 +708,8 @@ public class TypeStateAnalysis {
 				}
 
 				// Pop Rules for side effects on parameters
-				Map<String, Set<Pair<Val, Val>>> paramToValueMap = findParamToValues(functionVertex, currentStmtVertex, crymlinTraversal);
+				Map<String, Set<Pair<Val, Val>>> paramToValueMap = ctx.getFunctionSummaries()
+						.getParamToValues(currentStmtVertex, v -> findParamToValues(functionVertex, v, crymlinTraversal));
 				if (paramToValueMap.containsKey(currentFunctionName)) {
 					for (Pair<Val, Val> pToA : paramToValueMap.get(currentFunctionName)) {
 						PopRule<Stmt, Val, TypestateWeight> popRule = new PopRule<>(pToA.getValue0(), currentStmt, pToA.getValue1(),
@@ -670,7 +813,8 @@ public class TypeStateAnalysis {
 					.filter(
 						tran -> triggersTypestateTransition(currentStmtNode, tran.getTarget().getBase(), tran.getTarget().getOp()))
 					.collect(Collectors.toSet());
-			TypestateWeight weight = relevantNFATransitions.isEmpty() ? TypestateWeight.one() : new TypestateWeight(relevantNFATransitions);
+			TypestateWeight weight = relevantNFATransitions.isEmpty() ? TypestateWeight.one()
+					: new TypestateWeight(tsNfa.getTransitionTable(), relevantNFATransitions);
 
 			NormalRule<Stmt, Val, TypestateWeight> normalRule = new NormalRule<>(valInScope, previousStmt, valInScope, currentStmt, weight);
 			log.debug("Adding normal rule {}", normalRule);
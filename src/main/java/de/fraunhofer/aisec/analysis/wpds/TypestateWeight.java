@@ -1,15 +1,15 @@
-
 package de.fraunhofer.aisec.analysis.wpds;
 
-import com.google.common.collect.Sets;
 import de.breakpointsec.pushdown.weights.Semiring;
 import de.fraunhofer.aisec.markmodel.fsm.Node;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.StringJoiner;
 
 /**
  * A "weight domain" for Typestate analyses with weighted pushdown systems.
@@ -17,14 +17,35 @@ import java.util.stream.Collectors;
  * <p>
  * A weight domain is a bounded idempotent semiring. In our case, the semiring's operations "combine" and "extend" are linked to a nondeterministic finite automaton
  * (FSM), created from the typedef definition in a Mark file (=a regular expression).
+ *
+ * <p>
+ * The set of typestate transitions is stored as a bitset over the numbers assigned by the {@link TransitionTable} of the typestate NFA. Weights are immutable,
+ * so the hash code is computed once. Results of extend and combine are interned by the table, which caches both operations for interned weights.
  */
 public class TypestateWeight extends Semiring {
-	private @NonNull Set<NFATransition<Node>> value = new HashSet<>();
+	private static final long[] EMPTY = new long[0];
+
+	/** Number of weights which have not been interned by their {@link TransitionTable}. */
+	static final int NOT_INTERNED = -1;
+
+	private static final TypestateWeight ONE = new TypestateWeight(Element.ONE);
+	private static final TypestateWeight ZERO = new TypestateWeight(Element.ZERO);
+
+	/** Bitset of transition numbers. Trailing zero words are trimmed, so that equal sets have equal arrays. */
+	private final long[] value;
+	/** Numbers the transitions of {@link #value}, null for ZERO and ONE */
+	@Nullable
+	private final TransitionTable table;
 	@Nullable
 	private NFA nfa = null;
 	@Nullable
 	private Element fixedElement = null;
 
+	private final int hashCode;
+
+	/** Number assigned by {@link TransitionTable#intern}, or {@link #NOT_INTERNED}. Not part of equality. */
+	private final int id;
+
 	public enum Element {
 		ZERO,
 		ONE
@@ -32,22 +53,51 @@ public class TypestateWeight extends Semiring {
 
 	public TypestateWeight(@NonNull NFA nfa) {
 		this.nfa = nfa;
+		this.value = EMPTY;
+		this.table = nfa.getTransitionTable();
+		this.hashCode = computeHashCode();
+		this.id = NOT_INTERNED;
 	}
 
-	public TypestateWeight(@NonNull Set<NFATransition<Node>> typestateTransitions) {
-		this.value = typestateTransitions;
+	/**
+	 * @param table                numbers the transitions, see {@link NFA#getTransitionTable()}
+	 * @param typestateTransitions the typestate transitions of this weight
+	 */
+	public TypestateWeight(@NonNull TransitionTable table, @NonNull Set<NFATransition<Node>> typestateTransitions) {
+		long[] bits = EMPTY;
+		for (NFATransition<Node> t : typestateTransitions) {
+			bits = set(bits, table.idOf(t));
+		}
+		this.value = bits;
+		this.table = table;
+		this.hashCode = computeHashCode();
+		this.id = NOT_INTERNED;
 	}
 
 	public TypestateWeight(@NonNull Element fixedEle) {
 		this.fixedElement = fixedEle;
+		this.value = EMPTY;
+		this.table = null;
+		this.hashCode = computeHashCode();
+		this.id = NOT_INTERNED;
+	}
+
+	/**
+	 * Only used by {@link TransitionTable#intern} and for weights without transitions.
+	 */
+	TypestateWeight(long[] bits, @Nullable TransitionTable table, int id) {
+		this.value = trim(bits);
+		this.table = table;
+		this.hashCode = computeHashCode();
+		this.id = id;
 	}
 
 	public static TypestateWeight one() {
-		return new TypestateWeight(Element.ONE);
+		return ONE;
 	}
 
 	public static TypestateWeight zero() {
-		return new TypestateWeight(Element.ZERO);
+		return ZERO;
 	}
 
 	/**
@@ -58,12 +108,12 @@ public class TypestateWeight extends Semiring {
 	 */
 	@Override
 	public Semiring extendWith(@NonNull Semiring other) {
-		if (other.equals(one()))
+		if (other.equals(ONE))
 			return this;
-		if (this.equals(one()))
+		if (this.equals(ONE))
 			return other;
-		if (other.equals(zero()) || this.equals(zero())) {
-			return zero();
+		if (other.equals(ZERO) || this.equals(ZERO)) {
+			return ZERO;
 		}
 
 		if (!(other instanceof TypestateWeight)) {
@@ -71,21 +121,29 @@ public class TypestateWeight extends Semiring {
 		}
 
 		TypestateWeight otherW = (TypestateWeight) other;
+		TransitionTable t = this.table != null ? this.table : otherW.table;
+		if (t == null) {
+			// neither weight contains transitions
+			return ZERO;
+		}
+		TypestateWeight cached = t.getExtension(this, otherW);
+		if (cached != null) {
+			return cached;
+		}
 
-		Set<NFATransition<Node>> resultSet = new HashSet<>();
-		for (NFATransition<Node> my : this.value) {
-			for (NFATransition<Node> theirs : otherW.value) {
-				// 1-step transitive hull. Note that we check for equality of names, as equality of Node objects includes their successor collection.
-				if (my.getTarget().toString().equals(theirs.getSource().toString())) {
-					NFATransition<Node> newTsTran = new NFATransition<Node>(my.getSource(), theirs.getTarget(), my.getLabel());
-					resultSet.add(newTsTran);
+		// 1-step transitive hull. Note that transitions are composed if the names of states are equal, as equality of Node objects includes their successors.
+		long[] result = EMPTY;
+		for (int my = nextSetBit(this.value, 0); my >= 0; my = nextSetBit(this.value, my + 1)) {
+			for (int theirs = nextSetBit(otherW.value, 0); theirs >= 0; theirs = nextSetBit(otherW.value, theirs + 1)) {
+				int composed = t.compose(my, theirs);
+				if (composed >= 0) {
+					result = set(result, composed);
 				}
 			}
 		}
-		if (resultSet.isEmpty()) {
-			return TypestateWeight.zero();
-		}
-		return new TypestateWeight(resultSet);
+		TypestateWeight extended = result.length == 0 ? ZERO : t.intern(result);
+		t.putExtension(this, otherW, extended);
+		return extended;
 	}
 
 	/**
@@ -96,20 +154,35 @@ public class TypestateWeight extends Semiring {
 	 */
 	@Override
 	public Semiring combineWith(Semiring other) {
-		if (this.equals(one()) && other.equals(one())) {
-			return one();
+		if (this.equals(ONE) && other.equals(ONE)) {
+			return ONE;
 		}
 
-		if (this.equals(zero()) && other.equals(zero())) {
-			return zero();
+		if (this.equals(ZERO) && other.equals(ZERO)) {
+			return ZERO;
 		}
 
 		if (other instanceof TypestateWeight) {
-			Set<NFATransition<Node>> union = Sets.union(this.value, ((TypestateWeight) other).value);
-			return new TypestateWeight(union);
+			TypestateWeight otherW = (TypestateWeight) other;
+			TransitionTable t = this.table != null ? this.table : otherW.table;
+			TypestateWeight cached = t == null ? null : t.getCombination(this, otherW);
+			if (cached != null) {
+				return cached;
+			}
+			long[] union = Arrays.copyOf(this.value, Math.max(this.value.length, otherW.value.length));
+			for (int i = 0; i < otherW.value.length; i++) {
+				union[i] |= otherW.value[i];
+			}
+			if (t == null) {
+				// ONE and ZERO
+				return new TypestateWeight(EMPTY, null, NOT_INTERNED);
+			}
+			TypestateWeight combined = t.intern(union);
+			t.putCombination(this, otherW, combined);
+			return combined;
 		}
 
-		return new TypestateWeight(Set.of());
+		return this.table == null ? new TypestateWeight(EMPTY, null, NOT_INTERNED) : this.table.intern(EMPTY);
 	}
 
 	@Override
@@ -124,8 +197,21 @@ public class TypestateWeight extends Semiring {
 			return nfa.getCurrentConfiguration();
 		}
 
-		// Concatenate transitions' toString(), joined by comma
-		return value;
+		return Collections.unmodifiableSet(getTransitions());
+	}
+
+	/**
+	 * Returns the typestate transitions of this weight. The set is empty for ZERO and ONE.
+	 *
+	 * @return
+	 */
+	@NonNull
+	public Set<NFATransition<Node>> getTransitions() {
+		Set<NFATransition<Node>> transitions = new HashSet<>();
+		for (int i = nextSetBit(this.value, 0); i >= 0; i = nextSetBit(this.value, i + 1)) {
+			transitions.add(table.get(i));
+		}
+		return transitions;
 	}
 
 	public String toString() {
@@ -134,16 +220,25 @@ public class TypestateWeight extends Semiring {
 			return this.fixedElement.toString();
 		}
 
-		return this.value.stream().map(NFATransition::toString).collect(Collectors.joining(", "));
+		StringJoiner joiner = new StringJoiner(", ");
+		for (int i = nextSetBit(this.value, 0); i >= 0; i = nextSetBit(this.value, i + 1)) {
+			joiner.add(table.get(i).toString());
+		}
+		return joiner.toString();
+	}
+
+	int getId() {
+		return id;
 	}
 
 	@Override
 	public int hashCode() {
+		return hashCode;
+	}
+
+	private int computeHashCode() {
 		final int prime = 31;
-		int result = 1;
-		for (NFATransition<Node> v : this.value) {
-			result = prime * result + v.hashCode();
-		}
+		int result = Arrays.hashCode(this.value);
 		if (this.fixedElement != null) {
 			result = prime * result + this.fixedElement.hashCode();
 		}
@@ -159,6 +254,8 @@ public class TypestateWeight extends Semiring {
 		if (!(obj instanceof TypestateWeight))
 			return false;
 		TypestateWeight other = (TypestateWeight) obj;
+		if (this.hashCode != other.hashCode)
+			return false;
 		if (this.fixedElement != null && other.fixedElement == null)
 			return false;
 		if (this.fixedElement == null && other.fixedElement != null)
@@ -167,6 +264,41 @@ public class TypestateWeight extends Semiring {
 			return this.fixedElement.equals(other.fixedElement);
 		}
 
-		return this.value.equals(other.value);
+		return Arrays.equals(this.value, other.value);
+	}
+
+	private static long[] set(long[] bits, int index) {
+		int word = index >>> 6;
+		long[] result = bits;
+		if (word >= bits.length) {
+			result = Arrays.copyOf(bits, word + 1);
+		}
+		result[word] |= 1L << index;
+		return result;
+	}
+
+	private static int nextSetBit(long[] bits, int fromIndex) {
+		int word = fromIndex >>> 6;
+		if (word >= bits.length) {
+			return -1;
+		}
+		long w = bits[word] & (-1L << fromIndex);
+		while (true) {
+			if (w != 0) {
+				return (word << 6) + Long.numberOfTrailingZeros(w);
+			}
+			if (++word == bits.length) {
+				return -1;
+			}
+			w = bits[word];
+		}
+	}
+
+	private static long[] trim(long[] bits) {
+		int length = bits.length;
+		while (length > 0 && bits[length - 1] == 0) {
+			length--;
+		}
+		return length == bits.length ? bits : Arrays.copyOf(bits, length);
 	}
 }
@@ -4,11 +4,13 @@ package de.fraunhofer.aisec.crymlin;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.UnmodifiableIterator;
 import de.fraunhofer.aisec.analysis.scp.SimpleConstantResolver;
+import de.fraunhofer.aisec.analysis.structures.AliasClasses;
+import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
 import de.fraunhofer.aisec.analysis.structures.CPGVertexWithValue;
 import de.fraunhofer.aisec.analysis.structures.ConstantValue;
-import de.fraunhofer.aisec.analysis.structures.ErrorValue;
 import de.fraunhofer.aisec.analysis.structures.MarkContext;
 import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
+import de.fraunhofer.aisec.analysis.structures.OperandResolutionCache;
 import de.fraunhofer.aisec.analysis.structures.Pair;
 import de.fraunhofer.aisec.analysis.utils.Utils;
 import de.fraunhofer.aisec.cpg.graph.*;
@@ -350,7 +352,25 @@ public class CrymlinQueryWrapper {
 	 */
 	public static List<CPGVertexWithValue> getMatchingVertices(@NonNull Database<Node> db, @NonNull String markVar, @NonNull MRule rule, Mark markModel,
 			@NonNull CrymlinTraversalSource crymlin) {
-		final List<CPGVertexWithValue> matchingVertices = new ArrayList<>();
+		Pair<MEntity, String> entityAndAttribute = getReferencedEntityAndAttribute(markVar, rule, markModel);
+		if (entityAndAttribute == null || entityAndAttribute.getValue1() == null) {
+			return new ArrayList<>();
+		}
+		return getMatchingVertices(db, entityAndAttribute.getValue0(), entityAndAttribute.getValue1(), markVar, crymlin);
+	}
+
+	/**
+	 * Returns the MARK entity and the name of the attribute within this entity which a MARK variable in a given rule refers to.
+	 * <p>
+	 * For "myInstance.attribute", this is the entity of "myInstance" and "attribute". For nested variables ("myInstance.inner.attribute"), this is the entity
+	 * declared as type of "inner" and "attribute".
+	 *
+	 * @param markVar   The MARK variable.
+	 * @param rule      The MARK rule using the MARK variable.
+	 * @param markModel The current MARK model.
+	 * @return the entity and attribute, or null if the variable cannot be resolved to an entity.
+	 */
+	public static Pair<MEntity, String> getReferencedEntityAndAttribute(@NonNull String markVar, @NonNull MRule rule, Mark markModel) {
 		// Split MARK variable "myInstance.attribute" into "myInstance" and "attribute".
 		final String[] markVarParts = markVar.split("\\.");
 		String instance = markVarParts[0];
@@ -360,7 +380,7 @@ public class CrymlinQueryWrapper {
 		Pair<String, MEntity> ref = rule.getEntityReferences().get(instance);
 		if (ref == null || ref.getValue1() == null) {
 			log.warn("Unexpected: rule {} without referenced entity for instance {}", rule.getName(), instance);
-			return matchingVertices;
+			return null;
 		}
 		MEntity referencedEntity = ref.getValue1();
 
@@ -380,15 +400,30 @@ public class CrymlinQueryWrapper {
 				}
 				if (match == null) {
 					log.warn("Entity does not contain var {}", markVarParts[i]);
-					return matchingVertices;
+					return null;
 				}
 				referencedEntity = markModel.getEntity(match.getType());
 				if (referencedEntity == null) {
 					log.warn("No Entity with name {} found", match.getType());
-					return matchingVertices;
+					return null;
 				}
 			}
 		}
+		return new Pair<>(referencedEntity, attribute);
+	}
+
+	/**
+	 * Returns a List of Vertices that correspond to a given attribute of a MARK entity.
+	 *
+	 * @param referencedEntity The MARK entity.
+	 * @param attribute        The attribute within the entity.
+	 * @param markVar          The MARK variable, used for logging.
+	 * @param crymlin          A CrymlinTraversalSource for querying the CPG.
+	 * @return List of matching vertices.
+	 */
+	private static List<CPGVertexWithValue> getMatchingVertices(@NonNull Database<Node> db, @NonNull MEntity referencedEntity, @NonNull String attribute,
+			@NonNull String markVar, @NonNull CrymlinTraversalSource crymlin) {
+		final List<CPGVertexWithValue> matchingVertices = new ArrayList<>();
 		String finalAttribute = attribute;
 
 		List<Pair<MOp, Set<OpStatement>>> usesAsVar = new ArrayList<>();
@@ -552,13 +587,14 @@ public class CrymlinQueryWrapper {
 	/**
 	 * Given a MARK variable and a list of vertices, attempts to find constant values that would be assigned to these variables at runtime.
 	 * <p>
-	 * The precision of this resolution depends on the implementation of the ConstantResolver.
+	 * The precision of this resolution depends on the implementation of the ConstantResolver. Vertices which cannot be resolved keep their uninitialized
+	 * value. The result is shared by all MARK variables referring to the same entity and attribute (see {@link OperandResolutionCache}), so it must not depend
+	 * on the name of the variable.
 	 *
 	 * @param vertices
-	 * @param markVar
 	 * @return
 	 */
-	private static List<CPGVertexWithValue> resolveValuesForVertices(@NonNull Database<Node> db, List<CPGVertexWithValue> vertices, @NonNull String markVar) {
+	private static List<CPGVertexWithValue> resolveValuesForVertices(@NonNull Database<Node> db, List<CPGVertexWithValue> vertices) {
 		List<CPGVertexWithValue> ret = new ArrayList<>();
 
 		for (CPGVertexWithValue v : vertices) {
@@ -607,16 +643,12 @@ public class CrymlinQueryWrapper {
 						ret.add(add);
 					});
 				} else {
-					CPGVertexWithValue add = CPGVertexWithValue.of(v);
-					v.setValue(ErrorValue.newErrorValue(String.format("could not resolve %s", markVar)));
-					ret.add(add);
+					ret.add(CPGVertexWithValue.of(v));
 				}
 			} else {
 				log.info("Cannot resolve concrete value of a node that is not a DeclaredReferenceExpression or a Literal: {} Returning NULL",
 					v.getArgumentVertex().label());
-				CPGVertexWithValue add = CPGVertexWithValue.of(v);
-				v.setValue(ErrorValue.newErrorValue(String.format("could not resolve %s", markVar)));
-				ret.add(add);
+				ret.add(CPGVertexWithValue.of(v));
 			}
 		}
 		return ret;
@@ -751,23 +783,47 @@ public class CrymlinQueryWrapper {
 		return Optional.empty();
 	}
 
-	public static Map<Integer, List<CPGVertexWithValue>> resolveOperand(@NonNull Database<Node> db, MarkContextHolder context, @NonNull String markVar,
+	/**
+	 * Resolves a MARK operand (e.g., "cm.algorithm") for all contexts of a rule.
+	 * <p>
+	 * Matching vertices and their constant values are taken from the analysis-scoped {@link OperandResolutionCache}, so each (entity, attribute) is only
+	 * resolved once per analysis.
+	 *
+	 * @param ctx       the analysis context holding the database and the operand cache
+	 * @param context   the contexts of the rule
+	 * @param markVar   the MARK operand
+	 * @param rule      the rule using the operand
+	 * @param markModel the current MARK model
+	 * @param crymlin   traversal-connection to the DB
+	 * @return map from context id to the vertices (with values) the operand resolves to in this context
+	 */
+	public static Map<Integer, List<CPGVertexWithValue>> resolveOperand(@NonNull AnalysisContext ctx, MarkContextHolder context, @NonNull String markVar,
 			@NonNull MRule rule,
 			Mark markModel, @NonNull CrymlinTraversalSource crymlin) {
 
 		HashMap<Integer, List<CPGVertexWithValue>> verticesPerContext = new HashMap<>();
 
-		// first get all vertices for the operand
-		List<CPGVertexWithValue> matchingVertices = CrymlinQueryWrapper.getMatchingVertices(db, markVar, rule, markModel, crymlin);
-
-		if (matchingVertices.isEmpty()) {
+		Pair<MEntity, String> entityAndAttribute = getReferencedEntityAndAttribute(markVar, rule, markModel);
+		if (entityAndAttribute == null || entityAndAttribute.getValue1() == null) {
+			return verticesPerContext;
+		}
+		MEntity referencedEntity = entityAndAttribute.getValue0();
+		String attribute = entityAndAttribute.getValue1();
+
+		// get all vertices for the operand and use Constant resolver to resolve assignments to arguments, unless this was already done for another rule.
+		// Cached with the entity of the rule's instance and the path from it, so operands of nested entities are released with that entity.
+		Database<Node> db = ctx.getDatabase();
+		Pair<String, MEntity> ruleEntity = rule.getEntityReferences().get(markVar.substring(0, markVar.indexOf('.')));
+		String cacheEntity = ruleEntity != null && ruleEntity.getValue0() != null ? ruleEntity.getValue0() : referencedEntity.getName();
+		Map<Long, List<CPGVertexWithValue>> resolvedVertices = ctx.getOperandResolutionCache()
+				.getOrResolve(cacheEntity, markVar.substring(markVar.indexOf('.') + 1),
+					() -> resolveValuesForVertices(db, getMatchingVertices(db, referencedEntity, attribute, markVar, crymlin)));
+
+		if (resolvedVertices.isEmpty()) {
 			log.warn("Did not find matching vertices for {}", markVar);
 			return verticesPerContext;
 		}
 
-		// Use Constant resolver to resolve assignments to arguments
-		List<CPGVertexWithValue> vertices = new ArrayList<>(resolveValuesForVertices(db, matchingVertices, markVar));
-
 		// now split them up to belong to each instance (t) or markvar (t.foo)
 		final String instance = markVar.substring(0, markVar.lastIndexOf('.'));
 
@@ -806,7 +862,7 @@ public class CrymlinQueryWrapper {
 					log.warn("Instance not found in context");
 				} else {
 					Vertex opInstance = entry.getValue().getInstanceContext().getVertex(instance);
-					Long id = -1L;
+					Long id = OperandResolutionCache.NO_INSTANCE;
 					if (opInstance != null) {
 						id = (Long) opInstance.id();
 					}
@@ -818,19 +874,22 @@ public class CrymlinQueryWrapper {
 
 		// now calculate a list of contextID to matching vertices which fill the base we are looking for
 
-		for (CPGVertexWithValue vertexWithValue : vertices) {
-			Long id = -1L; // -1 = null
-			if (vertexWithValue.getBase() != null) {
-				id = (Long) vertexWithValue.getBase().id();
+		// bases which are aliases of an instance belong to the instance
+		AliasClasses aliasClasses = ctx.getAliasClasses();
+		if (!resolvedVertices.keySet().stream().map(aliasClasses::getRepresentative).allMatch(nodeIDToContextIDs::containsKey)) {
+			log.warn("Base not found in any context. Following expressionevaluation will be incomplete");
+		}
+		for (Map.Entry<Long, List<Integer>> entry : nodeIDToContextIDs.entrySet()) {
+			List<CPGVertexWithValue> vertices = new ArrayList<>();
+			for (Object member : aliasClasses.getMembers(entry.getKey())) {
+				vertices.addAll(OperandResolutionCache.getForInstance(resolvedVertices, (Long) member));
 			}
-			List<Integer> contextIDs = nodeIDToContextIDs.get(id);
-			if (contextIDs == null) {
-				log.warn("Base not found in any context. Following expressionevaluation will be incomplete");
-			} else {
-				for (Integer c : contextIDs) {
-					List<CPGVertexWithValue> verts = verticesPerContext.computeIfAbsent(c, x -> new ArrayList<>());
-					verts.add(vertexWithValue);
-				}
+			if (vertices.isEmpty()) {
+				continue;
+			}
+			for (Integer c : entry.getValue()) {
+				List<CPGVertexWithValue> verts = verticesPerContext.computeIfAbsent(c, x -> new ArrayList<>());
+				verts.addAll(vertices);
 			}
 		}
 
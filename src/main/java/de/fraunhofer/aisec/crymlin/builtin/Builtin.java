@@ -41,4 +41,18 @@ public interface Builtin {
 			@NonNull Integer contextID,
 			@NonNull MarkContextHolder markContextHolder,
 			@NonNull ExpressionEvaluator expressionEvaluator);
+
+	/**
+	 * Indicates whether the result of this Builtin only depends on its arguments, i.e., on their values and responsible vertices, and not on the context or
+	 * the state of the analysis.
+	 *
+	 * <p>
+	 * Results of pure Builtins are cached for the whole analysis and reused for all calls with equal arguments, see
+	 * {@link de.fraunhofer.aisec.analysis.structures.BuiltinResultCache}.
+	 *
+	 * @return true, if calls with equal arguments may share their result
+	 */
+	default boolean isPure() {
+		return false;
+	}
 }
@@ -27,6 +27,11 @@ public class DirectEogConnection implements Builtin {
 		return "_direct_eog_connection";
 	}
 
+	@Override
+	public boolean isPure() {
+		return true;
+	}
+
 	@Override
 	public ConstantValue execute(
 			@NonNull AnalysisContext ctx,
@@ -26,6 +26,11 @@ public class EogConnection implements Builtin {
 		return "_eog_connection";
 	}
 
+	@Override
+	public boolean isPure() {
+		return true;
+	}
+
 	@Override
 	public ConstantValue execute(
 			@NonNull AnalysisContext ctx,
@@ -27,6 +27,11 @@ public class HasValue implements Builtin {
 		return "_has_value";
 	}
 
+	@Override
+	public boolean isPure() {
+		return true;
+	}
+
 	@Override
 	public ConstantValue execute(
 			@NonNull AnalysisContext ctx,
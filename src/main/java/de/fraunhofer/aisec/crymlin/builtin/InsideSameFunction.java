@@ -27,6 +27,11 @@ public class InsideSameFunction implements Builtin {
 		return "_inside_same_function";
 	}
 
+	@Override
+	public boolean isPure() {
+		return true;
+	}
+
 	@Override
 	public ConstantValue execute(
 			@NonNull AnalysisContext ctx,
@@ -36,6 +36,11 @@ public class IsInstance implements Builtin {
 		return "_is_instance";
 	}
 
+	@Override
+	public boolean isPure() {
+		return true;
+	}
+
 	public ConstantValue execute(
 			@NonNull AnalysisContext ctx,
 			@NonNull ListValue argResultList,
@@ -34,6 +34,11 @@ public class ReceivesValueFrom implements Builtin {
 		return "_receives_value_from";
 	}
 
+	@Override
+	public boolean isPure() {
+		return true;
+	}
+
 	@Override
 	public ConstantValue execute(
 			@NonNull AnalysisContext ctx,
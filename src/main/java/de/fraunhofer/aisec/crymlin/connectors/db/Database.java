@@ -1,6 +1,7 @@
 
 package de.fraunhofer.aisec.crymlin.connectors.db;
 
+import de.fraunhofer.aisec.analysis.structures.CancellationToken;
 import org.apache.tinkerpop.gremlin.structure.Graph;
 import org.apache.tinkerpop.gremlin.structure.Vertex;
 
@@ -16,6 +17,11 @@ public interface Database<N> {
 
 	void saveAll(Collection<? extends N> list);
 
+	/**
+	 * Saves all nodes, stops with a {@link java.util.concurrent.CancellationException} once {@code cancellation} is cancelled.
+	 */
+	void saveAll(Collection<? extends N> list, CancellationToken cancellation);
+
 	void clearDatabase();
 
 	void close();
@@ -3,6 +3,7 @@ package de.fraunhofer.aisec.crymlin.connectors.db;
 
 import com.google.common.base.CaseFormat;
 import com.google.common.collect.Sets;
+import de.fraunhofer.aisec.analysis.structures.CancellationToken;
 import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
 import de.fraunhofer.aisec.cpg.graph.EdgeProperty;
 import de.fraunhofer.aisec.cpg.graph.Node;
@@ -85,15 +86,15 @@ public class OverflowDatabase implements Database<Node> {
 	private OdbGraph graph;
 	private OdbConfig odbConfig;
 
-	private static final Map<String, List<Field>> fieldsIncludingSuperclasses = new HashMap<>();
-	private static final Map<String, Pair<List<EdgeLayoutInformation>, List<EdgeLayoutInformation>>> inAndOutFields = new HashMap<>();
-	private static final Map<String, Map<String, Object>> edgeProperties = new HashMap<>();
-	private static final Set<String> keyEdgeProperties = new HashSet<>();
-	private static final Map<String, Boolean> mapsToRelationship = new HashMap<>();
-	private static final Map<String, Boolean> mapsToProperty = new HashMap<>();
-	private static final Map<String, NodeLayoutInformation> layoutInformation = new HashMap<>();
-	private static final Map<String, String[]> subClasses = new HashMap<>();
-	private static final Map<String, String[]> superClasses = new HashMap<>();
+	private static final Map<String, List<Field>> fieldsIncludingSuperclasses = new ConcurrentHashMap<>();
+	private static final Map<String, Pair<List<EdgeLayoutInformation>, List<EdgeLayoutInformation>>> inAndOutFields = new ConcurrentHashMap<>();
+	private static final Map<String, Map<String, Object>> edgeProperties = new ConcurrentHashMap<>();
+	private static final Set<String> keyEdgeProperties = ConcurrentHashMap.newKeySet();
+	private static final Map<String, Boolean> mapsToRelationship = new ConcurrentHashMap<>();
+	private static final Map<String, Boolean> mapsToProperty = new ConcurrentHashMap<>();
+	private static final Map<String, NodeLayoutInformation> layoutInformation = new ConcurrentHashMap<>();
+	private static final Map<String, String[]> subClasses = new ConcurrentHashMap<>();
+	private static final Map<String, String[]> superClasses = new ConcurrentHashMap<>();
 
 	// Scan all classes in package
 	private static final Reflections reflections = new Reflections(
@@ -109,7 +110,8 @@ public class OverflowDatabase implements Database<Node> {
 	 */
 	private Map<Object, Map<String, Set<Object>>> edgesCache = new HashMap<>();
 	private final Map<Node, Vertex> nodeToVertex = new IdentityHashMap<>(); // No cache.
-	private final Map<Long, Node> nodesCache = new HashMap<>(); // Key is actually v.id() (Long)
+	private final Map<Long, Node> nodesCache = new ConcurrentHashMap<>(); // Key is actually v.id() (Long), only fully built nodes
+	private final Object conversionLock = new Object(); // held while converting vertices which are not cached yet
 	private final Set<Node> saved = new HashSet<>();
 
 	public OverflowDatabase(ServerConfiguration config) {
@@ -166,30 +168,41 @@ public class OverflowDatabase implements Database<Node> {
 
 	@Override
 	public void saveAll(Collection<? extends Node> list) {
+		saveAll(list, new CancellationToken());
+	}
+
+	@Override
+	public void saveAll(Collection<? extends Node> list, @NonNull CancellationToken cancellation) {
 		Benchmark bench = new Benchmark(OverflowDatabase.class, "save all");
-		for (Node node : list) {
-			save(node);
+		try {
+			for (Node node : list) {
+				save(node, cancellation);
+			}
+			bench.stop();
+		}
+		finally {
+			// Clear some caches. They are only needed during saving.
+			inAndOutFields.clear();
+			mapsToProperty.clear();
+			mapsToRelationship.clear();
+			nodesCache.clear();
+			edgesCache.clear();
 		}
-		bench.stop();
-
-		// Clear some caches. They are only needed during saving.
-		inAndOutFields.clear();
-		mapsToProperty.clear();
-		mapsToRelationship.clear();
-		nodesCache.clear();
-		edgesCache.clear();
 
 		// Note: Do NOT clear "layoutInformation". They will be needed for queries.
 	}
 
 	/**
 	 * Saves a single Node in OverflowDB.
+	 *
+	 * @throws java.util.concurrent.CancellationException if {@code cancellation} is cancelled before all nodes reachable from {@code n} are saved
 	 */
-	private void save(@Nullable Node n) {
+	private void save(@Nullable Node n, @NonNull CancellationToken cancellation) {
 		Queue<Node> processing = new ArrayDeque<>();
 
 		// don't allow null
 		while (n != null) {
+			cancellation.throwIfCancelled();
 			if (!saved.contains(n)) {
 				// haven't processed node yet
 				Vertex v = createVertex(n);
@@ -234,11 +247,11 @@ public class OverflowDatabase implements Database<Node> {
 		return Collections.emptyMap();
 	}
 
-	private List<PropertyEdge<Node>> rebuildPropertyEdges(List<Edge> targetEdges) {
+	private List<PropertyEdge<Node>> rebuildPropertyEdges(List<Edge> targetEdges, Map<Long, Node> inProgress) {
 		List<PropertyEdge<Node>> targets = new ArrayList<>();
 		for (Edge edge : targetEdges) {
-			Node startNode = vertexToNode(((OdbEdge) edge).outNode());
-			Node endNode = vertexToNode(((OdbEdge) edge).inNode());
+			Node startNode = buildNode(((OdbEdge) edge).outNode(), inProgress);
+			Node endNode = buildNode(((OdbEdge) edge).inNode(), inProgress);
 
 			PropertyEdgeConverter propertyEdgeConverter = new PropertyEdgeConverter();
 			Map<Properties, Object> propertyMap = propertyEdgeConverter.toEntityAttribute(((OdbEdge) edge).propertyMap());
@@ -251,15 +264,49 @@ public class OverflowDatabase implements Database<Node> {
 
 	/**
 	 * Constructs a native Node object from a given Vertex or returns a cached Node object.
+	 * <p>
+	 * May be called by parallel rule evaluation: cached nodes are returned without locking. Conversions of vertices which are not cached yet are
+	 * serialized, build their (possibly cyclic) node graph in a separate map and only publish the finished nodes to the shared cache. Each vertex is
+	 * thus converted once and all nodes link to the same node of a neighbour, regardless of the thread which converted it.
 	 *
 	 * @return Null, if the Vertex could not be converted into a native object.
 	 */
 	@Override
 	@Nullable
 	public Node vertexToNode(Vertex v) {
+		Node cached = nodesCache.get((Long) v.id());
+		if (cached != null) {
+			return cached;
+		}
+
+		synchronized (conversionLock) {
+			cached = nodesCache.get((Long) v.id());
+			if (cached != null) {
+				return cached;
+			}
+			Map<Long, Node> inProgress = new HashMap<>();
+			Node node = buildNode(v, inProgress);
+			nodesCache.putAll(inProgress);
+			return node;
+		}
+	}
+
+	/**
+	 * Converts a vertex and, recursively, its relationship targets. Nodes under construction are only registered in {@code inProgress}.
+	 *
+	 * @param v the vertex to convert
+	 * @param inProgress nodes created by the current conversion, keyed by vertex ID
+	 * @return Null, if the Vertex could not be converted into a native object.
+	 */
+	@Nullable
+	private Node buildNode(Vertex v, Map<Long, Node> inProgress) {
 		// avoid loops
-		if (nodesCache.containsKey((Long) v.id())) {
-			return nodesCache.get((Long) v.id());
+		Node known = nodesCache.get((Long) v.id());
+		if (known == null) {
+			known = inProgress.get((Long) v.id());
+		}
+		if (known != null) {
+			return known;
 		}
 
 		Class<?> targetClass;
@@ -276,7 +323,7 @@ public class OverflowDatabase implements Database<Node> {
 			Constructor<?> defaultConstructor = targetClass.getDeclaredConstructor();
 			defaultConstructor.setAccessible(true);
 			Node node = (Node) defaultConstructor.newInstance();
-			nodesCache.put((Long) v.id(), node);
+			inProgress.put((Long) v.id(), node);
 
 			for (Field f : getFieldsIncludingSuperclasses(targetClass)) {
 				f.setAccessible(true);
@@ -296,7 +343,7 @@ public class OverflowDatabase implements Database<Node> {
 					Direction direction = getRelationshipDirection(f);
 					List<?> targets = IteratorUtils.stream(v.vertices(direction, getRelationshipLabel(f)))
 							.filter(distinctByKey(Vertex::id))
-							.map(this::vertexToNode)
+							.map(w -> buildNode(w, inProgress))
 							.collect(Collectors.toList());
 
 					List<Edge> targetEdges = IteratorUtils.stream(v.edges(direction, getRelationshipLabel(f))).collect(Collectors.toList());
@@ -309,7 +356,7 @@ public class OverflowDatabase implements Database<Node> {
 						// Handle PropertyEdges by overwriting targets
 						if (collectionsGenerics.length > 0 && getGenericStripedType(collectionsGenerics[0]).getTypeName()
 								.equals(PropertyEdge.class.getName())) {
-							targets = rebuildPropertyEdges(targetEdges);
+							targets = rebuildPropertyEdges(targetEdges, inProgress);
 						}
 
 						/*
@@ -339,7 +386,7 @@ public class OverflowDatabase implements Database<Node> {
 
 						// Handle PropertyEdges by overwriting targets
 						if (PropertyEdge[].class.isAssignableFrom(f.getType())) {
-							targets = rebuildPropertyEdges(targetEdges);
+							targets = rebuildPropertyEdges(targetEdges, inProgress);
 						}
 
 						for (int i = 0; i < targets.size(); i++) {
@@ -350,7 +397,7 @@ public class OverflowDatabase implements Database<Node> {
 						// single edge
 						if (!targets.isEmpty() && !Modifier.isFinal(f.getModifiers())) {
 							if (PropertyEdge.class.isAssignableFrom(f.getType())) {
-								targets = rebuildPropertyEdges(targetEdges);
+								targets = rebuildPropertyEdges(targetEdges, inProgress);
 							}
 							f.set(node, targets.get(0));
 						}
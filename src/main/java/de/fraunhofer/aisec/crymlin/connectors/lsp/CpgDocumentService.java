@@ -180,15 +180,27 @@ public class CpgDocumentService implements TextDocumentService {
 		return ignoredLines;
 	}
 
+	/**
+	 * Converts findings to diagnostics, one per region of a finding. Inconclusive findings without a region are shown at the start of the file, so they are
+	 * not lost.
+	 *
+	 * @param findings     the findings of an analysis
+	 * @param ignoredLines lines containing a <code>DISABLE_FINDING</code> comment, see {@link #getIgnoredLines(File)}
+	 * @return the diagnostics which are not disabled
+	 */
 	@NonNull
-	private List<Diagnostic> findingsToDiagnostics(
+	public static List<Diagnostic> findingsToDiagnostics(
 			@NonNull Set<Finding> findings, @NonNull Map<Integer, String> ignoredLines) {
 		List<Diagnostic> allDiags = new ArrayList<>();
 		for (Finding f : findings) {
-			for (Region reg : f.getRegions()) {
+			List<Region> regions = f.getRegions();
+			if (regions.isEmpty() && f.isInconclusive()) {
+				regions = List.of(new Region(0, 0, 0, 0));
+			}
+			for (Region reg : regions) {
 				Diagnostic diagnostic = new Diagnostic();
 				// TODO Replace HINT for verified findings with Code Lens
-				diagnostic.setSeverity(f.isProblem() ? DiagnosticSeverity.Error : DiagnosticSeverity.Information);
+				diagnostic.setSeverity(f.isProblem() ? DiagnosticSeverity.Error : f.isInconclusive() ? DiagnosticSeverity.Warning : DiagnosticSeverity.Information);
 
 				// Get human readable description, if available
 				String msg = FindingDescription.getInstance().getDescriptionShort(f.getOnfailIdentifier());
@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -81,8 +82,14 @@ public class MOp {
 		allVertices.addAll(verts);
 	}
 
+	/**
+	 * Marks the assignment of CPG vertices to this op as finished. Afterwards, the assignment is read-only, so that rules can safely be evaluated in parallel.
+	 */
 	public void setParsingFinished() {
 		parsed = true;
+		statementToCPGVertex = Collections.unmodifiableMap(statementToCPGVertex);
+		vertexToStatements = Collections.unmodifiableMap(vertexToStatements);
+		allVertices = Collections.unmodifiableSet(allVertices);
 	}
 
 	public MEntity getParent() {
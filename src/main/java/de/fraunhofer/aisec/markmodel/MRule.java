@@ -1,12 +1,18 @@
 
 package de.fraunhofer.aisec.markmodel;
 
+import de.fraunhofer.aisec.analysis.markevaluation.CompiledExpression;
 import de.fraunhofer.aisec.analysis.markevaluation.ExpressionHelper;
 import de.fraunhofer.aisec.analysis.structures.Pair;
+import de.fraunhofer.aisec.mark.markDsl.Expression;
+import de.fraunhofer.aisec.mark.markDsl.OrderExpression;
 import de.fraunhofer.aisec.mark.markDsl.RuleStatement;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class MRule {
@@ -25,6 +31,12 @@ public class MRule {
 	 */
 	private Map<String, Pair<String, MEntity>> entityReferences;
 
+	/** Compiled automata of the order expressions of this rule. */
+	private final Map<OrderExpression, OrderAutomaton> orderAutomata = new ConcurrentHashMap<>();
+
+	/** Compiled "when" and "ensure" expressions of this rule. */
+	private final Map<Expression, CompiledExpression> compiledExpressions = new ConcurrentHashMap<>();
+
 	public MRule(@NonNull String name) {
 		this.name = name;
 	}
@@ -83,4 +95,36 @@ public class MRule {
 	public Map<String, Pair<String, MEntity>> getEntityReferences() {
 		return entityReferences;
 	}
+
+	/**
+	 * Returns the compiled automaton of an order expression of this rule. Automata are usually compiled when loading the MARK model, otherwise they are
+	 * compiled on first use.
+	 *
+	 * @param orderExpression an order expression contained in this rule
+	 * @return the automaton
+	 */
+	@NonNull
+	public OrderAutomaton getOrderAutomaton(@NonNull OrderExpression orderExpression) {
+		return orderAutomata.computeIfAbsent(orderExpression, o -> OrderAutomaton.of(o.getExp()));
+	}
+
+	/**
+	 * Returns the compiled evaluator of an expression of this rule. Expressions are usually compiled when loading the MARK model, otherwise they are compiled
+	 * on first use.
+	 *
+	 * @param expression the "when" or "ensure" expression of this rule
+	 * @return the compiled expression
+	 */
+	@NonNull
+	public CompiledExpression getCompiledExpression(@NonNull Expression expression) {
+		return compiledExpressions.computeIfAbsent(expression, CompiledExpression::compile);
+	}
+
+	/**
+	 * Returns the compiled automata of all order expressions of this rule.
+	 */
+	@NonNull
+	public Map<OrderExpression, OrderAutomaton> getOrderAutomata() {
+		return Collections.unmodifiableMap(orderAutomata);
+	}
 }
@@ -1,16 +1,21 @@
 
 package de.fraunhofer.aisec.markmodel;
 
+import de.fraunhofer.aisec.analysis.markevaluation.ExpressionEvaluationException;
 import de.fraunhofer.aisec.analysis.markevaluation.ExpressionHelper;
 import de.fraunhofer.aisec.analysis.structures.Pair;
 import de.fraunhofer.aisec.mark.markDsl.EntityDeclaration;
 import de.fraunhofer.aisec.mark.markDsl.EntityStatement;
+import de.fraunhofer.aisec.mark.markDsl.Expression;
 import de.fraunhofer.aisec.mark.markDsl.MarkModel;
 import de.fraunhofer.aisec.mark.markDsl.OpDeclaration;
+import de.fraunhofer.aisec.mark.markDsl.OrderExpression;
 import de.fraunhofer.aisec.mark.markDsl.RuleDeclaration;
 import de.fraunhofer.aisec.mark.markDsl.VariableDeclaration;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
 import org.python.jline.internal.Log;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -80,6 +85,8 @@ public class MarkModelLoader {
 			final HashSet<String> entityRefs = new HashSet<>();
 			final HashSet<String> functionRefs = new HashSet<>();
 			collectEntityReferences(rule, entityRefs, functionRefs);
+			compileOrderExpressions(rule);
+			compileExpressions(rule);
 		}
 
 		return m;
@@ -95,6 +102,52 @@ public class MarkModelLoader {
 		}
 	}
 
+	/**
+	 * Compiles all order expressions of a rule into automata, so they do not need to be created during evaluation.
+	 *
+	 * @param rule
+	 */
+	private static void compileOrderExpressions(MRule rule) {
+		if (rule.getStatement() == null || rule.getStatement().getEnsure() == null) {
+			return;
+		}
+		Expression ensure = rule.getStatement().getEnsure().getExp();
+		if (ensure instanceof OrderExpression) {
+			rule.getOrderAutomaton((OrderExpression) ensure);
+			return;
+		}
+		TreeIterator<EObject> it = ensure.eAllContents();
+		while (it.hasNext()) {
+			EObject eObj = it.next();
+			if (eObj instanceof OrderExpression) {
+				rule.getOrderAutomaton((OrderExpression) eObj);
+			}
+		}
+	}
+
+	/**
+	 * Compiles the "when" and "ensure" expressions of a rule, so they do not need to be interpreted during evaluation.
+	 *
+	 * @param rule
+	 */
+	private static void compileExpressions(MRule rule) {
+		if (rule.getStatement() == null) {
+			return;
+		}
+		try {
+			if (rule.getStatement().getCond() != null) {
+				rule.getCompiledExpression(rule.getStatement().getCond().getExp());
+			}
+			if (rule.getStatement().getEnsure() != null) {
+				rule.getCompiledExpression(rule.getStatement().getEnsure().getExp());
+			}
+		}
+		catch (ExpressionEvaluationException e) {
+			// reported again when the rule is evaluated
+			log.warn("Could not compile rule {}: {}", rule.getName(), e.getMessage());
+		}
+	}
+
 	@NonNull
 	public Mark load(Map<String, MarkModel> markModels) {
 		return load(markModels, null);
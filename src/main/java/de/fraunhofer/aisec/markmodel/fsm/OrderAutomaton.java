@@ -0,0 +1,233 @@
+
+package de.fraunhofer.aisec.markmodel.fsm;
+
+import de.fraunhofer.aisec.mark.markDsl.Expression;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable, minimal deterministic automaton of a MARK order expression.
+ * <p>
+ * States are numbered from 0, transitions are stored in a table indexed by state and op. The automaton is created from the {@link FSM} of the expression by
+ * subset construction: a state corresponds to the set of FSM nodes a base may be at, and an op leads to the successors of all nodes of that op. States are
+ * then minimized, keeping states apart if they differ in the FSM nodes reported in findings (i.e., the ops expected next).
+ * <p>
+ * The automaton is thus not minimal in the language-theoretic sense: minimization starts from a partition by the names of these nodes rather than by
+ * accepting and non-accepting states, so states accepting the same sequences of ops remain separate if they report different nodes. This keeps the messages
+ * of findings identical to those of the FSM.
+ */
+public class OrderAutomaton {
+
+	/** Returned by {@link #next(int, String)} if the op is not allowed in a state. */
+	public static final int NONE = -1;
+
+	private final int start;
+
+	/** Op names, by op index. */
+	private final Map<String, Integer> opIndex;
+
+	/** transitions[state][op index], {@link #NONE} if the op is not allowed. */
+	private final int[][] transitions;
+
+	private final boolean[] end;
+
+	/** Names of the FSM nodes of a state, sorted. */
+	private final List<List<String>> expected;
+
+	/** Names of the FSM nodes of a state which are not END, sorted and without duplicates. */
+	private final List<List<String>> unterminated;
+
+	private OrderAutomaton(int start, Map<String, Integer> opIndex, int[][] transitions, boolean[] end, List<List<String>> expected,
+			List<List<String>> unterminated) {
+		this.start = start;
+		this.opIndex = opIndex;
+		this.transitions = transitions;
+		this.end = end;
+		this.expected = expected;
+		this.unterminated = unterminated;
+	}
+
+	/**
+	 * Compiles an order expression into a minimal deterministic automaton.
+	 *
+	 * @param orderExp the inner expression of an order expression
+	 * @return the compiled automaton
+	 */
+	@NonNull
+	public static OrderAutomaton of(@NonNull Expression orderExp) {
+		FSM fsm = new FSM();
+		fsm.sequenceToFSM(orderExp);
+
+		// collect ops of all reachable nodes
+		Map<String, Integer> opIndex = new HashMap<>();
+		Set<Node> seen = new HashSet<>();
+		Deque<Node> worklist = new ArrayDeque<>(fsm.getStart());
+		while (!worklist.isEmpty()) {
+			Node n = worklist.pop();
+			if (seen.add(n)) {
+				opIndex.putIfAbsent(n.getOp(), opIndex.size());
+				worklist.addAll(n.getSuccessors());
+			}
+		}
+		String[] ops = new String[opIndex.size()];
+		opIndex.forEach((op, i) -> ops[i] = op);
+
+		// subset construction
+		Map<Set<Node>, Integer> subsetIds = new HashMap<>();
+		List<Set<Node>> subsets = new ArrayList<>();
+		List<int[]> rows = new ArrayList<>();
+		Set<Node> startSet = new HashSet<>(fsm.getStart());
+		subsetIds.put(startSet, 0);
+		subsets.add(startSet);
+		for (int s = 0; s < subsets.size(); s++) {
+			int[] row = new int[ops.length];
+			for (int o = 0; o < ops.length; o++) {
+				Set<Node> next = new HashSet<>();
+				for (Node n : subsets.get(s)) {
+					if (ops[o].equals(n.getOp())) {
+						next.addAll(n.getSuccessors());
+					}
+				}
+				if (next.isEmpty()) {
+					row[o] = NONE;
+				} else {
+					Integer id = subsetIds.get(next);
+					if (id == null) {
+						id = subsets.size();
+						subsetIds.put(next, id);
+						subsets.add(next);
+					}
+					row[o] = id;
+				}
+			}
+			rows.add(row);
+		}
+
+		List<List<String>> expected = new ArrayList<>();
+		List<List<String>> unterminated = new ArrayList<>();
+		boolean[] end = new boolean[subsets.size()];
+		for (int s = 0; s < subsets.size(); s++) {
+			Set<Node> nodes = subsets.get(s);
+			expected.add(nodes.stream().map(Node::getName).sorted().collect(Collectors.toUnmodifiableList()));
+			unterminated.add(List.copyOf(nodes.stream().filter(n -> !n.isEnd()).map(Node::getName).collect(Collectors.toCollection(TreeSet::new))));
+			end[s] = nodes.stream().anyMatch(Node::isEnd);
+		}
+
+		return minimize(opIndex, rows.toArray(new int[0][]), end, expected, unterminated);
+	}
+
+	/**
+	 * Merges equivalent states (Moore's algorithm). States are only equivalent if they have the same transitions and report the same expected ops, so the
+	 * result may contain more states than the minimal automaton of the language.
+	 */
+	private static OrderAutomaton minimize(Map<String, Integer> opIndex, int[][] transitions, boolean[] end, List<List<String>> expected,
+			List<List<String>> unterminated) {
+		int numStates = transitions.length;
+
+		// initial partition by observable output
+		int[] partition = new int[numStates];
+		Map<List<Object>, Integer> classes = new HashMap<>();
+		for (int s = 0; s < numStates; s++) {
+			List<Object> signature = List.of(end[s], expected.get(s), unterminated.get(s));
+			partition[s] = classes.computeIfAbsent(signature, k -> classes.size());
+		}
+
+		// refine until stable
+		int numClasses = classes.size();
+		while (true) {
+			Map<List<Integer>, Integer> refined = new HashMap<>();
+			int[] next = new int[numStates];
+			for (int s = 0; s < numStates; s++) {
+				List<Integer> signature = new ArrayList<>();
+				signature.add(partition[s]);
+				for (int target : transitions[s]) {
+					signature.add(target == NONE ? NONE : partition[target]);
+				}
+				next[s] = refined.computeIfAbsent(signature, k -> refined.size());
+			}
+			partition = next;
+			if (refined.size() == numClasses) {
+				break;
+			}
+			numClasses = refined.size();
+		}
+
+		final int[] classOf = partition;
+		int[][] minTransitions = new int[numClasses][];
+		boolean[] minEnd = new boolean[numClasses];
+		List<List<String>> minExpected = new ArrayList<>(Collections.nCopies(numClasses, null));
+		List<List<String>> minUnterminated = new ArrayList<>(Collections.nCopies(numClasses, null));
+		for (int s = 0; s < numStates; s++) {
+			int c = classOf[s];
+			if (minTransitions[c] != null) {
+				continue;
+			}
+			minTransitions[c] = Arrays.stream(transitions[s]).map(t -> t == NONE ? NONE : classOf[t]).toArray();
+			minEnd[c] = end[s];
+			minExpected.set(c, expected.get(s));
+			minUnterminated.set(c, unterminated.get(s));
+		}
+
+		return new OrderAutomaton(classOf[0], Collections.unmodifiableMap(opIndex), minTransitions, minEnd, Collections.unmodifiableList(minExpected),
+			Collections.unmodifiableList(minUnterminated));
+	}
+
+	/**
+	 * Returns the state of a base which has not been used before.
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	public int getNumStates() {
+		return transitions.length;
+	}
+
+	/**
+	 * Returns the state after calling {@code op} in {@code state}.
+	 *
+	 * @return the next state, {@link #NONE} if {@code op} is not allowed in {@code state}
+	 */
+	public int next(int state, @NonNull String op) {
+		Integer o = opIndex.get(op);
+		if (o == null) {
+			return NONE;
+		}
+		return transitions[state][o];
+	}
+
+	/**
+	 * Returns true if the order may end in this state.
+	 */
+	public boolean isEnd(int state) {
+		return end[state];
+	}
+
+	/**
+	 * Returns the (sorted) names of the ops which may follow in this state, including END.
+	 */
+	@NonNull
+	public List<String> getExpected(int state) {
+		return expected.get(state);
+	}
+
+	/**
+	 * Returns the (sorted, distinct) names of the ops which may follow in this state, excluding END.
+	 */
+	@NonNull
+	public List<String> getUnterminated(int state) {
+		return unterminated.get(state);
+	}
+}
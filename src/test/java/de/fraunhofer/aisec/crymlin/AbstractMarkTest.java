@@ -4,6 +4,7 @@ package de.fraunhofer.aisec.crymlin;
 import de.fraunhofer.aisec.analysis.server.AnalysisServer;
 import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
 import de.fraunhofer.aisec.analysis.structures.Finding;
+import de.fraunhofer.aisec.analysis.structures.InstancePairing;
 import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
 import de.fraunhofer.aisec.analysis.structures.TypestateMode;
 import de.fraunhofer.aisec.cpg.TranslationConfiguration;
@@ -38,6 +39,14 @@ public abstract class AbstractMarkTest {
 	protected AnalysisServer server;
 	protected AnalysisContext ctx;
 	protected TypestateMode tsMode = TypestateMode.NFA;
+	protected int ruleThreads = 1;
+	protected int contextThreads = 1;
+	protected long maxContexts = 0;
+	protected long maxOrderSteps = 0;
+	protected InstancePairing pairing = InstancePairing.ALL;
+	protected int wpdsThreads = 1;
+	protected boolean combineOrderRules = false;
+	protected int orderThreads = 1;
 
 	Set<Finding> performTest(String sourceFileName) throws Exception {
 		return performTest(sourceFileName, null);
@@ -95,6 +104,14 @@ public abstract class AbstractMarkTest {
 							.typestateAnalysis(tsMode)
 							.markFiles(markDirPath)
 							.disableOverflow(true)
+							.ruleEvaluationThreads(ruleThreads)
+							.contextEvaluationThreads(contextThreads)
+							.maxContextsPerRule(maxContexts)
+							.maxOrderStepsPerRule(maxOrderSteps)
+							.instancePairing(pairing)
+							.wpdsThreads(wpdsThreads)
+							.combineOrderRules(combineOrderRules)
+							.orderEvaluationThreads(orderThreads)
 							.build())
 				.build();
 		server.start();
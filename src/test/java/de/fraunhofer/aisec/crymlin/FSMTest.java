@@ -9,12 +9,14 @@ import de.fraunhofer.aisec.markmodel.Mark;
 import de.fraunhofer.aisec.markmodel.MarkModelLoader;
 import de.fraunhofer.aisec.markmodel.fsm.FSM;
 import de.fraunhofer.aisec.markmodel.fsm.Node;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import java.io.File;
 import java.net.URL;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -162,6 +164,35 @@ class FSMTest {
 			fsm.toString());
 	}
 
+	@Test
+	void testOrderAutomaton() {
+		MRule rule = mark.getRules().stream().filter(x -> x.getName().equals("UseOfBotan_CipherMode")).findFirst().orElseThrow();
+		OrderExpression inner = (OrderExpression) rule.getStatement().getEnsure().getExp();
+		OrderAutomaton automaton = rule.getOrderAutomaton(inner);
+
+		// compiled once per order expression
+		assertSame(automaton, rule.getOrderAutomaton(inner));
+
+		int state = automaton.getStart();
+		assertEquals(List.of("cm.create"), automaton.getExpected(state));
+		assertFalse(automaton.isEnd(state));
+		assertEquals(OrderAutomaton.NONE, automaton.next(state, "init"));
+
+		for (String op : List.of("create", "init", "start")) {
+			state = automaton.next(state, op);
+			assertNotEquals(OrderAutomaton.NONE, state);
+		}
+		assertFalse(automaton.isEnd(state));
+		assertEquals(List.of("cm.finish", "cm.process"), automaton.getUnterminated(state));
+
+		for (String op : List.of("process", "finish")) {
+			state = automaton.next(state, op);
+			assertNotEquals(OrderAutomaton.NONE, state);
+		}
+		assertTrue(automaton.isEnd(state));
+		assertNotEquals(OrderAutomaton.NONE, automaton.next(state, "reset"));
+	}
+
 	@Test
 	void testRegexToFsm() {
 		FSM fsm = new FSM();
@@ -2,7 +2,10 @@
 package de.fraunhofer.aisec.crymlin;
 
 import de.fraunhofer.aisec.analysis.server.AnalysisServer;
+import de.fraunhofer.aisec.analysis.structures.Finding;
 import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
+import de.fraunhofer.aisec.cpg.sarif.Region;
+import de.fraunhofer.aisec.crymlin.connectors.lsp.CpgDocumentService;
 import org.eclipse.lsp4j.*;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.junit.jupiter.api.BeforeAll;
@@ -11,7 +14,11 @@ import org.junit.jupiter.api.Test;
 import java.io.File;
 import java.net.URL;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -127,6 +134,20 @@ class LSPTest {
 		server.getLSP().getTextDocumentService().didOpen(params);
 	}
 
+	@Test
+	void testInconclusiveFindings() {
+		Finding located = Finding.newInconclusiveFinding("Rule A inconclusive: timeout", "A", Paths.get(parentFolder, "order.cpp").toUri(),
+			List.of(new Region(3, 4, 3, 20)));
+		Finding unlocated = Finding.newInconclusiveFinding("Rule B inconclusive: timeout", "B");
+
+		List<Diagnostic> diagnostics = CpgDocumentService.findingsToDiagnostics(Set.of(located, unlocated), Map.of());
+
+		// both are shown as warnings, the one without a region at the start of the file
+		assertEquals(2, diagnostics.size());
+		assertTrue(diagnostics.stream().allMatch(d -> d.getSeverity() == DiagnosticSeverity.Warning));
+		assertEquals(Set.of(0, 3), diagnostics.stream().map(d -> d.getRange().getStart().getLine()).collect(Collectors.toSet()));
+	}
+
 	@Test
 	void testShutdown() {
 		CompletableFuture<Object> shutdownFuture = server.getLSP().shutdown();
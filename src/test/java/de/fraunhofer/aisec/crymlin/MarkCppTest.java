@@ -2,6 +2,7 @@
 package de.fraunhofer.aisec.crymlin;
 
 import de.fraunhofer.aisec.analysis.structures.Finding;
+import de.fraunhofer.aisec.analysis.structures.InstancePairing;
 import de.fraunhofer.aisec.crymlin.connectors.db.OverflowDatabase;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
@@ -9,6 +10,7 @@ import org.junit.jupiter.api.Test;
 
 import java.util.Set;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assumptions.assumeFalse;
 
@@ -47,6 +49,50 @@ public class MarkCppTest extends AbstractMarkTest {
 			"line [17, 18]: Rule Global violated");
 	}
 
+	@Test
+	public void functioncallLogicalShortCircuit() throws Exception {
+		// t.foo == 11 decides the contexts of line 17, t.foo2 is resolved and copies the contexts before the right side is skipped for them
+		Set<Finding> findings = performTest("mark_cpp/functioncall_complex.cpp", "mark_cpp/functioncall_logical.mark");
+		expected(findings,
+			"line [11, 12]: Rule GlobalOr verified",
+			"line [12, 17]: Rule GlobalOr verified",
+			"line [17, 18]: Rule GlobalOr verified",
+			"line [11, 18]: Rule GlobalOr violated");
+	}
+
+	@Test
+	public void functioncallComplexParallel() throws Exception {
+		ruleThreads = 4;
+		contextThreads = 4;
+		Set<Finding> findings = performTest("mark_cpp/functioncall_complex.cpp", "mark_cpp/functioncall_complex.mark");
+		expected(findings,
+			"line [11, 12]: Rule Local verified",
+			"line [17, 18]: Rule Local violated",
+
+			"line [11, 12]: Rule Global verified",
+
+			"line [12, 17]: Rule Global violated",
+			"line [11, 18]: Rule Global violated",
+			"line [17, 18]: Rule Global violated");
+	}
+
+	@Test
+	public void functioncallComplexPairedByFile() throws Exception {
+		// all instances are in the same file, so pairing by file must not skip any context
+		pairing = InstancePairing.FILE;
+		Set<Finding> findings = performTest("mark_cpp/functioncall_complex.cpp", "mark_cpp/functioncall_complex.mark");
+		expected(findings,
+			"line [11, 12]: Rule Local verified",
+			"line [17, 18]: Rule Local violated",
+
+			"line [11, 12]: Rule Global verified",
+
+			"line [12, 17]: Rule Global violated",
+			"line [11, 18]: Rule Global violated",
+			"line [17, 18]: Rule Global violated");
+		assertEquals(0, ctx.getSkippedContexts());
+	}
+
 	@Test
 	@Disabled // requires interprocedural context-insensitive dataflow analysis for constant resolution.
 	public void _01_assign() throws Exception {
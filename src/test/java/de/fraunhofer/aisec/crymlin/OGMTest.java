@@ -30,10 +30,13 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -137,6 +140,32 @@ public class OGMTest {
 	}
 
 	/** Test proper edges around an <code>IfStatement</code> */
+	@Test
+	void parallelVerticesToNodes() {
+		var db = result.getDatabase();
+
+		// Convert all vertices concurrently, as parallel rule evaluation does ...
+		List<Vertex> vertices = Lists.newArrayList(db.getGraph().vertices());
+		List<Node> nodes = vertices.parallelStream().map(db::vertexToNode).collect(Collectors.toList());
+
+		for (int i = 0; i < vertices.size(); i++) {
+			assertNotNull(nodes.get(i));
+			assertEquals(vertices.get(i).id(), nodes.get(i).getId());
+
+			// ... and expect the cache to hand out the same node afterwards.
+			assertSame(nodes.get(i), db.vertexToNode(vertices.get(i)));
+		}
+
+		// Neighbours are linked to the very same nodes, whichever thread converted them.
+		Map<Long, Node> byId = nodes.stream().collect(Collectors.toMap(Node::getId, n -> n));
+		for (Node n : nodes) {
+			if (n instanceof IfStatement && ((IfStatement) n).getCondition() != null) {
+				Node condition = ((IfStatement) n).getCondition();
+				assertSame(byId.get(condition.getId()), condition);
+			}
+		}
+	}
+
 	@Test
 	void testIfGraph() {
 		var db = result.getDatabase();
@@ -1,10 +1,22 @@
 
 package de.fraunhofer.aisec.crymlin;
 
+import de.fraunhofer.aisec.analysis.markevaluation.CombinedOrderEvaluator;
+import de.fraunhofer.aisec.analysis.structures.AnalysisContext;
 import de.fraunhofer.aisec.analysis.structures.Finding;
+import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
+import de.fraunhofer.aisec.analysis.structures.ServerConfiguration;
+import de.fraunhofer.aisec.analysis.structures.TypestateMode;
+import de.fraunhofer.aisec.cpg.graph.declarations.MethodDeclaration;
+import de.fraunhofer.aisec.markmodel.MRule;
+import de.fraunhofer.aisec.markmodel.fsm.OrderAutomaton;
+import org.apache.tinkerpop.gremlin.structure.Vertex;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -28,6 +40,216 @@ class OrderTest extends AbstractMarkTest {
 		check(findings);
 	}
 
+	@Test
+	void checkJavaOrderInLogical() throws Exception {
+		// the left side decides the result, but the order on the right side is still evaluated and reports its violations
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order_logical.mark");
+
+		assertEquals(7, results.stream().filter(f -> f.toString().contains("Violation against Order")).count());
+	}
+
+	@Test
+	void checkCppAlias() throws Exception {
+		Set<Finding> results = performTest("unittests/orderAlias.cpp", "unittests/order2.mark");
+
+		// p2 and p3 are one instance, and the calls on both are tracked as calls on one object
+		assertEquals(0, results.stream().filter(Finding::isProblem).count());
+		assertEquals(1, results.stream().filter(f -> f.toString().contains("Rule UseOfBotan2_CipherMode verified")).count());
+		assertEquals(1, ctx.getAliasClasses().getMerged());
+	}
+
+	@Test
+	void checkJavaFixpoint() throws Exception {
+		tsMode = TypestateMode.FIXPOINT;
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		Set<String> findings = results.stream().map(f -> f.toString()).collect(Collectors.toSet());
+		check(findings);
+	}
+
+	@Test
+	void checkCppFixpoint() throws Exception {
+		tsMode = TypestateMode.FIXPOINT;
+		Set<Finding> results = performTest("unittests/order.cpp", "unittests/order.mark");
+
+		Set<String> findings = results.stream().map(f -> f.toString()).collect(Collectors.toSet());
+		check(findings);
+	}
+
+	@Test
+	void checkJavaSummary() throws Exception {
+		tsMode = TypestateMode.SUMMARY;
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		Set<String> findings = results.stream().map(f -> f.toString()).collect(Collectors.toSet());
+		check(findings);
+	}
+
+	@Test
+	void checkCppInterprocSummary() throws Exception {
+		tsMode = TypestateMode.SUMMARY;
+		Set<Finding> results = performTest("unittests/orderInterprocOk1.cpp", "unittests/order2.mark");
+
+		// start() is called in someFunction, which is applied at its call site
+		assertEquals(0, results.stream().filter(Finding::isProblem).count());
+		assertTrue(ctx.getOrderSummaries().size() > 0);
+	}
+
+	@Test
+	void checkCppInterprocSummaryRecursive() throws Exception {
+		tsMode = TypestateMode.SUMMARY;
+		Set<Finding> results = performTest("unittests/orderInterprocRecursive.cpp", "unittests/order2.mark");
+		Set<String> findings = results.stream().filter(Finding::isProblem).map(Finding::toString).collect(Collectors.toSet());
+
+		// the recursive call is not followed, the base keeps its state there. So p2 may not have been started, which over-approximates the recursion
+		assertTrue(findings.stream().anyMatch(f -> f.startsWith("line 20: Violation against Order: p2.process();")));
+		// the violation after the call is found on all paths through the truncated summary
+		assertTrue(findings.stream().anyMatch(f -> f.startsWith("line 34: Violation against Order: p3.create();")));
+		assertTrue(findings.stream().noneMatch(f -> f.contains("p2.finish()")));
+
+		// the summary of startRecursive does not follow its recursive call, so it must not be shared with other contexts
+		assertEquals(0, ctx.getOrderSummaries().size());
+	}
+
+	@Test
+	void checkJavaCombined() throws Exception {
+		tsMode = TypestateMode.FIXPOINT;
+		combineOrderRules = true;
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		Set<String> findings = results.stream().map(f -> f.toString()).collect(Collectors.toSet());
+		check(findings);
+		// one combined pass per function containing an instance
+		assertFalse(ctx.getFunctionOrderResults().isEmpty());
+	}
+
+	@Test
+	void checkJavaCombinedStepLimit() throws Exception {
+		tsMode = TypestateMode.FIXPOINT;
+		combineOrderRules = true;
+		maxOrderSteps = 1;
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		// the combined pass is charged to its own budget, the rules fall back to their own evaluation and budget
+		assertTrue(ctx.getCombinedOrderBudget().isExceeded());
+		assertTrue(ctx.getCombinedOrderBudget().getOrderSteps() > 1);
+		assertTrue(ctx.getInconclusiveRules().contains("UseOfBotan_CipherMode"));
+		assertTrue(results.stream().anyMatch(f -> f.isInconclusive() && f.getLogMsg().contains("UseOfBotan_CipherMode")));
+	}
+
+	@Test
+	void checkJavaCombinedCancelled() throws Exception {
+		tsMode = TypestateMode.FIXPOINT;
+		combineOrderRules = true;
+		performTest("unittests/order.java", "unittests/order.mark");
+
+		// run the combined pass again on the persisted graph, as part of an analysis which has been cancelled
+		AnalysisContext cancelled = new AnalysisContext(ctx.getSourceLocations(), ctx.getDatabase());
+		cancelled.getCancellationToken().cancel();
+		Vertex function = ctx.getDatabase().getGraph().traversal().V().hasLabel(MethodDeclaration.class.getSimpleName()).has("name", "ok").next();
+		CombinedPass pass = new CombinedPass(server.getMarkModel().getRules());
+
+		assertThrows(CancellationException.class, () -> pass.run(function, cancelled));
+	}
+
+	@Test
+	void checkJavaParallel() throws Exception {
+		orderThreads = 4;
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		Set<String> findings = results.stream().map(f -> f.toString()).collect(Collectors.toSet());
+		check(findings);
+		// the instances were evaluated per function before the contexts, and released after the rule
+		assertTrue(ctx.getInstanceOrderResults().getEvaluated() > 0);
+		assertEquals(0, ctx.getInstanceOrderResults().size());
+	}
+
+	@Test
+	void checkJavaParallelSummary() throws Exception {
+		tsMode = TypestateMode.SUMMARY;
+		orderThreads = 4;
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		Set<String> findings = results.stream().map(f -> f.toString()).collect(Collectors.toSet());
+		check(findings);
+		// interprocedural modes evaluate orders with their contexts, not per function
+		assertEquals(0, ctx.getInstanceOrderResults().getEvaluated());
+	}
+
+	@Test
+	void checkJavaParallelContextLimit() throws Exception {
+		orderThreads = 4;
+		maxContexts = 2;
+		performTest("unittests/order.java", "unittests/order.mark");
+
+		// only the instances of the contexts within the limit are evaluated
+		assertTrue(ctx.getRulesExceedingContextLimit().contains("UseOfBotan_CipherMode"));
+		assertTrue(ctx.getInstanceOrderResults().getEvaluated() > 0);
+		assertTrue(ctx.getInstanceOrderResults().getEvaluated() <= 2);
+	}
+
+	@Test
+	void checkNoContextLimitByDefault() throws Exception {
+		assertEquals(0, ServerConfiguration.builder().build().maxContextsPerRule);
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		// without a limit, all contexts are evaluated and no rule is reported as inconclusive
+		assertTrue(ctx.getRulesExceedingContextLimit().isEmpty());
+		assertTrue(ctx.getInconclusiveRules().isEmpty());
+		assertTrue(results.stream().noneMatch(f -> f.toString().contains("inconclusive")));
+		assertEquals(7, results.stream().filter(f -> f.toString().contains("Violation against Order")).count());
+	}
+
+	@Test
+	void checkContextLimit() throws Exception {
+		maxContexts = 2;
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		assertTrue(ctx.getRulesExceedingContextLimit().contains("UseOfBotan_CipherMode"));
+		assertTrue(results.stream().filter(f -> f.toString().contains("Violation against Order")).count() < 7);
+	}
+
+	@Test
+	void checkOrderStepLimit() throws Exception {
+		maxOrderSteps = 1;
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		// the rule is reported as inconclusive instead of aborting the analysis, located at a call of an op of the rule
+		assertTrue(ctx.getInconclusiveRules().contains("UseOfBotan_CipherMode"));
+		assertTrue(results.stream().anyMatch(f -> f.isInconclusive() && f.getLogMsg().contains("UseOfBotan_CipherMode") && !f.getRegions().isEmpty()));
+	}
+
+	@Test
+	void checkOrderStepLimitInChunks() throws Exception {
+		contextThreads = 4;
+		maxOrderSteps = 1;
+		Set<Finding> results = performTest("unittests/order.java", "unittests/order.mark");
+
+		// a chunk exceeding the budget does not abort the other chunks or the analysis
+		assertTrue(ctx.getInconclusiveRules().contains("UseOfBotan_CipherMode"));
+		assertTrue(results.stream().anyMatch(f -> f.isInconclusive() && f.getLogMsg().contains("UseOfBotan_CipherMode")));
+	}
+
+	/**
+	 * Gives access to the combined pass over a single function.
+	 */
+	private static class CombinedPass extends CombinedOrderEvaluator {
+
+		private final OrderAutomaton automaton;
+
+		CombinedPass(List<MRule> rules) {
+			super(rules, rules.get(0), new MarkContextHolder());
+			this.automaton = rules.stream()
+					.flatMap(r -> r.getOrderAutomata().values().stream())
+					.findFirst()
+					.orElseThrow();
+		}
+
+		boolean run(Vertex function, AnalysisContext ctx) {
+			return evaluateFunction(function, Map.of(), Set.of(), automaton, ctx);
+		}
+	}
+
 	private void check(Set<String> findings) {
 
 		assertTrue(
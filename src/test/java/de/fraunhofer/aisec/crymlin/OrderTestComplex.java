@@ -2,6 +2,7 @@
 package de.fraunhofer.aisec.crymlin;
 
 import de.fraunhofer.aisec.analysis.structures.Finding;
+import de.fraunhofer.aisec.analysis.structures.TypestateMode;
 import de.fraunhofer.aisec.crymlin.connectors.db.OverflowDatabase;
 import de.fraunhofer.aisec.crymlin.connectors.db.TraversalConnection;
 import de.fraunhofer.aisec.crymlin.dsl.CrymlinTraversalSource;
@@ -51,4 +52,16 @@ class OrderTestComplex extends AbstractMarkTest {
 	void testCpp() throws Exception {
 		performTestAndCheck("unittests/order2.cpp");
 	}
+
+	@Test
+	void testJavaFixpoint() throws Exception {
+		tsMode = TypestateMode.FIXPOINT;
+		performTestAndCheck("unittests/order2.java");
+	}
+
+	@Test
+	void testCppFixpoint() throws Exception {
+		tsMode = TypestateMode.FIXPOINT;
+		performTestAndCheck("unittests/order2.cpp");
+	}
 }
@@ -87,6 +87,11 @@ class RuleEnsureSemanticsTest {
 
 				assertEquals(1, result.size());
 
+				// the expression compiled when loading the model yields the same result
+				Map<Integer, MarkIntermediateResult> compiledResult = ee.evaluate(r.getCompiledExpression(ensureExpr));
+				assertEquals(ConstantValue.isError(result.get(0)), ConstantValue.isError(compiledResult.get(0)), r.getName());
+				assertEquals(ConstantValue.unbox(result.get(0)), ConstantValue.unbox(compiledResult.get(0)), r.getName());
+
 				allResults.put(r.getName(), result);
 			}
 		}
@@ -122,4 +127,10 @@ class RuleEnsureSemanticsTest {
 	void testGreaterThan() {
 		test("gt.mark");
 	}
+
+	@Test
+	void testLogical() {
+		// the right side of && and || is only evaluated if the left side does not decide the result
+		test("logical.mark");
+	}
 }
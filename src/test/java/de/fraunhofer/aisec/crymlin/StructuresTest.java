@@ -1,10 +1,36 @@
 
 package de.fraunhofer.aisec.crymlin;
 
+import de.fraunhofer.aisec.analysis.markevaluation.RulePlanner;
+import de.fraunhofer.aisec.analysis.structures.AliasClasses;
+import de.fraunhofer.aisec.analysis.structures.BuiltinResultCache;
+import de.fraunhofer.aisec.analysis.structures.CPGInstanceContext;
+import de.fraunhofer.aisec.analysis.structures.CPGVertexWithValue;
+import de.fraunhofer.aisec.analysis.structures.CancellationToken;
 import de.fraunhofer.aisec.analysis.structures.ConstantValue;
+import de.fraunhofer.aisec.analysis.structures.ContextResults;
 import de.fraunhofer.aisec.analysis.structures.ErrorValue;
+import de.fraunhofer.aisec.analysis.structures.ListValue;
+import de.fraunhofer.aisec.analysis.structures.MarkContext;
+import de.fraunhofer.aisec.analysis.structures.MarkContextHolder;
+import de.fraunhofer.aisec.analysis.structures.MarkIntermediateResult;
+import de.fraunhofer.aisec.analysis.structures.OperandResolutionCache;
+import de.fraunhofer.aisec.analysis.structures.Pair;
+import de.fraunhofer.aisec.analysis.structures.RuleBudget;
+import de.fraunhofer.aisec.analysis.structures.RuleBudgetExceededException;
+import de.fraunhofer.aisec.markmodel.MEntity;
+import de.fraunhofer.aisec.markmodel.MRule;
 import org.junit.jupiter.api.Test;
 
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class StructuresTest {
@@ -26,4 +52,407 @@ public class StructuresTest {
 		assertNotEquals(oneCV, new Object());
 	}
 
+	@Test
+	public void testOperandResolutionCache() {
+		OperandResolutionCache cache = new OperandResolutionCache();
+		AtomicInteger resolverCalls = new AtomicInteger();
+
+		Map<Long, List<CPGVertexWithValue>> first = cache.getOrResolve("Cipher", "algorithm", () -> {
+			resolverCalls.incrementAndGet();
+			return List.of(new CPGVertexWithValue(null, ConstantValue.of("AES")));
+		});
+		Map<Long, List<CPGVertexWithValue>> second = cache.getOrResolve("Cipher", "algorithm", () -> {
+			resolverCalls.incrementAndGet();
+			return List.of();
+		});
+
+		assertEquals(1, resolverCalls.get());
+		assertSame(first, second);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		// handed out values must not share responsible vertices
+		List<CPGVertexWithValue> a = OperandResolutionCache.getForInstance(first, OperandResolutionCache.NO_INSTANCE);
+		List<CPGVertexWithValue> b = OperandResolutionCache.getForInstance(first, OperandResolutionCache.NO_INSTANCE);
+		assertEquals(1, a.size());
+		assertEquals(a.get(0).getValue(), b.get(0).getValue());
+		assertNotSame(a.get(0).getValue(), b.get(0).getValue());
+		assertTrue(OperandResolutionCache.getForInstance(first, 42L).isEmpty());
+	}
+
+	@Test
+	public void testOperandResolutionCacheRelease() {
+		OperandResolutionCache cache = new OperandResolutionCache();
+		cache.getOrResolve("Foo", "size", List::of);
+		cache.getOrResolve("Foo", "key.size", List::of);
+		cache.getOrResolve("FooBar", "size", List::of);
+		cache.getOrResolve("Foo.Bar", "size", List::of);
+		assertEquals(4, cache.size());
+
+		// only the operands of the entity itself and of its nested entities are released, not the ones of entities sharing a prefix
+		cache.release("Foo");
+		assertEquals(2, cache.size());
+		AtomicInteger resolverCalls = new AtomicInteger();
+		cache.getOrResolve("FooBar", "size", () -> {
+			resolverCalls.incrementAndGet();
+			return List.of();
+		});
+		cache.getOrResolve("Foo.Bar", "size", () -> {
+			resolverCalls.incrementAndGet();
+			return List.of();
+		});
+		assertEquals(0, resolverCalls.get());
+	}
+
+	@Test
+	public void testBuiltinResultCache() {
+		BuiltinResultCache cache = new BuiltinResultCache();
+		AtomicInteger calls = new AtomicInteger();
+
+		ListValue args = new ListValue();
+		args.add(ConstantValue.of("AES"));
+		ListValue equalArgs = new ListValue();
+		equalArgs.add(ConstantValue.of("AES"));
+		ListValue otherArgs = new ListValue();
+		otherArgs.add(ConstantValue.of(1));
+
+		ConstantValue first = cache.getOrExecute("_pure", args, () -> ConstantValue.of(calls.incrementAndGet()));
+		ConstantValue second = cache.getOrExecute("_pure", equalArgs, () -> ConstantValue.of(calls.incrementAndGet()));
+		ConstantValue other = cache.getOrExecute("_pure", otherArgs, () -> ConstantValue.of(calls.incrementAndGet()));
+
+		assertEquals(2, calls.get());
+		assertEquals(first, second);
+		assertNotSame(first, second);
+		assertEquals(ConstantValue.of(2), other);
+		assertEquals(1, cache.getHits("_pure"));
+		assertEquals(2, cache.getMisses("_pure"));
+		assertEquals(Map.of("_pure", 1.0 / 3), cache.getHitRates());
+	}
+
+	@Test
+	public void testBuiltinResultCacheKeysOnValues() {
+		BuiltinResultCache cache = new BuiltinResultCache();
+		AtomicInteger calls = new AtomicInteger();
+
+		// distinct values with equal string representations must not share a result
+		ListValue args = new ListValue();
+		args.add(ConstantValue.of(opaqueNumber(1)));
+		ListValue otherArgs = new ListValue();
+		otherArgs.add(ConstantValue.of(opaqueNumber(2)));
+
+		ConstantValue first = cache.getOrExecute("_pure", args, () -> ConstantValue.of(calls.incrementAndGet()));
+		ConstantValue other = cache.getOrExecute("_pure", otherArgs, () -> ConstantValue.of(calls.incrementAndGet()));
+		ConstantValue again = cache.getOrExecute("_pure", args, () -> ConstantValue.of(calls.incrementAndGet()));
+
+		assertEquals(2, calls.get());
+		assertEquals(ConstantValue.of(1), first);
+		assertEquals(ConstantValue.of(2), other);
+		assertEquals(first, again);
+		assertEquals(2, cache.size());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getHits("_pure"));
+		cache.getOrExecute("_pure", args, () -> ConstantValue.of(calls.incrementAndGet()));
+		assertEquals(3, calls.get());
+	}
+
+	private static Number opaqueNumber(long value) {
+		return new Number() {
+			@Override
+			public int intValue() {
+				return (int) value;
+			}
+
+			@Override
+			public long longValue() {
+				return value;
+			}
+
+			@Override
+			public float floatValue() {
+				return value;
+			}
+
+			@Override
+			public double doubleValue() {
+				return value;
+			}
+
+			@Override
+			public boolean equals(Object o) {
+				return o instanceof Number && ((Number) o).longValue() == value;
+			}
+
+			@Override
+			public int hashCode() {
+				return Long.hashCode(value);
+			}
+
+			@Override
+			public String toString() {
+				return "opaque";
+			}
+		};
+	}
+
+	@Test
+	public void testMarkContextHolderChunks() {
+		MarkContextHolder holder = new MarkContextHolder();
+		for (int i = 0; i < 5; i++) {
+			holder.addInitialInstanceContext(new CPGInstanceContext());
+		}
+
+		List<MarkContextHolder> chunks = holder.split(2);
+		assertEquals(2, chunks.size());
+		assertEquals(3, chunks.get(0).getAllContexts().size());
+		assertEquals(2, chunks.get(1).getAllContexts().size());
+
+		// resolving an operand with two values copies each context, copies must get unique ids across all chunks
+		for (MarkContextHolder chunk : chunks) {
+			Map<Integer, List<CPGVertexWithValue>> values = new HashMap<>();
+			for (Integer id : chunk.getAllContexts().keySet()) {
+				values.put(id, List.of(new CPGVertexWithValue(null, ConstantValue.of(1)), new CPGVertexWithValue(null, ConstantValue.of(2))));
+			}
+			chunk.addResolvedOperands("t.foo", values);
+		}
+		chunks.get(1).removeContext(4);
+
+		holder.mergeChunks(chunks);
+		Set<Integer> ids = new HashSet<>(holder.getAllContexts().keySet());
+		assertEquals(9, ids.size());
+		assertFalse(ids.contains(4));
+		assertNotNull(holder.getResolvedOperand("t.foo"));
+	}
+
+	@Test
+	public void testMarkContextHolderHideContexts() {
+		MarkContextHolder holder = new MarkContextHolder();
+		for (int i = 0; i < 3; i++) {
+			holder.addInitialInstanceContext(new CPGInstanceContext());
+		}
+		MarkContextHolder.HiddenContexts hidden = holder.hideContexts(List.of(0, 2));
+		assertEquals(2, hidden.size());
+		assertEquals(Set.of(1), holder.getAllContexts().keySet());
+
+		// an operand resolved while contexts are hidden is not resolved for them
+		holder.addResolvedOperands("t.foo", Map.of(1, List.of(new CPGVertexWithValue(null, ConstantValue.of(1)))));
+		assertNotNull(holder.getResolvedOperand("t.foo"));
+
+		holder.restoreContexts(hidden);
+		assertEquals(Set.of(0, 1, 2), holder.getAllContexts().keySet());
+		assertNull(holder.getResolvedOperand("t.foo"));
+	}
+
+	@Test
+	public void testMarkContextCopies() {
+		MarkContextHolder holder = new MarkContextHolder();
+		holder.addInitialInstanceContext(new CPGInstanceContext());
+		holder.addResolvedOperands("t.foo", Map.of(0, List.of(new CPGVertexWithValue(null, ConstantValue.of(1)), new CPGVertexWithValue(null, ConstantValue.of(2)))));
+		holder.addResolvedOperands("t.bar", Map.of(
+			0, List.of(new CPGVertexWithValue(null, ConstantValue.of(3))),
+			1, List.of(new CPGVertexWithValue(null, ConstantValue.of(4)), new CPGVertexWithValue(null, ConstantValue.of(5)))));
+
+		// a copy of a copy remembers all contexts it was copied from
+		assertNull(holder.getCopyStack(0));
+		assertEquals(List.of(0), holder.getCopyStack(1));
+		assertEquals(List.of(0, 1), holder.getCopyStack(2));
+
+		// copies share the operands of their original, but changes are not visible to each other
+		assertEquals(ConstantValue.of(1), holder.getContext(0).getOperand("t.foo").getValue());
+		assertEquals(ConstantValue.of(2), holder.getContext(1).getOperand("t.foo").getValue());
+		assertEquals(ConstantValue.of(2), holder.getContext(2).getOperand("t.foo").getValue());
+		assertEquals(ConstantValue.of(4), holder.getContext(1).getOperand("t.bar").getValue());
+		assertEquals(ConstantValue.of(5), holder.getContext(2).getOperand("t.bar").getValue());
+		assertEquals(Set.of("t.foo", "t.bar"), holder.getContext(2).getOperandNames());
+
+		MarkContext context = holder.getContext(0);
+		for (int i = 0; i < 100; i++) {
+			context.setOperand("t.foo", new CPGVertexWithValue(null, ConstantValue.of(i)));
+		}
+		assertEquals(ConstantValue.of(99), context.getOperand("t.foo").getValue());
+		assertEquals(ConstantValue.of(3), context.getOperand("t.bar").getValue());
+		assertEquals(2, context.getOperandNames().size());
+
+		// the names are only collected again after a change
+		Set<String> names = context.getOperandNames();
+		assertSame(names, context.getOperandNames());
+		context.setOperand("t.baz", new CPGVertexWithValue(null, ConstantValue.of(6)));
+		assertNotSame(names, context.getOperandNames());
+		assertEquals(Set.of("t.foo", "t.bar", "t.baz"), context.getOperandNames());
+	}
+
+	@Test
+	public void testContextResults() {
+		ContextResults dense = new ContextResults();
+		Map<Integer, MarkIntermediateResult> expected = new HashMap<>();
+		for (int i = 10; i >= 0; i -= 2) {
+			dense.put(i, ConstantValue.of(i));
+			expected.put(i, ConstantValue.of(i));
+		}
+		dense.put(3, null);
+		expected.put(3, null);
+		assertEquals(expected, dense);
+		assertTrue(dense.containsKey(3));
+		assertNull(dense.get(3));
+		assertFalse(dense.containsKey(5));
+
+		// ids are visited in ascending order
+		StringBuilder order = new StringBuilder();
+		for (int id = dense.firstId(); id != ContextResults.NONE; id = dense.nextId(id)) {
+			order.append(id).append(' ');
+		}
+		assertEquals("0 2 3 4 6 8 10 ", order.toString());
+
+		Iterator<Map.Entry<Integer, MarkIntermediateResult>> it = dense.entrySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getKey() > 4) {
+				it.remove();
+			}
+		}
+		assertEquals(4, dense.size());
+		assertSame(dense, ContextResults.of(dense));
+
+		// sparse ids fall back to a map
+		ContextResults sparse = ContextResults.of(Map.of(1, ConstantValue.of(1), 1_000_000, ConstantValue.of(2)));
+		sparse.put(500, ConstantValue.of(3));
+		assertEquals(3, sparse.size());
+		assertEquals(500, sparse.nextId(1));
+		assertEquals(1_000_000, sparse.nextId(500));
+		assertEquals(ContextResults.NONE, sparse.nextId(1_000_000));
+		assertEquals(ConstantValue.of(2), sparse.get(1_000_000));
+	}
+
+	@Test
+	public void testContextResultsBooleans() {
+		ContextResults results = new ContextResults();
+		for (int i = 40; i >= 20; i--) {
+			results.put(i, ConstantValue.of(i % 3 == 0));
+		}
+		ErrorValue error = ErrorValue.newErrorValue("error");
+		results.put(25, error);
+		results.put(10, ConstantValue.of(true));
+
+		// plain booleans are stored as bits and materialized on access, other results are kept as they are
+		assertEquals(22, results.size());
+		assertEquals(ConstantValue.of(true), results.get(10));
+		assertSame(error, results.get(25));
+		for (int i = 20; i <= 40; i++) {
+			if (i != 25) {
+				assertEquals(ConstantValue.of(i % 3 == 0), results.get(i));
+			}
+		}
+		assertEquals(20, results.nextId(10));
+		assertEquals(ConstantValue.of(false), results.remove(20));
+		assertFalse(results.containsKey(20));
+		assertEquals(21, results.nextId(10));
+	}
+
+	@Test
+	public void testRulePlanner() {
+		MRule first = ruleUsing("First", "Cipher");
+		MRule second = ruleUsing("Second", "Key");
+		MRule third = ruleUsing("Third", "Cipher", "Key");
+		MRule fourth = ruleUsing("Fourth", "Cipher");
+
+		OperandResolutionCache operands = new OperandResolutionCache();
+		operands.getOrResolve("Cipher", "algorithm", List::of);
+		operands.getOrResolve("Key", "size", List::of);
+
+		// rules sharing entities are evaluated one after another
+		RulePlanner planner = new RulePlanner(List.of(first, second, third, fourth), operands);
+		assertEquals(List.of(first, third, second, fourth), planner.getOrder());
+
+		MEntity cipher = new MEntity();
+		cipher.setName("Cipher");
+		AtomicInteger searches = new AtomicInteger();
+		planner.getInstances(cipher, () -> {
+			searches.incrementAndGet();
+			return Set.of();
+		});
+		planner.getInstances(cipher, () -> {
+			searches.incrementAndGet();
+			return Set.of();
+		});
+		assertEquals(1, searches.get());
+		assertEquals(1, planner.getHits());
+
+		// instances and operands are released once all rules using an entity are done
+		planner.ruleDone(first);
+		planner.ruleDone(third);
+		assertEquals(1, planner.size());
+		assertEquals(2, operands.size());
+		planner.ruleDone(fourth);
+		assertEquals(0, planner.size());
+		assertEquals(1, operands.size());
+	}
+
+	@Test
+	public void testAliasClasses() {
+		AliasClasses aliases = new AliasClasses();
+		assertEquals(1L, aliases.getRepresentative(1L));
+		assertEquals(Set.of(1L), aliases.getMembers(1L));
+
+		aliases.union(1L, 2L);
+		aliases.union(3L, 4L);
+		aliases.union(4L, 2L);
+		assertEquals(3L, aliases.getRepresentative(1L));
+		assertEquals(3L, aliases.getRepresentative(2L));
+		assertEquals(Set.of(1L, 2L, 3L, 4L), aliases.getMembers(2L));
+		assertEquals(Set.of(5L), aliases.getMembers(5L));
+		assertEquals(3, aliases.getMerged());
+
+		// merging members of the same class does not change anything
+		aliases.union(1L, 4L);
+		assertEquals(3L, aliases.getRepresentative(4L));
+		assertEquals(3, aliases.getMerged());
+	}
+
+	@Test
+	public void testRuleBudget() {
+		RuleBudget unlimited = RuleBudget.unlimited("Rule");
+		for (int i = 0; i < 10_000; i++) {
+			unlimited.countOrderStep();
+		}
+		unlimited.check();
+		assertFalse(unlimited.isExceeded());
+
+		RuleBudget budget = new RuleBudget("Rule", 0, 2);
+		budget.countOrderStep();
+		budget.countOrderStep();
+		RuleBudgetExceededException e = assertThrows(RuleBudgetExceededException.class, budget::countOrderStep);
+		assertEquals("Rule", e.getRule());
+		assertTrue(budget.isExceeded());
+
+		// an exceeded budget stays exceeded, and keeps the first reason
+		budget.exceed("other reason");
+		assertThrows(RuleBudgetExceededException.class, budget::check);
+		assertEquals("more than 2 steps in order evaluation", budget.getReason());
+	}
+
+	@Test
+	public void testCancellation() {
+		CancellationToken token = new CancellationToken();
+		RuleBudget budget = RuleBudget.unlimited("Rule", token);
+		token.throwIfCancelled();
+		budget.check();
+
+		token.cancel();
+		assertTrue(token.isCancelled());
+		assertThrows(CancellationException.class, token::throwIfCancelled);
+		assertThrows(CancellationException.class, budget::check);
+
+		// cancellation stops the whole analysis, the rule itself is not inconclusive
+		assertFalse(budget.isExceeded());
+	}
+
+	private static MRule ruleUsing(String name, String... entities) {
+		MRule rule = new MRule(name);
+		Map<String, Pair<String, MEntity>> references = new HashMap<>();
+		for (int i = 0; i < entities.length; i++) {
+			references.put("e" + i, new Pair<>(entities[i], null));
+		}
+		rule.setEntityReferences(references);
+		return rule;
+	}
 }
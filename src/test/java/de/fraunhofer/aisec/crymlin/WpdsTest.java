@@ -5,6 +5,8 @@ import de.fraunhofer.aisec.analysis.structures.Finding;
 import de.fraunhofer.aisec.analysis.structures.TypestateMode;
 import de.fraunhofer.aisec.analysis.wpds.NFA;
 import de.fraunhofer.aisec.analysis.wpds.NFATransition;
+import de.fraunhofer.aisec.analysis.wpds.TransitionTable;
+import de.fraunhofer.aisec.analysis.wpds.TypestateWeight;
 import de.fraunhofer.aisec.mark.XtextParser;
 import de.fraunhofer.aisec.mark.markDsl.OrderExpression;
 import de.fraunhofer.aisec.markmodel.fsm.FSM;
@@ -89,6 +91,52 @@ class WpdsTest extends AbstractMarkTest {
 		}
 	}
 
+	@Test
+	void testTypestateWeightSemiring() {
+		Node a = new Node("cm", "a");
+		Node b = new Node("cm", "b");
+		Node c = new Node("cm", "c");
+		NFATransition<Node> ab = new NFATransition<>(a, b, "x");
+		NFATransition<Node> bc = new NFATransition<>(b, c, "y");
+		NFATransition<Node> ca = new NFATransition<>(c, a, "z");
+		TransitionTable table = new TransitionTable();
+
+		TypestateWeight wAb = new TypestateWeight(table, Set.of(ab));
+		TypestateWeight wBc = new TypestateWeight(table, Set.of(bc));
+
+		// extend composes a -[x]-> b and b -[y]-> c to a -[x]-> c
+		TypestateWeight extended = (TypestateWeight) wAb.extendWith(wBc);
+		assertEquals(Set.of(new NFATransition<>(a, c, "x")), extended.value());
+
+		// no composable transitions result in ZERO
+		assertEquals(TypestateWeight.zero(), wBc.extendWith(wAb));
+
+		// ONE is neutral, ZERO is absorbing
+		assertSame(wAb, wAb.extendWith(TypestateWeight.one()));
+		assertSame(wAb, TypestateWeight.one().extendWith(wAb));
+		assertEquals(TypestateWeight.zero(), wAb.extendWith(TypestateWeight.zero()));
+
+		// combine is set union, weights with equal sets are equal
+		TypestateWeight combined = (TypestateWeight) wAb.combineWith(wBc);
+		assertEquals(Set.of(ab, bc), combined.value());
+		TypestateWeight same = new TypestateWeight(table, Set.of(bc, ab));
+		assertEquals(combined, same);
+		assertEquals(combined.hashCode(), same.hashCode());
+		assertNotEquals(combined, new TypestateWeight(table, Set.of(ab, bc, ca)));
+		assertEquals(TypestateWeight.one(), TypestateWeight.one().combineWith(TypestateWeight.one()));
+		assertEquals(TypestateWeight.zero(), TypestateWeight.zero().combineWith(TypestateWeight.zero()));
+		assertNotEquals(TypestateWeight.one(), new TypestateWeight(table, Set.of()));
+
+		// results are interned, repeating an operation returns the same weight
+		assertSame(extended, wAb.extendWith(wBc));
+		assertSame(combined, wAb.combineWith(wBc));
+		assertSame(combined, combined.combineWith(same));
+
+		// each NFA numbers its transitions in its own table
+		assertEquals(Set.of(bc), new TypestateWeight(new TransitionTable(), Set.of(bc)).value());
+		assertNotSame(new NFA().getTransitionTable(), new NFA().getTransitionTable());
+	}
+
 	/**
 	 * Test for issue 88.
 	 *
@@ -112,6 +160,44 @@ class WpdsTest extends AbstractMarkTest {
 		assertEquals(0, findings.stream().filter(Finding::isProblem).count());
 	}
 
+	@Test
+	void testCppInterprocOk1Hybrid() throws Exception {
+		tsMode = TypestateMode.HYBRID;
+		@NonNull
+		Set<Finding> findings = performTest("unittests/orderInterprocOk1.cpp", "unittests/order2.mark");
+
+		// p2 is passed to someFunction, so the NFA result is replaced by WPDS
+		assertEquals(0, findings.stream().filter(Finding::isProblem).count());
+	}
+
+	@Test
+	void testCppInterprocAliasHybrid() throws Exception {
+		tsMode = TypestateMode.HYBRID;
+		@NonNull
+		Set<Finding> findings = performTest("unittests/orderInterprocAlias.cpp", "unittests/order2.mark");
+
+		// only the alias p2 is passed to someFunction, so the NFA result is still replaced by WPDS
+		assertEquals(0, findings.stream().filter(Finding::isProblem).count());
+		assertTrue(ctx.getSaturations() > 0);
+		// released once the rule is evaluated
+		assertTrue(ctx.getSaturatedWpds().isEmpty());
+	}
+
+	@Test
+	void testCppInterprocNOk1Parallel() throws Exception {
+		wpdsThreads = 4;
+		@NonNull
+		Set<Finding> findings = performTest("unittests/orderInterprocNOk1.cpp", "unittests/order2.mark");
+
+		// same result as the sequential construction in testCppInterprocNOk1
+		Set<Integer> problemLines = findings.stream()
+				.filter(Finding::isProblem)
+				.map(f -> f.getRegions().get(0).getStartLine())
+				.collect(Collectors.toSet());
+		assertTrue(problemLines.containsAll(Set.of(28, 30, 32)));
+		assertTrue(ctx.getFunctionSummaries().size() > 0);
+	}
+
 	@Test
 	void testWpdsVector() throws Exception {
 
@@ -157,6 +243,10 @@ class WpdsTest extends AbstractMarkTest {
 		assertFalse(startLineNumbers.get(24));
 		assertTrue(startLineNumbers.containsKey(26)); // finish
 		assertFalse(startLineNumbers.get(26));
+
+		// the WPDS is created once for the order expression and shared by all contexts
+		assertEquals(1, ctx.getSaturations());
+		assertTrue(ctx.getSaturatedWpds().isEmpty());
 	}
 
 	@Test
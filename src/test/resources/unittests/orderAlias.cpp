@@ -0,0 +1,22 @@
+
+// DOES NOT COMPILE
+// DOES NOT MAKE REAL SENSE
+
+// EXAMPLE FOR CORRECT TYPESTATE WITH CALLS ON TWO ALIASES OF THE SAME OBJECT.
+
+// allowed:
+// cm.create(), cm.init(), (cm.start(), cm.process()*, cm.finish())+, cm.reset()?
+
+
+  void ok() {
+    Botan2 p2 = new Botan2(1);
+
+    // Aliasing: Operations on p3 are now equal to p2
+    Botan2 p3 = p2;
+
+    p2.create();
+    p3.init(test);
+    p2.start();
+    p3.process();
+    p2.finish();
+  }
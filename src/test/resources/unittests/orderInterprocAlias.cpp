@@ -0,0 +1,33 @@
+
+// DOES NOT COMPILE
+// DOES NOT MAKE REAL SENSE
+
+// EXAMPLE FOR INTERPROCEDURAL TYPESTATE WHERE ONLY AN ALIAS ESCAPES.
+
+// allowed:
+// cm.create(), cm.init(), (cm.start(), cm.process()*, cm.finish())+, cm.reset()?
+
+
+  void ok1() {
+    // Constructor will trigger MARK rule
+    Botan2 p2 = new Botan2(1);
+
+    // Aliasing: Operations on p3 are now equal to p2
+    Botan2 p3 = p2;
+
+    p3.create();
+
+    p3.init(test);
+
+    // Only the alias p2 is passed to the other function
+    someFunction(p2);
+    p3.process();
+
+    p3.finish();
+  }
+
+  Botan2 someFunction(Botan2 x) {
+    // The missing start() is here
+    x.start();
+    return x;
+  }
@@ -0,0 +1,43 @@
+
+// DOES NOT COMPILE
+// DOES NOT MAKE REAL SENSE
+
+// EXAMPLE FOR INTERPROCEDURAL TYPESTATE WITH A RECURSIVE FUNCTION.
+
+// allowed:
+// cm.create(), cm.init(), (cm.start(), cm.process()*, cm.finish())+, cm.reset()?
+
+
+  void ok2() {
+    Botan2 p2 = new Botan2(1);
+
+    p2.create();
+
+    p2.init(test);
+
+    // The summary of startRecursive is truncated at its recursive call
+    startRecursive(p2, 3);
+    p2.process();
+
+    p2.finish();
+  }
+
+  void nok3() {
+    Botan2 p3 = new Botan2(1);
+
+    p3.create();
+
+    p3.init(test);
+
+    startRecursive(p3, 3);
+    // not allowed, whether or not startRecursive started p3
+    p3.create();
+  }
+
+  void startRecursive(Botan2 x, int n) {
+    if (n > 0) {
+      startRecursive(x, n - 1);
+    } else {
+      x.start();
+    }
+  }